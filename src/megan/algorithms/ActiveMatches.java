@@ -18,6 +18,7 @@
  */
 package megan.algorithms;
 
+import megan.data.ClassificationSlots;
 import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
 import megan.viewer.TaxonomyData;
@@ -42,13 +43,27 @@ public class ActiveMatches {
      * @throws IOException
      */
     public static void compute(double minScore, double topPercent, double maxExpected, float minPercentIdentity, IReadBlock readBlock, String classificationName, BitSet activeMatchesForClassification) {
+        compute(minScore, topPercent, maxExpected, minPercentIdentity, readBlock, classificationName == null ? -1 : ClassificationSlots.getSlot(classificationName), activeMatchesForClassification);
+    }
+
+    /**
+     * get the set of matches active for the given read
+     *
+     * @param minScore
+     * @param topPercent
+     * @param maxExpected
+     * @param readBlock
+     * @param classificationSlot             slot of classification whose ids must be set, see ClassificationSlots, or -1
+     * @param activeMatchesForClassification
+     */
+    public static void compute(double minScore, double topPercent, double maxExpected, float minPercentIdentity, IReadBlock readBlock, int classificationSlot, BitSet activeMatchesForClassification) {
         activeMatchesForClassification.clear();
         // the set of matches that we will consider:
         for (int i = 0; i < readBlock.getNumberOfAvailableMatchBlocks(); i++) {
             final IMatchBlock matchBlock = readBlock.getMatchBlock(i);
             if (!matchBlock.isIgnore() && !TaxonomyData.isTaxonDisabled(matchBlock.getTaxonId()) && matchBlock.getBitScore() >= minScore && matchBlock.getExpected() <= maxExpected &&
                     (minPercentIdentity == 0 || matchBlock.getPercentIdentity() >= minPercentIdentity)) {
-                if (classificationName == null || matchBlock.getId(classificationName) > 0)
+                if (classificationSlot == -1 || matchBlock.getId(classificationSlot) > 0)
                     activeMatchesForClassification.set(i);
             }
         }
@@ -22,6 +22,7 @@ package megan.algorithms;
 import jloda.util.Basic;
 import jloda.util.FileInputIterator;
 import megan.classification.IdMapper;
+import megan.data.ClassificationSlots;
 import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
 
@@ -36,7 +37,7 @@ import java.util.Map;
  * Created by huson on 1/22/16.
  */
 public class AssignmentUsingBestHit implements IAssignmentAlgorithm {
-    private final String cName;
+    private final int cSlot;
 
     private final Map<String, Integer> externalName2IdMap;
 
@@ -46,7 +47,7 @@ public class AssignmentUsingBestHit implements IAssignmentAlgorithm {
      * @param cName
      */
     public AssignmentUsingBestHit(String cName, String fileName) {
-        this.cName = cName;
+        this.cSlot = ClassificationSlots.getSlot(cName);
 
         externalName2IdMap = loadAssignmentFiles(cName, fileName);
 
@@ -76,7 +77,7 @@ public class AssignmentUsingBestHit implements IAssignmentAlgorithm {
 
         for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
             IMatchBlock match = readBlock.getMatchBlock(i);
-            int id = match.getId(cName);
+            int id = match.getId(cSlot);
             if (id > 0)
                 return id;
         }
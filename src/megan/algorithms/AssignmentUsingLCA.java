@@ -21,9 +21,11 @@ package megan.algorithms;
 import megan.classification.ClassificationManager;
 import megan.classification.IdMapper;
 import megan.classification.data.ClassificationFullTree;
+import megan.data.ClassificationSlots;
 import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
 
+import java.util.Arrays;
 import java.util.BitSet;
 
 /**
@@ -32,17 +34,23 @@ import java.util.BitSet;
  */
 public class AssignmentUsingLCA implements IAssignmentAlgorithm {
     private String[] addresses;
+    private int[] indices;
 
-    private final String cName;
+    private final int cSlot;
     private final ClassificationFullTree fullTree;
+    private final LCAIndex lcaIndex;
 
     /**
      * constructor
      */
     public AssignmentUsingLCA(String cName) {
-        this.cName = cName;
+        this.cSlot = ClassificationSlots.getSlot(cName);
         fullTree = ClassificationManager.get(cName, true).getFullTree();
-        addresses = new String[1000];
+        lcaIndex = fullTree.getLCAIndex();
+        if (lcaIndex != null)
+            indices = new int[1000];
+        else
+            addresses = new String[1000];
     }
 
     /**
@@ -58,6 +66,9 @@ public class AssignmentUsingLCA implements IAssignmentAlgorithm {
         if (activeMatches.cardinality() == 0)
             return IdMapper.UNASSIGNED_ID;
 
+        if (lcaIndex != null)
+            return computeIdUsingIndex(activeMatches, readBlock);
+
         // compute addresses of all hit taxa:
         if (activeMatches.cardinality() > 0) {
             boolean hasDisabledMatches = false;
@@ -66,7 +77,7 @@ public class AssignmentUsingLCA implements IAssignmentAlgorithm {
             int numberOfAddresses = 0;
             for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
                 final IMatchBlock matchBlock = readBlock.getMatchBlock(i);
-                final int id = matchBlock.getId(cName);
+                final int id = matchBlock.getId(cSlot);
                 if (id > 0) {
                     String address = fullTree.getAddress(id);
                     if (address != null) {
@@ -85,7 +96,7 @@ public class AssignmentUsingLCA implements IAssignmentAlgorithm {
             if (numberOfAddresses == 0 && hasDisabledMatches) {
                 for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
                     final IMatchBlock matchBlock = readBlock.getMatchBlock(i);
-                    final int id = matchBlock.getId(cName);
+                    final int id = matchBlock.getId(cSlot);
                     if (id > 0) {
                         String address = fullTree.getAddress(id);
                         if (address != null) {
@@ -112,6 +123,55 @@ public class AssignmentUsingLCA implements IAssignmentAlgorithm {
         return IdMapper.UNASSIGNED_ID;
     }
 
+    /**
+     * determine the id of a read using the integer LCA index
+     *
+     * @param activeMatches
+     * @param readBlock
+     * @return id
+     */
+    private int computeIdUsingIndex(BitSet activeMatches, IReadBlock readBlock) {
+        boolean hasDisabledMatches = false;
+
+        // collect the node indices of all non-disabled classes:
+        int numberOfIndices = 0;
+        for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
+            final int id = readBlock.getMatchBlock(i).getId(cSlot);
+            if (id > 0) {
+                final int index = lcaIndex.getIndex(id);
+                if (index != -1) {
+                    if (numberOfIndices >= indices.length)
+                        indices = Arrays.copyOf(indices, 2 * indices.length);
+                    indices[numberOfIndices++] = index;
+                }
+            } else
+                hasDisabledMatches = true;
+        }
+
+        // if there only matches to disabled classes, then use them:
+        if (numberOfIndices == 0 && hasDisabledMatches) {
+            for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
+                final int id = readBlock.getMatchBlock(i).getId(cSlot);
+                if (id > 0) {
+                    final int index = lcaIndex.getIndex(id);
+                    if (index != -1) {
+                        if (numberOfIndices >= indices.length)
+                            indices = Arrays.copyOf(indices, 2 * indices.length);
+                        indices[numberOfIndices++] = index;
+                    }
+                }
+            }
+        }
+
+        if (numberOfIndices > 0) {
+            final int id = lcaIndex.getId(lcaIndex.getCommonAncestor(indices, numberOfIndices, true));
+            if (id > 0)
+                return id;
+        }
+        // although we had some hits, couldn't make an assignment
+        return IdMapper.UNASSIGNED_ID;
+    }
+
     /**
      * get the LCA of two ids, not ignoring the fact that one may be the lca of the other
      *
@@ -125,8 +185,9 @@ public class AssignmentUsingLCA implements IAssignmentAlgorithm {
             return id2;
         else if (id2 == 0)
             return id1;
+        else if (lcaIndex != null)
+            return lcaIndex.getLCAOfIds(id1, id2, false);
         else
             return fullTree.getAddress2Id(LCAAddressing.getCommonPrefix(new String[]{fullTree.getAddress(id1), fullTree.getAddress(id2)}, 2, false));
     }
 }
-
@@ -26,6 +26,7 @@ import megan.classification.data.Name2IdMap;
 import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
 
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
@@ -38,6 +39,7 @@ import java.util.Map;
  */
 public class AssignmentUsingLCAForTaxonomy implements IAssignmentAlgorithm {
     protected String[] addresses;
+    protected int[] indices;
     private final BitSet activeSet;
     private final Map<Character, Integer> ch2weight;
 
@@ -47,6 +49,7 @@ public class AssignmentUsingLCAForTaxonomy implements IAssignmentAlgorithm {
     protected final ClassificationFullTree fullTree;
     protected final IdMapper idMapper;
     protected final Name2IdMap name2idMap;
+    protected final LCAIndex lcaIndex;
 
     protected final boolean ignoreAncestralTaxa;
 
@@ -73,7 +76,9 @@ public class AssignmentUsingLCAForTaxonomy implements IAssignmentAlgorithm {
         fullTree = ClassificationManager.get(cName, false).getFullTree();
         idMapper = ClassificationManager.get(cName, true).getIdMapper();
         name2idMap = ClassificationManager.get(cName, false).getIdMapper().getName2IdMap();
+        lcaIndex = fullTree.getLCAIndex();
         addresses = new String[1000];
+        indices = new int[1000];
         activeSet = new BitSet();
         ch2weight = new HashMap<>(Character.MAX_VALUE, 1f);
 
@@ -96,6 +101,9 @@ public class AssignmentUsingLCAForTaxonomy implements IAssignmentAlgorithm {
         if (activeMatches.cardinality() == 0)
             return IdMapper.UNASSIGNED_ID;
 
+        if (lcaIndex != null)
+            return computeIdUsingIndex(activeMatches, readBlock);
+
         // compute addresses of all hit taxa:
         if (activeMatches.cardinality() > 0) {
 
@@ -161,6 +169,65 @@ public class AssignmentUsingLCAForTaxonomy implements IAssignmentAlgorithm {
         return IdMapper.UNASSIGNED_ID;
     }
 
+    /**
+     * determine the taxon id of a read from its matches, using the integer LCA index
+     *
+     * @param activeMatches
+     * @param readBlock
+     * @return taxon id
+     */
+    private int computeIdUsingIndex(BitSet activeMatches, IReadBlock readBlock) {
+        boolean hasDisabledMatches = false;
+
+        // collect the node indices of all non-disabled taxa:
+        int numberOfIndices = 0;
+        for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
+            final int id = readBlock.getMatchBlock(i).getTaxonId();
+            if (id > 0) {
+                if (!idMapper.isDisabled(id)) {
+                    final int index = lcaIndex.getIndex(id);
+                    if (index != -1) {
+                        if (numberOfIndices >= indices.length)
+                            indices = Arrays.copyOf(indices, 2 * indices.length);
+                        indices[numberOfIndices++] = index;
+                    }
+                } else
+                    hasDisabledMatches = true;
+            }
+        }
+
+        // if there only matches to disabled taxa, then use them:
+        if (numberOfIndices == 0 && hasDisabledMatches) {
+            for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
+                final int id = readBlock.getMatchBlock(i).getTaxonId();
+                if (id > 0) {
+                    final int index = lcaIndex.getIndex(id);
+                    if (index != -1) {
+                        if (numberOfIndices >= indices.length)
+                            indices = Arrays.copyOf(indices, 2 * indices.length);
+                        indices[numberOfIndices++] = index;
+                    }
+                }
+            }
+        }
+
+        if (numberOfIndices > 0) {
+            final int index;
+            if (proportionToCover == 1) {
+                index = lcaIndex.getCommonAncestor(indices, numberOfIndices, ignoreAncestralTaxa);
+            } else {
+                final int weightToCover = (int) Math.min(numberOfIndices, Math.ceil(proportionToCover * numberOfIndices));
+                index = getNodeCoveringWeight(weightToCover, indices, numberOfIndices);
+            }
+            final int id = lcaIndex.getId(index);
+            if (id > 0)
+                return id;
+        }
+
+        // although we had some hits, couldn't make an assignment
+        return IdMapper.UNASSIGNED_ID;
+    }
+
     /**
      * returns the LCA of a set of taxon ids
      *
@@ -173,6 +240,22 @@ public class AssignmentUsingLCAForTaxonomy implements IAssignmentAlgorithm {
         else if (taxonIds.size() == 1)
             return taxonIds.iterator().next();
 
+        if (lcaIndex != null) {
+            if (taxonIds.size() > indices.length)  // grow, if necessary
+                indices = new int[taxonIds.size()];
+            int numberOfIndices = 0;
+            for (Integer id : taxonIds) {
+                if (!idMapper.isDisabled(id)) {
+                    final int index = lcaIndex.getIndex(id);
+                    if (index != -1)
+                        indices[numberOfIndices++] = index;
+                }
+            }
+            if (numberOfIndices > 0)
+                return lcaIndex.getId(lcaIndex.getCommonAncestor(indices, numberOfIndices, ignoreAncestralTaxa));
+            return IdMapper.UNASSIGNED_ID;
+        }
+
         if (taxonIds.size() > addresses.length) {  // grow, if necessary
             addresses = new String[taxonIds.size()];
         }
@@ -210,6 +293,8 @@ public class AssignmentUsingLCAForTaxonomy implements IAssignmentAlgorithm {
             return id2;
         else if (id2 == 0)
             return id1;
+        else if (lcaIndex != null)
+            return lcaIndex.getLCAOfIds(id1, id2, ignoreAncestralTaxa);
         else
             return fullTree.getAddress2Id(LCAAddressing.getCommonPrefix(new String[]{fullTree.getAddress(id1), fullTree.getAddress(id2)}, 2, ignoreAncestralTaxa));
     }
@@ -348,5 +433,51 @@ public class AssignmentUsingLCAForTaxonomy implements IAssignmentAlgorithm {
         } else
             return "";
     }
-}
 
+    /**
+     * given a set of node indices, returns the lowest node that is on or above the given weight of nodes. Same as getPrefixCoveringWeight
+     *
+     * @param weightToCover
+     * @param indices       will be sorted
+     * @param length
+     * @return node index
+     */
+    private int getNodeCoveringWeight(int weightToCover, int[] indices, int length) {
+        // in pre-order, the nodes below each child of the current node form a consecutive run
+        Arrays.sort(indices, 0, length);
+
+        int current = 0;
+        int start = 0;
+        int end = length;
+        while (true) {
+            while (start < end && indices[start] == current)
+                start++; // run out of symbols
+            if (start == end)
+                return current;
+
+            // determine the heaviest child, lowest child wins ties
+            final int childDepth = lcaIndex.getDepth(current) + 1;
+            int bestChild = -1;
+            int bestStart = 0;
+            int bestCount = 0;
+            for (int i = start; i < end; ) {
+                final int child = lcaIndex.getAncestorAtDepth(indices[i], childDepth);
+                final int childEnd = lcaIndex.getSubtreeEnd(child);
+                int j = i + 1;
+                while (j < end && indices[j] < childEnd)
+                    j++;
+                if (j - i > bestCount) {
+                    bestChild = child;
+                    bestStart = i;
+                    bestCount = j - i;
+                }
+                i = j;
+            }
+            if (bestCount < weightToCover)
+                return current;
+            current = bestChild;
+            start = bestStart;
+            end = bestStart + bestCount;
+        }
+    }
+}
@@ -20,6 +20,7 @@
 package megan.algorithms;
 
 import megan.classification.IdMapper;
+import megan.data.ClassificationSlots;
 import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
 import megan.util.interval.Interval;
@@ -39,7 +40,7 @@ public class AssignmentUsingMultiGeneBestHit implements IMultiAssignmentAlgorith
     private final IntervalTree<IMatchBlock> reverseMatches;
     private final Set<Integer> additionalClassIds = new HashSet<>();
 
-    private final String cName;
+    private final int cSlot;
 
     private int minOverlap = 18;
 
@@ -49,7 +50,7 @@ public class AssignmentUsingMultiGeneBestHit implements IMultiAssignmentAlgorith
      * @param cName
      */
     public AssignmentUsingMultiGeneBestHit(String cName) {
-        this.cName = cName;
+        this.cSlot = ClassificationSlots.getSlot(cName);
         allMatches = new IntervalTree<>();
         reverseMatches = new IntervalTree<>();
     }
@@ -73,7 +74,7 @@ public class AssignmentUsingMultiGeneBestHit implements IMultiAssignmentAlgorith
         int result = IdMapper.UNASSIGNED_ID;
         final IntervalTree<IMatchBlock> acceptedMatches = computeAcceptedMatches(activeMatches, readBlock);
         for (Interval<IMatchBlock> interval : acceptedMatches) {
-            final int id = interval.getData().getId(cName);
+            final int id = interval.getData().getId(cSlot);
             if (result == IdMapper.UNASSIGNED_ID && id > 0)
                 result = id;
             else
@@ -131,7 +132,7 @@ public class AssignmentUsingMultiGeneBestHit implements IMultiAssignmentAlgorith
         reverseMatches.clear();
         for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
             final IMatchBlock matchBlock = readBlock.getMatchBlock(i);
-            if (matchBlock.getId(cName) > 0) {
+            if (matchBlock.getId(cSlot) > 0) {
                 if (matchBlock.getAlignedQueryStart() <= matchBlock.getAlignedQueryEnd()) {
                     allMatches.add(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd(), matchBlock);
                 } else
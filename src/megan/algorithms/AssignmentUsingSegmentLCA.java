@@ -284,6 +284,8 @@ public class AssignmentUsingSegmentLCA implements IAssignmentAlgorithm {
             return id2;
         else if (id2 == 0)
             return id1;
+        else if (fullTree.getLCAIndex() != null)
+            return fullTree.getLCAIndex().getLCAOfIds(id1, id2, false);
         else
             return fullTree.getAddress2Id(LCAAddressing.getCommonPrefix(new String[]{fullTree.getAddress(id1), fullTree.getAddress(id2)}, 2, false));
     }
@@ -20,7 +20,6 @@
 package megan.algorithms;
 
 
-import jloda.util.Basic;
 import jloda.util.ProgramProperties;
 import megan.classification.Classification;
 import megan.classification.ClassificationManager;
@@ -28,6 +27,7 @@ import megan.classification.IdMapper;
 import megan.classification.data.ClassificationFullTree;
 import megan.classification.data.Name2IdMap;
 import megan.daa.connector.MatchBlockDAA;
+import megan.data.ClassificationSlots;
 import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
 
@@ -40,14 +40,15 @@ import java.util.*;
  * Daniel Huson, 3.2016
  */
 public class AssignmentUsingWeightedLCA implements IAssignmentAlgorithm {
-    private final String cName;
+    private final int cSlot;
     private final boolean cNameIsTaxonomy;
     private final ClassificationFullTree fullTree;
+    private final LCAIndex lcaIndex;
     private final Name2IdMap name2IdMap;
     private final IdMapper idMapper;
 
-    private final int[] refId2weight;
-    private final Map<String, Integer> ref2weight; // map reference sequence to number of reads associated with it
+    private final int[] refId2weight; // map reference id to number of reads associated with it
+    private final ReferenceIdDictionary refDictionary; // map reference accession to reference id, if match blocks don't provide reference ids
     private final Taxon2SpeciesMapping taxon2SpeciesMapping;
 
     private final boolean useIdentityFilter;
@@ -57,6 +58,7 @@ public class AssignmentUsingWeightedLCA implements IAssignmentAlgorithm {
     private final Map<Character, Integer> ch2weight = new HashMap<>(Character.MAX_VALUE, 1f);
 
     private WeightedAddress[] addressingArray = new WeightedAddress[0];
+    private long[] indexAndWeightArray = new long[1000]; // node index in upper, weight in lower 32 bits
 
     private boolean ignoreAncestors = true; // alignments to ancestors are considered ok
 
@@ -65,18 +67,19 @@ public class AssignmentUsingWeightedLCA implements IAssignmentAlgorithm {
      *
      * @param cName
      * @param refId2Weight
-     * @param ref2weight
+     * @param refDictionary
      * @param percentToCover
      */
-    public AssignmentUsingWeightedLCA(final String cName, final int[] refId2Weight, final Map<String, Integer> ref2weight, final Taxon2SpeciesMapping taxon2SpeciesMapping, final float percentToCover, final boolean useIdentityFilter) {
-        this.cName = cName;
+    public AssignmentUsingWeightedLCA(final String cName, final int[] refId2Weight, final ReferenceIdDictionary refDictionary, final Taxon2SpeciesMapping taxon2SpeciesMapping, final float percentToCover, final boolean useIdentityFilter) {
+        this.cSlot = ClassificationSlots.getSlot(cName);
         this.useIdentityFilter = useIdentityFilter;
         fullTree = ClassificationManager.get(cName, true).getFullTree();
+        lcaIndex = fullTree.getLCAIndex();
         idMapper = ClassificationManager.get(cName, true).getIdMapper();
         name2IdMap = ClassificationManager.get(cName, true).getName2IdMap();
         cNameIsTaxonomy = (cName.equals(Classification.Taxonomy));
         this.refId2weight = refId2Weight;
-        this.ref2weight = ref2weight;
+        this.refDictionary = refDictionary;
         this.taxon2SpeciesMapping = taxon2SpeciesMapping;
 
         this.percentToCover = (percentToCover >= 99.9999 ? 100 : percentToCover);
@@ -97,6 +100,9 @@ public class AssignmentUsingWeightedLCA implements IAssignmentAlgorithm {
         if (activeMatches.cardinality() == 0)
             return IdMapper.UNASSIGNED_ID;
 
+        if (lcaIndex != null)
+            return computeIdUsingIndex(activeMatches, readBlock);
+
         // compute addresses of all hit taxa:
         if (activeMatches.cardinality() > 0) {
             int arrayLength = 0;
@@ -106,7 +112,7 @@ public class AssignmentUsingWeightedLCA implements IAssignmentAlgorithm {
             // collect the addresses of all non-disabled taxa:
             for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
                 final IMatchBlock matchBlock = readBlock.getMatchBlock(i);
-                int taxId = (cNameIsTaxonomy ? matchBlock.getTaxonId() : matchBlock.getId(cName));
+                int taxId = (cNameIsTaxonomy ? matchBlock.getTaxonId() : matchBlock.getId(cSlot));
 
                 if (taxId > 0) {
                     if (!allowBelowSpeciesAssignment) {
@@ -119,22 +125,7 @@ public class AssignmentUsingWeightedLCA implements IAssignmentAlgorithm {
                             if (arrayLength >= addressingArray.length)
                                 addressingArray = resizeArray(addressingArray, 2 * addressingArray.length);
 
-                            if (ref2weight != null) {
-                                final String ref = matchBlock.getTextFirstWord();
-                                Integer weight = ref != null ? ref2weight.get(ref) : null;
-                                if (weight == null)
-                                    weight = 1;
-                                addressingArray[arrayLength++].set(address, weight);
-                            } else {
-                                final int refId = ((MatchBlockDAA) matchBlock).getSubjectId();
-                                int weight = Math.max(1, refId2weight[refId]);
-                                try {
-                                    addressingArray[arrayLength++].set(address, weight);
-                                } catch (NullPointerException ex) {
-                                    Basic.caught(ex);
-                                    throw ex;
-                                }
-                            }
+                            addressingArray[arrayLength++].set(address, getWeight(matchBlock));
                         }
                     } else
                         hasDisabledMatches = true;
@@ -145,7 +136,7 @@ public class AssignmentUsingWeightedLCA implements IAssignmentAlgorithm {
             if (arrayLength == 0 && hasDisabledMatches) {
                 for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
                     final IMatchBlock matchBlock = readBlock.getMatchBlock(i);
-                    int taxId = (cNameIsTaxonomy ? matchBlock.getTaxonId() : matchBlock.getId(cName));
+                    int taxId = (cNameIsTaxonomy ? matchBlock.getTaxonId() : matchBlock.getId(cSlot));
                     if (taxId > 0) {
                         if (!allowBelowSpeciesAssignment) {
                             taxId = taxon2SpeciesMapping.getSpeciesOrReturnTaxonId(taxId);
@@ -157,18 +148,7 @@ public class AssignmentUsingWeightedLCA implements IAssignmentAlgorithm {
                                 if (arrayLength >= addressingArray.length)
                                     addressingArray = resizeArray(addressingArray, 2 * addressingArray.length);
 
-                                if (ref2weight != null) {
-                                    final String ref = matchBlock.getTextFirstWord();
-                                    Integer weight = ref2weight.get(ref);
-                                    if (weight == null)
-                                        weight = 1;
-                                    addressingArray[arrayLength++].set(address, weight);
-
-                                } else {
-                                    final int refId = ((MatchBlockDAA) matchBlock).getSubjectId();
-                                    int weight = Math.max(1, refId2weight[refId]);
-                                    addressingArray[arrayLength++].set(address, weight);
-                                }
+                                addressingArray[arrayLength++].set(address, getWeight(matchBlock));
                             }
                         }
                     }
@@ -195,6 +175,91 @@ public class AssignmentUsingWeightedLCA implements IAssignmentAlgorithm {
         return IdMapper.UNASSIGNED_ID;
     }
 
+    /**
+     * determine the taxon id of a read from its matches, using the integer LCA index
+     *
+     * @param activeMatches
+     * @param readBlock
+     * @return taxon id
+     */
+    private int computeIdUsingIndex(final BitSet activeMatches, final IReadBlock readBlock) {
+        int arrayLength = 0;
+
+        boolean hasDisabledMatches = false;
+
+        // collect the node indices and weights of all non-disabled taxa:
+        for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
+            final IMatchBlock matchBlock = readBlock.getMatchBlock(i);
+            int taxId = (cNameIsTaxonomy ? matchBlock.getTaxonId() : matchBlock.getId(cSlot));
+
+            if (taxId > 0) {
+                if (!allowBelowSpeciesAssignment) {
+                    taxId = taxon2SpeciesMapping.getSpeciesOrReturnTaxonId(taxId);
+                }
+
+                if (!idMapper.isDisabled(taxId)) {
+                    final int index = lcaIndex.getIndex(taxId);
+                    if (index != -1) {
+                        if (arrayLength >= indexAndWeightArray.length)
+                            indexAndWeightArray = Arrays.copyOf(indexAndWeightArray, 2 * indexAndWeightArray.length);
+                        indexAndWeightArray[arrayLength++] = ((long) index << 32) | getWeight(matchBlock);
+                    }
+                } else
+                    hasDisabledMatches = true;
+            }
+        }
+
+        // if there only matches to disabled taxa, then use them:
+        if (arrayLength == 0 && hasDisabledMatches) {
+            for (int i = activeMatches.nextSetBit(0); i != -1; i = activeMatches.nextSetBit(i + 1)) {
+                final IMatchBlock matchBlock = readBlock.getMatchBlock(i);
+                int taxId = (cNameIsTaxonomy ? matchBlock.getTaxonId() : matchBlock.getId(cSlot));
+                if (taxId > 0) {
+                    if (!allowBelowSpeciesAssignment) {
+                        taxId = taxon2SpeciesMapping.getSpeciesOrReturnTaxonId(taxId);
+                    }
+
+                    if (!idMapper.isDisabled(taxId)) {
+                        final int index = lcaIndex.getIndex(taxId);
+                        if (index != -1) {
+                            if (arrayLength >= indexAndWeightArray.length)
+                                indexAndWeightArray = Arrays.copyOf(indexAndWeightArray, 2 * indexAndWeightArray.length);
+                            indexAndWeightArray[arrayLength++] = ((long) index << 32) | getWeight(matchBlock);
+                        }
+                    }
+                }
+            }
+        }
+
+        // compute LCA using node indices:
+        if (arrayLength > 0) {
+            final int id = lcaIndex.getId(computeWeightedLCA(percentToCover, indexAndWeightArray, arrayLength));
+            if (id > 0) {
+                if (useIdentityFilter) {
+                    return AssignmentUsingLCAForTaxonomy.adjustByPercentIdentity(id, activeMatches, readBlock, fullTree, name2IdMap);
+                }
+                if (allowBelowSpeciesAssignment)
+                    return id;
+                else
+                    return taxon2SpeciesMapping.getSpeciesOrReturnTaxonId(id);
+            }
+        }
+
+        // although we had some hits, couldn't make an assignment
+        return IdMapper.UNASSIGNED_ID;
+    }
+
+    /**
+     * gets the weight of the reference sequence of a match
+     *
+     * @param matchBlock
+     * @return weight, at least 1
+     */
+    private int getWeight(final IMatchBlock matchBlock) {
+        final int refId = (refDictionary != null ? refDictionary.get(matchBlock.getRefNameFirstWord()) : ((MatchBlockDAA) matchBlock).getSubjectId());
+        return (refId >= 0 && refId < refId2weight.length ? Math.max(1, refId2weight[refId]) : 1);
+    }
+
     /**
      * get the LCA of two ids
      *
@@ -208,6 +273,8 @@ public class AssignmentUsingWeightedLCA implements IAssignmentAlgorithm {
             return id2;
         else if (id2 == 0)
             return id1;
+        else if (lcaIndex != null)
+            return lcaIndex.getLCAOfIds(id1, id2, false);
         else
             return fullTree.getAddress2Id(LCAAddressing.getCommonPrefix(new String[]{fullTree.getAddress(id1), fullTree.getAddress(id2)}, 2, false));
     }
@@ -325,6 +392,82 @@ public class AssignmentUsingWeightedLCA implements IAssignmentAlgorithm {
         }
     }
 
+    /**
+     * compute the weighted LCA on node indices. Gives the same result as computing the weighted LCA on addresses,
+     * because sorting by address is the same as sorting by pre-order index
+     *
+     * @param percentToCover
+     * @param array          node index in upper and weight in lower 32 bits of each entry, will be sorted
+     * @param origLength
+     * @return node index of LCA
+     */
+    private int computeWeightedLCA(final float percentToCover, final long[] array, final int origLength) {
+        // sort by node index, identical nodes are ordered by weight:
+        Arrays.sort(array, 0, origLength);
+
+        // merge identical, keeping the last and thus maximum weight:
+        int length = 0;
+        for (int i = 0; i < origLength; i++) {
+            if (length > 0 && (int) (array[length - 1] >>> 32) == (int) (array[i] >>> 32))
+                array[length - 1] = array[i];
+            else
+                array[length++] = array[i];
+        }
+
+        int totalWeight = 0;
+        for (int i = 0; i < length; i++)
+            totalWeight += (int) array[i];
+        int weightToCover = ((int) Math.ceil((totalWeight / 100.0) * percentToCover));
+
+        int current = 0; // root
+        int start = 0;
+        int end = length;
+        while (true) {
+            // remove the current node, as it has run out of symbols:
+            if ((int) (array[start] >>> 32) == current) {
+                if (end - start == 1)
+                    return current;
+                if (ignoreAncestors) {
+                    // this node lies on route to best node, so it is covered and its weight can  be removed from totalWeight
+                    totalWeight -= (int) array[start];
+                    weightToCover = ((int) Math.ceil((totalWeight / 100.0) * percentToCover));
+                }
+                start++;
+            }
+
+            // determine the heaviest child, the nodes below each child form a consecutive run, lowest child wins ties
+            final int childDepth = lcaIndex.getDepth(current) + 1;
+            int bestChild = -1;
+            int bestStart = 0;
+            int bestEnd = 0;
+            int bestCount = 0;
+            for (int i = start; i < end; ) {
+                final int child = lcaIndex.getAncestorAtDepth((int) (array[i] >>> 32), childDepth);
+                final int childEnd = lcaIndex.getSubtreeEnd(child);
+                int weight = 0;
+                int j = i;
+                while (j < end && (int) (array[j] >>> 32) < childEnd) {
+                    weight += (int) array[j];
+                    j++;
+                }
+                if (weight > bestCount) {
+                    bestChild = child;
+                    bestStart = i;
+                    bestEnd = j;
+                    bestCount = weight;
+                }
+                i = j;
+            }
+
+            if (bestChild == -1 || bestCount < weightToCover) // best count no longer good enough, return current node
+                return current;
+
+            current = bestChild;
+            start = bestStart;
+            end = bestEnd;
+        }
+    }
+
     /**
      * merge identical entries, using max weight for identical taxa. After running this, still have start=0
      *
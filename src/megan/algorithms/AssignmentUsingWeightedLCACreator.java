@@ -36,15 +36,17 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Sets up the weighted-LCA algorithm
  * Daniel Huson, 2.2016
  */
 public class AssignmentUsingWeightedLCACreator implements IAssignmentAlgorithmCreator {
-    private int[] refId2weight;
-    private Map<String, Integer> ref2weight; // map reference sequence to number of reads associated with it
-    private final Object syncRef = new Object();
+    private static final long MAX_THREAD_LOCAL_WEIGHTS = 100000000L; // max total size of thread-local weight arrays, use shared atomic array above this
+
+    private int[] refId2weight; // map reference id to number of reads associated with it
+    private ReferenceIdDictionary refDictionary; // map reference accession to reference id, if connector does not provide reference ids
 
     private final boolean useIdentityFilter;
     private final float percentToCover;
@@ -75,13 +77,23 @@ public class AssignmentUsingWeightedLCACreator implements IAssignmentAlgorithmCr
      */
     private void computeWeights(final Document doc) throws IOException, CanceledException {
         final IConnector connector = doc.getConnector();
+        final int numberOfReferences;
         if (connector instanceof DAAConnector) {
-            DAAConnector daaConnector = (DAAConnector) connector;
-            refId2weight = new int[(int) daaConnector.getDAAHeader().getDbSeqsUsed()];
-        } else
-            ref2weight = new HashMap<>(10000000);
+            numberOfReferences = (int) ((DAAConnector) connector).getDAAHeader().getDbSeqsUsed();
+        } else {
+            numberOfReferences = 0; // grows as needed
+            refDictionary = new ReferenceIdDictionary();
+        }
 
         final int numberOfThreads = Math.max(1, Math.min(ProgramProperties.get(MeganProperties.NUMBER_OF_THREADS, MeganProperties.DEFAULT_NUMBER_OF_THREADS), Runtime.getRuntime().availableProcessors() - 1));
+
+        // each thread accumulates weights in its own array, these are summed at the end. For very many references, use one array of atomic counters
+        final AtomicIntegerArray sharedRefId2Weight = ((long) numberOfThreads * numberOfReferences > MAX_THREAD_LOCAL_WEIGHTS ? new AtomicIntegerArray(numberOfReferences) : null);
+        final int[][] threadRefId2Weight = new int[numberOfThreads][];
+        if (sharedRefId2Weight == null) {
+            for (int t = 0; t < numberOfThreads; t++)
+                threadRefId2Weight[t] = new int[Math.max(1024, numberOfReferences)];
+        }
         final ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
         final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
 
@@ -137,19 +149,18 @@ public class AssignmentUsingWeightedLCACreator implements IAssignmentAlgorithmCr
                                     if (id > 0) {
                                         id = taxon2SpeciesMapping.getSpecies(id);
                                         if (id == speciesId) {
-                                            if (ref2weight != null) {
-                                                final String ref = matchBlock.getTextFirstWord();
-                                                synchronized (syncRef) {
-                                                    final Integer count = Basic.replaceNull(ref2weight.get(ref), 0);
-                                                    ref2weight.put(ref, count + Math.max(1, readBlock.getReadWeight()));
-                                                }
-                                            } else {
-                                                final int refId = ((MatchBlockDAA) matchBlock).getSubjectId();
-                                                synchronized (syncRef) {
-                                                    refId2weight[refId] += Math.max(1, readBlock.getReadWeight());
+                                            final int weight = Math.max(1, readBlock.getReadWeight());
+                                            final int refId = (refDictionary != null ? refDictionary.getOrAdd(matchBlock.getRefNameFirstWord()) : ((MatchBlockDAA) matchBlock).getSubjectId());
+                                            if (refId >= 0) {
+                                                if (sharedRefId2Weight != null)
+                                                    sharedRefId2Weight.addAndGet(refId, weight);
+                                                else {
+                                                    if (refId >= threadRefId2Weight[threadNumber].length)
+                                                        threadRefId2Weight[threadNumber] = Arrays.copyOf(threadRefId2Weight[threadNumber], Math.max(refId + 1, 2 * threadRefId2Weight[threadNumber].length));
+                                                    threadRefId2Weight[threadNumber][refId] += weight;
                                                 }
                                             }
-                                            totalWeight[threadNumber] += Math.max(1, readBlock.getReadWeight());
+                                            totalWeight[threadNumber] += weight;
                                         }
                                     }
                                 }
@@ -193,20 +204,27 @@ public class AssignmentUsingWeightedLCACreator implements IAssignmentAlgorithmCr
         if (progress.isUserCancelled())
             throw new CanceledException();
 
+        // reduce:
+        refId2weight = new int[refDictionary != null ? refDictionary.size() : numberOfReferences];
+        if (sharedRefId2Weight != null) {
+            for (int r = 0; r < refId2weight.length; r++)
+                refId2weight[r] = sharedRefId2Weight.get(r);
+        } else {
+            for (int t = 0; t < numberOfThreads; t++) {
+                final int[] weights = threadRefId2Weight[t];
+                final int top = Math.min(weights.length, refId2weight.length);
+                for (int r = 0; r < top; r++)
+                    refId2weight[r] += weights[r];
+                threadRefId2Weight[t] = null;
+            }
+        }
+
         if (progress instanceof ProgressPercentage)
             ((ProgressPercentage) progress).reportTaskCompleted();
         System.err.println(String.format("Total matches:    %,12d ", Basic.getSum(totalMatches)));
-        System.err.println(String.format("Total references: %,12d ", (ref2weight != null ? ref2weight.size() : refId2weight.length)));
+        System.err.println(String.format("Total references: %,12d ", refId2weight.length));
         System.err.println(String.format("Total weights:    %,12d ", Basic.getSum(totalWeight)));
         System.err.println();
-
-        if (false) {
-            SortedSet<String> refs = new TreeSet<>();
-            refs.addAll(ref2weight.keySet());
-            for (String ref : refs) {
-                System.err.println(String.format("%s ->%5d", ref, ref2weight.get(ref)));
-            }
-        }
     }
 
     /**
@@ -217,7 +235,7 @@ public class AssignmentUsingWeightedLCACreator implements IAssignmentAlgorithmCr
      */
 
     public AssignmentUsingWeightedLCA createAssignmentAlgorithm() {
-        return new AssignmentUsingWeightedLCA(cName, refId2weight, ref2weight, taxon2SpeciesMapping, percentToCover, useIdentityFilter);
+        return new AssignmentUsingWeightedLCA(cName, refId2weight, refDictionary, taxon2SpeciesMapping, percentToCover, useIdentityFilter);
     }
 }
 
@@ -49,7 +49,11 @@ public class DataProcessor {
      * @throws jloda.util.CanceledException
      */
     public static int apply(final Document doc) throws CanceledException {
-        if (ProgramProperties.get("UseParallelDataProcessor", false)) {
+        final int numberOfCachedReads = ReadAssignmentCache.apply(doc);
+        if (numberOfCachedReads >= 0)
+            return numberOfCachedReads;
+
+        if (ProgramProperties.get("UseParallelDataProcessor", true) && DataProcessorParallel.getNumberOfThreads() > 1) {
             DataProcessorParallel dataProcessorParallel = new DataProcessorParallel(doc);
             return dataProcessorParallel.apply();
         }
@@ -169,6 +173,7 @@ public class DataProcessor {
             } else
                 topPercentForActiveMatchFiltering = doc.getTopPercent();
 
+            final int[] cSlots = ClassificationSlots.getSlots(cNames);
             final int[] classIds = new int[numberOfClassifications];
             final ArrayList<int[]>[] moreClassIds;
             final float[] multiGeneWeights;
@@ -185,6 +190,9 @@ public class DataProcessor {
 
             final ReadAssignmentCalculator readAssignmentCalculator = new ReadAssignmentCalculator(doc.getReadAssignmentMode());
 
+            final ReadAssignmentCache.Writer cacheWriter = ReadAssignmentCache.createWriter(doc, cNames, useLCAForClassification);
+            boolean cacheComplete = false;
+
             System.err.println("Binning reads...");
             progress.setTasks("Binning reads", "Analyzing alignments");
 
@@ -196,7 +204,7 @@ public class DataProcessor {
                 if (doMatePairs) {
                     try (RMA6File RMA6File = new RMA6File(doc.getMeganFile().getFileName(), "r")) {
                         String[] matchClassificationNames = RMA6File.getHeaderSectionRMA6().getMatchClassNames();
-                        mateReadBlock = new ReadBlockRMA6(doc.getBlastMode(), true, matchClassificationNames);
+                        mateReadBlock = new ReadBlockRMA6(doc.getBlastMode(), true, matchClassificationNames, RMA6File.getHeaderSectionRMA6().hasMatchRecords(), RMA6File.getHeaderSectionRMA6().getTextCodec());
                     }
                 } else
                     mateReadBlock = null;
@@ -232,7 +240,7 @@ public class DataProcessor {
                     int taxId = 0;
                     if (taxonomyIndex >= 0) {
                         final BitSet activeMatchesForTaxa = new BitSet(); // pre filter matches for taxon identification
-                        ActiveMatches.compute(doc.getMinScore(), topPercentForActiveMatchFiltering, doc.getMaxExpected(), doc.getMinPercentIdentity(), readBlock, Classification.Taxonomy, activeMatchesForTaxa);
+                        ActiveMatches.compute(doc.getMinScore(), topPercentForActiveMatchFiltering, doc.getMaxExpected(), doc.getMinPercentIdentity(), readBlock, ClassificationSlots.TAXONOMY_SLOT, activeMatchesForTaxa);
 
                         if (referenceCoverFilter != null)
                             referenceCoverFilter.applyFilter(readBlock, activeMatchesForTaxa);
@@ -243,9 +251,9 @@ public class DataProcessor {
                                 mateReadBlock.read(mateReader, false, true, doc.getMinScore(), doc.getMaxExpected());
                                 taxId = assignmentAlgorithm[taxonomyIndex].computeId(activeMatchesForTaxa, readBlock);
                                 final BitSet activeMatchesForMateTaxa = new BitSet(); // pre filter matches for mate-based taxon identification
-                                ActiveMatches.compute(doc.getMinScore(), topPercentForActiveMatchFiltering, doc.getMaxExpected(), doc.getMinPercentIdentity(), mateReadBlock, Classification.Taxonomy, activeMatchesForMateTaxa);
+                                ActiveMatches.compute(doc.getMinScore(), topPercentForActiveMatchFiltering, doc.getMaxExpected(), doc.getMinPercentIdentity(), mateReadBlock, ClassificationSlots.TAXONOMY_SLOT, activeMatchesForMateTaxa);
                                 if (referenceCoverFilter != null)
-                                    referenceCoverFilter.applyFilter(readBlock, activeMatchesForMateTaxa);
+                                    referenceCoverFilter.applyFilter(mateReadBlock, activeMatchesForMateTaxa);
 
                                 int mateTaxId = assignmentAlgorithm[taxonomyIndex].computeId(activeMatchesForMateTaxa, mateReadBlock);
                                 if (mateTaxId > 0) {
@@ -281,12 +289,7 @@ public class DataProcessor {
                         } else if (c == taxonomyIndex) {
                             id = taxId;
                         } else {
-                            final BitSet activeMatchesForFunction = new BitSet(); // pre filter matches for taxon identification
-                            ActiveMatches.compute(doc.getMinScore(), topPercentForActiveMatchFiltering, doc.getMaxExpected(), doc.getMinPercentIdentity(), readBlock, cNames[c], activeMatchesForFunction);
-                            if (referenceCoverFilter != null)
-                                referenceCoverFilter.applyFilter(readBlock, activeMatchesForFunction);
-
-                            id = assignmentAlgorithm[c].computeId(activeMatchesForFunction, readBlock);
+                            id = computeFunctionalId(doc, topPercentForActiveMatchFiltering, readBlock, cSlots[c], assignmentAlgorithm[c], referenceCoverFilter);
 
                             if (id > 0 && usingLongReadAlgorithm && assignmentAlgorithm[c] instanceof IMultiAssignmentAlgorithm) {
                                 int numberOfSegments = ((IMultiAssignmentAlgorithm) assignmentAlgorithm[c]).getAdditionalClassIds(c, numberOfClassifications, moreClassIds[c]);
@@ -294,11 +297,7 @@ public class DataProcessor {
                             }
                         }
 
-                        if (id <= 0 && readBlock.getNumberOfAvailableMatchBlocks() == 0)
-                            id = IdMapper.NOHITS_ID;
-                        else if (!knownIds[c].contains(id))
-                            id = IdMapper.UNASSIGNED_ID;
-
+                        id = checkId(id, readBlock, knownIds[c]);
                         classIds[c] = id;
                         if (id == IdMapper.UNASSIGNED_ID)
                             countUnassigned[c]++;
@@ -306,20 +305,31 @@ public class DataProcessor {
                             countAssigned[c]++;
                     }
                     updateList.addItem(readBlock.getUId(), readBlock.getReadWeight(), classIds);
+                    if (cacheWriter != null)
+                        cacheWriter.add(readBlock.getUId(), readBlock.getReadWeight(), classIds);
 
                     if (usingLongReadAlgorithm) {
                         for (int c = 0; c < numberOfClassifications; c++) {
                             for (int[] classId : moreClassIds[c]) {
                                 updateList.addItem(readBlock.getUId(), multiGeneWeights[c], classId);
+                                if (cacheWriter != null)
+                                    cacheWriter.add(readBlock.getUId(), multiGeneWeights[c], classId);
                             }
                         }
                     }
                 }
+                cacheComplete = !progress.isUserCancelled();
             } catch (Exception ex) {
                 Basic.caught(ex);
             } finally {
                 if (mateReader != null)
                     mateReader.close();
+                if (cacheWriter != null) {
+                    if (cacheComplete)
+                        cacheWriter.finish(numberOfReadsFound, totalWeight);
+                    else
+                        cacheWriter.abort();
+                }
             }
 
             if (progress.isUserCancelled())
@@ -350,62 +360,82 @@ public class DataProcessor {
                 System.err.println(String.format("Tax. ass. by mate:%,12d", numberAssignedViaMatePair));
             }
 
-            progress.setCancelable(false); // can't cancel beyond here because file could be left in undefined state
+            return finishBinning(doc, cNames, useLCAForClassification, updateList, numberOfReadsFound, totalWeight);
+        } catch (IOException ex) {
+            Basic.caught(ex);
+            NotificationsInSwing.showInternalError("Data Processor failed: " + ex.getMessage());
+        }
+        return 0;
+    }
 
-            doc.setNumberReads(numberOfReadsFound);
+    /**
+     * apply the min-support and disabled filter to the assignments of all reads, save the classifications and sync
+     *
+     * @param doc
+     * @param cNames                  names of classifications to bin
+     * @param useLCAForClassification does classification use the LCA?
+     * @param updateList              assignments of all reads
+     * @param numberOfReadsFound
+     * @param totalWeight
+     * @return number of reads
+     * @throws IOException
+     * @throws CanceledException
+     */
+    static int finishBinning(final Document doc, final String[] cNames, final boolean[] useLCAForClassification, final UpdateItemList updateList, final long numberOfReadsFound, final double totalWeight) throws IOException, CanceledException {
+        final ProgressListener progress = doc.getProgressListener();
+        final IConnector connector = doc.getConnector();
 
-            // If min support percentage is set, set the min support:
-            if (doc.getMinSupportPercent() > 0) {
-                doc.setMinSupport((int) Math.max(1, (doc.getMinSupportPercent() / 100.0) * (totalWeight)));
-                System.err.println("MinSupport set to: " + doc.getMinSupport());
-            }
+        progress.setCancelable(false); // can't cancel beyond here because file could be left in undefined state
 
-            // 2. apply min support and disabled taxa filter
+        doc.setNumberReads(numberOfReadsFound);
 
-            for (int c = 0; c < numberOfClassifications; c++) {
-                final String cName = cNames[c];
-                // todo: need to remove assignments to disabled ids when not using the LCA algorithm
-                if (useLCAForClassification[c] && (doc.getMinSupport() > 0 || ClassificationManager.get(cName, false).getIdMapper().getDisabledIds().size() > 0)) {
-                    progress.setTasks("Binning reads", "Applying min-support & disabled filter to " + cName + "...");
-                    final MinSupportFilter minSupportFilter = new MinSupportFilter(cName, updateList.getClassIdToWeightMap(c), doc.getMinSupport(), progress);
-                    final Map<Integer, Integer> changes = minSupportFilter.apply();
-
-                    for (Integer srcId : changes.keySet()) {
-                        updateList.appendClass(c, srcId, changes.get(srcId));
-                    }
-                    System.err.println(String.format("Min-supp. changes:%,12d", changes.size()));
+        // If min support percentage is set, set the min support:
+        if (doc.getMinSupportPercent() > 0) {
+            doc.setMinSupport((int) Math.max(1, (doc.getMinSupportPercent() / 100.0) * (totalWeight)));
+            System.err.println("MinSupport set to: " + doc.getMinSupport());
+        }
+
+        // 2. apply min support and disabled taxa filter
+
+        for (int c = 0; c < cNames.length; c++) {
+            final String cName = cNames[c];
+            // todo: need to remove assignments to disabled ids when not using the LCA algorithm
+            if (useLCAForClassification[c] && (doc.getMinSupport() > 0 || ClassificationManager.get(cName, false).getIdMapper().getDisabledIds().size() > 0)) {
+                progress.setTasks("Binning reads", "Applying min-support & disabled filter to " + cName + "...");
+                final MinSupportFilter minSupportFilter = new MinSupportFilter(cName, updateList.getClassIdToWeightMap(c), doc.getMinSupport(), progress);
+                final Map<Integer, Integer> changes = minSupportFilter.apply();
+
+                for (Integer srcId : changes.keySet()) {
+                    updateList.appendClass(c, srcId, changes.get(srcId));
                 }
+                System.err.println(String.format("Min-supp. changes:%,12d", changes.size()));
             }
+        }
 
-            // 3. save classifications
-
-            progress.setTasks("Binning reads", "Writing classification tables");
+        // 3. save classifications
 
-            connector.updateClassifications(cNames, updateList, progress);
+        progress.setTasks("Binning reads", "Writing classification tables");
 
-            connector.setNumberOfReads((int) doc.getNumberOfReads());
+        connector.updateClassifications(cNames, updateList, progress);
 
-            // 4. sync
-            progress.setTasks("Binning reads", "Syncing");
-            SyncArchiveAndDataTable.syncRecomputedArchive2Summary(doc.getReadAssignmentMode(), doc.getTitle(), "LCA", doc.getBlastMode(), doc.getParameterString(), connector, doc.getDataTable(), (int) doc.getAdditionalReads());
+        connector.setNumberOfReads((int) doc.getNumberOfReads());
 
-            if (progress instanceof ProgressPercentage)
-                ((ProgressPercentage) progress).reportTaskCompleted();
+        // 4. sync
+        progress.setTasks("Binning reads", "Syncing");
+        SyncArchiveAndDataTable.syncRecomputedArchive2Summary(doc.getReadAssignmentMode(), doc.getTitle(), "LCA", doc.getBlastMode(), doc.getParameterString(), connector, doc.getDataTable(), (int) doc.getAdditionalReads());
 
-            // MeganProperties.addRecentFile(new File(doc.getMeganFile().getFileName()));
-            doc.setDirty(false);
+        if (progress instanceof ProgressPercentage)
+            ((ProgressPercentage) progress).reportTaskCompleted();
 
-            // report classification sizes:
-            for (String cName : cNames) {
-                System.err.println(String.format("Class. %-13s%,10d", cName + ":", connector.getClassificationSize(cName)));
-            }
+        // MeganProperties.addRecentFile(new File(doc.getMeganFile().getFileName()));
+        doc.setDirty(false);
 
-            return (int) doc.getDataTable().getTotalReads();
-        } catch (IOException ex) {
-            Basic.caught(ex);
-            NotificationsInSwing.showInternalError("Data Processor failed: " + ex.getMessage());
+        // report classification sizes:
+        for (String cName : cNames) {
+            System.err.println(String.format("Class. %-13s%,10d", cName + ":", connector.getClassificationSize(cName)));
         }
-        return 0;
+
+        return (int) doc.getDataTable().getTotalReads();
     }
 
     /**
@@ -417,7 +447,7 @@ public class DataProcessor {
      * @param intervals         this will be non-null in long read mode, in which case we check the total cover, otherwise, we check the amount covered by any one match
      * @return true, if sufficient coverage
      */
-    private static boolean ensureCovered(double minCoveredPercent, IReadBlock readBlock, BitSet activeMatches, IntervalTree<Object> intervals) {
+    static boolean ensureCovered(double minCoveredPercent, IReadBlock readBlock, BitSet activeMatches, IntervalTree<Object> intervals) {
         int lengthToCover = (int) (0.01 * minCoveredPercent * readBlock.getReadLength());
         if (lengthToCover == 0)
             return true;
@@ -438,4 +468,40 @@ public class DataProcessor {
         }
         return false;
     }
+
+    /**
+     * computes the assignment of a read to a classification other than taxonomy
+     *
+     * @param doc
+     * @param topPercent           top percent used to filter the active matches
+     * @param readBlock
+     * @param cSlot                classification slot of the classification
+     * @param assignmentAlgorithm
+     * @param referenceCoverFilter applied to the active matches, if non-null
+     * @return id
+     */
+    static int computeFunctionalId(Document doc, float topPercent, IReadBlock readBlock, int cSlot, IAssignmentAlgorithm assignmentAlgorithm, ReferenceCoverFilter referenceCoverFilter) {
+        final BitSet activeMatchesForFunction = new BitSet(); // pre filter matches for taxon identification
+        ActiveMatches.compute(doc.getMinScore(), topPercent, doc.getMaxExpected(), doc.getMinPercentIdentity(), readBlock, cSlot, activeMatchesForFunction);
+        if (referenceCoverFilter != null)
+            referenceCoverFilter.applyFilter(readBlock, activeMatchesForFunction);
+        return assignmentAlgorithm.computeId(activeMatchesForFunction, readBlock);
+    }
+
+    /**
+     * replaces an assignment by no-hits, if the read has no matches, or by unassigned, if the id is not known to the classification
+     *
+     * @param id
+     * @param readBlock
+     * @param knownIds
+     * @return id
+     */
+    static int checkId(int id, IReadBlock readBlock, Set<Integer> knownIds) {
+        if (id <= 0 && readBlock.getNumberOfAvailableMatchBlocks() == 0)
+            return IdMapper.NOHITS_ID;
+        else if (!knownIds.contains(id))
+            return IdMapper.UNASSIGNED_ID;
+        else
+            return id;
+    }
 }
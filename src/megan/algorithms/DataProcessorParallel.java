@@ -22,19 +22,20 @@ import jloda.util.*;
 import megan.classification.Classification;
 import megan.classification.ClassificationManager;
 import megan.classification.IdMapper;
+import megan.core.ContaminantManager;
 import megan.core.Document;
 import megan.core.ReadAssignmentCalculator;
-import megan.core.SyncArchiveAndDataTable;
-import megan.data.IMatchBlock;
+import megan.data.ClassificationSlots;
+import megan.data.IConnector;
 import megan.data.IReadBlock;
-import megan.data.IReadBlockIterator;
+import megan.data.IReadBlockBatchIterator;
+import megan.data.ReadBlockBatch;
 import megan.data.UpdateItemList;
 import megan.fx.NotificationsInSwing;
 import megan.io.InputOutputReaderWriter;
 import megan.main.MeganProperties;
 import megan.rma6.RMA6File;
 import megan.rma6.ReadBlockRMA6;
-import megan.util.interval.Interval;
 import megan.util.interval.IntervalTree;
 
 import java.util.*;
@@ -42,20 +43,23 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Analyzes all reads in a sample
+ * Analyzes all reads in a sample, using multiple threads.
+ * <p>
+ * The reading thread hands out numbered batches of reads, which are decoded in parallel by the batch iterator. Each worker thread keeps its own assignment algorithms,
+ * counts and list of assigned items per batch, so no locks are required. At the end, the items are added to the update list
+ * in batch order, so the result is the same as that of the sequential DataProcessor
+ * <p>
  * Daniel Huson, 1.2009, 3.2016, 5.2017
  */
 public class DataProcessorParallel {
+    private static final int BATCH_SIZE = 1000;
+
     private final Document doc;
     private final int numberOfClassifications;
-    private final Counts counts;
-    private final Object syncUpdateList = new Object();
 
-    private final IReadBlock sentinel = new ReadBlockRMA6(null, false, null);
+    private final ReadBlockBatch sentinel = new ReadBlockBatch(-1, -1, -1, new IReadBlock[0]);
 
     /**
      * constructor
@@ -65,7 +69,15 @@ public class DataProcessorParallel {
     public DataProcessorParallel(final Document doc) {
         this.doc = doc;
         this.numberOfClassifications = doc.getActiveViewers().size();
-        this.counts = new Counts(numberOfClassifications);
+    }
+
+    /**
+     * get the number of threads to use for binning
+     *
+     * @return number of threads
+     */
+    public static int getNumberOfThreads() {
+        return Math.max(1, Math.min(ProgramProperties.get(MeganProperties.NUMBER_OF_THREADS, MeganProperties.DEFAULT_NUMBER_OF_THREADS), Runtime.getRuntime().availableProcessors()));
     }
 
     /**
@@ -74,23 +86,22 @@ public class DataProcessorParallel {
      * @throws CanceledException
      */
     public int apply() throws CanceledException {
-        System.err.println("Using experimental parallel dataprocessor");
-
         final ProgressListener progress = doc.getProgressListener();
         try {
-            progress.setTasks("Binning reads", "Initialization");
+            progress.setTasks("Binning reads", "Initializing...");
 
-            System.err.println("Binning reads... using parallel algorithm");
+            System.err.println("Initializing binning...");
             if (doc.isUseIdentityFilter()) {
-                System.err.println("Using min percent-identity values for taxonomic assignment of 16S reads");
+                System.err.println("Using rank-specific min percent-identity values for taxonomic assignment of 16S reads");
             }
 
-            final boolean doMatePairs = doc.isPairedReads() && doc.getMeganFile().isRMA6File();
-            if (doc.isPairedReads() && !doc.getMeganFile().isRMA6File())
-                System.err.println("WARNING: Not an RMA6 file, will ignore paired read information");
-            if (doMatePairs)
-                System.err.println("Using paired reads in taxonomic assignment...");
-            final boolean usingLongReadAlgorithm = (doc.getLcaAlgorithm() == Document.LCAAlgorithm.longReads);
+            final ContaminantManager contaminantManager;
+            if (doc.isUseContaminantFilter() && doc.getDataTable().hasContaminants()) {
+                contaminantManager = new ContaminantManager();
+                contaminantManager.parseTaxonIdsString(doc.getDataTable().getContaminants());
+                System.err.println(String.format("Using contaminant filter for %,d taxa", contaminantManager.size()));
+            } else
+                contaminantManager = null;
 
             final String[] cNames = doc.getActiveViewers().toArray(new String[numberOfClassifications]);
             final boolean[] useLCAForClassification = new boolean[numberOfClassifications];
@@ -104,6 +115,18 @@ public class DataProcessorParallel {
                 }
             }
 
+            final boolean doMatePairs = doc.isPairedReads() && doc.getMeganFile().isRMA6File();
+            if (doc.isPairedReads() && !doc.getMeganFile().isRMA6File())
+                System.err.println("WARNING: Not an RMA6 file, will ignore paired read information");
+            if (doMatePairs)
+                System.err.println("Using paired reads in taxonomic assignment...");
+
+            final double minCoveredPercent = doc.getMinPercentReadToCover();
+            if (minCoveredPercent > 0)
+                System.err.println(String.format("Minimum percentage of read to be covered: %.1f%%", minCoveredPercent));
+
+            final boolean usingLongReadAlgorithm = (doc.getLcaAlgorithm() == Document.LCAAlgorithm.longReads);
+
             // setup assignment algorithms:
             final IAssignmentAlgorithmCreator[] assignmentAlgorithmCreators = new IAssignmentAlgorithmCreator[numberOfClassifications];
             for (int c = 0; c < numberOfClassifications; c++) {
@@ -129,141 +152,153 @@ public class DataProcessorParallel {
                     assignmentAlgorithmCreators[c] = new AssignmentUsingBestHitCreator(cNames[c], doc.getMeganFile().getFileName());
             }
 
-            final UpdateItemList updateList = new UpdateItemList(numberOfClassifications);
+            final ReferenceCoverFilter referenceCoverFilter;
+            if (doc.getMinPercentReferenceToCover() > 0) {
+                referenceCoverFilter = new ReferenceCoverFilter(doc.getMinPercentReferenceToCover());
+                referenceCoverFilter.compute(doc.getProgressListener(), doc.getConnector(), doc.getMinScore(), doc.getTopPercent(), doc.getMaxExpected(), doc.getMinPercentIdentity());
+            } else
+                referenceCoverFilter = null;
 
-            final ArrayList<Exception> exceptions = new ArrayList<>();
+            final Set<Integer>[] knownIds = new HashSet[numberOfClassifications];
+            for (int c = 0; c < numberOfClassifications; c++) {
+                knownIds[c] = new HashSet<>();
+                knownIds[c].addAll(ClassificationManager.get(cNames[c], true).getName2IdMap().getIds());
+            }
 
-            final int numberOfThreads = Math.max(1, Math.min(ProgramProperties.get(MeganProperties.NUMBER_OF_THREADS, MeganProperties.DEFAULT_NUMBER_OF_THREADS) / 2, Runtime.getRuntime().availableProcessors() / 2));
-            final ExecutorService service = Executors.newFixedThreadPool(numberOfThreads);
-            final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
+            // step 1:  stream through reads and assign classes
 
-            final ArrayBlockingQueue<IReadBlock> queue = new ArrayBlockingQueue<>(Math.max(1000, 10 * numberOfThreads));
+            final int numberOfThreads = getNumberOfThreads();
+            System.err.println("Binning reads... using " + numberOfThreads + " threads");
 
-            // launch all slave threads
+            final Worker[] workers = new Worker[numberOfThreads];
             for (int t = 0; t < numberOfThreads; t++) {
-                service.submit(new Runnable() {
-                    public void run() {
-                        try {
-                            applyInThread(cNames, assignmentAlgorithmCreators, taxonomyIndex, queue, updateList, progress);
-                        } catch (Exception ex) {
-                            exceptions.add(ex);
-                        } finally {
-                            countDownLatch.countDown();
-                        }
-                    }
-                });
+                workers[t] = new Worker(cNames, assignmentAlgorithmCreators, taxonomyIndex, knownIds, contaminantManager, referenceCoverFilter, doMatePairs, progress);
             }
 
-            // fill the queue:
-            try (final IReadBlockIterator it = doc.getConnector().getAllReadsIterator(0, 10, false, true)) {
+            // merge results in batch order while the workers are running:
+            final UpdateItemList updateList = new UpdateItemList(numberOfClassifications);
+            final ReadAssignmentCache.Writer cacheWriter = ReadAssignmentCache.createWriter(doc, cNames, useLCAForClassification);
+            final BufferMerger merger = new BufferMerger(updateList, cacheWriter, numberOfClassifications);
+            final Counts counts = new Counts(numberOfClassifications);
+            boolean cacheComplete = false;
+
+            try {
+                final ArrayList<Exception> exceptions = new ArrayList<>();
+                final ExecutorService service = Executors.newFixedThreadPool(numberOfThreads);
+                final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
+                final ArrayBlockingQueue<ReadBlockBatch> queue = new ArrayBlockingQueue<>(4 * numberOfThreads);
+
+                // launch all worker threads
+                for (final Worker worker : workers) {
+                    service.submit(new Runnable() {
+                        public void run() {
+                            try {
+                                worker.run(queue, merger);
+                            } catch (Exception ex) {
+                                synchronized (exceptions) {
+                                    exceptions.add(ex);
+                                }
+                                queue.clear(); // make sure that the reading thread does not block
+                            } finally {
+                                countDownLatch.countDown();
+                            }
+                        }
+                    });
+                }
+
+                // fill the queue:
+                final IConnector connector = doc.getConnector();
                 progress.setTasks("Binning reads", "Analyzing alignments");
-                progress.setMaximum(it.getMaximumProgress());
-                progress.setProgress(0);
-                while (it.hasNext()) {
-                    queue.put(it.next());
+                try (final IReadBlockBatchIterator it = connector.getAllReadsBatchIterator(BATCH_SIZE, numberOfThreads, 0, 10, false, true)) {
+                    progress.setMaximum(it.getMaximumProgress());
+                    progress.setProgress(0);
+                    while (it.hasNext()) {
+                        synchronized (exceptions) {
+                            if (exceptions.size() > 0)
+                                break;
+                        }
+                        final ReadBlockBatch batch;
+                        try {
+                            batch = it.next();
+                        } catch (RuntimeException ex) { // failed to decode batch, abort binning
+                            synchronized (exceptions) {
+                                exceptions.add(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+                            }
+                            break;
+                        }
+                        if (batch == null)
+                            break;
+                        queue.put(batch);
+                        try {
+                            progress.setProgress(it.getProgress());
+                        } catch (CanceledException ex) {
+                            break;
+                        }
+                    }
+                } finally {
+                    // add one sentinel per thread:
+                    for (int i = 0; i < numberOfThreads; i++) {
+                        queue.put(sentinel);
+                    }
+                    // wait for all worker threads to finish:
                     try {
-                        progress.setProgress(it.getProgress());
-                    } catch (CanceledException ex) {
-                        break;
+                        countDownLatch.await();
+                    } catch (InterruptedException e) {
+                        Basic.caught(e);
                     }
+                    service.shutdownNow();
                 }
-            }
-            // add one sentinel per thread:
-            for (int i = 0; i < numberOfThreads; i++) {
-                queue.put(sentinel);
-            }
 
-            // wait for all slave threads to finish:
-            try {
-                countDownLatch.await();
-            } catch (InterruptedException e) {
-                Basic.caught(e);
-            }
-            service.shutdownNow();
+                if (progress.isUserCancelled())
+                    throw new CanceledException();
 
-            if (exceptions.size() > 0) {
-                throw exceptions.get(0);
-            }
+                synchronized (exceptions) {
+                    if (exceptions.size() > 0) {
+                        throw exceptions.get(0);
+                    }
+                }
 
-            if (progress.isUserCancelled())
-                throw new CanceledException();
+                if (progress instanceof ProgressPercentage) {
+                    ((ProgressPercentage) progress).reportTaskCompleted();
+                }
 
-            if (progress instanceof ProgressPercentage) {
-                ((ProgressPercentage) progress).reportTaskCompleted();
+                // sum thread-local counts and merge any batches still pending:
+                for (Worker worker : workers) {
+                    counts.add(worker.counts);
+                }
+                merger.flush();
+                cacheComplete = true;
+                if (cacheWriter != null)
+                    cacheWriter.finish(counts.numberOfReadsFound, counts.totalWeight);
+            } finally {
+                if (cacheWriter != null && !cacheComplete)
+                    cacheWriter.abort();
             }
 
             // report summary:
 
-            System.err.println(String.format("Total reads:  %,15d", counts.numberOfReadsFound.get()));
-            if (counts.totalWeightX1000.get() > counts.numberOfReadsFound.get())
-                System.err.println(String.format("Total weight: %,15d", (long) counts.getTotalWeight()));
+            System.err.println(String.format("Total reads:  %,15d", counts.numberOfReadsFound));
+            if (counts.totalWeight > counts.numberOfReadsFound)
+                System.err.println(String.format("Total weight: %,15d", (long) counts.totalWeight));
 
-            if (counts.numberOfReadsWithLowComplexity.get() > 0)
-                System.err.println(String.format("Low complexity:%,15d", counts.numberOfReadsWithLowComplexity.get()));
-            if (counts.numberOfReadsFailedCoveredThreshold.get() > 0)
-                System.err.println(String.format("Low covered:   %,15d", counts.numberOfReadsFailedCoveredThreshold.get()));
+            if (counts.numberOfReadsWithLowComplexity > 0)
+                System.err.println(String.format("Low complexity:%,15d", counts.numberOfReadsWithLowComplexity));
+            if (counts.numberOfReadsFailedCoveredThreshold > 0)
+                System.err.println(String.format("Low covered:   %,15d", counts.numberOfReadsFailedCoveredThreshold));
 
-            System.err.println(String.format("With hits:     %,15d ", counts.numberOfReadsWithHits.get()));
-            System.err.println(String.format("Alignments:    %,15d", counts.numberOfMatches.get()));
+            System.err.println(String.format("With hits:     %,15d ", counts.numberOfReadsWithHits));
+            System.err.println(String.format("Alignments:    %,15d", counts.numberOfMatches));
 
             for (int c = 0; c < numberOfClassifications; c++) {
-                System.err.println(String.format("%-19s%,11d", "Assig. " + cNames[c] + ":", counts.countAssigned[c].get()));
+                System.err.println(String.format("%-19s%,11d", "Assig. " + cNames[c] + ":", counts.countAssigned[c]));
             }
 
             // if used mate pairs, report here:
-            if (counts.numberAssignedViaMatePair.get() > 0) {
-                System.err.println(String.format("Tax. ass. by mate:%,12d", counts.numberAssignedViaMatePair.get()));
-            }
-
-            progress.setCancelable(false); // can't cancel beyond here because file could be left in undefined state
-
-            doc.setNumberReads(counts.numberOfReadsFound.get());
-
-            // If min support percentage is set, set the min support:
-            if (doc.getMinSupportPercent() > 0) {
-                doc.setMinSupport((int) Math.max(1, Math.round((doc.getMinSupportPercent() / 100.0) * (counts.numberOfReadsWithHits.get() + counts.numberAssignedViaMatePair.get()))));
-                System.err.println("MinSupport set to: " + doc.getMinSupport());
+            if (counts.numberAssignedViaMatePair > 0) {
+                System.err.println(String.format("Tax. ass. by mate:%,12d", counts.numberAssignedViaMatePair));
             }
 
-            // 2. apply min support and disabled taxa filter
-
-            for (int c = 0; c < numberOfClassifications; c++) {
-                final String cName = cNames[c];
-                // todo: need to remove assignments to disabled ids when not using the LCA algorithm
-                if (useLCAForClassification[c] && (doc.getMinSupport() > 0 || ClassificationManager.get(cName, false).getIdMapper().getDisabledIds().size() > 0)) {
-                    progress.setTasks("Binning reads", "Applying min-support & disabled filter to " + cName + "...");
-                    final MinSupportFilter minSupportFilter = new MinSupportFilter(cName, updateList.getClassIdToWeightMap(c), doc.getMinSupport(), progress);
-                    final Map<Integer, Integer> changes = minSupportFilter.apply();
-
-                    for (Integer srcId : changes.keySet()) {
-                        updateList.appendClass(c, srcId, changes.get(srcId));
-                    }
-                    System.err.println(String.format("Min-supp. changes:%,12d", changes.size()));
-                }
-            }
-
-            // 3. save classifications
-
-            progress.setTasks("Binning reads", "Writing classification tables");
-
-            doc.getConnector().updateClassifications(cNames, updateList, progress);
-            doc.getConnector().setNumberOfReads((int) doc.getNumberOfReads());
-
-            // 4. sync
-            progress.setTasks("Binning reads", "Syncing");
-            SyncArchiveAndDataTable.syncRecomputedArchive2Summary(doc.getReadAssignmentMode(), doc.getTitle(), "LCA", doc.getBlastMode(), doc.getParameterString(), doc.getConnector(), doc.getDataTable(), (int) doc.getAdditionalReads());
-
-            if (progress instanceof ProgressPercentage)
-                ((ProgressPercentage) progress).reportTaskCompleted();
-
-            // MeganProperties.addRecentFile(new File(doc.getMeganFile().getFileName()));
-            doc.setDirty(false);
-
-            // report classification sizes:
-            for (String cName : cNames) {
-                System.err.println(String.format("Class. %-13s%,10d", cName + ":", doc.getConnector().getClassificationSize(cName)));
-            }
-            return (int) doc.getDataTable().getTotalReads();
+            return DataProcessor.finishBinning(doc, cNames, useLCAForClassification, updateList, counts.numberOfReadsFound, counts.totalWeight);
         } catch (CanceledException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -274,46 +309,53 @@ public class DataProcessorParallel {
     }
 
     /**
-     * performs taxonomic and functional binning
-     *
-     * @param queue
-     * @param updateList
-     * @param progress
-     * @throws Exception
+     * performs taxonomic and functional binning of batches of reads. Each worker has its own algorithms, counts and results
      */
-    private void applyInThread(String[] cNames, IAssignmentAlgorithmCreator[] assignmentAlgorithmCreators, final int taxonomyIndex, final ArrayBlockingQueue<IReadBlock> queue, final UpdateItemList updateList, final ProgressListener progress) throws Exception {
-        final int numberOfClassifications = doc.getActiveViewers().size();
-        final double minCoveredPercent = doc.getMinPercentReadToCover();
-        final boolean usingLongReadAlgorithm = (doc.getLcaAlgorithm() == Document.LCAAlgorithm.longReads);
-        final boolean doMatePairs = doc.isPairedReads() && doc.getMeganFile().isRMA6File();
-
-        // step 0: set up classification algorithms
-
-        final IntervalTree<Object> intervals;
-        if (minCoveredPercent > 0 && doc.isLongReads() || doc.getReadAssignmentMode() == Document.ReadAssignmentMode.alignedBases)
-            intervals = new IntervalTree<>();
-        else
-            intervals = null;
-
-        if (minCoveredPercent > 0)
-            System.err.println(String.format("Minimum percentage of read to be covered: %.1f%%", minCoveredPercent));
-
-
-        // step 1:  stream through reads and assign classes
-
-        final IAssignmentAlgorithm[] assignmentAlgorithm = new IAssignmentAlgorithm[numberOfClassifications];
-        for (int c = 0; c < numberOfClassifications; c++)
-            assignmentAlgorithm[c] = assignmentAlgorithmCreators[c].createAssignmentAlgorithm();
-
-        final Set<Integer>[] knownIds = new HashSet[numberOfClassifications];
-        for (int c = 0; c < numberOfClassifications; c++) {
-            knownIds[c] = new HashSet<>();
-            knownIds[c].addAll(ClassificationManager.get(cNames[c], true).getName2IdMap().getIds());
+    private class Worker {
+        private final int[] cSlots;
+        private final int taxonomyIndex;
+        private final Set<Integer>[] knownIds;
+        private final ContaminantManager contaminantManager;
+        private final ReferenceCoverFilter referenceCoverFilter;
+        private final boolean doMatePairs;
+        private final ProgressListener progress;
+
+        private final IAssignmentAlgorithm[] assignmentAlgorithm;
+        private final Counts counts;
+
+        Worker(String[] cNames, IAssignmentAlgorithmCreator[] assignmentAlgorithmCreators, int taxonomyIndex, Set<Integer>[] knownIds, ContaminantManager contaminantManager,
+               ReferenceCoverFilter referenceCoverFilter, boolean doMatePairs, ProgressListener progress) {
+            this.cSlots = ClassificationSlots.getSlots(cNames);
+            this.taxonomyIndex = taxonomyIndex;
+            this.knownIds = knownIds;
+            this.contaminantManager = contaminantManager;
+            this.referenceCoverFilter = referenceCoverFilter;
+            this.doMatePairs = doMatePairs;
+            this.progress = progress;
+
+            assignmentAlgorithm = new IAssignmentAlgorithm[numberOfClassifications];
+            for (int c = 0; c < numberOfClassifications; c++)
+                assignmentAlgorithm[c] = assignmentAlgorithmCreators[c].createAssignmentAlgorithm();
+            counts = new Counts(numberOfClassifications);
         }
 
-        final InputOutputReaderWriter mateReader = doMatePairs ? new InputOutputReaderWriter(doc.getMeganFile().getFileName(), "r") : null;
+        /**
+         * process batches until the sentinel is found
+         *
+         * @param queue
+         * @param merger receives the items of each processed batch
+         * @throws Exception
+         */
+        void run(final ArrayBlockingQueue<ReadBlockBatch> queue, final BufferMerger merger) throws Exception {
+            final double minCoveredPercent = doc.getMinPercentReadToCover();
+            final boolean usingLongReadAlgorithm = (doc.getLcaAlgorithm() == Document.LCAAlgorithm.longReads);
+
+            final IntervalTree<Object> intervals;
+            if (minCoveredPercent > 0 && doc.isLongReads() || doc.getReadAssignmentMode() == Document.ReadAssignmentMode.alignedBases)
+                intervals = new IntervalTree<>();
+            else
+                intervals = null;
 
-        try {
             final float topPercentForActiveMatchFiltering;
             if (usingLongReadAlgorithm) {
                 topPercentForActiveMatchFiltering = 0;
@@ -340,181 +382,249 @@ public class DataProcessorParallel {
             if (doMatePairs) {
                 try (RMA6File RMA6File = new RMA6File(doc.getMeganFile().getFileName(), "r")) {
                     String[] matchClassificationNames = RMA6File.getHeaderSectionRMA6().getMatchClassNames();
-                    mateReadBlock = new ReadBlockRMA6(doc.getBlastMode(), true, matchClassificationNames);
+                    mateReadBlock = new ReadBlockRMA6(doc.getBlastMode(), true, matchClassificationNames, RMA6File.getHeaderSectionRMA6().hasMatchRecords(), RMA6File.getHeaderSectionRMA6().getTextCodec());
                 }
             } else
                 mateReadBlock = null;
 
-            // main loop
-            while (true) {
-                progress.checkForCancel();
-
-                // System.err.println("Queue size: "+queue.size());
-                final IReadBlock readBlock = queue.take();
-                if (readBlock == sentinel)
-                    return;
-
-                // clean up previous values
-                for (int c = 0; c < numberOfClassifications; c++) {
-                    classIds[c] = 0;
-                    if (usingLongReadAlgorithm) {
-                        moreClassIds[c].clear();
-                        multiGeneWeights[c] = 0;
-                    }
-                }
+            try (InputOutputReaderWriter mateReader = doMatePairs ? new InputOutputReaderWriter(doc.getMeganFile().getFileName(), "r") : null) {
+                // main loop
+                while (true) {
+                    final ReadBlockBatch batch = queue.take();
+                    if (batch == sentinel)
+                        return;
+                    progress.checkForCancel();
 
-                final boolean hasLowComplexity = readBlock.getComplexity() > 0 && readBlock.getComplexity() + 0.01 < doc.getMinComplexity();
-
-                if (readBlock.getNumberOfAvailableMatchBlocks() > 0)
-                    counts.numberOfReadsWithHits.addAndGet(readBlock.getReadWeight());
-
-                readBlock.setReadWeight(readAssignmentCalculator.compute(readBlock, intervals));
-
-                counts.numberOfReadsFound.incrementAndGet();
-                counts.addToTotalWeight(readBlock.getReadWeight());
-                counts.numberOfMatches.addAndGet(readBlock.getNumberOfMatches());
-
-                if (hasLowComplexity)
-                    counts.numberOfReadsWithLowComplexity.addAndGet(readBlock.getReadWeight());
-
-                int taxId = 0;
-                if (taxonomyIndex >= 0) {
-                    final BitSet activeMatchesForTaxa = new BitSet(); // pre filter matches for taxon identification
-                    ActiveMatches.compute(doc.getMinScore(), topPercentForActiveMatchFiltering, doc.getMaxExpected(), doc.getMinPercentIdentity(), readBlock, Classification.Taxonomy, activeMatchesForTaxa);
-                    if (minCoveredPercent == 0 || ensureCovered(minCoveredPercent, readBlock, activeMatchesForTaxa, intervals)) {
-                        if (doMatePairs && readBlock.getMateUId() > 0) {
-                            mateReader.seek(readBlock.getMateUId());
-                            mateReadBlock.read(mateReader, false, true, doc.getMinScore(), doc.getMaxExpected());
-                            taxId = assignmentAlgorithm[taxonomyIndex].computeId(activeMatchesForTaxa, readBlock);
-                            final BitSet activeMatchesForMateTaxa = new BitSet(); // pre filter matches for mate-based taxon identification
-                            ActiveMatches.compute(doc.getMinScore(), topPercentForActiveMatchFiltering, doc.getMaxExpected(), doc.getMinPercentIdentity(), mateReadBlock, Classification.Taxonomy, activeMatchesForMateTaxa);
-                            int mateTaxId = assignmentAlgorithm[taxonomyIndex].computeId(activeMatchesForMateTaxa, mateReadBlock);
-                            if (mateTaxId > 0) {
-                                if (taxId <= 0) {
-                                    taxId = mateTaxId;
-                                    counts.numberAssignedViaMatePair.incrementAndGet();
-                                } else {
-                                    int bothId = assignmentAlgorithm[taxonomyIndex].getLCA(taxId, mateTaxId);
-                                    if (bothId == taxId)
-                                        taxId = mateTaxId;
-                                        // else if(bothId==taxId) taxId=taxId; // i.e, no change
-                                    else if (bothId != mateTaxId)
-                                        taxId = bothId;
-                                }
+                    final ItemBuffer buffer = new ItemBuffer(batch.getIndex(), numberOfClassifications, batch.size());
+
+                    for (int r = 0; r < batch.size(); r++) {
+                        final IReadBlock readBlock = batch.get(r);
+                        if (readBlock == null)
+                            continue;
+
+                        // clean up previous values
+                        for (int c = 0; c < numberOfClassifications; c++) {
+                            classIds[c] = 0;
+                            if (usingLongReadAlgorithm) {
+                                moreClassIds[c].clear();
+                                multiGeneWeights[c] = 0;
                             }
-                        } else {
-                            taxId = assignmentAlgorithm[taxonomyIndex].computeId(activeMatchesForTaxa, readBlock);
                         }
-                    } else
-                        counts.numberOfReadsFailedCoveredThreshold.incrementAndGet();
-                }
 
-                for (int c = 0; c < numberOfClassifications; c++) {
-                    int id;
-                    if (hasLowComplexity) {
-                        id = IdMapper.LOW_COMPLEXITY_ID;
-                    } else if (c == taxonomyIndex) {
-                        id = taxId;
-                    } else {
-                        final BitSet activeMatchesForFunction = new BitSet(); // pre filter matches for taxon identification
-                        ActiveMatches.compute(doc.getMinScore(), topPercentForActiveMatchFiltering, doc.getMaxExpected(), doc.getMinPercentIdentity(), readBlock, cNames[c], activeMatchesForFunction);
-                        id = assignmentAlgorithm[c].computeId(activeMatchesForFunction, readBlock);
-                        if (id > 0 && usingLongReadAlgorithm && assignmentAlgorithm[c] instanceof IMultiAssignmentAlgorithm) {
-                            int numberOfSegments = ((IMultiAssignmentAlgorithm) assignmentAlgorithm[c]).getAdditionalClassIds(c, numberOfClassifications, moreClassIds[c]);
-                            multiGeneWeights[c] = (numberOfSegments > 0 ? (float) readBlock.getReadWeight() / (float) numberOfSegments : 0);
+                        if (readBlock.getNumberOfAvailableMatchBlocks() > 0)
+                            counts.numberOfReadsWithHits += readBlock.getReadWeight();
+
+                        readBlock.setReadWeight(readAssignmentCalculator.compute(readBlock, intervals));
+
+                        counts.numberOfReadsFound++;
+                        counts.totalWeight += readBlock.getReadWeight();
+                        counts.numberOfMatches += readBlock.getNumberOfMatches();
+
+                        final boolean hasLowComplexity = readBlock.getComplexity() > 0 && readBlock.getComplexity() + 0.01 < doc.getMinComplexity();
+
+                        if (hasLowComplexity)
+                            counts.numberOfReadsWithLowComplexity += readBlock.getReadWeight();
+
+                        int taxId = 0;
+                        if (taxonomyIndex >= 0) {
+                            final BitSet activeMatchesForTaxa = new BitSet(); // pre filter matches for taxon identification
+                            ActiveMatches.compute(doc.getMinScore(), topPercentForActiveMatchFiltering, doc.getMaxExpected(), doc.getMinPercentIdentity(), readBlock, ClassificationSlots.TAXONOMY_SLOT, activeMatchesForTaxa);
+
+                            if (referenceCoverFilter != null)
+                                referenceCoverFilter.applyFilter(readBlock, activeMatchesForTaxa);
+
+                            if (minCoveredPercent == 0 || DataProcessor.ensureCovered(minCoveredPercent, readBlock, activeMatchesForTaxa, intervals)) {
+                                if (doMatePairs && readBlock.getMateUId() > 0) {
+                                    mateReader.seek(readBlock.getMateUId());
+                                    mateReadBlock.read(mateReader, false, true, doc.getMinScore(), doc.getMaxExpected());
+                                    taxId = assignmentAlgorithm[taxonomyIndex].computeId(activeMatchesForTaxa, readBlock);
+                                    final BitSet activeMatchesForMateTaxa = new BitSet(); // pre filter matches for mate-based taxon identification
+                                    ActiveMatches.compute(doc.getMinScore(), topPercentForActiveMatchFiltering, doc.getMaxExpected(), doc.getMinPercentIdentity(), mateReadBlock, ClassificationSlots.TAXONOMY_SLOT, activeMatchesForMateTaxa);
+                                    if (referenceCoverFilter != null)
+                                        referenceCoverFilter.applyFilter(mateReadBlock, activeMatchesForMateTaxa);
+
+                                    int mateTaxId = assignmentAlgorithm[taxonomyIndex].computeId(activeMatchesForMateTaxa, mateReadBlock);
+                                    if (mateTaxId > 0) {
+                                        if (taxId <= 0) {
+                                            taxId = mateTaxId;
+                                            counts.numberAssignedViaMatePair++;
+                                        } else {
+                                            int bothId = assignmentAlgorithm[taxonomyIndex].getLCA(taxId, mateTaxId);
+                                            if (bothId == taxId)
+                                                taxId = mateTaxId;
+                                                // else if(bothId==taxId) taxId=taxId; // i.e, no change
+                                            else if (bothId != mateTaxId)
+                                                taxId = bothId;
+                                        }
+                                    }
+                                } else {
+                                    taxId = assignmentAlgorithm[taxonomyIndex].computeId(activeMatchesForTaxa, readBlock);
+                                }
+                            } else
+                                counts.numberOfReadsFailedCoveredThreshold++;
+                            if (contaminantManager != null) {
+                                if ((usingLongReadAlgorithm && contaminantManager.isContaminantLongRead(taxId)) || (!usingLongReadAlgorithm && contaminantManager.isContaminantShortRead(readBlock, activeMatchesForTaxa)))
+                                    taxId = IdMapper.CONTAMINANTS_ID;
+                            }
                         }
-                    }
 
-                    if (id <= 0 && readBlock.getNumberOfAvailableMatchBlocks() == 0)
-                        id = IdMapper.NOHITS_ID;
-                    else if (!knownIds[c].contains(id))
-                        id = IdMapper.UNASSIGNED_ID;
+                        for (int c = 0; c < numberOfClassifications; c++) {
+                            int id;
+                            if (taxId == IdMapper.CONTAMINANTS_ID) {
+                                id = IdMapper.CONTAMINANTS_ID;
+                            } else if (hasLowComplexity) {
+                                id = IdMapper.LOW_COMPLEXITY_ID;
+                            } else if (c == taxonomyIndex) {
+                                id = taxId;
+                            } else {
+                                id = DataProcessor.computeFunctionalId(doc, topPercentForActiveMatchFiltering, readBlock, cSlots[c], assignmentAlgorithm[c], referenceCoverFilter);
+
+                                if (id > 0 && usingLongReadAlgorithm && assignmentAlgorithm[c] instanceof IMultiAssignmentAlgorithm) {
+                                    int numberOfSegments = ((IMultiAssignmentAlgorithm) assignmentAlgorithm[c]).getAdditionalClassIds(c, numberOfClassifications, moreClassIds[c]);
+                                    multiGeneWeights[c] = (numberOfSegments > 0 ? (float) readBlock.getReadWeight() / (float) numberOfSegments : 0);
+                                }
+                            }
 
-                    classIds[c] = id;
-                    if (id == IdMapper.UNASSIGNED_ID)
-                        counts.countUnassigned[c].incrementAndGet();
-                    else if (id > 0)
-                        counts.countAssigned[c].incrementAndGet();
-                }
-                synchronized (syncUpdateList) {
-                    updateList.addItem(readBlock.getUId(), readBlock.getReadWeight(), classIds);
+                            id = DataProcessor.checkId(id, readBlock, knownIds[c]);
+                            classIds[c] = id;
+                            if (id == IdMapper.UNASSIGNED_ID)
+                                counts.countUnassigned[c]++;
+                            else if (id > 0)
+                                counts.countAssigned[c]++;
+                        }
+                        buffer.add(readBlock.getUId(), readBlock.getReadWeight(), classIds);
 
-                    if (usingLongReadAlgorithm) {
-                        for (int c = 0; c < numberOfClassifications; c++) {
-                            for (int[] aClassIds : moreClassIds[c]) {
-                                updateList.addItem(readBlock.getUId(), multiGeneWeights[c], aClassIds);
+                        if (usingLongReadAlgorithm) {
+                            for (int c = 0; c < numberOfClassifications; c++) {
+                                for (int[] aClassIds : moreClassIds[c]) {
+                                    buffer.add(readBlock.getUId(), multiGeneWeights[c], aClassIds);
+                                }
                             }
                         }
                     }
+                    merger.add(buffer);
                 }
             }
-        } finally {
-            if (mateReader != null)
-                mateReader.close();
         }
     }
 
     /**
-     * check that enough of read is covered by alignments
-     *
-     * @param minCoveredPercent percent of read that must be covered
-     * @param readBlock
-     * @param activeMatches
-     * @param intervals         this will be non-null in long read mode, in which case we check the total cover, otherwise, we check the amount covered by any one match
-     * @return true, if sufficient coverage
+     * the items computed for one batch of reads
      */
-    private boolean ensureCovered(double minCoveredPercent, IReadBlock readBlock, BitSet activeMatches, IntervalTree<Object> intervals) {
-        int lengthToCover = (int) (0.01 * minCoveredPercent * readBlock.getReadLength());
-        if (lengthToCover == 0)
-            return true;
-
-        if (intervals != null)
-            intervals.clear();
-
-        for (int m = activeMatches.nextSetBit(0); m != -1; m = activeMatches.nextSetBit(m + 1)) {
-            final IMatchBlock matchBlock = readBlock.getMatchBlock(m);
-            if (Math.abs(matchBlock.getAlignedQueryStart() - matchBlock.getAlignedQueryStart()) >= lengthToCover)
-                return true;
-            if (intervals != null) {
-                Interval<Object> interval = new Interval<>(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd(), null);
-                intervals.add(interval);
-                if (intervals.getCovered() >= lengthToCover)
-                    return true;
+    private static class ItemBuffer {
+        private final int batchIndex;
+        private final int numberOfClassifications;
+        private long[] readUids;
+        private float[] weights;
+        private int[] classIds;
+        private int size;
+
+        ItemBuffer(int batchIndex, int numberOfClassifications, int capacity) {
+            this.batchIndex = batchIndex;
+            this.numberOfClassifications = numberOfClassifications;
+            readUids = new long[capacity];
+            weights = new float[capacity];
+            classIds = new int[capacity * numberOfClassifications];
+        }
+
+        void add(long readUid, float weight, int[] ids) {
+            if (size == readUids.length) {
+                readUids = Arrays.copyOf(readUids, 2 * size);
+                weights = Arrays.copyOf(weights, 2 * size);
+                classIds = Arrays.copyOf(classIds, 2 * size * numberOfClassifications);
+            }
+            readUids[size] = readUid;
+            weights[size] = weight;
+            System.arraycopy(ids, 0, classIds, size * numberOfClassifications, numberOfClassifications);
+            size++;
+        }
+
+        void addTo(UpdateItemList updateList, int[] ids, ReadAssignmentCache.Writer cacheWriter) throws java.io.IOException {
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(classIds, i * numberOfClassifications, ids, 0, numberOfClassifications);
+                updateList.addItem(readUids[i], weights[i], ids);
+                if (cacheWriter != null)
+                    cacheWriter.add(readUids[i], weights[i], ids);
             }
         }
-        return false;
     }
 
-    class Counts {
-        final AtomicLong numberOfReadsFound = new AtomicLong();
-        private AtomicLong totalWeightX1000 = new AtomicLong();
-        final AtomicLong numberOfMatches = new AtomicLong();
-        final AtomicLong numberOfReadsWithLowComplexity = new AtomicLong();
-        final AtomicLong numberOfReadsWithHits = new AtomicLong();
-        final AtomicLong numberAssignedViaMatePair = new AtomicLong();
-        final AtomicLong numberOfReadsFailedCoveredThreshold = new AtomicLong();
-        final AtomicInteger[] countUnassigned;
-        final AtomicInteger[] countAssigned;
+    /**
+     * merges the item buffers of processed batches in batch order, as soon as all preceding batches are available,
+     * so that only out-of-order batches are held in memory
+     */
+    private static class BufferMerger {
+        private final UpdateItemList updateList;
+        private final ReadAssignmentCache.Writer cacheWriter;
+        private final int[] classIds;
+        private final TreeMap<Integer, ItemBuffer> pending = new TreeMap<>();
+        private int nextBatchIndex = 0;
+
+        BufferMerger(UpdateItemList updateList, ReadAssignmentCache.Writer cacheWriter, int numberOfClassifications) {
+            this.updateList = updateList;
+            this.cacheWriter = cacheWriter;
+            this.classIds = new int[numberOfClassifications];
+        }
 
-        Counts(int numberOfClassifications) {
-            countUnassigned = new AtomicInteger[numberOfClassifications];
-            for (int i = 0; i < numberOfClassifications; i++)
-                countUnassigned[i] = new AtomicInteger();
-            countAssigned = new AtomicInteger[numberOfClassifications];
-            for (int i = 0; i < numberOfClassifications; i++)
-                countAssigned[i] = new AtomicInteger();
+        /**
+         * add the buffer of a processed batch and merge all buffers that are now in order
+         *
+         * @param buffer
+         * @throws java.io.IOException
+         */
+        synchronized void add(ItemBuffer buffer) throws java.io.IOException {
+            pending.put(buffer.batchIndex, buffer);
+            while (pending.size() > 0 && pending.firstKey() == nextBatchIndex) {
+                pending.pollFirstEntry().getValue().addTo(updateList, classIds, cacheWriter);
+                nextBatchIndex++;
+            }
         }
 
-        public void setTotalWeight(double weight) {
-            totalWeightX1000.set(Math.round(1000 * weight));
+        /**
+         * merge all remaining buffers in batch order
+         *
+         * @throws java.io.IOException
+         */
+        synchronized void flush() throws java.io.IOException {
+            while (pending.size() > 0) {
+                final Map.Entry<Integer, ItemBuffer> entry = pending.pollFirstEntry();
+                entry.getValue().addTo(updateList, classIds, cacheWriter);
+                nextBatchIndex = entry.getKey() + 1;
+            }
         }
+    }
 
-        public long getTotalWeight() {
-            return totalWeightX1000.get() / 1000;
+    /**
+     * counts, kept separately by each worker and summed at the end
+     */
+    private static class Counts {
+        long numberOfReadsFound;
+        double totalWeight;
+        long numberOfMatches;
+        long numberOfReadsWithLowComplexity;
+        long numberOfReadsWithHits;
+        long numberAssignedViaMatePair;
+        long numberOfReadsFailedCoveredThreshold;
+        final int[] countUnassigned;
+        final int[] countAssigned;
+
+        Counts(int numberOfClassifications) {
+            countUnassigned = new int[numberOfClassifications];
+            countAssigned = new int[numberOfClassifications];
         }
 
-        public void addToTotalWeight(double weight) {
-            totalWeightX1000.addAndGet(Math.round(1000 * weight));
+        void add(Counts other) {
+            numberOfReadsFound += other.numberOfReadsFound;
+            totalWeight += other.totalWeight;
+            numberOfMatches += other.numberOfMatches;
+            numberOfReadsWithLowComplexity += other.numberOfReadsWithLowComplexity;
+            numberOfReadsWithHits += other.numberOfReadsWithHits;
+            numberAssignedViaMatePair += other.numberAssignedViaMatePair;
+            numberOfReadsFailedCoveredThreshold += other.numberOfReadsFailedCoveredThreshold;
+            for (int c = 0; c < countAssigned.length; c++) {
+                countUnassigned[c] += other.countUnassigned[c];
+                countAssigned[c] += other.countAssigned[c];
+            }
         }
     }
 }
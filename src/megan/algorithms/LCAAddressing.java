@@ -40,23 +40,27 @@ public class LCAAddressing {
     public static void computeAddresses(PhyloTree tree, Map<Integer, String> id2address, Map<String, Integer> address2id) {
         Node root = tree.getRoot();
         if (root != null)
-            buildId2AddressRec(root, "", id2address, address2id);
+            buildId2AddressRec(root, new StringBuilder(), id2address, address2id);
     }
 
     /**
-     * computes the id to address mapping
+     * computes the id to address mapping. The path buffer is shared by all calls and restored on return
      *
      * @param v
      * @param path
      */
-    private static void buildId2AddressRec(Node v, String path, Map<Integer, String> id2address, Map<String, Integer> address2id) {
-        int id = (Integer) v.getInfo();
-        id2address.put(id, path);
-        address2id.put(path, id);
+    private static void buildId2AddressRec(Node v, StringBuilder path, Map<Integer, String> id2address, Map<String, Integer> address2id) {
+        final int id = (Integer) v.getInfo();
+        final String address = path.toString();
+        id2address.put(id, address);
+        address2id.put(address, id);
+        final int length = path.length();
         if (v.getOutDegree() < Character.MAX_VALUE) {
             char count = 1;
             for (Edge f = v.getFirstOutEdge(); f != null; f = v.getNextOutEdge(f)) {
-                buildId2AddressRec(f.getOpposite(v), path + count, id2address, address2id);
+                path.append(count);
+                buildId2AddressRec(f.getOpposite(v), path, id2address, address2id);
+                path.setLength(length);
                 count++;
             }
         } else { // use two characters if outdegree is too big
@@ -67,7 +71,9 @@ public class LCAAddressing {
                     count2++;
                     count1 = 1;
                 }
-                buildId2AddressRec(f.getOpposite(v), (path + count1) + count2, id2address, address2id);
+                path.append(count1).append(count2);
+                buildId2AddressRec(f.getOpposite(v), path, id2address, address2id);
+                path.setLength(length);
                 count1++;
             }
         }
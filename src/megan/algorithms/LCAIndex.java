@@ -0,0 +1,277 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.algorithms;
+
+import jloda.graph.Edge;
+import jloda.graph.Node;
+import jloda.phylo.PhyloTree;
+import megan.classification.data.IntIntMap;
+
+/**
+ * Integer-based LCA index for a classification tree. Nodes are numbered densely in pre-order, so that
+ * the subtree below a node occupies a contiguous range of indices. Ancestor queries use jump pointers
+ * (binary lifting in O(n) space), so no strings are compared and no objects are allocated per query.
+ * <p>
+ * Nodes are visited in the same order as in LCAAddressing, so all methods give the same results as
+ * the corresponding computations on string addresses
+ * <p>
+ * Daniel Huson, 10.2018
+ */
+public class LCAIndex {
+    private final int[] parent; // parent node index, -1 for root
+    private final int[] jump; // jump pointer, an ancestor used to skip up the tree
+    private final int[] depth; // depth of node, equals length of its address
+    private final int[] end; // one more than the largest index in the subtree below node
+    private final int[] index2id;
+    private final IntIntMap id2indexPlusOne;
+
+    private int next;
+
+    /**
+     * create an LCA index for the given tree
+     *
+     * @param tree
+     * @return index or null, if tree is empty or has a node with too many children to be addressed using single characters
+     */
+    public static LCAIndex create(PhyloTree tree) {
+        final Node root = tree.getRoot();
+        if (root == null)
+            return null;
+        final int size = countRec(root);
+        if (size < 0)
+            return null;
+        return new LCAIndex(root, size);
+    }
+
+    /**
+     * constructor
+     *
+     * @param root
+     * @param size number of nodes, counting reticulate nodes once for each path
+     */
+    private LCAIndex(Node root, int size) {
+        parent = new int[size];
+        jump = new int[size];
+        depth = new int[size];
+        end = new int[size];
+        index2id = new int[size];
+        id2indexPlusOne = new IntIntMap(size, 0.9f);
+        buildRec(root, -1);
+    }
+
+    /**
+     * count the number of node visits of a depth-first traversal
+     *
+     * @param v
+     * @return count or -1, if some node has too many children
+     */
+    private static int countRec(Node v) {
+        if (v.getOutDegree() >= Character.MAX_VALUE)
+            return -1;
+        int count = 1;
+        for (Edge f = v.getFirstOutEdge(); f != null; f = v.getNextOutEdge(f)) {
+            final int below = countRec(f.getOpposite(v));
+            if (below < 0)
+                return -1;
+            count += below;
+        }
+        return count;
+    }
+
+    /**
+     * recursively assigns pre-order indices, in the same order as the recursion used to compute addresses
+     *
+     * @param v
+     * @param p index of parent
+     */
+    private void buildRec(Node v, int p) {
+        final int index = next++;
+        final int id = (Integer) v.getInfo();
+        index2id[index] = id;
+        id2indexPlusOne.put(id, index + 1); // last visit wins, as in id2address
+        parent[index] = p;
+        if (p == -1) {
+            depth[index] = 0;
+            jump[index] = index;
+        } else {
+            depth[index] = depth[p] + 1;
+            final int j = jump[p];
+            if (depth[p] - depth[j] == depth[j] - depth[jump[j]])
+                jump[index] = jump[j];
+            else
+                jump[index] = p;
+        }
+        for (Edge f = v.getFirstOutEdge(); f != null; f = v.getNextOutEdge(f)) {
+            buildRec(f.getOpposite(v), index);
+        }
+        end[index] = next;
+    }
+
+    /**
+     * get the number of indexed nodes
+     *
+     * @return size
+     */
+    public int size() {
+        return index2id.length;
+    }
+
+    /**
+     * get the node index for a class id
+     *
+     * @param id
+     * @return index or -1, if id not in tree
+     */
+    public int getIndex(int id) {
+        return id2indexPlusOne.get(id) - 1;
+    }
+
+    /**
+     * get the class id of a node index
+     *
+     * @param index
+     * @return id
+     */
+    public int getId(int index) {
+        return index2id[index];
+    }
+
+    public int getDepth(int index) {
+        return depth[index];
+    }
+
+    public int getParent(int index) {
+        return parent[index];
+    }
+
+    /**
+     * get the index one beyond the last node in the subtree below the given node
+     *
+     * @param index
+     * @return end of subtree
+     */
+    public int getSubtreeEnd(int index) {
+        return end[index];
+    }
+
+    /**
+     * is a an ancestor of b, or equal to b?
+     *
+     * @param a
+     * @param b
+     * @return true, if a lies on path from root to b
+     */
+    public boolean isAncestorOrSelf(int a, int b) {
+        return a <= b && b < end[a];
+    }
+
+    /**
+     * gets the ancestor of v at the given depth
+     *
+     * @param v
+     * @param targetDepth must be at most the depth of v
+     * @return ancestor
+     */
+    public int getAncestorAtDepth(int v, int targetDepth) {
+        while (depth[v] > targetDepth) {
+            if (depth[jump[v]] >= targetDepth)
+                v = jump[v];
+            else
+                v = parent[v];
+        }
+        return v;
+    }
+
+    /**
+     * gets the LCA of two nodes
+     *
+     * @param a
+     * @param b
+     * @return LCA
+     */
+    public int getLCA(int a, int b) {
+        while (!isAncestorOrSelf(a, b)) {
+            if (!isAncestorOrSelf(jump[a], b))
+                a = jump[a];
+            else
+                a = parent[a];
+        }
+        return a;
+    }
+
+    /**
+     * computes the common ancestor of a set of nodes. This gives the same result as LCAAddressing.getCommonPrefix
+     * on the corresponding addresses, in particular, the root is ignored unless all nodes are the root
+     *
+     * @param indices
+     * @param numberOfIndices
+     * @param ignoreAncestors ignore nodes that are ancestors of the deepest node
+     * @return index of common ancestor, the root, if no indices given
+     */
+    public int getCommonAncestor(final int[] indices, final int numberOfIndices, final boolean ignoreAncestors) {
+        if (numberOfIndices == 0)
+            return 0;
+        else if (numberOfIndices == 1)
+            return indices[0];
+
+        int reference = -1;
+        for (int i = 0; i < numberOfIndices; i++) {
+            final int other = indices[i];
+            if (depth[other] > 0) {
+                if (reference == -1 || (ignoreAncestors ? depth[other] > depth[reference] : depth[other] < depth[reference]))
+                    reference = other;
+            }
+        }
+        if (reference == -1)
+            return 0;
+
+        int result = reference;
+        for (int i = 0; i < numberOfIndices; i++) {
+            final int other = indices[i];
+            if (depth[other] > 0 && !isAncestorOrSelf(result, other) && !(ignoreAncestors && isAncestorOrSelf(other, reference)))
+                result = getLCA(result, other);
+        }
+        return result;
+    }
+
+    /**
+     * get the LCA of two class ids. Ids that are not contained in the tree are ignored
+     *
+     * @param id1
+     * @param id2
+     * @param ignoreAncestors if one is ancestor of the other, return the lower one
+     * @return id of LCA
+     */
+    public int getLCAOfIds(int id1, int id2, boolean ignoreAncestors) {
+        final int a = getIndex(id1);
+        final int b = getIndex(id2);
+        if (a == -1 && b == -1)
+            return index2id[0];
+        else if (a == -1 || depth[a] == 0)
+            return index2id[b == -1 ? 0 : b];
+        else if (b == -1 || depth[b] == 0)
+            return index2id[a];
+        else if (ignoreAncestors && isAncestorOrSelf(a, b))
+            return index2id[b];
+        else if (ignoreAncestors && isAncestorOrSelf(b, a))
+            return index2id[a];
+        else
+            return index2id[getLCA(a, b)];
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.algorithms;
+
+import jloda.util.Basic;
+import jloda.util.CanceledException;
+import jloda.util.ProgramProperties;
+import jloda.util.ProgressListener;
+import megan.classification.Classification;
+import megan.classification.ClassificationManager;
+import megan.classification.IdMapper;
+import megan.core.Document;
+import megan.data.ClassificationSlots;
+import megan.data.IReadBlock;
+import megan.data.IReadBlockIterator;
+import megan.data.UpdateItemList;
+import megan.fx.NotificationsInSwing;
+import megan.rma6.FooterSectionRMA6;
+import megan.rma6.RMA6File;
+import megan.viewer.TaxonomyData;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * caches the per-read assignments computed while binning an RMA6 file in a file next to it (file name plus ".assignments").
+ * When a file is rebinned and only post-assignment parameters have changed (e.g. min support), the cached assignments
+ * are used and only the min-support filter and the classification tables are recomputed. Classifications that are not in the cache
+ * are computed from the reads, reusing the cached taxonomic assignments, when in short-read mode.
+ * <p>
+ * The cache is only used if the reads section of the file and all parameters that influence the assignment of a read are unchanged,
+ * including disabled taxa and classes and the mapping files and parsing settings of each classification
+ * Daniel Huson, 10.2018
+ */
+public class ReadAssignmentCache {
+    public static final String PROPERTIES_USE_CACHE = "UseReadAssignmentCache";
+    public static final String FILE_SUFFIX = ".assignments";
+
+    private static final int MAGIC_NUMBER = ('R' << 24) | ('A' << 16) | ('C' << 8) | '1';
+    private static final byte ITEM = 1;
+    private static final byte END = 0;
+
+    /**
+     * bin all reads using the cached assignments, if possible
+     *
+     * @param doc
+     * @return number of reads, or -1, if the cache could not be used
+     * @throws CanceledException
+     */
+    public static int apply(final Document doc) throws CanceledException {
+        if (!isApplicable(doc))
+            return -1;
+        final File file = getCacheFile(doc);
+        if (!file.exists())
+            return -1;
+
+        final String[] cNames = doc.getActiveViewers().toArray(new String[doc.getActiveViewers().size()]);
+        final boolean[] useLCAForClassification = computeUseLCA(cNames);
+        final UpdateItemList updateList = new UpdateItemList(cNames.length);
+
+        final Totals totals;
+        try {
+            totals = readCache(doc, file, cNames, useLCAForClassification, updateList);
+        } catch (IOException ex) {
+            System.err.println("Failed to use cached read assignments: " + ex.getMessage());
+            return -1;
+        }
+        if (totals == null)
+            return -1;
+
+        try {
+            return DataProcessor.finishBinning(doc, cNames, useLCAForClassification, updateList, totals.numberOfReadsFound, totals.totalWeight);
+        } catch (IOException ex) {
+            Basic.caught(ex);
+            NotificationsInSwing.showInternalError("Data Processor failed: " + ex.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * reads the cache and adds all cached items to the update list. Classifications that are not cached are computed, if possible
+     *
+     * @return totals or null, if the cache does not fit the current parameters
+     */
+    private static Totals readCache(final Document doc, final File file, final String[] cNames, final boolean[] useLCAForClassification, final UpdateItemList updateList) throws IOException, CanceledException {
+        final ProgressListener progress = doc.getProgressListener();
+
+        try (DataInputStream ins = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20))) {
+            if (ins.readInt() != MAGIC_NUMBER || !ins.readUTF().equals(computeStamp(doc)) || !ins.readUTF().equals(computeSignature(doc)))
+                return null;
+
+            final int numberOfCachedColumns = ins.readInt();
+            final String[] cachedNames = new String[numberOfCachedColumns];
+            final String[] cachedSignatures = new String[numberOfCachedColumns];
+            for (int j = 0; j < numberOfCachedColumns; j++) {
+                cachedNames[j] = ins.readUTF();
+                cachedSignatures[j] = ins.readUTF();
+            }
+
+            // determine which cached column provides which classification:
+            final int taxonomyIndex = Basic.getIndex(Classification.Taxonomy, cNames);
+            final String[] signatures = new String[cNames.length];
+            final int[] column = new int[cNames.length];
+            final ArrayList<Integer> missing = new ArrayList<>();
+            for (int c = 0; c < cNames.length; c++) {
+                signatures[c] = computeColumnSignature(doc, cNames[c], useLCAForClassification[c], taxonomyIndex >= 0);
+                column[c] = -1;
+                for (int j = 0; j < numberOfCachedColumns; j++) {
+                    if (cachedNames[j].equals(cNames[c]) && cachedSignatures[j].equals(signatures[c])) {
+                        column[c] = j;
+                        break;
+                    }
+                }
+                if (column[c] == -1)
+                    missing.add(c);
+            }
+
+            // missing classifications can only be computed on their own in short-read mode and if the taxonomic assignments are available:
+            if (missing.size() > 0 && (doc.getLcaAlgorithm() == Document.LCAAlgorithm.longReads || (taxonomyIndex >= 0 && column[taxonomyIndex] == -1)))
+                return null;
+
+            final int numberOfColumns = numberOfCachedColumns + missing.size();
+            final String[] allNames = Arrays.copyOf(cachedNames, numberOfColumns);
+            final String[] allSignatures = Arrays.copyOf(cachedSignatures, numberOfColumns);
+            for (int i = 0; i < missing.size(); i++) {
+                allNames[numberOfCachedColumns + i] = cNames[missing.get(i)];
+                allSignatures[numberOfCachedColumns + i] = signatures[missing.get(i)];
+            }
+
+            System.err.println("Using cached read assignments: " + file.getPath());
+            if (missing.size() > 0)
+                System.err.println("Computing assignments for: " + Basic.toString(Arrays.copyOfRange(allNames, numberOfCachedColumns, numberOfColumns), ", "));
+
+            final int[] cachedIds = new int[numberOfCachedColumns];
+            final int[] classIds = new int[cNames.length];
+            final int[] allIds = new int[numberOfColumns];
+            final long bytesPerItem = 13 + 4 * numberOfCachedColumns;
+
+            final Totals totals = new Totals();
+            boolean ok = false;
+            final Writer writer = (missing.size() > 0 ? createWriter(doc, allNames, allSignatures) : null);
+            try (AdditionalAssignments additionalAssignments = (missing.size() > 0 ? new AdditionalAssignments(doc, cNames, useLCAForClassification, missing) : null)) {
+                progress.setTasks("Binning reads", missing.size() == 0 ? "Reading cached assignments" : "Analyzing alignments");
+                progress.setMaximum(additionalAssignments != null ? additionalAssignments.getMaximumProgress() : file.length());
+                progress.setProgress(0);
+
+                long count = 0;
+                byte marker;
+                while ((marker = ins.readByte()) == ITEM) {
+                    final long uid = ins.readLong();
+                    final float weight = ins.readFloat();
+                    for (int j = 0; j < numberOfCachedColumns; j++) {
+                        cachedIds[j] = ins.readInt();
+                    }
+                    for (int c = 0; c < cNames.length; c++) {
+                        if (column[c] != -1)
+                            classIds[c] = cachedIds[column[c]];
+                    }
+                    if (additionalAssignments != null) {
+                        if (!additionalAssignments.compute(uid, taxonomyIndex >= 0 ? classIds[taxonomyIndex] : 0, classIds))
+                            throw new IOException("Cached read assignments don't match reads");
+                        if (writer != null) {
+                            System.arraycopy(cachedIds, 0, allIds, 0, numberOfCachedColumns);
+                            for (int i = 0; i < missing.size(); i++)
+                                allIds[numberOfCachedColumns + i] = classIds[missing.get(i)];
+                            writer.add(uid, weight, allIds);
+                        }
+                    }
+                    updateList.addItem(uid, weight, classIds);
+
+                    if ((++count & 1023) == 0)
+                        progress.setProgress(additionalAssignments != null ? additionalAssignments.getProgress() : count * bytesPerItem);
+                }
+                if (marker != END)
+                    throw new IOException("Cached read assignments: corrupt file");
+                totals.numberOfReadsFound = ins.readLong();
+                totals.totalWeight = ins.readDouble();
+
+                if (additionalAssignments != null && additionalAssignments.hasMoreReads())
+                    throw new IOException("Cached read assignments don't match reads");
+                ok = true;
+            } finally {
+                if (writer != null) {
+                    if (ok)
+                        writer.finish(totals.numberOfReadsFound, totals.totalWeight);
+                    else
+                        writer.abort();
+                }
+            }
+            System.err.println(String.format("Total reads:  %,15d", totals.numberOfReadsFound));
+            if (totals.totalWeight > totals.numberOfReadsFound)
+                System.err.println(String.format("Total weight: %,15d", (long) totals.totalWeight));
+            return totals;
+        }
+    }
+
+    /**
+     * creates a writer for caching the assignments computed for the given classifications
+     *
+     * @param doc
+     * @param cNames
+     * @param useLCAForClassification
+     * @return writer or null, if caching is not applicable or the cache file cannot be written
+     */
+    public static Writer createWriter(Document doc, String[] cNames, boolean[] useLCAForClassification) {
+        if (!isApplicable(doc))
+            return null;
+        final boolean hasTaxonomy = Basic.getIndex(Classification.Taxonomy, cNames) >= 0;
+        final String[] signatures = new String[cNames.length];
+        for (int c = 0; c < cNames.length; c++) {
+            signatures[c] = computeColumnSignature(doc, cNames[c], useLCAForClassification[c], hasTaxonomy);
+        }
+        return createWriter(doc, cNames, signatures);
+    }
+
+    /**
+     * creates a writer for the given columns
+     */
+    private static Writer createWriter(Document doc, String[] cNames, String[] signatures) {
+        try {
+            return new Writer(getCacheFile(doc), computeStamp(doc), computeSignature(doc), cNames, signatures);
+        } catch (IOException ex) {
+            System.err.println("Can't write read assignments cache: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * is caching applicable to this document?
+     */
+    private static boolean isApplicable(Document doc) {
+        return ProgramProperties.get(PROPERTIES_USE_CACHE, true) && doc.getMeganFile().isRMA6File();
+    }
+
+    /**
+     * get the cache file
+     */
+    private static File getCacheFile(Document doc) {
+        return new File(doc.getMeganFile().getFileName() + FILE_SUFFIX);
+    }
+
+    /**
+     * determines which classifications use the LCA, in the same way as the data processor
+     */
+    private static boolean[] computeUseLCA(String[] cNames) {
+        final boolean[] useLCAForClassification = new boolean[cNames.length];
+        for (int c = 0; c < cNames.length; c++)
+            if (cNames[c].equals(Classification.Taxonomy)) {
+                useLCAForClassification[c] = true;
+            } else {
+                ClassificationManager.ensureTreeIsLoaded(cNames[c]);
+                useLCAForClassification[c] = ProgramProperties.get(cNames[c] + "UseLCA", false);
+            }
+        return useLCAForClassification;
+    }
+
+    /**
+     * computes a stamp that identifies the reads section of the file. The reads section of an RMA6 file is never changed after creation,
+     * whereas rebinning and saving auxiliary data rewrite the rest of the file
+     */
+    private static String computeStamp(Document doc) throws IOException {
+        try (RMA6File rma6File = new RMA6File(doc.getMeganFile().getFileName(), "r")) {
+            final FooterSectionRMA6 footer = rma6File.getFooterSectionRMA6();
+            return String.format("%d:%d:%d:%d:%d", rma6File.getHeaderSectionRMA6().getCreationDate(), footer.getStartReadsSection(), footer.getEndReadsSection(),
+                    footer.getNumberOfReads(), footer.getNumberOfMatches());
+        }
+    }
+
+    /**
+     * computes a signature of all parameters that influence the assignment of any read. Disabled taxa influence the taxonomic LCA
+     * and thus the assignments of all classifications, via contaminant filtering
+     */
+    private static String computeSignature(Document doc) {
+        return String.format("minScore=%s maxExpected=%s minPercentIdentity=%s topPercent=%s lcaAlgorithm=%s lcaCoveragePercent=%s minPercentReadToCover=%s"
+                        + " minPercentReferenceToCover=%s minComplexity=%s longReads=%s pairedReads=%s identityFilter=%s readAssignmentMode=%s blastMode=%s"
+                        + " allowWeightedLCABelowSpecies=%s use-segment-lca=%s MinPercentCoverToDominate=%s MinPercentCoverToStronglyDominate=%s TopPercentScoreToStronglyDominate=%s"
+                        + " disabledTaxa=%s",
+                doc.getMinScore(), doc.getMaxExpected(), doc.getMinPercentIdentity(), doc.getTopPercent(), doc.getLcaAlgorithm(), doc.getLcaCoveragePercent(), doc.getMinPercentReadToCover(),
+                doc.getMinPercentReferenceToCover(), doc.getMinComplexity(), doc.isLongReads(), doc.isPairedReads(), doc.isUseIdentityFilter(), doc.getReadAssignmentMode(), doc.getBlastMode(),
+                ProgramProperties.get("allowWeightedLCABelowSpecies", false), ProgramProperties.get("use-segment-lca", false), ProgramProperties.get("MinPercentCoverToDominate", 50f),
+                ProgramProperties.get("MinPercentCoverToStronglyDominate", 90f), ProgramProperties.get("TopPercentScoreToStronglyDominate", 10f),
+                digest(new TreeSet<>(TaxonomyData.getDisabledTaxa()).toString()));
+    }
+
+    /**
+     * computes the signature of a column of assignments. Contaminant filtering is applied to all classifications, but only if taxonomy is binned, too.
+     * The disabled ids and the mapping configuration determine which ids are known and which are assigned to references
+     */
+    private static String computeColumnSignature(Document doc, String cName, boolean useLCA, boolean hasTaxonomy) {
+        final String contaminants;
+        if (hasTaxonomy && doc.isUseContaminantFilter() && doc.getDataTable().hasContaminants())
+            contaminants = digest(doc.getDataTable().getContaminants());
+        else
+            contaminants = "none";
+        final Classification classification = ClassificationManager.get(cName, true);
+        return String.format("lca=%s ids=%d contaminants=%s disabled=%s mapping=%s", useLCA, classification.getName2IdMap().getIds().size(), contaminants,
+                digest(new TreeSet<>(classification.getIdMapper().getDisabledIds()).toString()), digest(classification.getIdMapper().getMappingConfiguration()));
+    }
+
+    /**
+     * computes an MD5 digest of the given string
+     */
+    private static String digest(String string) {
+        try {
+            final StringBuilder buf = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(string.getBytes()))
+                buf.append(String.format("%02x", b));
+            return buf.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return string.length() + ":" + string.hashCode();
+        }
+    }
+
+    /**
+     * writes the assignments of all reads to a temporary file that replaces the cache file once all reads have been processed
+     */
+    public static class Writer {
+        private final File file;
+        private final File tmpFile;
+        private final DataOutputStream outs;
+        private final int numberOfColumns;
+        private boolean failed;
+
+        private Writer(File file, String stamp, String signature, String[] cNames, String[] signatures) throws IOException {
+            this.file = file;
+            this.tmpFile = new File(file.getPath() + ".tmp");
+            this.numberOfColumns = cNames.length;
+            outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 20));
+            outs.writeInt(MAGIC_NUMBER);
+            outs.writeUTF(stamp);
+            outs.writeUTF(signature);
+            outs.writeInt(cNames.length);
+            for (int c = 0; c < cNames.length; c++) {
+                outs.writeUTF(cNames[c]);
+                outs.writeUTF(signatures[c]);
+            }
+        }
+
+        /**
+         * add an item, in the same order as added to the update list. A write error does not interrupt binning, the cache is simply not written
+         *
+         * @param readUid
+         * @param weight
+         * @param classIds
+         */
+        public void add(long readUid, float weight, int[] classIds) {
+            if (!failed) {
+                try {
+                    outs.writeByte(ITEM);
+                    outs.writeLong(readUid);
+                    outs.writeFloat(weight);
+                    for (int c = 0; c < numberOfColumns; c++)
+                        outs.writeInt(classIds[c]);
+                } catch (IOException ex) {
+                    System.err.println("Can't write read assignments cache: " + ex.getMessage());
+                    failed = true;
+                }
+            }
+        }
+
+        /**
+         * finish writing and replace the cache file
+         *
+         * @param numberOfReadsFound
+         * @param totalWeight
+         */
+        public void finish(long numberOfReadsFound, double totalWeight) {
+            if (failed) {
+                abort();
+                return;
+            }
+            try {
+                outs.writeByte(END);
+                outs.writeLong(numberOfReadsFound);
+                outs.writeDouble(totalWeight);
+                outs.close();
+                if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file))
+                    throw new IOException("Failed to rename file: " + tmpFile.getPath());
+            } catch (IOException ex) {
+                System.err.println("Can't write read assignments cache: " + ex.getMessage());
+                abort();
+            }
+        }
+
+        /**
+         * abort writing and delete the temporary file
+         */
+        public void abort() {
+            try {
+                outs.close();
+            } catch (IOException ignored) {
+            }
+            if (tmpFile.exists() && !tmpFile.delete())
+                System.err.println("Failed to delete file: " + tmpFile.getPath());
+        }
+    }
+
+    /**
+     * computes the assignments of reads to classifications that are not in the cache, in short-read mode
+     */
+    private static class AdditionalAssignments implements Closeable {
+        private final Document doc;
+        private final int[] missing;
+        private final int[] cSlots;
+        private final IAssignmentAlgorithm[] assignmentAlgorithm;
+        private final Set<Integer>[] knownIds;
+        private final ReferenceCoverFilter referenceCoverFilter;
+        private final IReadBlockIterator it;
+
+        AdditionalAssignments(Document doc, String[] cNames, boolean[] useLCAForClassification, List<Integer> missing) throws IOException, CanceledException {
+            this.doc = doc;
+            this.missing = new int[missing.size()];
+            for (int i = 0; i < missing.size(); i++)
+                this.missing[i] = missing.get(i);
+            cSlots = ClassificationSlots.getSlots(cNames);
+
+            assignmentAlgorithm = new IAssignmentAlgorithm[cNames.length];
+            knownIds = new HashSet[cNames.length];
+            for (int c : this.missing) {
+                final IAssignmentAlgorithmCreator creator;
+                if (useLCAForClassification[c])
+                    creator = new AssignmentUsingLCACreator(cNames[c]);
+                else
+                    creator = new AssignmentUsingBestHitCreator(cNames[c], doc.getMeganFile().getFileName());
+                assignmentAlgorithm[c] = creator.createAssignmentAlgorithm();
+                knownIds[c] = new HashSet<>(ClassificationManager.get(cNames[c], true).getName2IdMap().getIds());
+            }
+
+            if (doc.getMinPercentReferenceToCover() > 0) {
+                referenceCoverFilter = new ReferenceCoverFilter(doc.getMinPercentReferenceToCover());
+                referenceCoverFilter.compute(doc.getProgressListener(), doc.getConnector(), doc.getMinScore(), doc.getTopPercent(), doc.getMaxExpected(), doc.getMinPercentIdentity());
+            } else
+                referenceCoverFilter = null;
+
+            it = doc.getConnector().getAllReadsIterator(0, 10, false, true);
+        }
+
+        /**
+         * computes the missing assignments for the next read
+         *
+         * @param readUid  expected uid of the next read
+         * @param taxId    cached taxonomic assignment, or 0
+         * @param classIds the missing assignments are set here
+         * @return false, if the next read does not have the expected uid
+         */
+        boolean compute(long readUid, int taxId, int[] classIds) {
+            if (!it.hasNext())
+                return false;
+            final IReadBlock readBlock = it.next();
+            if (readBlock.getUId() != readUid)
+                return false;
+
+            final boolean hasLowComplexity = readBlock.getComplexity() > 0 && readBlock.getComplexity() + 0.01 < doc.getMinComplexity();
+
+            for (int c : missing) {
+                int id;
+                if (taxId == IdMapper.CONTAMINANTS_ID) {
+                    id = IdMapper.CONTAMINANTS_ID;
+                } else if (hasLowComplexity) {
+                    id = IdMapper.LOW_COMPLEXITY_ID;
+                } else {
+                    id = DataProcessor.computeFunctionalId(doc, doc.getTopPercent(), readBlock, cSlots[c], assignmentAlgorithm[c], referenceCoverFilter);
+                }
+                classIds[c] = DataProcessor.checkId(id, readBlock, knownIds[c]);
+            }
+            return true;
+        }
+
+        boolean hasMoreReads() {
+            return it.hasNext();
+        }
+
+        long getMaximumProgress() {
+            return it.getMaximumProgress();
+        }
+
+        long getProgress() {
+            return it.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            it.close();
+        }
+    }
+
+    /**
+     * number of reads and total weight
+     */
+    private static class Totals {
+        long numberOfReadsFound;
+        double totalWeight;
+    }
+}
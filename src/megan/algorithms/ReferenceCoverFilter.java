@@ -45,17 +45,12 @@ public class ReferenceCoverFilter {
     private float proportionToCover = 0;
     private Set<String> referencesToUse = new HashSet<>();
 
-    private final int mask = 1023; // 2^10 - 1
-    private final Object[] sync = new Object[mask + 1];
-
     /**
      * Constructor
      *
      * @param percentToCover
      */
     public ReferenceCoverFilter(float percentToCover) {
-        for (int i = 0; i < sync.length; i++)
-            sync[i] = new Object();
         setPercentToCover(percentToCover);
     }
 
@@ -73,8 +68,7 @@ public class ReferenceCoverFilter {
         referencesToUse.clear();
 
         if (getPercentToCover() > 0) {
-            final Map<String, Integer> ref2length = new HashMap<>();
-            final Map<String, IntervalChain> ref2intervals = new HashMap<>();
+            final Map<String, ReferenceCover> ref2cover = new HashMap<>();
 
             progress.setSubtask("Determining reference coverage");
             System.err.println(String.format("Running reference coverage filter with threshold=%.1f%%", getPercentToCover()));
@@ -83,6 +77,11 @@ public class ReferenceCoverFilter {
             if (numberOfThreads == 0)
                 return; // no reads
 
+            // each thread accumulates the covered intervals of references separately, these are merged at the end:
+            final ArrayList<Map<String, ReferenceCover>> threadRef2Cover = new ArrayList<>(numberOfThreads);
+            for (int t = 0; t < numberOfThreads; t++)
+                threadRef2Cover.add(new HashMap<>());
+
             final ExecutorService service = Executors.newFixedThreadPool(numberOfThreads);
             try {
                 final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
@@ -91,32 +90,33 @@ public class ReferenceCoverFilter {
                 final LinkedBlockingQueue<IReadBlock> queue = new LinkedBlockingQueue<>(1000);
 
                 for (int t = 0; t < numberOfThreads; t++) {
+                    final Map<String, ReferenceCover> ref2coverForThread = threadRef2Cover.get(t);
                     service.submit(new Runnable() {
                         @Override
                         public void run() {
                             try {
+                                final BitSet activeMatches = new BitSet(); // pre filter matches for taxon identification
                                 while (true) {
                                     final IReadBlock readBlock = queue.take();
                                     if (readBlock == sentinel)
                                         break;
-                                    final BitSet activeMatches = new BitSet(); // pre filter matches for taxon identification
                                     ActiveMatches.compute(minScore, topPercent, maxExpected, minPercentIdentity, readBlock, null, activeMatches);
                                     for (int m = activeMatches.nextSetBit(0); m != -1; m = activeMatches.nextSetBit(m + 1)) {
                                         final IMatchBlock matchBlock = readBlock.getMatchBlock(m);
-                                        final String refId = matchBlock.getTextFirstWord();
-                                        synchronized (sync[refId.hashCode() & mask]) {
-                                            if (ref2length.get(refId) == null)
-                                                ref2length.put(refId, matchBlock.getRefLength());
-                                            IntervalChain intervals = ref2intervals.get(refId);
-                                            if (intervals == null) {
-                                                intervals = new IntervalChain();
-                                                ref2intervals.put(refId, intervals);
-                                            }
+                                        final String refId = matchBlock.getRefNameFirstWord();
+                                        ReferenceCover cover = ref2coverForThread.get(refId);
+                                        if (cover == null) {
+                                            cover = new ReferenceCover(matchBlock.getRefLength());
+                                            ref2coverForThread.put(refId, cover);
+                                        }
+                                        int start = matchBlock.getAlignedRefStart();
+                                        int end = matchBlock.getAlignedRefEnd();
+                                        if (start == 0 || end == 0) { // reference coordinates not available, parse from text
                                             final String matchText = matchBlock.getText();
-                                            final int start = BlastParsingUtils.getStartSubject(matchText);
-                                            final int end = BlastParsingUtils.getEndSubject(matchText);
-                                            intervals.add(start, end);
+                                            start = BlastParsingUtils.getStartSubject(matchText);
+                                            end = BlastParsingUtils.getEndSubject(matchText);
                                         }
+                                        cover.intervals.add(start, end);
                                     }
                                 }
                             } catch (Exception e) {
@@ -161,19 +161,28 @@ public class ReferenceCoverFilter {
                 service.shutdownNow();
             }
 
-            for (String ref : ref2length.keySet()) {
-                Integer length = ref2length.get(ref);
-                if (length != null) {
-                    IntervalChain intervalChain = ref2intervals.get(ref);
-                    if (intervalChain != null && intervalChain.getLength() >= proportionToCover * length)
-                        referencesToUse.add(ref);
+            // merge:
+            for (Map<String, ReferenceCover> ref2coverForThread : threadRef2Cover) {
+                for (Map.Entry<String, ReferenceCover> entry : ref2coverForThread.entrySet()) {
+                    final ReferenceCover cover = ref2cover.get(entry.getKey());
+                    if (cover == null)
+                        ref2cover.put(entry.getKey(), entry.getValue());
+                    else
+                        cover.intervals.addAll(entry.getValue().intervals);
                 }
+                ref2coverForThread.clear();
+            }
+
+            for (Map.Entry<String, ReferenceCover> entry : ref2cover.entrySet()) {
+                final ReferenceCover cover = entry.getValue();
+                if (cover.intervals.getLength() >= proportionToCover * cover.length)
+                    referencesToUse.add(entry.getKey());
             }
             if (progress instanceof ProgressPercentage)
                 ((ProgressPercentage) progress).reportTaskCompleted();
 
-            System.err.println("Reference cover filter: using " + referencesToUse.size() + " of " + ref2intervals.size() + " references");
-            if (referencesToUse.size() == ref2intervals.size()) {
+            System.err.println("Reference cover filter: using " + referencesToUse.size() + " of " + ref2cover.size() + " references");
+            if (referencesToUse.size() == ref2cover.size()) {
                 isActive = false;
                 referencesToUse.clear(); // nothing filtered, might as well clear
             } else
@@ -201,6 +210,18 @@ public class ReferenceCoverFilter {
         return isActive;
     }
 
+    /**
+     * length and covered intervals of a reference
+     */
+    private static class ReferenceCover {
+        private final int length;
+        private final IntervalChain intervals = new IntervalChain();
+
+        ReferenceCover(int length) {
+            this.length = length;
+        }
+    }
+
     /**
      * apply the filter to the set of active matches
      *
@@ -210,7 +231,7 @@ public class ReferenceCoverFilter {
     public void applyFilter(IReadBlock readBlock, BitSet activeMatches) {
         if (isActive) {
             for (int m = activeMatches.nextSetBit(0); m != -1; m = activeMatches.nextSetBit(m + 1)) {
-                String refId = readBlock.getMatchBlock(m).getTextFirstWord();
+                String refId = readBlock.getMatchBlock(m).getRefNameFirstWord();
                 if (!getReferencesToUse().contains(refId))
                     activeMatches.set(m, false);
             }
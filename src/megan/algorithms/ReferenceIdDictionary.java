@@ -0,0 +1,72 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.algorithms;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * assigns a dense integer id to each reference sequence accession, so that weights can be kept in an array.
+ * Lookups are lock-free and ids can be added concurrently. If two threads add the same reference at the same time,
+ * the id drawn by the losing thread is not used, so all ids are smaller than size(), but a few may be unused
+ * Daniel Huson, 10.2018
+ */
+public class ReferenceIdDictionary {
+    private final ConcurrentHashMap<String, Integer> ref2id = new ConcurrentHashMap<>(1 << 20);
+    private final AtomicInteger numberOfIds = new AtomicInteger(0);
+
+    /**
+     * get the id of a reference, adding it, if not present
+     *
+     * @param ref
+     * @return id or -1, if ref is null
+     */
+    public int getOrAdd(String ref) {
+        if (ref == null)
+            return -1;
+        final Integer id = ref2id.get(ref);
+        if (id != null)
+            return id;
+        final Integer newId = numberOfIds.getAndIncrement();
+        final Integer previous = ref2id.putIfAbsent(ref, newId);
+        return previous != null ? previous : newId;
+    }
+
+    /**
+     * get the id of a reference
+     *
+     * @param ref
+     * @return id or -1, if not present
+     */
+    public int get(String ref) {
+        if (ref == null)
+            return -1;
+        final Integer id = ref2id.get(ref);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * number of ids
+     *
+     * @return size
+     */
+    public int size() {
+        return numberOfIds.get();
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.assembly;
+
+import jloda.util.Pair;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * k-mer index of contigs, used to determine which pairs of contigs can possibly overlap, so that only these
+ * have to be aligned when merging contigs.
+ * <p>
+ * The seed length k is chosen so that any overlap or containment that satisfies the min percent identity and min overlap
+ * thresholds must contain an exact match of length k (pigeonhole principle: an alignment of length L with e edits contains
+ * an exact match of length at least (L-e)/(e+1)). Contigs that contain letters other than ACGT, or that are too short for
+ * this guarantee, are compared to all other contigs, so the set of candidate pairs always contains all overlapping pairs
+ * <p>
+ * Daniel Huson, 10.2018
+ */
+public class ContigSeedIndex {
+    private static final int MAX_SEED_LENGTH = 31;
+    private static final int MIN_SEED_LENGTH = 10;
+
+    private final int k;
+    private final int numberOfContigs;
+    private final byte[][] sequences;
+
+    private final BitSet compareToAll = new BitSet(); // contigs that are not covered by the seed guarantee
+    private final int[] unseededContigs; // contigs that contain non-ACGT letters, these are candidates for all other contigs
+
+    // open-addressing hash table from k-mer to list of contigs containing it:
+    private final long[] tableKeys;
+    private final int[] tableHeads;
+    private final int tableMask;
+    private int[] entryContig;
+    private int[] entryNext;
+    private int numberOfEntries;
+
+    /**
+     * constructor
+     *
+     * @param k                  seed length
+     * @param sequences          contig sequences
+     * @param minPercentIdentity min percent identity of an overlap
+     * @param minOverlap         min length of an overlap
+     */
+    private ContigSeedIndex(int k, byte[][] sequences, float minPercentIdentity, int minOverlap) {
+        this.k = k;
+        this.numberOfContigs = sequences.length;
+        this.sequences = sequences;
+
+        long totalKmers = 0;
+        for (byte[] sequence : sequences)
+            totalKmers += Math.max(0, sequence.length - k + 1);
+        int tableSize = 1024;
+        while (tableSize < 2 * totalKmers && tableSize < (1 << 30))
+            tableSize <<= 1;
+        tableKeys = new long[tableSize];
+        tableHeads = new int[tableSize];
+        Arrays.fill(tableHeads, -1);
+        tableMask = tableSize - 1;
+        entryContig = new int[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, totalKmers))];
+        entryNext = new int[entryContig.length];
+
+        final BitSet unseeded = new BitSet();
+        for (int c = 0; c < numberOfContigs; c++) {
+            final boolean acgt = isACGT(sequences[c]);
+            // a contig that is shorter than min overlap can still be contained in another contig, so must be long enough for the guarantee:
+            if (!acgt || (sequences[c].length < minOverlap && getGuaranteedExactMatchLength(sequences[c].length, minPercentIdentity) < k))
+                compareToAll.set(c);
+            if (!acgt)
+                unseeded.set(c);
+            else {
+                final long mask = (1L << (2 * k)) - 1;
+                long kmer = 0;
+                for (int pos = 0; pos < sequences[c].length; pos++) {
+                    kmer = ((kmer << 2) | encode(sequences[c][pos])) & mask;
+                    if (pos >= k - 1)
+                        add(kmer, c);
+                }
+            }
+        }
+        unseededContigs = unseeded.stream().toArray();
+    }
+
+    /**
+     * creates a seed index for the given contigs, if the thresholds allow a sufficiently long seed length
+     *
+     * @param contigs            list of contigs, as pairs of header and sequence
+     * @param minPercentIdentity min percent identity of an overlap
+     * @param minOverlap         min length of an overlap
+     * @return index or null, if all pairs of contigs must be compared
+     */
+    public static ContigSeedIndex create(List<Pair<String, String>> contigs, float minPercentIdentity, int minOverlap) {
+        if (contigs.size() < 2)
+            return null;
+        final byte[][] sequences = new byte[contigs.size()][];
+        int maxLength = 0;
+        for (int c = 0; c < sequences.length; c++) {
+            sequences[c] = contigs.get(c).getSecond().getBytes();
+            maxLength = Math.max(maxLength, sequences[c].length);
+        }
+
+        // determine the largest seed length that is guaranteed to be found in any overlap of at least minOverlap:
+        int k = MAX_SEED_LENGTH;
+        for (int length = Math.max(1, minOverlap); length <= maxLength && k >= MIN_SEED_LENGTH; length++) {
+            k = Math.min(k, getGuaranteedExactMatchLength(length, minPercentIdentity));
+        }
+        if (k < MIN_SEED_LENGTH)
+            return null;
+
+        return new ContigSeedIndex(k, sequences, minPercentIdentity, minOverlap);
+    }
+
+    /**
+     * gets all candidate contigs j < i that contig i may overlap with or be contained in
+     *
+     * @param i       contig
+     * @param visited working space, will be cleared
+     * @return sorted candidate contigs
+     */
+    public int[] getCandidates(int i, BitSet visited) {
+        if (compareToAll.get(i)) {
+            final int[] all = new int[i];
+            for (int j = 0; j < i; j++)
+                all[j] = j;
+            return all;
+        }
+        visited.clear();
+        for (int j : unseededContigs) {
+            if (j >= i)
+                break;
+            visited.set(j);
+        }
+        final byte[] sequence = sequences[i];
+        final long mask = (1L << (2 * k)) - 1;
+        long kmer = 0;
+        for (int pos = 0; pos < sequence.length; pos++) {
+            kmer = ((kmer << 2) | encode(sequence[pos])) & mask;
+            if (pos >= k - 1) {
+                for (int e = tableHeads[find(kmer)]; e != -1; e = entryNext[e]) {
+                    if (entryContig[e] < i)
+                        visited.set(entryContig[e]);
+                }
+            }
+        }
+        return visited.stream().toArray();
+    }
+
+    /**
+     * seed length
+     *
+     * @return k
+     */
+    public int getSeedLength() {
+        return k;
+    }
+
+    /**
+     * gets the length of the longest exact match that is guaranteed in any alignment of the given length and min percent identity.
+     * As gaps increase the length of the alignment, an alignment of length L has at most (100-p)*L/p edits
+     *
+     * @param length             length of aligned region of shorter sequence
+     * @param minPercentIdentity
+     * @return guaranteed length of exact match
+     */
+    static int getGuaranteedExactMatchLength(int length, float minPercentIdentity) {
+        if (minPercentIdentity <= 0)
+            return 0;
+        final int edits = (int) Math.floor((100.0 - minPercentIdentity) * length / minPercentIdentity + 0.000001);
+        return (length - edits) / (edits + 1);
+    }
+
+    /**
+     * adds a k-mer for a contig, ignoring repeated occurrences in the same contig
+     */
+    private void add(long kmer, int contig) {
+        final int slot = find(kmer);
+        final int head = tableHeads[slot];
+        if (head != -1 && entryContig[head] == contig)
+            return;
+        if (head == -1)
+            tableKeys[slot] = kmer;
+        if (numberOfEntries == entryContig.length) {
+            entryContig = Arrays.copyOf(entryContig, 2 * numberOfEntries);
+            entryNext = Arrays.copyOf(entryNext, 2 * numberOfEntries);
+        }
+        entryContig[numberOfEntries] = contig;
+        entryNext[numberOfEntries] = head;
+        tableHeads[slot] = numberOfEntries++;
+    }
+
+    /**
+     * finds the slot of a k-mer, or the empty slot where it is to be inserted
+     */
+    private int find(long kmer) {
+        int slot = (int) (mix(kmer) & tableMask);
+        while (tableHeads[slot] != -1 && tableKeys[slot] != kmer)
+            slot = (slot + 1) & tableMask;
+        return slot;
+    }
+
+    private static long mix(long x) {
+        x ^= (x >>> 33);
+        x *= 0xff51afd7ed558ccdL;
+        x ^= (x >>> 33);
+        return x;
+    }
+
+    private static boolean isACGT(byte[] sequence) {
+        for (byte a : sequence) {
+            if (a != 'A' && a != 'C' && a != 'G' && a != 'T')
+                return false;
+        }
+        return true;
+    }
+
+    private static int encode(byte a) {
+        switch (a) {
+            case 'A':
+                return 0;
+            case 'C':
+                return 1;
+            case 'G':
+                return 2;
+            default:
+                return 3;
+        }
+    }
+}
@@ -236,6 +236,11 @@ public class ReadAssembler {
 
             final Map<Integer, Node> contig2Node = new HashMap<>();
 
+            // seed index used to restrict the overlap computation to pairs of contigs that share a k-mer:
+            final ContigSeedIndex seedIndex = (ProgramProperties.get("UseContigSeedIndex", true) ? ContigSeedIndex.create(sortedContigs, minPercentIdentityToMergeContigs, minOverlap) : null);
+            if (verbose && seedIndex != null)
+                System.err.println(String.format("Contig seed length:%5d", seedIndex.getSeedLength()));
+
             for (int i = 0; i < sortedContigs.size(); i++) {
                 final Node v = overlapGraph.newNode(i);
                 contig2Node.put(i, v);
@@ -250,11 +255,15 @@ public class ReadAssembler {
                             final SimpleAligner4DNA simpleAlignerDNA = new SimpleAligner4DNA();
                             simpleAlignerDNA.setMinPercentIdentity(minPercentIdentityToMergeContigs);
                             final Single<Integer> overlap = new Single<>(0);
+                            final BitSet visited = new BitSet();
 
                             for (int i = threadNumber; i < sortedContigs.size(); i += numberOfThreads) {
                                 final String iContig = sortedContigs.get(i).getSecond();
                                 final byte[] iBytes = iContig.getBytes();
-                                for (int j = 0; j < i; j++) {
+                                final int[] candidates = (seedIndex != null ? seedIndex.getCandidates(i, visited) : null);
+                                final int numberOfCandidates = (candidates != null ? candidates.length : i);
+                                for (int c = 0; c < numberOfCandidates; c++) {
+                                    final int j = (candidates != null ? candidates[c] : c);
                                     final byte[] jBytes = sortedContigs.get(j).getSecond().getBytes();
 
                                     if (iBytes.length > jBytes.length)
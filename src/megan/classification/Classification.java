@@ -21,6 +21,7 @@ package megan.classification;
 import jloda.util.Basic;
 import jloda.util.ProgressListener;
 import megan.classification.data.ClassificationFullTree;
+import megan.classification.data.ClassificationSnapshot;
 import megan.classification.data.Name2IdMap;
 import megan.core.Document;
 import megan.fx.NotificationsInSwing;
@@ -77,6 +78,11 @@ public class Classification {
 
             Document.loadVersionInfo(cName + " tree", Basic.replaceFileSuffix(treeFile, ".info"));
 
+            if (ClassificationSnapshot.load(cName, treeFile, mapFile, name2IdMap, fullTree)) {
+                progress.setProgress(2);
+                return;
+            }
+
             name2IdMap.loadFromFile(mapFile);
 
             progress.setProgress(1);
@@ -88,6 +94,8 @@ public class Classification {
             }
             fullTree.loadFromFile(treeFile);
             progress.setProgress(2);
+
+            ClassificationSnapshot.save(cName, treeFile, mapFile, name2IdMap, fullTree);
         } catch (Exception e) {
             Basic.caught(e);
             NotificationsInSwing.showError(MainViewer.getLastActiveFrame(), "Failed to open files: " + treeFile + " and " + mapFile + ": " + e.getMessage());
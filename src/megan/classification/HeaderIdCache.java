@@ -0,0 +1,124 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.classification;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * bounded concurrent cache of ids resolved for reference header lines. Entries are held in two generations:
+ * when the current generation is full, it becomes the previous one and a new generation is started, so recently used
+ * headers survive and the memory used is bounded by twice the max size
+ * Daniel Huson, 10.2018
+ */
+public class HeaderIdCache {
+    public static final String PROPERTIES_MAX_SIZE = "IdParserCacheSize";
+    public static final int DEFAULT_MAX_SIZE = 500000;
+
+    private final String name;
+    private final int maxSize;
+
+    private volatile ConcurrentHashMap<String, Integer> current = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<String, Integer> previous = new ConcurrentHashMap<>();
+    private final AtomicInteger currentSize = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * constructor
+     *
+     * @param name    name used when reporting statistics
+     * @param maxSize max number of headers per generation
+     */
+    public HeaderIdCache(String name, int maxSize) {
+        this.name = name;
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * get the cached id for a header line
+     *
+     * @param header
+     * @return id or null, if not cached
+     */
+    public Integer get(String header) {
+        Integer id = current.get(header);
+        if (id == null) {
+            id = previous.get(header);
+            if (id == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            put(header, id); // move to current generation
+        }
+        hits.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * cache the id for a header line
+     *
+     * @param header
+     * @param id
+     */
+    public void put(String header, int id) {
+        if (current.put(header, id) == null && currentSize.incrementAndGet() >= maxSize) {
+            synchronized (this) {
+                if (currentSize.get() >= maxSize) {
+                    previous = current;
+                    current = new ConcurrentHashMap<>();
+                    currentSize.set(0);
+                }
+            }
+        }
+    }
+
+    /**
+     * erase all cached ids, e.g. after a mapping file has been (re-)loaded
+     */
+    public synchronized void clear() {
+        current = new ConcurrentHashMap<>();
+        previous = new ConcurrentHashMap<>();
+        currentSize.set(0);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * get the percent of lookups that were answered from the cache
+     *
+     * @return hit rate in percent
+     */
+    public float getHitRate() {
+        final long lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : (100f * hits.get()) / lookups;
+    }
+
+    public String toString() {
+        return String.format("Header cache (%s): lookups: %,d, hits: %,d (%.1f%%), cached: %,d", name, hits.get() + misses.get(), hits.get(), getHitRate(), current.size() + previous.size());
+    }
+}
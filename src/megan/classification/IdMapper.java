@@ -29,6 +29,7 @@ import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * tracks mapping files for a named type of classification
@@ -88,6 +89,8 @@ public class IdMapper {
 
     protected IdParser.Algorithm algorithm;
 
+    private final ConcurrentHashMap<String, HeaderIdCache> configuration2HeaderIdCache = new ConcurrentHashMap<>();
+
     /**
      * constructor
      *
@@ -111,6 +114,7 @@ public class IdMapper {
      * @throws CanceledException
      */
     public void loadMappingFile(String fileName, MapType mapType, boolean reload, ProgressListener progress) throws CanceledException {
+        clearHeaderIdCaches();
         switch (mapType) {
             default:
             case GI: {
@@ -198,6 +202,7 @@ public class IdMapper {
     }
 
     public void setActiveMap(MapType mapType, boolean state) {
+        clearHeaderIdCaches();
         if (state)
             activeMaps.add(mapType);
         else
@@ -205,6 +210,7 @@ public class IdMapper {
     }
 
     public void setUseTextParsing(boolean useTextParsing) {
+        clearHeaderIdCaches();
         this.useTextParsing = useTextParsing;
     }
 
@@ -223,6 +229,43 @@ public class IdMapper {
         return idParser;
     }
 
+    /**
+     * get the cache of header line to id used by all id parsers that have the given configuration
+     *
+     * @param configuration string describing all settings of a parser that influence the parsed ids
+     * @return cache or null, if caching is turned off
+     */
+    public HeaderIdCache getHeaderIdCache(String configuration) {
+        final int maxSize = ProgramProperties.get(HeaderIdCache.PROPERTIES_MAX_SIZE, HeaderIdCache.DEFAULT_MAX_SIZE);
+        if (maxSize <= 0)
+            return null;
+        final HeaderIdCache cache = configuration2HeaderIdCache.get(configuration);
+        if (cache != null)
+            return cache;
+        final HeaderIdCache newCache = new HeaderIdCache(cName, maxSize);
+        final HeaderIdCache previous = configuration2HeaderIdCache.putIfAbsent(configuration, newCache);
+        return previous != null ? previous : newCache;
+    }
+
+    /**
+     * erase all cached header line to id mappings
+     */
+    public void clearHeaderIdCaches() {
+        for (HeaderIdCache cache : configuration2HeaderIdCache.values()) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * report the hit rates of all header line caches that have been used
+     */
+    public void reportHeaderIdCacheStatistics() {
+        for (HeaderIdCache cache : configuration2HeaderIdCache.values()) {
+            if (cache.getHits() + cache.getMisses() > 0)
+                System.err.println(cache);
+        }
+    }
+
     /**
      * get a  id from a giNumber
      *
@@ -265,6 +308,23 @@ public class IdMapper {
         return synonymsMap;
     }
 
+    /**
+     * gets a description of the active mapping files and of all settings that influence the ids parsed from a header line
+     *
+     * @return configuration
+     */
+    public String getMappingConfiguration() {
+        final StringBuilder buf = new StringBuilder();
+        for (MapType mapType : MapType.values()) {
+            if (isActiveMap(mapType) && isLoaded(mapType))
+                buf.append(mapType).append("=").append(getMappingFile(mapType)).append(";");
+        }
+        buf.append(algorithm).append(";").append(useTextParsing).append(";").append(Basic.toString(getIdTags(), ","))
+                .append(";").append(ProgramProperties.get(IdParser.PROPERTIES_FIRST_WORD_IS_ACCESSION, true))
+                .append(";").append(Basic.toString(ProgramProperties.get(IdParser.PROPERTIES_ACCESSION_TAGS, IdParser.ACCESSION_TAGS), ","));
+        return buf.toString();
+    }
+
     public boolean hasActiveAndLoaded() {
         return activeMaps.size() > 0 && loadedMaps.size() > 0;
     }
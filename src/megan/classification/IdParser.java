@@ -24,10 +24,12 @@ import megan.classification.util.MultiWords;
 import megan.classification.util.TaggedValueIterator;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * this class does the work of parsing ids based on the given idMapper
@@ -63,6 +65,10 @@ public class IdParser {
 
     private int maxWarnings = 10;
 
+    private HeaderIdCache headerIdCache;
+
+    private final Map<String, Integer> prefetchedAccessions = new HashMap<>();
+
     /**
      * constructor
      *
@@ -78,10 +84,12 @@ public class IdParser {
         taggedIds = new TaggedValueIterator(false, true, idMapper.getIdTags());
         giTaggedIds = new TaggedValueIterator(false, idMapper.isActiveMap(IdMapper.MapType.GI) && idMapper.isLoaded(IdMapper.MapType.GI), GI_TAGS);
         accTaggedIds = new TaggedValueIterator(ProgramProperties.get(PROPERTIES_FIRST_WORD_IS_ACCESSION, true), idMapper.isActiveMap(IdMapper.MapType.Accession) && idMapper.isLoaded(IdMapper.MapType.Accession), ProgramProperties.get(PROPERTIES_ACCESSION_TAGS, ACCESSION_TAGS));
+
+        updateHeaderIdCache();
     }
 
     /**
-     * Attempt to determine Id from header line.
+     * Attempt to determine Id from header line. Results are cached, as the same references occur many times
      *
      * @param headerString
      * @return ID or 0
@@ -89,6 +97,52 @@ public class IdParser {
     public int getIdFromHeaderLine(String headerString) throws IOException {
         if (headerString == null)
             return 0;
+        if (headerIdCache == null)
+            return computeIdFromHeaderLine(headerString);
+
+        final Integer cachedId = headerIdCache.get(headerString);
+        if (cachedId != null)
+            return cachedId;
+        final int id = computeIdFromHeaderLine(headerString);
+        headerIdCache.put(headerString, id);
+        return id;
+    }
+
+    /**
+     * looks up the accessions of a block of header lines in one batch. Subsequent calls of getIdFromHeaderLine for
+     * these lines use the prefetched values, until the next call of this method
+     *
+     * @param headerStrings
+     */
+    public void prefetchAccessions(String[] headerStrings) throws IOException {
+        prefetchedAccessions.clear();
+        if (!accTaggedIds.isEnabled())
+            return;
+
+        final ArrayList<String> labels = new ArrayList<>();
+        for (String headerString : headerStrings) {
+            if (headerString != null) {
+                accTaggedIds.restart(headerString.trim());
+                for (String label : accTaggedIds) {
+                    labels.add(label);
+                }
+            }
+        }
+        final String[] keys = labels.toArray(new String[labels.size()]);
+        final int[] values = new int[keys.length];
+        idMapper.getAccessionMap().get(keys, values);
+        for (int i = 0; i < keys.length; i++) {
+            prefetchedAccessions.put(keys[i], values[i]);
+        }
+    }
+
+    /**
+     * determine Id from header line
+     *
+     * @param headerString
+     * @return ID or 0
+     */
+    private int computeIdFromHeaderLine(String headerString) throws IOException {
 
         ids.clear();
         disabled.clear();
@@ -160,7 +214,8 @@ public class IdParser {
         if (accTaggedIds.isEnabled()) {
             accTaggedIds.restart(headerString);
             for (String label : accTaggedIds) {
-                final int id = idMapper.getAccessionMap().get(label);
+                final Integer prefetched = prefetchedAccessions.get(label);
+                final int id = (prefetched != null ? prefetched : idMapper.getAccessionMap().get(label));
                 if (id > 0) {
                     if (disabledIds.contains(id))
                         disabled.add(id);
@@ -359,6 +414,7 @@ public class IdParser {
 
     public void setAlgorithm(Algorithm algorithm) {
         this.algorithm = algorithm;
+        updateHeaderIdCache();
     }
 
     public boolean isUseTextParsing() {
@@ -367,6 +423,23 @@ public class IdParser {
 
     public void setUseTextParsing(boolean useTextParsing) {
         this.useTextParsing = useTextParsing;
+        updateHeaderIdCache();
+    }
+
+    /**
+     * determines the cache to use. Parsers share a cache if all settings that influence the parsed ids are the same.
+     * Majority counts are accumulated over all calls, so in this case results are not cached
+     */
+    private void updateHeaderIdCache() {
+        if (algorithm == Algorithm.Majority)
+            headerIdCache = null;
+        else {
+            final String configuration = algorithm + ";" + useTextParsing + ";" + new TreeSet<>(disabledIds) + ";" + taggedIds.isEnabled() + ";" + Basic.toString(idMapper.getIdTags(), ",")
+                    + ";" + giTaggedIds.isEnabled() + ";" + accTaggedIds.isEnabled() + ";" + ProgramProperties.get(PROPERTIES_FIRST_WORD_IS_ACCESSION, true)
+                    + ";" + Basic.toString(ProgramProperties.get(PROPERTIES_ACCESSION_TAGS, ACCESSION_TAGS), ",")
+                    + ";" + (idMapper.isActiveMap(IdMapper.MapType.Synonyms) && idMapper.isLoaded(IdMapper.MapType.Synonyms));
+            headerIdCache = idMapper.getHeaderIdCache(configuration);
+        }
     }
 
 }
@@ -85,6 +85,19 @@ public class Accession2IdMap implements IString2IntegerMap, Closeable {
             return 0;
     }
 
+    /**
+     * get the values for a set of accessions
+     *
+     * @param accessions
+     * @param values     array of at least the same length as accessions, values are returned here, 0 for accessions not found
+     */
+    @Override
+    public void get(String[] accessions, int[] values) throws IOException {
+        for (int i = 0; i < accessions.length; i++) {
+            values[i] = (accessions[i] != null ? get(accessions[i]) : 0);
+        }
+    }
+
     public Map<String, Integer> getMap() {
         return map;
     }
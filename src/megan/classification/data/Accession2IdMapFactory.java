@@ -24,6 +24,7 @@ import jloda.util.ProgressListener;
 import megan.data.IName2IdMap;
 import megan.fx.NotificationsInSwing;
 
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -32,7 +33,8 @@ import java.io.IOException;
  */
 public class Accession2IdMapFactory implements IString2IntegerMapFactory {
     /**
-     * create an accession to integer map from the named file
+     * create an accession to integer map from the named file.
+     * If the named file is a text file and an up-to-date .abin table of the same name exists, then the latter is used
      *
      * @param label2id option mapping of labels to ids
      * @param fileName file
@@ -46,7 +48,13 @@ public class Accession2IdMapFactory implements IString2IntegerMapFactory {
         else if (String2IntegerFileBasedABinMap.isIncompatibleTableFile(fileName)) {
             NotificationsInSwing.showError("Incompatible mapping file (UE?): " + fileName);
             throw new IOException("Incompatible mapping file (UE?): " + fileName);
-        } else
+        } else {
+            final String tableFile = String2IntegerFileBasedABinMapBuilder.getTableFileName(fileName);
+            if (String2IntegerFileBasedABinMap.isTableFile(tableFile) && new File(tableFile).lastModified() >= new File(fileName).lastModified()) {
+                System.err.println("Using mapping file: " + tableFile);
+                return new String2IntegerFileBasedABinMap(tableFile);
+            }
             return new Accession2IdMap(label2id, fileName, progress);
+        }
     }
 }
@@ -20,6 +20,7 @@ package megan.classification.data;
 
 import jloda.graph.Edge;
 import jloda.graph.Node;
+import jloda.graph.NodeArray;
 import jloda.graph.NodeData;
 import jloda.graph.NodeSet;
 import jloda.phylo.PhyloTree;
@@ -27,11 +28,13 @@ import jloda.util.Basic;
 import jloda.util.ProgramProperties;
 import jloda.util.ResourceManager;
 import megan.algorithms.LCAAddressing;
+import megan.algorithms.LCAIndex;
 import megan.classification.Classification;
 import megan.classification.ClassificationManager;
 import megan.classification.IdMapper;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -48,6 +51,7 @@ public class ClassificationFullTree extends PhyloTree {
 
     private final Map<Integer, String> id2Address = new HashMap<>();
     private final Map<String, Integer> address2Id = new HashMap<>();
+    private LCAIndex lcaIndex;
 
     private final NodeData emptyData = new NodeData(new float[0], new float[0]);
 
@@ -69,6 +73,7 @@ public class ClassificationFullTree extends PhyloTree {
 
         id2Address.clear();
         address2Id.clear();
+        lcaIndex = null;
     }
 
     /**
@@ -146,10 +151,72 @@ public class ClassificationFullTree extends PhyloTree {
                 name2IdMap.setRank(taxId, 127);
         }
 
-        LCAAddressing.computeAddresses(this, id2Address, address2Id);
+        computeAddresses();
         System.err.println(String.format("%,9d", getNumberOfNodes()));
     }
 
+    /**
+     * compute the LCA addresses and the LCA index
+     */
+    private void computeAddresses() {
+        LCAAddressing.computeAddresses(this, id2Address, address2Id);
+        lcaIndex = LCAIndex.create(this);
+    }
+
+    /**
+     * write the tree to a snapshot: ids of all nodes in node order, followed by the root and all edges in out-edge order
+     *
+     * @param outs
+     * @throws IOException
+     */
+    void writeSnapshot(DataOutputStream outs) throws IOException {
+        final NodeArray<Integer> node2index = new NodeArray<>(this);
+        outs.writeInt(getNumberOfNodes());
+        int index = 0;
+        for (Node v = getFirstNode(); v != null; v = v.getNext()) {
+            node2index.set(v, index++);
+            outs.writeInt((Integer) v.getInfo());
+            outs.writeBoolean(getLabel(v) != null);
+        }
+        outs.writeInt(getRoot() != null ? node2index.get(getRoot()) : -1);
+        outs.writeInt(getNumberOfEdges());
+        for (Node v = getFirstNode(); v != null; v = v.getNext()) {
+            for (Edge e = v.getFirstOutEdge(); e != null; e = v.getNextOutEdge(e)) {
+                outs.writeInt(node2index.get(v));
+                outs.writeInt(node2index.get(e.getTarget()));
+            }
+        }
+    }
+
+    /**
+     * read the tree from a snapshot written by writeSnapshot() and recompute addresses
+     *
+     * @param buffer
+     */
+    void readSnapshot(ByteBuffer buffer) {
+        clear();
+        final Node[] nodes = new Node[buffer.getInt()];
+        for (int i = 0; i < nodes.length; i++) {
+            final int id = buffer.getInt();
+            final Node v = newNode();
+            if (buffer.get() != 0)
+                setLabel(v, Integer.toString(id));
+            setInfo(v, id);
+            addId2Node(id, v);
+            nodes[i] = v;
+        }
+        final int root = buffer.getInt();
+        if (root >= 0)
+            setRoot(nodes[root]);
+        final int numberOfEdges = buffer.getInt();
+        for (int i = 0; i < numberOfEdges; i++) {
+            final Node v = nodes[buffer.getInt()];
+            final Node w = nodes[buffer.getInt()];
+            newEdge(v, w);
+        }
+        computeAddresses();
+    }
+
 
     /**
      * add all ids that many be missing from the tree to the tree
@@ -622,6 +689,16 @@ public class ClassificationFullTree extends PhyloTree {
      * @return LCA
      */
     public Integer getLCA(Set<Integer> ids) {
+        if (lcaIndex != null) {
+            final int[] indices = new int[ids.size()];
+            int numberOfIndices = 0;
+            for (Integer id : ids) {
+                final int index = lcaIndex.getIndex(id);
+                if (index != -1)
+                    indices[numberOfIndices++] = index;
+            }
+            return lcaIndex.getId(lcaIndex.getCommonAncestor(indices, numberOfIndices, true));
+        }
         final Set<String> addresses = new HashSet<>();
         for (Integer id : ids) {
             String address = id2Address.get(id);
@@ -686,6 +763,15 @@ public class ClassificationFullTree extends PhyloTree {
             return id;
     }
 
+    /**
+     * gets the integer LCA index
+     *
+     * @return index or null, if not available for this tree
+     */
+    public LCAIndex getLCAIndex() {
+        return lcaIndex;
+    }
+
     /**
      * get all nodes at the given level (i.e. distance from root)
      *
@@ -0,0 +1,213 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.classification.data;
+
+import jloda.util.Basic;
+import jloda.util.ProgramProperties;
+import jloda.util.ResourceManager;
+
+import java.io.*;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.jar.JarEntry;
+import java.util.zip.Adler32;
+
+/**
+ * binary snapshot of a classification tree and its name map, used to avoid parsing the tree and map files at every start.
+ * The snapshot is written next to the tree file, if that is writable, otherwise into a snapshot directory, and is memory-mapped
+ * when read. It is stamped with the size and checksum (or modification time) of the tree and map files, so a changed file
+ * causes the snapshot to be rebuilt
+ * Daniel Huson, 10.2018
+ */
+public class ClassificationSnapshot {
+    public static final String USE_CLASSIFICATION_SNAPSHOT = "UseClassificationSnapshot";
+    public static final String CLASSIFICATION_SNAPSHOT_DIRECTORY = "ClassificationSnapshotDirectory";
+
+    private static final int MAGIC = 0x43534e31; // CSN1
+    private static final int VERSION = 1;
+
+    /**
+     * attempt to load the name map and tree from a snapshot
+     *
+     * @param cName
+     * @param treeFile
+     * @param mapFile
+     * @param name2IdMap
+     * @param fullTree
+     * @return true, if loaded, false, if no valid snapshot is available
+     */
+    public static boolean load(String cName, String treeFile, String mapFile, Name2IdMap name2IdMap, ClassificationFullTree fullTree) {
+        if (!ProgramProperties.get(USE_CLASSIFICATION_SNAPSHOT, true))
+            return false;
+        final File file = getSnapshotFile(treeFile);
+        if (!file.isFile())
+            return false;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final String stamp = computeStamp(cName, treeFile, mapFile);
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !stamp.equals(readString(buffer)))
+                return false;
+
+            System.err.print("Loading " + file.getName() + ": ");
+            name2IdMap.readSnapshot(buffer);
+            fullTree.readSnapshot(buffer);
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Snapshot corrupt: " + file);
+            System.err.println(String.format("%,9d", fullTree.getNumberOfNodes()));
+            return true;
+        } catch (Exception ex) {
+            System.err.println("Failed to read snapshot " + file + ": " + ex.getMessage());
+            name2IdMap.clear();
+            fullTree.clear();
+            return false;
+        }
+    }
+
+    /**
+     * save the name map and tree to a snapshot. Failure to save is reported, but is not an error
+     *
+     * @param cName
+     * @param treeFile
+     * @param mapFile
+     * @param name2IdMap
+     * @param fullTree
+     */
+    public static void save(String cName, String treeFile, String mapFile, Name2IdMap name2IdMap, ClassificationFullTree fullTree) {
+        if (!ProgramProperties.get(USE_CLASSIFICATION_SNAPSHOT, true))
+            return;
+        final File file = getSnapshotFile(treeFile);
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            final String stamp = computeStamp(cName, treeFile, mapFile);
+            if (file.getParentFile() != null && !file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+                throw new IOException("Failed to create directory: " + file.getParentFile());
+            try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 20))) {
+                outs.writeInt(MAGIC);
+                outs.writeInt(VERSION);
+                writeString(outs, stamp);
+                name2IdMap.writeSnapshot(outs);
+                fullTree.writeSnapshot(outs);
+                outs.writeInt(MAGIC);
+            }
+            if (file.exists() && !file.delete() || !tmpFile.renameTo(file))
+                throw new IOException("Failed to rename " + tmpFile + " to " + file);
+        } catch (Exception ex) {
+            System.err.println("Failed to write snapshot " + file + ": " + ex.getMessage());
+            if (tmpFile.exists() && !tmpFile.delete())
+                tmpFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * gets the snapshot file for a tree file
+     *
+     * @param treeFile
+     * @return snapshot file
+     */
+    private static File getSnapshotFile(String treeFile) {
+        final String name = Basic.replaceFileSuffix(Basic.getFileNameWithoutPath(treeFile), ".snapshot");
+        final File parent = new File(treeFile).getAbsoluteFile().getParentFile();
+        if (new File(treeFile).isFile() && parent != null && parent.canWrite())
+            return new File(parent, name);
+        else
+            return new File(ProgramProperties.get(CLASSIFICATION_SNAPSHOT_DIRECTORY, System.getProperty("user.home") + File.separator + ".MeganSnapshots"), name);
+    }
+
+    /**
+     * computes the stamp that identifies the tree and map files
+     *
+     * @param cName
+     * @param treeFile
+     * @param mapFile
+     * @return stamp
+     */
+    private static String computeStamp(String cName, String treeFile, String mapFile) throws IOException {
+        return cName + ";" + computeFingerPrint(treeFile) + ";" + computeFingerPrint(mapFile) + ";" + ProgramProperties.get("enable-contaminants", false);
+    }
+
+    /**
+     * computes a finger print of a file or resource. For a file, uses its size and modification time, for a jar resource, the size
+     * and CRC recorded in the jar, and otherwise reads the content and computes a checksum
+     *
+     * @param fileName
+     * @return finger print
+     */
+    private static String computeFingerPrint(String fileName) throws IOException {
+        final File file = new File(fileName);
+        if (file.isFile())
+            return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+
+        final URL url = ClassificationSnapshot.class.getResource("/resources/files/" + Basic.getFileNameWithoutPath(fileName));
+        if (url != null) {
+            final URLConnection connection = url.openConnection();
+            if (connection instanceof JarURLConnection) {
+                final JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+                if (entry != null && entry.getCrc() != -1)
+                    return fileName + ":" + entry.getSize() + ":" + entry.getCrc();
+            }
+        }
+
+        final Adler32 checksum = new Adler32();
+        long size = 0;
+        try (InputStream ins = ResourceManager.getFileAsStream(fileName)) {
+            final byte[] bytes = new byte[1 << 16];
+            int count;
+            while ((count = ins.read(bytes)) != -1) {
+                checksum.update(bytes, 0, count);
+                size += count;
+            }
+        }
+        return fileName + ":" + size + ":" + checksum.getValue();
+    }
+
+    /**
+     * write a string as length and UTF-8 bytes
+     *
+     * @param outs
+     * @param string
+     * @throws IOException
+     */
+    static void writeString(DataOutputStream outs, String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        outs.writeInt(bytes.length);
+        outs.write(bytes);
+    }
+
+    /**
+     * read a string written by writeString()
+     *
+     * @param buffer
+     * @return string
+     */
+    static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining())
+            throw new BufferUnderflowException();
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
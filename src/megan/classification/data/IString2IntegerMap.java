@@ -35,6 +35,14 @@ public interface IString2IntegerMap extends Closeable {
      */
     public int get(String key) throws IOException;
 
+    /**
+     * get values for a set of keys
+     *
+     * @param keys
+     * @param values array of at least the same length as keys, values are returned here, 0 for keys not found
+     */
+    public void get(String[] keys, int[] values) throws IOException;
+
     /**
      * return the number of entries
      *
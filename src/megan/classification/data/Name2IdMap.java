@@ -24,10 +24,8 @@ import jloda.util.ResourceManager;
 import megan.data.IName2IdMap;
 
 import java.io.*;
-import java.util.Collection;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.*;
 
 /**
  * maintains a mapping between  names and  ids
@@ -187,6 +185,94 @@ public class Name2IdMap implements IName2IdMap {
         System.err.println(String.format("%,9d", id2name.size()));
     }
 
+    /**
+     * erase all mappings
+     */
+    public void clear() {
+        name2id.clear();
+        id2name.clear();
+        id2toolTip.clear();
+        id2rank.clear();
+    }
+
+    /**
+     * write all mappings to a snapshot. The id-to-name entries are replayed using put(), so we also write
+     * those name-to-id entries that differ from the replayed ones, e.g. after a name has been changed
+     *
+     * @param outs
+     * @throws IOException
+     */
+    void writeSnapshot(DataOutputStream outs) throws IOException {
+        final Map<String, Integer> replayed = new HashMap<>(id2name.size(), 0.99f);
+        outs.writeInt(id2name.size());
+        for (Map.Entry<Integer, String> entry : id2name.entrySet()) {
+            outs.writeInt(entry.getKey());
+            ClassificationSnapshot.writeString(outs, entry.getValue());
+            replayed.put(entry.getValue(), entry.getKey());
+        }
+
+        final ArrayList<String> changed = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : name2id.entrySet()) {
+            if (!entry.getValue().equals(replayed.get(entry.getKey())))
+                changed.add(entry.getKey());
+        }
+        outs.writeInt(changed.size());
+        for (String name : changed) {
+            ClassificationSnapshot.writeString(outs, name);
+            outs.writeInt(name2id.get(name));
+        }
+
+        final ArrayList<String> removed = new ArrayList<>();
+        for (String name : replayed.keySet()) {
+            if (!name2id.containsKey(name))
+                removed.add(name);
+        }
+        outs.writeInt(removed.size());
+        for (String name : removed) {
+            ClassificationSnapshot.writeString(outs, name);
+        }
+
+        outs.writeInt(id2rank.size());
+        for (Map.Entry<Integer, Integer> entry : id2rank.entrySet()) {
+            outs.writeInt(entry.getKey());
+            outs.writeInt(entry.getValue());
+        }
+
+        outs.writeInt(id2toolTip.size());
+        for (Map.Entry<Integer, String> entry : id2toolTip.entrySet()) {
+            outs.writeInt(entry.getKey());
+            ClassificationSnapshot.writeString(outs, entry.getValue());
+        }
+    }
+
+    /**
+     * read all mappings from a snapshot written by writeSnapshot()
+     *
+     * @param buffer
+     */
+    void readSnapshot(ByteBuffer buffer) {
+        clear();
+        for (int count = buffer.getInt(); count > 0; count--) {
+            final int id = buffer.getInt();
+            put(ClassificationSnapshot.readString(buffer), id);
+        }
+        for (int count = buffer.getInt(); count > 0; count--) {
+            final String name = ClassificationSnapshot.readString(buffer);
+            name2id.put(name, buffer.getInt());
+        }
+        for (int count = buffer.getInt(); count > 0; count--) {
+            name2id.remove(ClassificationSnapshot.readString(buffer));
+        }
+        for (int count = buffer.getInt(); count > 0; count--) {
+            final int id = buffer.getInt();
+            id2rank.put(id, buffer.getInt());
+        }
+        for (int count = buffer.getInt(); count > 0; count--) {
+            final int id = buffer.getInt();
+            id2toolTip.put(id, ClassificationSnapshot.readString(buffer));
+        }
+    }
+
     /**
      * save mapping to file
      *
@@ -24,6 +24,10 @@ import malt.util.MurmurHash3;
 import megan.io.ByteFileGetterMappedMemory;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * a disk-based string-to-int hash table
@@ -43,10 +47,12 @@ public class String2IntegerFileBasedABinMap implements IString2IntegerMap, Close
     private final int size;
     private final int mask;
 
+    // lock-free direct-mapped cache. Each slot holds an immutable entry, so a slot is always read and replaced as a whole
     private final int cacheBits = 20;
-    private final int cacheSize = (1 << cacheBits);
-    private final byte[][] cacheKeys = new byte[cacheSize][];
-    private final int[] cacheValues = new int[cacheSize];
+    private final int cacheMask = (1 << cacheBits) - 1;
+    private final AtomicReferenceArray<CacheEntry> cache = new AtomicReferenceArray<>(1 << cacheBits);
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
 
     /**
      * constructor
@@ -136,25 +142,109 @@ public class String2IntegerFileBasedABinMap implements IString2IntegerMap, Close
      * get the value for a key
      */
     public int get(String keyString) throws IOException {
-        byte[] key = keyString.getBytes();
-        final int keyHash = computeHash(key, 0, key.length, mask);
-        long dataOffset = extended ? dataByteBuffer.getLong(8 * keyHash + indexStartPos) : dataByteBuffer.getInt(4 * keyHash + indexStartPos);
+        final byte[] key = keyString.getBytes();
+        final int hash = MurmurHash3.murmurhash3x8632(key, 0, key.length, 666);
+        final long dataOffset = getDataOffset(hash);
         if (dataOffset == 0)
             return 0;
         // cache:
-        final int cacheIndex = (keyHash & cacheBits);
-        synchronized (cacheKeys) {
-            final byte[] cacheKey = cacheKeys[cacheIndex];
-            if (cacheKey != null && equal(key, cacheKey))
-                return cacheValues[cacheIndex];
+        final int cacheIndex = (hash & cacheMask);
+        {
+            final CacheEntry entry = cache.get(cacheIndex);
+            if (entry != null && equal(key, entry.key)) {
+                cacheHits.increment();
+                return entry.value;
+            }
+            cacheMisses.increment();
+        }
+        return lookup(key, dataOffset, cacheIndex);
+    }
+
+    /**
+     * get the values for a set of keys. All keys are first hashed and checked against the cache, the remaining keys
+     * are then looked up in the order of their data location, so that the mapped file is traversed sequentially
+     * rather than at random, and keys that occur more than once are looked up only once
+     *
+     * @param keys
+     * @param values array of at least the same length as keys, values are returned here, 0 for keys not found
+     */
+    public void get(String[] keys, int[] values) throws IOException {
+        final byte[][] keyBytes = new byte[keys.length][];
+        final long[] dataOffsets = new long[keys.length];
+        final int[] cacheIndices = new int[keys.length];
+        final Integer[] order = new Integer[keys.length];
+        int count = 0;
+
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = 0;
+            if (keys[i] == null)
+                continue;
+            final byte[] key = keys[i].getBytes();
+            final int hash = MurmurHash3.murmurhash3x8632(key, 0, key.length, 666);
+            final long dataOffset = getDataOffset(hash);
+            if (dataOffset == 0)
+                continue;
+            final int cacheIndex = (hash & cacheMask);
+            final CacheEntry entry = cache.get(cacheIndex);
+            if (entry != null && equal(key, entry.key)) {
+                cacheHits.increment();
+                values[i] = entry.value;
+            } else {
+                cacheMisses.increment();
+                keyBytes[i] = key;
+                dataOffsets[i] = dataOffset;
+                cacheIndices[i] = cacheIndex;
+                order[count++] = i;
+            }
+        }
+
+        Arrays.sort(order, 0, count, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(dataOffsets[a], dataOffsets[b]);
+            }
+        });
+
+        for (int k = 0; k < count; k++) {
+            final int i = order[k];
+            if (k > 0) {
+                final int prev = order[k - 1];
+                if (dataOffsets[prev] == dataOffsets[i] && equal(keyBytes[prev], keyBytes[i])) { // same key as previous
+                    values[i] = values[prev];
+                    continue;
+                }
+            }
+            values[i] = lookup(keyBytes[i], dataOffsets[i], cacheIndices[i]);
         }
+    }
+
+    /**
+     * get the location of the data for the given hash value
+     *
+     * @param hash
+     * @return location of first entry in bucket, or 0, if bucket is empty
+     */
+    private long getDataOffset(int hash) {
+        final int keyHash = Math.abs(hash & mask);
+        long dataOffset = extended ? dataByteBuffer.getLong(8 * keyHash + indexStartPos) : dataByteBuffer.getInt(4 * keyHash + indexStartPos);
+        if (dataOffset == 0)
+            return 0;
 
         if (dataOffset < 0) { // need to expand, should only happen when extended==false
             dataOffset = (long) Integer.MAX_VALUE + (dataOffset & (Integer.MAX_VALUE)) + 1;
         }
+        return dataOffset + dataStartPos;
+    }
 
-        dataOffset += dataStartPos;
-
+    /**
+     * scan the bucket starting at the given location for the key and cache the value, if found
+     *
+     * @param key
+     * @param dataOffset
+     * @param cacheIndex
+     * @return value or 0
+     */
+    private int lookup(byte[] key, long dataOffset, int cacheIndex) throws IOException {
         while (true) {
             final int numberOfBytes = readAndCompareBytes0Terminated(key, key.length, dataOffset, dataByteBuffer);
             if (numberOfBytes == 0)
@@ -164,17 +254,31 @@ public class String2IntegerFileBasedABinMap implements IString2IntegerMap, Close
             else { // matches query
                 dataOffset += numberOfBytes + 1;    //  add 1 for terminating 0
                 final int value = dataByteBuffer.getInt(dataOffset);
-                // cache:
-                synchronized (cacheKeys) {
-                    cacheKeys[cacheIndex] = key;
-                    cacheValues[cacheIndex] = value;
-                }
+                cache.set(cacheIndex, new CacheEntry(key, value)); // replaces any previous entry
                 return value;
             }
         }
         return 0;
     }
 
+    /**
+     * get the number of lookups answered from the cache
+     *
+     * @return cache hits
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * get the number of lookups of keys present in the table that were not found in the cache
+     *
+     * @return cache misses
+     */
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
     /**
      * equal keys?
      *
@@ -196,6 +300,9 @@ public class String2IntegerFileBasedABinMap implements IString2IntegerMap, Close
 
     @Override
     public void close() throws IOException {
+        final long lookups = getCacheHits() + getCacheMisses();
+        if (lookups > 0)
+            System.err.println(String.format("Accession cache: %,d lookups, %.1f%% hits", lookups, 100.0 * getCacheHits() / lookups));
         dataByteBuffer.close();
     }
 
@@ -249,4 +356,17 @@ public class String2IntegerFileBasedABinMap implements IString2IntegerMap, Close
         //System.err.println("Looking for: "+ Basic.toString(key,0,keyLength)+", got: "+Basic.toString(got,0,i));
         return (equal && i == keyLength) ? i : -i; // negative means no match
     }
+
+    /**
+     * immutable cache entry
+     */
+    private static class CacheEntry {
+        private final byte[] key;
+        private final int value;
+
+        CacheEntry(byte[] key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
 }
@@ -0,0 +1,375 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.classification.data;
+
+import jloda.util.*;
+import megan.data.IName2IdMap;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * builds a disk-based string-to-int hash table (.abin file) from a text file of accession-to-id lines,
+ * as read by String2IntegerFileBasedABinMap.
+ * Entries are hashed and sorted in parallel in runs of bounded size that are written to temporary files and then merged,
+ * so memory usage does not depend on the size of the input.
+ * If an accession occurs more than once, the last occurrence wins, as in Accession2IdMap
+ * Daniel Huson, 10.2018
+ */
+public class String2IntegerFileBasedABinMapBuilder {
+    public static final int DEFAULT_RUN_SIZE = 5000000;
+
+    private static final int MIN_BITS = 10;
+    private static final int MAX_BITS = 29;
+
+    private final int runSize;
+    private final int numberOfThreads;
+
+    /**
+     * constructor
+     *
+     * @param runSize         max number of entries held in memory at any one time
+     * @param numberOfThreads number of threads used for hashing and sorting
+     */
+    public String2IntegerFileBasedABinMapBuilder(int runSize, int numberOfThreads) {
+        this.runSize = Math.max(1000, runSize);
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+    }
+
+    /**
+     * get the name of the table file that corresponds to the given text file
+     *
+     * @param textFile
+     * @return name of .abin file
+     */
+    public static String getTableFileName(String textFile) {
+        if (textFile.endsWith(".gz"))
+            textFile = textFile.substring(0, textFile.length() - ".gz".length());
+        else if (textFile.endsWith(".zip"))
+            textFile = textFile.substring(0, textFile.length() - ".zip".length());
+        return textFile + ".abin";
+    }
+
+    /**
+     * build a table file from a text file
+     *
+     * @param textFile   input file, each line of format accession tab id, or accession tab label, if label2id given
+     * @param label2id   optional mapping of labels to ids
+     * @param outputFile output .abin file
+     * @param progress   progress listener
+     * @return number of entries written
+     */
+    public int build(String textFile, IName2IdMap label2id, String outputFile, ProgressListener progress) throws IOException, CanceledException {
+        final File tmpDir = new File(outputFile).getAbsoluteFile().getParentFile();
+        final ArrayList<File> runFiles = new ArrayList<>();
+
+        try {
+            // count lines to determine size of index:
+            long numberOfLines = 0;
+            try (FileInputIterator it = new FileInputIterator(textFile)) {
+                progress.setSubtask("Counting lines: " + textFile);
+                progress.setMaximum(it.getMaximumProgress());
+                progress.setProgress(0);
+                while (it.hasNext()) {
+                    it.next();
+                    numberOfLines++;
+                    if ((numberOfLines & 0xFFFF) == 0)
+                        progress.setProgress(it.getProgress());
+                }
+            }
+            final int bits = computeBits(numberOfLines);
+            final int mask = (1 << bits) - 1;
+
+            // hash, sort and write runs:
+            try (FileInputIterator it = new FileInputIterator(textFile)) {
+                progress.setSubtask("Sorting runs: " + textFile);
+                progress.setMaximum(it.getMaximumProgress());
+                progress.setProgress(0);
+
+                final byte[][] keys = new byte[(int) Math.min(runSize, Math.max(1, numberOfLines))][];
+                final int[] values = new int[keys.length];
+                long sequenceNumber = 0;
+
+                while (it.hasNext()) {
+                    int count = 0;
+                    while (count < keys.length && it.hasNext()) {
+                        final String[] tokens = Basic.split(it.next(), '\t');
+                        if (tokens.length == 2) {
+                            final int id;
+                            if (Basic.isInteger(tokens[1]))
+                                id = Basic.parseInt(tokens[1]);
+                            else if (label2id != null)
+                                id = label2id.get(tokens[1]);
+                            else
+                                id = 0;
+                            if (id != 0 && tokens[0].length() > 0) {
+                                keys[count] = tokens[0].getBytes();
+                                values[count] = id;
+                                count++;
+                            }
+                        }
+                    }
+                    if (count > 0) {
+                        final File runFile = File.createTempFile("abin-run", ".tmp", tmpDir);
+                        runFile.deleteOnExit();
+                        runFiles.add(runFile);
+                        writeRun(keys, values, count, mask, sequenceNumber, runFile);
+                        sequenceNumber += count;
+                        Arrays.fill(keys, 0, count, null);
+                    }
+                    progress.setProgress(it.getProgress());
+                }
+            }
+
+            // merge runs into table:
+            progress.setSubtask("Merging " + runFiles.size() + " run(s)");
+            progress.setMaximum(mask + 1);
+            progress.setProgress(0);
+            final int size = merge(runFiles, bits, outputFile, progress);
+            if (progress instanceof ProgressPercentage)
+                ((ProgressPercentage) progress).reportTaskCompleted();
+            return size;
+        } finally {
+            for (File file : runFiles) {
+                if (file.exists() && !file.delete())
+                    System.err.println("Failed to delete temporary file: " + file);
+            }
+        }
+    }
+
+    /**
+     * determine the number of bits used to address the index
+     *
+     * @param numberOfEntries
+     * @return bits
+     */
+    private static int computeBits(long numberOfEntries) {
+        int bits = MIN_BITS;
+        while (bits < MAX_BITS && (1L << bits) < numberOfEntries)
+            bits++;
+        return bits;
+    }
+
+    /**
+     * hashes and sorts a run of entries by bucket and writes it to a file. Within a bucket, entries remain in input order
+     *
+     * @param keys
+     * @param values
+     * @param count          number of entries in run
+     * @param mask
+     * @param sequenceNumber global number of first entry of run
+     * @param runFile
+     */
+    private void writeRun(final byte[][] keys, int[] values, final int count, final int mask, long sequenceNumber, File runFile) throws IOException {
+        // bucket in high bits and position in run in low bits, so that sorting keeps input order within a bucket
+        final long[] order = new long[count];
+        final int chunk = (count + numberOfThreads - 1) / numberOfThreads;
+
+        final ExecutorService service = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
+            for (int t = 0; t < numberOfThreads; t++) {
+                final int task = t;
+                service.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            for (int i = task * chunk; i < Math.min(count, (task + 1) * chunk); i++) {
+                                order[i] = ((long) String2IntegerFileBasedABinMap.computeHash(keys[i], mask) << 32) | i;
+                            }
+                        } finally {
+                            countDownLatch.countDown();
+                        }
+                    }
+                });
+            }
+            try {
+                countDownLatch.await();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted", e);
+            }
+        } finally {
+            service.shutdownNow();
+        }
+        Arrays.parallelSort(order);
+
+        try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 1 << 20))) {
+            for (long item : order) {
+                final int i = (int) item;
+                outs.writeInt((int) (item >>> 32));
+                outs.writeLong(sequenceNumber + i);
+                outs.writeInt(keys[i].length);
+                outs.write(keys[i]);
+                outs.writeInt(values[i]);
+            }
+        }
+    }
+
+    /**
+     * merges all runs and writes the table file
+     *
+     * @param runFiles
+     * @param bits
+     * @param outputFile
+     * @param progress
+     * @return number of entries written
+     */
+    private int merge(ArrayList<File> runFiles, int bits, String outputFile, ProgressListener progress) throws IOException, CanceledException {
+        final int numberOfBuckets = (1 << bits);
+
+        final File dataFile = File.createTempFile("abin-data", ".tmp", new File(outputFile).getAbsoluteFile().getParentFile());
+        dataFile.deleteOnExit();
+
+        int size = 0;
+        try {
+            final PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runFiles.size()));
+            try {
+                for (File file : runFiles) {
+                    final RunReader reader = new RunReader(file);
+                    if (reader.next())
+                        queue.add(reader);
+                    else
+                        reader.close();
+                }
+
+                try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 20));
+                     DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile), 1 << 20))) {
+                    index.write(String2IntegerFileBasedABinMap.MAGIC_NUMBERX.getBytes());
+                    index.write(bits);
+
+                    data.write(0); // offset 0 is used to indicate an empty bucket, so data must not start at 0
+                    long dataOffset = 1;
+
+                    final ArrayList<byte[]> bucketKeys = new ArrayList<>();
+                    final ArrayList<Integer> bucketValues = new ArrayList<>();
+
+                    for (int bucket = 0; bucket < numberOfBuckets; bucket++) {
+                        bucketKeys.clear();
+                        bucketValues.clear();
+                        while (queue.size() > 0 && queue.peek().bucket == bucket) {
+                            final RunReader reader = queue.poll();
+                            // entries arrive in input order, later occurrence of a key replaces earlier one
+                            int pos = 0;
+                            while (pos < bucketKeys.size() && !Arrays.equals(bucketKeys.get(pos), reader.key))
+                                pos++;
+                            if (pos < bucketKeys.size())
+                                bucketValues.set(pos, reader.value);
+                            else {
+                                bucketKeys.add(reader.key);
+                                bucketValues.add(reader.value);
+                            }
+                            if (reader.next())
+                                queue.add(reader);
+                            else
+                                reader.close();
+                        }
+                        if (bucketKeys.size() == 0)
+                            index.writeLong(0);
+                        else {
+                            index.writeLong(dataOffset);
+                            for (int i = 0; i < bucketKeys.size(); i++) {
+                                final byte[] key = bucketKeys.get(i);
+                                data.write(key);
+                                data.write(0);
+                                data.writeInt(bucketValues.get(i));
+                                dataOffset += key.length + 5;
+                            }
+                            data.write(0);
+                            dataOffset++;
+                            size += bucketKeys.size();
+                        }
+                        if ((bucket & 0xFFFF) == 0)
+                            progress.setProgress(bucket);
+                    }
+                }
+            } finally {
+                for (RunReader reader : queue)
+                    reader.close();
+            }
+
+            // append data and size to index:
+            try (OutputStream outs = new BufferedOutputStream(new FileOutputStream(outputFile, true), 1 << 20);
+                 InputStream ins = new BufferedInputStream(new FileInputStream(dataFile), 1 << 20)) {
+                final byte[] buffer = new byte[1 << 20];
+                int count;
+                while ((count = ins.read(buffer)) != -1)
+                    outs.write(buffer, 0, count);
+                outs.write((size >>> 24) & 0xFF);
+                outs.write((size >>> 16) & 0xFF);
+                outs.write((size >>> 8) & 0xFF);
+                outs.write(size & 0xFF);
+            }
+        } finally {
+            if (dataFile.exists() && !dataFile.delete())
+                System.err.println("Failed to delete temporary file: " + dataFile);
+        }
+        return size;
+    }
+
+    /**
+     * reads a sorted run
+     */
+    private static class RunReader implements Comparable<RunReader>, Closeable {
+        private final DataInputStream ins;
+        private int bucket;
+        private long sequenceNumber;
+        private byte[] key;
+        private int value;
+
+        RunReader(File file) throws IOException {
+            ins = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        /**
+         * read the next entry
+         *
+         * @return true, if entry read, false if at end of run
+         */
+        boolean next() throws IOException {
+            try {
+                bucket = ins.readInt();
+            } catch (EOFException ex) {
+                return false;
+            }
+            sequenceNumber = ins.readLong();
+            key = new byte[ins.readInt()];
+            ins.readFully(key);
+            value = ins.readInt();
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunReader that) {
+            if (this.bucket != that.bucket)
+                return Integer.compare(this.bucket, that.bucket);
+            else
+                return Long.compare(this.sequenceNumber, that.sequenceNumber);
+        }
+
+        @Override
+        public void close() throws IOException {
+            ins.close();
+        }
+    }
+}
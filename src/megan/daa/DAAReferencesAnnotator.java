@@ -26,6 +26,7 @@ import megan.daa.io.*;
 import megan.main.MeganProperties;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
@@ -38,6 +39,7 @@ import java.util.concurrent.Executors;
  * Daniel Huson, 8.2105
  */
 public class DAAReferencesAnnotator {
+    private static final int REFERENCES_PER_BLOCK = 1024;
 
     /**
      * add reference annotations to a DAA file
@@ -49,7 +51,7 @@ public class DAAReferencesAnnotator {
 
         final DAAHeader header = new DAAHeader(daaFile);
         header.load();
-        header.loadReferences(false);
+        header.loadReferences(true);
 
         final String[] cNames;
         {
@@ -85,17 +87,31 @@ public class DAAReferencesAnnotator {
                                 idParsers[i] = ClassificationManager.get(cNames[i], true).getIdMapper().createIdParser();
                             }
 
-                            for (int r = task; r < header.getNumberOfReferences(); r += numberOfThreads) {
-                                final String ref = Basic.toString(header.getReference(r, null));
+                            final String[] refs = new String[REFERENCES_PER_BLOCK];
+
+                            // each thread processes blocks of consecutive references, so that names are read sequentially
+                            for (int start = task * REFERENCES_PER_BLOCK; start < header.getNumberOfReferences(); start += numberOfThreads * REFERENCES_PER_BLOCK) {
+                                final int end = Math.min(start + REFERENCES_PER_BLOCK, header.getNumberOfReferences());
+                                for (int r = start; r < end; r++) {
+                                    refs[r - start] = Basic.toString(header.getReference(r, null));
+                                }
+                                Arrays.fill(refs, end - start, refs.length, null);
                                 for (int i = 0; i < idParsers.length; i++) {
                                     try {
-                                        cName2ref2class[i][r] = idParsers[i].getIdFromHeaderLine(ref);
+                                        idParsers[i].prefetchAccessions(refs); // look up all accessions of the block in one batch
                                     } catch (IOException e) {
                                         Basic.caught(e);
                                     }
+                                    for (int r = start; r < end; r++) {
+                                        try {
+                                            cName2ref2class[i][r] = idParsers[i].getIdFromHeaderLine(refs[r - start]);
+                                        } catch (IOException e) {
+                                            Basic.caught(e);
+                                        }
+                                    }
                                 }
                                 if (task == 0)
-                                    progress.setProgress(r);
+                                    progress.setProgress(end);
                             }
                         } catch (Exception ex) {
                             Basic.caught(ex);
@@ -111,6 +127,9 @@ public class DAAReferencesAnnotator {
             } catch (InterruptedException e) {
                 Basic.caught(e);
             }
+            for (String cName : cNames) {
+                ClassificationManager.get(cName, true).getIdMapper().reportHeaderIdCacheStatistics();
+            }
 
             // get all into bytes:
             final byte[][] cName2Bytes = new byte[cNames.length][];
@@ -95,6 +95,17 @@ public class DAAConnector implements IConnector {
         return new AllReadsIterator(new ReadBlockGetterDAA(daaHeader, wantReadSequence, wantMatches, minScore, maxExpected, true, reuseReadBlockObject, longReads));
     }
 
+    @Override
+    public IReadBlockBatchIterator getAllReadsBatchIterator(int batchSize, int numberOfThreads, final float minScore, final float maxExpected, final boolean wantReadSequence, final boolean wantMatches) throws IOException {
+        return new ReadBlockBatchIterator(new ReadLocationScannerDAA(daaHeader),
+                new ReadBlockBatchIterator.IGetterFactory() {
+                    public IReadBlockGetter create() throws IOException {
+                        return new ReadBlockGetterDAA(daaHeader, wantReadSequence, wantMatches, minScore, maxExpected, false, false, longReads);
+                    }
+                },
+                daaHeader.getQueryRecords(), batchSize, numberOfThreads);
+    }
+
     @Override
     public IReadBlockIterator getReadsIterator(String classification, int classId, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
         return getReadsIteratorForListOfClassIds(classification, Collections.singletonList(classId), minScore, maxExpected, wantReadSequence, wantMatches);
@@ -108,6 +119,11 @@ public class DAAConnector implements IConnector {
 
     @Override
     public IReadBlockIterator getFindAllReadsIterator(String regEx, FindSelection findSelection, Single<Boolean> canceled) throws IOException {
+        final File file = new File(fileName);
+        final String stamp = String.format("%d:%d:%d:%d", daaHeader.getQueryRecords(), daaHeader.getBlockSize(daaHeader.getAlignmentsBlockIndex()), file.length(), file.lastModified());
+        final ListOfLongs list = ReadNameIndex.find(this, fileName, stamp, regEx, findSelection, canceled);
+        if (list != null)
+            return new FindAllReadsIterator(regEx, findSelection, new ReadBlockIterator(list, getReadBlockGetter(0, 10, true, true)), canceled);
         return new FindAllReadsIterator(regEx, findSelection, getAllReadsIterator(0, 10, true, true), canceled);
     }
 
@@ -142,18 +158,17 @@ public class DAAConnector implements IConnector {
      * rescan classifications after running the data processor
      *
      * @param cNames
-     * @param updateItemList
+     * @param updateItems
      * @param progressListener
      * @throws IOException
      * @throws CanceledException
      */
     @Override
-    public void updateClassifications(String[] cNames, List<UpdateItem> updateItemList, ProgressListener progressListener) throws IOException, CanceledException {
-        final UpdateItemList updateItems = (UpdateItemList) updateItemList;
+    public void updateClassifications(String[] cNames, UpdateItemList updateItems, ProgressListener progressListener) throws IOException, CanceledException {
 
         long maxProgress = 0;
         for (int i = 0; i < cNames.length; i++) {
-            maxProgress += updateItems.getClassIds(i).size();
+            maxProgress += updateItems.getNumberOfClasses(i);
         }
         progressListener.setMaximum(maxProgress);
 
@@ -168,13 +183,13 @@ public class DAAConnector implements IConnector {
             final Map<Integer, ListOfLongs> classId2Location = fName2ClassId2Location[i];
             final Map<Integer, Float> classId2weight = fName2ClassId2Weight[i];
 
-            for (Integer classId : updateItems.getClassIds(i)) {
+            for (int classId : updateItems.getClassIds(i)) {
                 classId2weight.put(classId, updateItems.getWeight(i, classId));
                 final ListOfLongs positions = new ListOfLongs();
                 classId2Location.put(classId, positions);
                 if (updateItems.getWeight(i, classId) > 0) {
-                    for (UpdateItem item = updateItems.getFirst(i, classId); item != null; item = item.getNextInClassification(i)) {
-                        positions.add(item.getReadUId());
+                    for (int item = updateItems.getFirst(i, classId); item != -1; item = updateItems.getNextInClassification(item, i)) {
+                        positions.add(updateItems.getReadUId(item));
                     }
                 }
                 progressListener.incrementProgress();
@@ -21,12 +21,12 @@ package megan.daa.connector;
 import jloda.util.Basic;
 import megan.classification.IdParser;
 import megan.daa.io.*;
+import megan.data.ClassificationSlots;
 import megan.data.IMatchBlock;
 import megan.parsers.sam.SAMMatch;
 
 import java.io.StringWriter;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * matchblock for DAA
@@ -40,7 +40,7 @@ public class MatchBlockDAA implements IMatchBlock {
     private DAAMatchRecord matchRecord;
 
     private long uid;
-    private final Map<String, Integer> fName2Id = new HashMap<>();
+    private int[] slot2id = new int[ClassificationSlots.size()]; // classification ids, indexed by classification slot
     private int taxonId;
 
     /**
@@ -53,7 +53,7 @@ public class MatchBlockDAA implements IMatchBlock {
         final DAAHeader header = daaParser.getHeader();
 
         for (int f = 0; f < header.getNumberOfRefAnnotations(); f++) {
-            fName2Id.put(header.getRefAnnotationName(f), header.getRefAnnotation(f, matchRecord.getSubjectId()));
+            setId(header.getRefAnnotationSlot(f), header.getRefAnnotation(f, matchRecord.getSubjectId()));
         }
         taxonId = header.getRefAnnotation(header.getRefAnnotationIndexForTaxonomy(), matchRecord.getSubjectId());
 
@@ -68,7 +68,7 @@ public class MatchBlockDAA implements IMatchBlock {
     public void clear() {
         uid = 0;
         matchRecord = null;
-        fName2Id.clear();
+        Arrays.fill(slot2id, 0);
         taxonId = 0;
     }
 
@@ -100,8 +100,11 @@ public class MatchBlockDAA implements IMatchBlock {
     }
 
     public int getId(String cName) {
-        final Integer id = fName2Id.get(cName);
-        return id != null ? id : 0;
+        return getId(ClassificationSlots.findSlot(cName));
+    }
+
+    public int getId(int slot) {
+        return slot >= 0 && slot < slot2id.length ? slot2id[slot] : 0;
     }
 
     /**
@@ -119,7 +122,13 @@ public class MatchBlockDAA implements IMatchBlock {
     }
 
     public void setId(String cName, Integer id) {
-        fName2Id.put(cName, id);
+        setId(ClassificationSlots.getSlot(cName), id != null ? id : 0);
+    }
+
+    public void setId(int slot, int id) {
+        if (slot >= slot2id.length)
+            slot2id = Arrays.copyOf(slot2id, Math.max(slot + 1, ClassificationSlots.size()));
+        slot2id[slot] = id;
     }
 
     /**
@@ -310,6 +319,11 @@ public class MatchBlockDAA implements IMatchBlock {
         return Basic.toString(matchRecord.getSubjectName());
     }
 
+    @Override
+    public String getRefNameFirstWord() {
+        return getTextFirstWord();
+    }
+
     public void setText(String text) {
         System.err.println("Not implemented");
     }
@@ -318,8 +332,10 @@ public class MatchBlockDAA implements IMatchBlock {
         StringWriter w = new StringWriter();
 
         w.write("Match uid: " + uid + "--------\n");
-        for (String cName : fName2Id.keySet())
-            w.write(String.format("%4s: ", cName) + fName2Id.get(cName));
+        for (int slot = 0; slot < slot2id.length; slot++) {
+            if (slot2id[slot] != 0)
+                w.write(String.format("%4s: ", ClassificationSlots.getName(slot)) + slot2id[slot]);
+        }
         w.write("\n");
         if (getBitScore() != 0)
             w.write("bitScore: " + getBitScore() + "\n");
@@ -372,6 +388,16 @@ public class MatchBlockDAA implements IMatchBlock {
         return matchRecord.getTotalSubjectLen();
     }
 
+    @Override
+    public int getAlignedRefStart() {
+        return matchRecord.getSubjectBegin() + 1;
+    }
+
+    @Override
+    public int getAlignedRefEnd() {
+        return matchRecord.getSubjectBegin() + matchRecord.getSubjectLen();
+    }
+
 
     /**
      * compute the BLAST frame
@@ -0,0 +1,74 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.daa.connector;
+
+import megan.daa.io.DAAHeader;
+import megan.daa.io.InputReaderLittleEndian;
+import megan.data.IReadLocationScanner;
+import megan.io.FileInputStreamAdapter;
+
+import java.io.IOException;
+
+/**
+ * scans the alignments block of a DAA file. Each query record is prefixed by its size, so it can be skipped without parsing
+ * Daniel Huson, 10.2018
+ */
+public class ReadLocationScannerDAA implements IReadLocationScanner {
+    private final InputReaderLittleEndian reader;
+    private final long end;
+    private final long numberOfRecords;
+    private long countRecords = 0;
+
+    /**
+     * constructor
+     *
+     * @param daaHeader
+     * @throws IOException
+     */
+    public ReadLocationScannerDAA(DAAHeader daaHeader) throws IOException {
+        final long start = daaHeader.computeBlockStart(daaHeader.getAlignmentsBlockIndex());
+        end = start + daaHeader.getBlockSize(daaHeader.getAlignmentsBlockIndex());
+        reader = new InputReaderLittleEndian(new FileInputStreamAdapter(daaHeader.getFileName()));
+        reader.seek(start);
+        numberOfRecords = daaHeader.getQueryRecords();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        return countRecords < numberOfRecords && reader.getPosition() < end; // the alignments block ends on a zero-length terminator record
+    }
+
+    @Override
+    public long next() throws IOException {
+        final long uid = reader.getPosition();
+        countRecords++;
+        reader.skip(reader.readInt());
+        return uid;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        return reader.getPosition();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -22,6 +22,8 @@ package megan.daa.io;
 import jloda.util.Basic;
 import jloda.util.ICloseableIterator;
 import jloda.util.Pair;
+import jloda.util.ProgramProperties;
+import megan.main.MeganProperties;
 
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -52,12 +54,14 @@ public class DAA2QuerySAMIterator implements ICloseableIterator<Pair<byte[], byt
 
         queue = new ArrayBlockingQueue<>(1000);
 
+        final int numberOfThreads = Math.max(1, Math.min(ProgramProperties.get(MeganProperties.NUMBER_OF_THREADS, MeganProperties.DEFAULT_NUMBER_OF_THREADS), Runtime.getRuntime().availableProcessors() - 1));
+
         // start a thread that loads queue:
         executorService = Executors.newSingleThreadExecutor();
         executorService.submit(new Runnable() {
             public void run() {
                 try {
-                    daaParser.getAllAlignmentsSAMFormat(maxMatchesPerRead, queue, parseLongReads);
+                    daaParser.getAllAlignmentsSAMFormat(maxMatchesPerRead, queue, parseLongReads, numberOfThreads);
                 } catch (IOException e) {
                     Basic.caught(e);
                 }
@@ -20,7 +20,9 @@
 package megan.daa.io;
 
 import jloda.util.Basic;
+import jloda.util.ProgramProperties;
 import megan.classification.Classification;
+import megan.data.ClassificationSlots;
 import megan.io.FileInputStreamAdapter;
 import megan.io.FileRandomAccessReadOnlyAdapter;
 import megan.io.FileRandomAccessReadWriteAdapter;
@@ -54,17 +56,14 @@ public class DAAHeader {
     protected final byte[] blockTypeRank = new byte[256];
 
     // references:
-    private byte[][] references;
+    private IReferenceNameStore references;
     protected int[] refLengths;
 
-    private final int referenceLocationChunkBits = 6; // 6 bits = 64 chunk size
-    private final int referenceLocationChunkSize = 1 << referenceLocationChunkBits;
-    private long[] referenceLocations; // location of every 2^referenceLocationChunkBits reference
-
     // ref annotations:
     protected int numberOfRefAnnotations;
     protected int[][] refAnnotations = new int[256][];
     protected String[] refAnnotationNames = new String[256];
+    protected int[] refAnnotationSlots = new int[256];
     protected int refAnnotationIndexForTaxonomy = -1;
 
     // helper variables:
@@ -184,6 +183,7 @@ public class DAAHeader {
     /**
      * load all references from file (if not already loaded)
      *
+     * @param loadOnDemand if true, reference names are accessed in a memory-mapped store, otherwise all are loaded into memory
      * @throws IOException
      */
     public void loadReferences(boolean loadOnDemand) throws IOException {
@@ -192,19 +192,11 @@ public class DAAHeader {
 
             try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileInputStreamAdapter(fileName))) {
                 ins.skip(getLocationOfBlockInFile(getRefNamesBlockIndex()));
-                initializeReferences((int) getDbSeqsUsed(), loadOnDemand);
 
                 if (loadOnDemand) { // load on demand
-                    for (int r = 0; r < getDbSeqsUsed(); r++) {
-                        if ((r & (referenceLocationChunkSize - 1)) == 0) {
-                            referenceLocations[r >>> referenceLocationChunkBits] = ins.getPosition();
-                        }
-                        ins.skipNullTerminatedBytes();
-                    }
+                    references = new ReferenceNameStoreMapped(fileName, (int) getDbSeqsUsed(), ins, ProgramProperties.get("DAAReferenceNameCacheSize", 100000));
                 } else { // load all now
-                    for (int r = 0; r < getDbSeqsUsed(); r++) {
-                        setReference(r, ins.readNullTerminatedBytes().getBytes());
-                    }
+                    references = new ReferenceNameStoreInMemory((int) getDbSeqsUsed(), ins);
                 }
                 initializeRefLengths((int) getDbSeqsUsed());
                 for (int i = 0; i < getDbSeqsUsed(); i++) {
@@ -214,41 +206,16 @@ public class DAAHeader {
         }
     }
 
-    private void initializeReferences(int numberOfReferences, boolean loadOnDemand) {
-        this.references = new byte[numberOfReferences][];
-        if (loadOnDemand)
-            this.referenceLocations = new long[1 + (numberOfReferences >>> referenceLocationChunkBits)];
-    }
-
     /**
      * get a reference header
      *
      * @param i
-     * @param ins
+     * @param ins reader on DAA file, may be used to load the header
      * @return reference header
      * @throws IOException
      */
     public byte[] getReference(final int i, final InputReaderLittleEndian ins) throws IOException {
-        if (references[i] != null)
-            return references[i];
-        if (ins == null)
-            throw new IOException("getReference(i,ins==null)");
-        // we need to load:
-        int iChunk = (i >>> referenceLocationChunkBits);
-        final long savePosition = ins.getPosition();
-        ins.seek(referenceLocations[iChunk]);
-
-        int start = iChunk * referenceLocationChunkSize; // the smallest multiple of 64 that is <= i
-        // System.err.println("i "+i+" start "+start+" (i-start) "+(i-start));
-        int stop = Math.min((int) getDbSeqsUsed(), start + referenceLocationChunkSize);
-
-        for (int r = start; r < stop; r++) {
-            setReference(r, ins.readNullTerminatedBytes().getBytes());
-        }
-        ins.seek(savePosition); // restore current position
-
-        // System.err.println("got: "+((stop-start)+" more entries"));
-        return references[i];
+        return references.get(i, ins);
     }
 
     /**
@@ -265,6 +232,7 @@ public class DAAHeader {
                 if (getBlockType(b) == BlockType.megan_ref_annotations) {
                     ins.seek(getLocationOfBlockInFile(b));
                     refAnnotationNames[numberOfRefAnnotations] = ins.readNullTerminatedBytes();
+                    refAnnotationSlots[numberOfRefAnnotations] = ClassificationSlots.getSlot(refAnnotationNames[numberOfRefAnnotations]);
                     if (refAnnotationNames[numberOfRefAnnotations].equals(Classification.Taxonomy))
                         refAnnotationIndexForTaxonomy = numberOfRefAnnotations;
                     int[] annotations = refAnnotations[numberOfRefAnnotations] = new int[getNumberOfReferences()];
@@ -394,11 +362,7 @@ public class DAAHeader {
     }
 
     public int getNumberOfReferences() {
-        return references == null ? 0 : references.length;
-    }
-
-    private void setReference(int i, byte[] reference) {
-        references[i] = reference;
+        return references == null ? 0 : references.size();
     }
 
     public int getRefLength(int i) {
@@ -533,6 +497,16 @@ public class DAAHeader {
         return refAnnotationNames[i];
     }
 
+    /**
+     * gets the classification slot of a reference annotation, see ClassificationSlots
+     *
+     * @param i reference annotation index
+     * @return slot
+     */
+    public int getRefAnnotationSlot(int i) {
+        return refAnnotationSlots[i];
+    }
+
     public int getNumberOfRefAnnotations() {
         return numberOfRefAnnotations;
     }
@@ -21,6 +21,7 @@ package megan.daa.io;
 
 import jloda.util.Basic;
 import jloda.util.Pair;
+import megan.io.ByteBufferInputAdapter;
 import megan.io.FileInputStreamAdapter;
 import megan.io.FileRandomAccessReadOnlyAdapter;
 import megan.parsers.blast.BlastMode;
@@ -28,10 +29,15 @@ import megan.parsers.blast.PostProcessMatches;
 import megan.util.interval.Interval;
 import megan.util.interval.IntervalTree;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.concurrent.BlockingQueue;
+import java.util.LinkedList;
+import java.util.concurrent.*;
 
 /**
  * DAA file
@@ -139,74 +145,39 @@ public class DAAParser {
      * @throws IOException
      */
     void getAllAlignmentsSAMFormat(int maxMatchesPerRead, BlockingQueue<Pair<byte[], byte[]>> outputQueue, boolean parseLongReads) throws IOException {
-        final ByteInputBuffer inputBuffer = new ByteInputBuffer();
-        final ByteOutputBuffer outputBuffer = new ByteOutputBuffer(100000);
-
-        final float minProportionCoverToDominate;
-        final float topProportionScoreToDominate;
-        if (parseLongReads) {
-            final PostProcessMatches postProcessMatches = new PostProcessMatches();
-            postProcessMatches.setParseLongReads(true);
-            minProportionCoverToDominate = postProcessMatches.getMinProportionCoverToStronglyDominate();
-            topProportionScoreToDominate = postProcessMatches.getTopProportionScoreToStronglyDominate();
-        } else {
-            minProportionCoverToDominate = 0;
-            topProportionScoreToDominate = 0;
-        }
+        getAllAlignmentsSAMFormat(maxMatchesPerRead, outputQueue, parseLongReads, 1);
+    }
 
-        try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileInputStreamAdapter(header.getFileName()));
-             InputReaderLittleEndian refIns = new InputReaderLittleEndian(new FileRandomAccessReadOnlyAdapter(header.getFileName()))) {
-            ins.seek(header.getLocationOfBlockInFile(header.getAlignmentsBlockIndex()));
-            DAAQueryRecord queryRecord = new DAAQueryRecord(this);
-            DAAMatchRecord matchRecord = new DAAMatchRecord(queryRecord);
-
-            for (int a = 0; a < header.getQueryRecords(); a++) {
-                inputBuffer.rewind();
-                queryRecord.setLocation(ins.getPosition());
-                ins.readSizePrefixedBytes(inputBuffer);
-                queryRecord.parseBuffer(inputBuffer);
-                if (!parseLongReads) {
-                    int numberOfMatches = 0;
-                    while (inputBuffer.getPosition() < inputBuffer.size()) {
-                        if (++numberOfMatches > maxMatchesPerRead)
-                            break;
-                        matchRecord.parseBuffer(inputBuffer, refIns);
-                        SAMUtilities.createSAM(this, matchRecord, outputBuffer, alignmentAlphabet);
-                    }
-                } else // parse long reads
-                {
-                    intervalTree.clear();
-                    while (inputBuffer.getPosition() < inputBuffer.size()) {
-                        DAAMatchRecord aMatchRecord = new DAAMatchRecord(queryRecord);
-                        aMatchRecord.parseBuffer(inputBuffer, refIns);
-                        intervalTree.add(aMatchRecord.getQueryBegin(), aMatchRecord.getQueryEnd(), aMatchRecord);
-                    }
-                    list.clear();
-                    for (Interval<DAAMatchRecord> interval : intervalTree) {
-                        boolean covered = false;
-                        for (Interval<DAAMatchRecord> other : intervalTree.getIntervals(interval)) {
-                            if (other.overlap(interval) >= minProportionCoverToDominate * interval.length() && topProportionScoreToDominate * other.getData().getScore() > interval.getData().getScore()) {
-                                covered = true;
-                                break;
-                            }
-                        }
-                        if (!covered)
-                            list.add(interval.getData());
+    /**
+     * get all alignments in SAM format. If more than one thread is requested, chunks of queries are decoded in parallel
+     *
+     * @param maxMatchesPerRead
+     * @param outputQueue
+     * @param numberOfThreads
+     * @throws IOException
+     */
+    void getAllAlignmentsSAMFormat(final int maxMatchesPerRead, BlockingQueue<Pair<byte[], byte[]>> outputQueue, final boolean parseLongReads, int numberOfThreads) throws IOException {
+        try {
+            if (numberOfThreads > 1 && header.getQueryRecords() > DAAQueryIndex.DEFAULT_INTERVAL) {
+                decodeInParallel(numberOfThreads, new IQueryDecoderFactory<Pair<byte[], byte[]>>() {
+                    @Override
+                    public IQueryDecoder<Pair<byte[], byte[]>> create() throws IOException {
+                        return new SAMDecoder(new DAAParser(header), maxMatchesPerRead, parseLongReads);
                     }
-                    for (DAAMatchRecord aMatchRecord : list) {
-                        SAMUtilities.createSAM(this, aMatchRecord, outputBuffer, alignmentAlphabet);
+                }, outputQueue);
+            } else {
+                try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileInputStreamAdapter(header.getFileName()));
+                     SAMDecoder decoder = new SAMDecoder(this, maxMatchesPerRead, parseLongReads)) {
+                    ins.seek(header.getLocationOfBlockInFile(header.getAlignmentsBlockIndex()));
+                    for (long a = 0; a < header.getQueryRecords(); a++) {
+                        final Pair<byte[], byte[]> pair = decoder.decode(ins);
+                        if (pair != null)
+                            outputQueue.put(pair);
                     }
                 }
-
-                if (outputBuffer.size() > 0) {
-                    outputQueue.put(new Pair<>(queryRecord.getQueryFastA(sourceAlphabet), outputBuffer.copyBytes()));
-                    outputBuffer.rewind();
-                }
             }
-
             outputQueue.put(SENTINEL_SAM_ALIGNMENTS);
 
-
             // System.err.println(String.format("Total reads:   %,15d", header.getQueryRecords()));
             // System.err.println(String.format("Alignments:    %,15d", alignmentCount));
         } catch (InterruptedException e) {
@@ -222,17 +193,34 @@ public class DAAParser {
      * @throws IOException
      */
     void getAllQueriesAndMatches(int maxMatchesPerRead, BlockingQueue<Pair<DAAQueryRecord, DAAMatchRecord[]>> outputQueue, boolean longReads) throws IOException {
-        final ByteInputBuffer inputBuffer = new ByteInputBuffer();
-
-        try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileInputStreamAdapter(header.getFileName()));
-             InputReaderLittleEndian refIns = new InputReaderLittleEndian(new FileRandomAccessReadOnlyAdapter(header.getFileName()))) {
-            ins.seek(header.getLocationOfBlockInFile(header.getAlignmentsBlockIndex()));
-
-            DAAMatchRecord[] matchRecords = new DAAMatchRecord[maxMatchesPerRead];
+        getAllQueriesAndMatches(maxMatchesPerRead, outputQueue, longReads, 1);
+    }
 
-            for (int a = 0; a < header.getQueryRecords(); a++) {
-                final Pair<DAAQueryRecord, DAAMatchRecord[]> pair = readQueryAndMatches(ins, refIns, maxMatchesPerRead, inputBuffer, matchRecords, longReads);
-                outputQueue.put(pair);
+    /**
+     * get all queries with matches. If more than one thread is requested, chunks of queries are decoded in parallel
+     *
+     * @param maxMatchesPerRead
+     * @param outputQueue
+     * @param numberOfThreads
+     * @throws IOException
+     */
+    void getAllQueriesAndMatches(final int maxMatchesPerRead, BlockingQueue<Pair<DAAQueryRecord, DAAMatchRecord[]>> outputQueue, final boolean longReads, int numberOfThreads) throws IOException {
+        try {
+            if (numberOfThreads > 1 && header.getQueryRecords() > DAAQueryIndex.DEFAULT_INTERVAL) {
+                decodeInParallel(numberOfThreads, new IQueryDecoderFactory<Pair<DAAQueryRecord, DAAMatchRecord[]>>() {
+                    @Override
+                    public IQueryDecoder<Pair<DAAQueryRecord, DAAMatchRecord[]>> create() throws IOException {
+                        return new QueryAndMatchesDecoder(new DAAParser(header), maxMatchesPerRead, longReads);
+                    }
+                }, outputQueue);
+            } else {
+                try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileInputStreamAdapter(header.getFileName()));
+                     QueryAndMatchesDecoder decoder = new QueryAndMatchesDecoder(this, maxMatchesPerRead, longReads)) {
+                    ins.seek(header.getLocationOfBlockInFile(header.getAlignmentsBlockIndex()));
+                    for (long a = 0; a < header.getQueryRecords(); a++) {
+                        outputQueue.put(decoder.decode(ins));
+                    }
+                }
             }
             outputQueue.put(SENTINEL_QUERY_MATCH_BLOCKS);
         } catch (InterruptedException e) {
@@ -240,6 +228,221 @@ public class DAAParser {
         }
     }
 
+    /**
+     * decodes all queries in parallel. Chunks of queries, as defined by the query index, are memory-mapped and decoded by
+     * worker threads, each using its own decoder. Results are put into the output queue in file order
+     *
+     * @param numberOfThreads
+     * @param decoderFactory
+     * @param outputQueue
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private <T> void decodeInParallel(int numberOfThreads, IQueryDecoderFactory<T> decoderFactory, BlockingQueue<T> outputQueue) throws IOException, InterruptedException {
+        final DAAQueryIndex queryIndex = DAAQueryIndex.get(header);
+
+        final ArrayList<IQueryDecoder<T>> allDecoders = new ArrayList<>();
+        final ArrayBlockingQueue<IQueryDecoder<T>> availableDecoders = new ArrayBlockingQueue<>(numberOfThreads);
+        final ExecutorService service = Executors.newFixedThreadPool(numberOfThreads);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(header.getFileName()), StandardOpenOption.READ)) {
+            for (int t = 0; t < numberOfThreads; t++) {
+                final IQueryDecoder<T> decoder = decoderFactory.create();
+                allDecoders.add(decoder);
+                availableDecoders.add(decoder);
+            }
+
+            final LinkedList<Future<ArrayList<T>>> pending = new LinkedList<>();
+            int nextChunk = 0;
+            while (nextChunk < queryIndex.getNumberOfChunks() || pending.size() > 0) {
+                while (pending.size() < 2 * numberOfThreads && nextChunk < queryIndex.getNumberOfChunks()) {
+                    final int chunk = nextChunk++;
+                    pending.add(service.submit(new Callable<ArrayList<T>>() {
+                        @Override
+                        public ArrayList<T> call() throws Exception {
+                            final IQueryDecoder<T> decoder = availableDecoders.take();
+                            try {
+                                final long start = queryIndex.getChunkStart(chunk);
+                                final long length = queryIndex.getChunkEnd(chunk) - start;
+                                final InputReaderLittleEndian ins;
+                                if (length <= Integer.MAX_VALUE)
+                                    ins = new InputReaderLittleEndian(new ByteBufferInputAdapter(channel.map(FileChannel.MapMode.READ_ONLY, start, length), start));
+                                else { // too big to map
+                                    ins = new InputReaderLittleEndian(new FileRandomAccessReadOnlyAdapter(header.getFileName()));
+                                    ins.seek(start);
+                                }
+                                try {
+                                    final int numberOfQueries = queryIndex.getNumberOfQueries(chunk);
+                                    final ArrayList<T> result = new ArrayList<>(numberOfQueries);
+                                    for (int q = 0; q < numberOfQueries; q++) {
+                                        final T item = decoder.decode(ins);
+                                        if (item != null)
+                                            result.add(item);
+                                    }
+                                    return result;
+                                } finally {
+                                    ins.close();
+                                }
+                            } finally {
+                                availableDecoders.put(decoder);
+                            }
+                        }
+                    }));
+                }
+                try {
+                    for (T item : pending.removeFirst().get()) {
+                        outputQueue.put(item);
+                    }
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            service.shutdownNow();
+            for (IQueryDecoder<T> decoder : allDecoders) {
+                decoder.close();
+            }
+        }
+    }
+
+    /**
+     * decodes one query record at a time
+     */
+    private interface IQueryDecoder<T> extends Closeable {
+        /**
+         * decode the next query record
+         *
+         * @return result or null, if nothing to report for this query
+         */
+        T decode(InputReaderLittleEndian ins) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    private interface IQueryDecoderFactory<T> {
+        IQueryDecoder<T> create() throws IOException;
+    }
+
+    /**
+     * decodes a query and its matches into SAM format. Not thread safe, each thread requires its own instance
+     */
+    private static class SAMDecoder implements IQueryDecoder<Pair<byte[], byte[]>> {
+        private final DAAParser parser;
+        private final int maxMatchesPerRead;
+        private final boolean parseLongReads;
+        private final float minProportionCoverToDominate;
+        private final float topProportionScoreToDominate;
+
+        private final InputReaderLittleEndian refIns;
+        private final ByteInputBuffer inputBuffer = new ByteInputBuffer();
+        private final ByteOutputBuffer outputBuffer = new ByteOutputBuffer(100000);
+        private final DAAQueryRecord queryRecord;
+        private final DAAMatchRecord matchRecord;
+
+        SAMDecoder(DAAParser parser, int maxMatchesPerRead, boolean parseLongReads) throws IOException {
+            this.parser = parser;
+            this.maxMatchesPerRead = maxMatchesPerRead;
+            this.parseLongReads = parseLongReads;
+            if (parseLongReads) {
+                final PostProcessMatches postProcessMatches = new PostProcessMatches();
+                postProcessMatches.setParseLongReads(true);
+                minProportionCoverToDominate = postProcessMatches.getMinProportionCoverToStronglyDominate();
+                topProportionScoreToDominate = postProcessMatches.getTopProportionScoreToStronglyDominate();
+            } else {
+                minProportionCoverToDominate = 0;
+                topProportionScoreToDominate = 0;
+            }
+            refIns = new InputReaderLittleEndian(new FileRandomAccessReadOnlyAdapter(parser.header.getFileName()));
+            queryRecord = new DAAQueryRecord(parser);
+            matchRecord = new DAAMatchRecord(queryRecord);
+        }
+
+        @Override
+        public Pair<byte[], byte[]> decode(InputReaderLittleEndian ins) throws IOException {
+            inputBuffer.rewind();
+            queryRecord.setLocation(ins.getPosition());
+            ins.readSizePrefixedBytes(inputBuffer);
+            queryRecord.parseBuffer(inputBuffer);
+            if (!parseLongReads) {
+                int numberOfMatches = 0;
+                while (inputBuffer.getPosition() < inputBuffer.size()) {
+                    if (++numberOfMatches > maxMatchesPerRead)
+                        break;
+                    matchRecord.parseBuffer(inputBuffer, refIns);
+                    SAMUtilities.createSAM(parser, matchRecord, outputBuffer, parser.alignmentAlphabet);
+                }
+            } else // parse long reads
+            {
+                final IntervalTree<DAAMatchRecord> intervalTree = parser.intervalTree;
+                final ArrayList<DAAMatchRecord> list = parser.list;
+                intervalTree.clear();
+                while (inputBuffer.getPosition() < inputBuffer.size()) {
+                    DAAMatchRecord aMatchRecord = new DAAMatchRecord(queryRecord);
+                    aMatchRecord.parseBuffer(inputBuffer, refIns);
+                    intervalTree.add(aMatchRecord.getQueryBegin(), aMatchRecord.getQueryEnd(), aMatchRecord);
+                }
+                list.clear();
+                for (Interval<DAAMatchRecord> interval : intervalTree) {
+                    boolean covered = false;
+                    for (Interval<DAAMatchRecord> other : intervalTree.getIntervals(interval)) {
+                        if (other.overlap(interval) >= minProportionCoverToDominate * interval.length() && topProportionScoreToDominate * other.getData().getScore() > interval.getData().getScore()) {
+                            covered = true;
+                            break;
+                        }
+                    }
+                    if (!covered)
+                        list.add(interval.getData());
+                }
+                for (DAAMatchRecord aMatchRecord : list) {
+                    SAMUtilities.createSAM(parser, aMatchRecord, outputBuffer, parser.alignmentAlphabet);
+                }
+            }
+
+            if (outputBuffer.size() > 0) {
+                final Pair<byte[], byte[]> pair = new Pair<>(queryRecord.getQueryFastA(parser.sourceAlphabet), outputBuffer.copyBytes());
+                outputBuffer.rewind();
+                return pair;
+            } else
+                return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            refIns.close();
+        }
+    }
+
+    /**
+     * decodes a query and its matches. Not thread safe, each thread requires its own instance
+     */
+    private static class QueryAndMatchesDecoder implements IQueryDecoder<Pair<DAAQueryRecord, DAAMatchRecord[]>> {
+        private final DAAParser parser;
+        private final int maxMatchesPerRead;
+        private final boolean longReads;
+
+        private final InputReaderLittleEndian refIns;
+        private final ByteInputBuffer inputBuffer = new ByteInputBuffer();
+        private final DAAMatchRecord[] matchRecords;
+
+        QueryAndMatchesDecoder(DAAParser parser, int maxMatchesPerRead, boolean longReads) throws IOException {
+            this.parser = parser;
+            this.maxMatchesPerRead = maxMatchesPerRead;
+            this.longReads = longReads;
+            refIns = new InputReaderLittleEndian(new FileRandomAccessReadOnlyAdapter(parser.header.getFileName()));
+            matchRecords = new DAAMatchRecord[maxMatchesPerRead];
+        }
+
+        @Override
+        public Pair<DAAQueryRecord, DAAMatchRecord[]> decode(InputReaderLittleEndian ins) throws IOException {
+            return parser.readQueryAndMatches(ins, refIns, maxMatchesPerRead, inputBuffer, matchRecords, longReads);
+        }
+
+        @Override
+        public void close() throws IOException {
+            refIns.close();
+        }
+    }
+
     /**
      * read a query and its matches
      *
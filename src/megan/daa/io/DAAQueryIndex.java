@@ -0,0 +1,190 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.daa.io;
+
+import jloda.util.Basic;
+import megan.io.FileInputStreamAdapter;
+
+import java.io.*;
+
+/**
+ * sampled index of query record locations in the alignments block of a DAA file.
+ * The location of every interval-th query is recorded, so that chunks of queries can be decoded independently.
+ * The index is saved in a sidecar file next to the DAA file and recomputed when it doesn't match the DAA header
+ * Daniel Huson, 10.2018
+ */
+public class DAAQueryIndex {
+    public static final String FILE_SUFFIX = ".qidx";
+    public static final int DEFAULT_INTERVAL = 1024;
+
+    private static final int MAGIC_NUMBER = 0x51494458; // "QIDX"
+    private static final int VERSION = 1;
+
+    private final int interval;
+    private final long numberOfQueries;
+    private final long start;
+    private final long end;
+    private final long[] locations;
+
+    /**
+     * constructor
+     */
+    private DAAQueryIndex(int interval, long numberOfQueries, long start, long end, long[] locations) {
+        this.interval = interval;
+        this.numberOfQueries = numberOfQueries;
+        this.start = start;
+        this.end = end;
+        this.locations = locations;
+    }
+
+    /**
+     * gets the query index for a DAA file. Loads the sidecar file, if present and valid, otherwise computes the index and tries to save it
+     *
+     * @param header
+     * @return query index
+     * @throws IOException
+     */
+    public static DAAQueryIndex get(DAAHeader header) throws IOException {
+        final File indexFile = new File(header.getFileName() + FILE_SUFFIX);
+        if (indexFile.exists()) {
+            try {
+                final DAAQueryIndex index = read(indexFile, header);
+                if (index != null)
+                    return index;
+            } catch (IOException ex) {
+                System.err.println("Failed to read DAA query index (will recompute): " + ex.getMessage());
+            }
+        }
+        final DAAQueryIndex index = compute(header, DEFAULT_INTERVAL);
+        try {
+            index.write(indexFile);
+        } catch (IOException ex) {
+            System.err.println("Failed to save DAA query index: " + ex.getMessage()); // e.g. directory not writable, not a problem
+        }
+        return index;
+    }
+
+    /**
+     * computes the query index by skipping through the size-prefixed query records
+     *
+     * @param header
+     * @param interval
+     * @return query index
+     * @throws IOException
+     */
+    public static DAAQueryIndex compute(DAAHeader header, int interval) throws IOException {
+        final long start = header.getLocationOfBlockInFile(header.getAlignmentsBlockIndex());
+        final long end = start + header.getBlockSize(header.getAlignmentsBlockIndex());
+        final long numberOfQueries = header.getQueryRecords();
+        final long[] locations = new long[(int) ((numberOfQueries + interval - 1) / interval)];
+
+        try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileInputStreamAdapter(header.getFileName()))) {
+            ins.seek(start);
+            for (long q = 0; q < numberOfQueries; q++) {
+                if (q % interval == 0)
+                    locations[(int) (q / interval)] = ins.getPosition();
+                ins.skip(ins.readInt());
+            }
+        }
+        return new DAAQueryIndex(interval, numberOfQueries, start, end, locations);
+    }
+
+    /**
+     * reads the index from a file
+     *
+     * @param file
+     * @param header used to check that the index belongs to the DAA file
+     * @return index or null, if index doesn't match header
+     * @throws IOException
+     */
+    private static DAAQueryIndex read(File file, DAAHeader header) throws IOException {
+        try (DataInputStream ins = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (ins.readInt() != MAGIC_NUMBER || ins.readInt() != VERSION)
+                return null;
+            final int interval = ins.readInt();
+            final long numberOfQueries = ins.readLong();
+            final long start = ins.readLong();
+            final long end = ins.readLong();
+            if (interval <= 0 || numberOfQueries != header.getQueryRecords() || start != header.getLocationOfBlockInFile(header.getAlignmentsBlockIndex())
+                    || end != start + header.getBlockSize(header.getAlignmentsBlockIndex()))
+                return null;
+            final long[] locations = new long[ins.readInt()];
+            if (locations.length != (numberOfQueries + interval - 1) / interval)
+                return null;
+            for (int i = 0; i < locations.length; i++) {
+                locations[i] = ins.readLong();
+            }
+            return new DAAQueryIndex(interval, numberOfQueries, start, end, locations);
+        }
+    }
+
+    /**
+     * writes the index to a file
+     *
+     * @param file
+     * @throws IOException
+     */
+    private void write(File file) throws IOException {
+        try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            outs.writeInt(MAGIC_NUMBER);
+            outs.writeInt(VERSION);
+            outs.writeInt(interval);
+            outs.writeLong(numberOfQueries);
+            outs.writeLong(start);
+            outs.writeLong(end);
+            outs.writeInt(locations.length);
+            for (long location : locations) {
+                outs.writeLong(location);
+            }
+        } catch (IOException ex) {
+            if (file.exists() && !file.delete())
+                Basic.caught(ex);
+            throw ex;
+        }
+    }
+
+    public int getNumberOfChunks() {
+        return locations.length;
+    }
+
+    /**
+     * get the location of the first query in the given chunk
+     */
+    public long getChunkStart(int chunk) {
+        return locations[chunk];
+    }
+
+    /**
+     * get the location just after the last query in the given chunk
+     */
+    public long getChunkEnd(int chunk) {
+        return chunk + 1 < locations.length ? locations[chunk + 1] : end;
+    }
+
+    /**
+     * get the number of queries in the given chunk
+     */
+    public int getNumberOfQueries(int chunk) {
+        return (int) Math.min(interval, numberOfQueries - (long) chunk * interval);
+    }
+
+    public long getNumberOfQueries() {
+        return numberOfQueries;
+    }
+}
@@ -22,6 +22,8 @@ package megan.daa.io;
 import jloda.util.Basic;
 import jloda.util.ICloseableIterator;
 import jloda.util.Pair;
+import jloda.util.ProgramProperties;
+import megan.main.MeganProperties;
 
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -54,12 +56,14 @@ public class DAAQueryMatchesIterator implements ICloseableIterator<Pair<DAAQuery
 
         queue = new ArrayBlockingQueue<>(1000);
 
+        final int numberOfThreads = Math.max(1, Math.min(ProgramProperties.get(MeganProperties.NUMBER_OF_THREADS, MeganProperties.DEFAULT_NUMBER_OF_THREADS), Runtime.getRuntime().availableProcessors() - 1));
+
         // start a thread that loads queue:
         executorService = Executors.newSingleThreadExecutor();
         executorService.submit(new Runnable() {
             public void run() {
                 try {
-                    daaParser.getAllQueriesAndMatches(maxMatchesPerRead, queue, longReads);
+                    daaParser.getAllQueriesAndMatches(maxMatchesPerRead, queue, longReads, numberOfThreads);
                 } catch (IOException e) {
                     Basic.caught(e);
                 }
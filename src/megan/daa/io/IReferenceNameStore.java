@@ -0,0 +1,44 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.daa.io;
+
+import java.io.IOException;
+
+/**
+ * provides access to the reference names stored in the ref_names block of a DAA file
+ * Daniel Huson, 10.2018
+ */
+public interface IReferenceNameStore {
+    /**
+     * get the name (header) of a reference
+     *
+     * @param i   reference id
+     * @param ins reader on the DAA file, may be used by implementations that load names on demand
+     * @return name
+     * @throws IOException
+     */
+    byte[] get(int i, InputReaderLittleEndian ins) throws IOException;
+
+    /**
+     * get the number of references
+     *
+     * @return number of references
+     */
+    int size();
+}
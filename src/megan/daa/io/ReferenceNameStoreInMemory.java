@@ -0,0 +1,53 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.daa.io;
+
+import java.io.IOException;
+
+/**
+ * keeps all reference names in memory
+ * Daniel Huson, 10.2018
+ */
+public class ReferenceNameStoreInMemory implements IReferenceNameStore {
+    private final byte[][] references;
+
+    /**
+     * constructor. Reads all names from the given reader, which must be positioned at the start of the ref_names block
+     *
+     * @param numberOfReferences
+     * @param ins
+     * @throws IOException
+     */
+    public ReferenceNameStoreInMemory(int numberOfReferences, InputReaderLittleEndian ins) throws IOException {
+        references = new byte[numberOfReferences][];
+        for (int r = 0; r < numberOfReferences; r++) {
+            references[r] = ins.readNullTerminatedBytes().getBytes();
+        }
+    }
+
+    @Override
+    public byte[] get(int i, InputReaderLittleEndian ins) {
+        return references[i];
+    }
+
+    @Override
+    public int size() {
+        return references.length;
+    }
+}
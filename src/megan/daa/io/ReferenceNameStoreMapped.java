@@ -0,0 +1,164 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.daa.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Accesses reference names in a memory-mapped ref_names block.
+ * Only the location of every 64-th name is kept on the heap. A name is found by scanning forward from the closest
+ * recorded location in mapped memory, or from the name last accessed by the same thread. No seeks on a shared reader are required
+ * and the store can be used by multiple threads. Optionally, names accessed out of order are kept in a bounded LRU cache,
+ * which is split into independently locked stripes so that threads rarely contend for it
+ * Daniel Huson, 10.2018
+ */
+public class ReferenceNameStoreMapped implements IReferenceNameStore {
+    private static final int CHUNK_BITS = 6; // 6 bits = 64 chunk size
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int SEGMENT_BITS = 30; // map in segments of 1GB
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    private static final int CACHE_STRIPE_BITS = 4; // 16 cache stripes
+    private static final int CACHE_STRIPES = 1 << CACHE_STRIPE_BITS;
+
+    private final int numberOfReferences;
+    private final long blockStart;
+    private final long[] chunkLocations; // location of every 64-th reference name, relative to block start
+    private final MappedByteBuffer[] segments;
+
+    private final Map<Integer, byte[]>[] cacheStripes; // LRU cache for reference i is cacheStripes[i & (CACHE_STRIPES-1)]
+
+    private final ThreadLocal<long[]> cursors = new ThreadLocal<long[]>() { // last reference accessed by thread and location of next name
+        @Override
+        protected long[] initialValue() {
+            return new long[]{-1, 0};
+        }
+    };
+
+    /**
+     * constructor. Scans the names to record the location of every 64-th name. The given reader must be positioned
+     * at the start of the ref_names block and is positioned after the last name on return
+     *
+     * @param fileName
+     * @param numberOfReferences
+     * @param ins
+     * @param cacheSize          max number of names to keep in the LRU cache (over all stripes), 0 to turn off
+     * @throws IOException
+     */
+    public ReferenceNameStoreMapped(String fileName, int numberOfReferences, InputReaderLittleEndian ins, final int cacheSize) throws IOException {
+        this.numberOfReferences = numberOfReferences;
+        blockStart = ins.getPosition();
+        chunkLocations = new long[1 + (numberOfReferences >>> CHUNK_BITS)];
+        for (int r = 0; r < numberOfReferences; r++) {
+            if ((r & (CHUNK_SIZE - 1)) == 0) {
+                chunkLocations[r >>> CHUNK_BITS] = ins.getPosition() - blockStart;
+            }
+            ins.skipNullTerminatedBytes();
+        }
+        final long blockSize = ins.getPosition() - blockStart;
+
+        segments = new MappedByteBuffer[(int) ((blockSize + SEGMENT_MASK) >>> SEGMENT_BITS)];
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            for (int s = 0; s < segments.length; s++) {
+                final long start = ((long) s << SEGMENT_BITS);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, blockStart + start, Math.min(SEGMENT_MASK + 1, blockSize - start));
+            }
+        }
+
+        if (cacheSize > 0) {
+            final int stripeSize = Math.max(1, cacheSize >>> CACHE_STRIPE_BITS);
+            cacheStripes = new Map[CACHE_STRIPES];
+            for (int s = 0; s < CACHE_STRIPES; s++) {
+                cacheStripes[s] = new LinkedHashMap<Integer, byte[]>(Math.min(stripeSize, 1 << 12), 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                        return size() > stripeSize;
+                    }
+                };
+            }
+        } else
+            cacheStripes = null;
+    }
+
+    @Override
+    public byte[] get(int i, InputReaderLittleEndian ins) throws IOException {
+        if (i < 0 || i >= numberOfReferences)
+            throw new IOException("getReference(" + i + "): out of range");
+
+        final Map<Integer, byte[]> cache = (cacheStripes != null ? cacheStripes[i & (CACHE_STRIPES - 1)] : null);
+        if (cache != null) {
+            synchronized (cache) {
+                final byte[] name = cache.get(i);
+                if (name != null)
+                    return name;
+            }
+        }
+
+        final long[] cursor = cursors.get();
+        final boolean sequential = (cursor[0] + 1 == i);
+
+        long pos;
+        int r;
+        if (cursor[0] >= 0 && cursor[0] < i && (cursor[0] >>> CHUNK_BITS) == (i >>> CHUNK_BITS) || sequential) { // continue from last access
+            r = (int) cursor[0] + 1;
+            pos = cursor[1];
+        } else {
+            r = (i & ~(CHUNK_SIZE - 1));
+            pos = chunkLocations[i >>> CHUNK_BITS];
+        }
+        for (; r < i; r++) { // skip preceding names
+            while (byteAt(pos++) != 0) ;
+        }
+        long end = pos;
+        while (byteAt(end) != 0)
+            end++;
+        final byte[] name = new byte[(int) (end - pos)];
+        for (int k = 0; k < name.length; k++)
+            name[k] = byteAt(pos + k);
+
+        cursor[0] = i;
+        cursor[1] = end + 1;
+
+        if (cache != null && !sequential) { // don't let sequential scans flush the cache
+            synchronized (cache) {
+                cache.put(i, name);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * get byte at given location relative to block start. Uses absolute get, so is thread safe
+     */
+    private byte byteAt(long pos) {
+        return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK));
+    }
+
+    @Override
+    public int size() {
+        return numberOfReferences;
+    }
+}
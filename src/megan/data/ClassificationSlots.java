@@ -0,0 +1,111 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.data;
+
+import megan.classification.Classification;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * assigns each classification name a small integer slot, once per session, so that match blocks can keep
+ * their classification ids in an int array and hot loops can access them without hashing names.
+ * Slot 0 is always taxonomy
+ * Daniel Huson, 10.2018
+ */
+public class ClassificationSlots {
+    public static final int TAXONOMY_SLOT = 0;
+
+    private static final Map<String, Integer> name2slot = new ConcurrentHashMap<>();
+    private static volatile String[] slot2name = new String[0];
+
+    static {
+        getSlot(Classification.Taxonomy);
+    }
+
+    /**
+     * gets the slot for the named classification, allocating a new one, if necessary
+     *
+     * @param cName
+     * @return slot
+     */
+    public static int getSlot(String cName) {
+        final Integer slot = name2slot.get(cName);
+        if (slot != null)
+            return slot;
+        synchronized (name2slot) {
+            final Integer other = name2slot.get(cName);
+            if (other != null)
+                return other;
+            final String[] names = Arrays.copyOf(slot2name, slot2name.length + 1);
+            names[names.length - 1] = cName;
+            slot2name = names;
+            name2slot.put(cName, names.length - 1);
+            return names.length - 1;
+        }
+    }
+
+    /**
+     * gets the slots for the named classifications, allocating new ones, if necessary
+     *
+     * @param cNames
+     * @return slots
+     */
+    public static int[] getSlots(String[] cNames) {
+        final int[] slots = new int[cNames.length];
+        for (int i = 0; i < cNames.length; i++)
+            slots[i] = getSlot(cNames[i]);
+        return slots;
+    }
+
+    /**
+     * finds the slot for the named classification without allocating one
+     *
+     * @param cName
+     * @return slot or -1, if classification has no slot
+     */
+    public static int findSlot(String cName) {
+        if (cName == null)
+            return -1;
+        final Integer slot = name2slot.get(cName);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * gets the name of the classification for the given slot
+     *
+     * @param slot
+     * @return name or null
+     */
+    public static String getName(int slot) {
+        final String[] names = slot2name;
+        return slot >= 0 && slot < names.length ? names[slot] : null;
+    }
+
+    /**
+     * gets the number of allocated slots
+     *
+     * @return size
+     */
+    public static int size() {
+        return slot2name.length;
+    }
+}
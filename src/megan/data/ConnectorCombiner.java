@@ -77,6 +77,11 @@ public class ConnectorCombiner implements IConnector {
         return new ReadBlockIteratorCombiner(iterators);
     }
 
+    @Override
+    public IReadBlockBatchIterator getAllReadsBatchIterator(int batchSize, int numberOfThreads, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return new ReadBlockBatchIteratorAdapter(getAllReadsIterator(minScore, maxExpected, wantReadSequence, wantMatches), batchSize);
+    }
+
     @Override
     public IReadBlockIterator getReadsIterator(final String classification, final int classId, final float minScore, final float maxExpected, final boolean wantReadSequence, final boolean wantMatches) throws IOException {
         final IReadBlockIterator[] iterators = new IReadBlockIterator[connectors.length];
@@ -172,7 +177,7 @@ public class ConnectorCombiner implements IConnector {
     }
 
     @Override
-    public void updateClassifications(String[] classificationNames, List<UpdateItem> updateItems, ProgressListener progressListener) throws IOException, CanceledException {
+    public void updateClassifications(String[] classificationNames, UpdateItemList updateItems, ProgressListener progressListener) throws IOException, CanceledException {
         throw new IOException("Can't updateClassifications() for combined document");
     }
 
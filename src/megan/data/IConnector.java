@@ -24,7 +24,6 @@ import jloda.util.Single;
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -70,6 +69,21 @@ public interface IConnector {
      */
     IReadBlockIterator getAllReadsIterator(float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException;
 
+    /**
+     * get an iterator over all reads that hands out batches of reads in file order. Where supported, batches are decoded in parallel.
+     * If minScore=0 and topPercent=0, no filtering
+     *
+     * @param batchSize        number of reads per batch
+     * @param numberOfThreads  number of threads to use for decoding
+     * @param minScore         ignore
+     * @param maxExpected      ignore
+     * @param wantReadSequence
+     * @param wantMatches
+     * @return batch iterator
+     * @throws IOException
+     */
+    IReadBlockBatchIterator getAllReadsBatchIterator(int batchSize, int numberOfThreads, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException;
+
     /**
      * get getLetterCodeIterator over all reads for given classification and classId. If minScore=0 and topPercent=0, no filtering
      *
@@ -150,7 +164,7 @@ public interface IConnector {
      * @param updateItems         list of rescan items
      * @throws IOException
      */
-    void updateClassifications(final String[] classificationNames, final List<UpdateItem> updateItems, ProgressListener progressListener) throws IOException, CanceledException;
+    void updateClassifications(final String[] classificationNames, final UpdateItemList updateItems, ProgressListener progressListener) throws IOException, CanceledException;
 
     /**
      * get all reads that match the given expression
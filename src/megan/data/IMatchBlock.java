@@ -114,6 +114,13 @@ public interface IMatchBlock {
      */
     String getTextFirstWord();
 
+    /**
+     * get the first word of the name of the reference sequence. Unlike getTextFirstWord(), this does not require the text to be computed
+     *
+     * @return first word of reference name, without leading '>'
+     */
+    String getRefNameFirstWord();
+
     /**
      * set the text
      *
@@ -127,6 +134,22 @@ public interface IMatchBlock {
 
     int[] getIds(String[] cNames);
 
+    /**
+     * get the id for the classification with the given slot
+     *
+     * @param slot classification slot, see ClassificationSlots
+     * @return id or 0
+     */
+    int getId(int slot);
+
+    /**
+     * set the id for the classification with the given slot
+     *
+     * @param slot classification slot, see ClassificationSlots
+     * @param id
+     */
+    void setId(int slot, int id);
+
     /**
      * get the start position of the alignment in the query
      *
@@ -147,4 +170,18 @@ public interface IMatchBlock {
      * @return reference sequence length
      */
     int getRefLength();
+
+    /**
+     * get the start position of the alignment in the reference
+     *
+     * @return reference start position, 1-based, or 0, if not available
+     */
+    int getAlignedRefStart();
+
+    /**
+     * get the end position of the alignment in the reference
+     *
+     * @return reference end position, 1-based, inclusive, or 0, if not available
+     */
+    int getAlignedRefEnd();
 }
@@ -0,0 +1,52 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * scans through the reads section of a file and reports the location of each read, without decoding the read
+ * Daniel Huson, 10.2018
+ */
+public interface IReadLocationScanner extends Closeable {
+    /**
+     * is there another read?
+     *
+     * @return true, if another read is available
+     * @throws IOException
+     */
+    boolean hasNext() throws IOException;
+
+    /**
+     * gets the location (uid) of the next read and moves the scanner past it
+     *
+     * @return location of read
+     * @throws IOException
+     */
+    long next() throws IOException;
+
+    /**
+     * get the current position in the file
+     *
+     * @return position
+     * @throws IOException
+     */
+    long getPosition() throws IOException;
+}
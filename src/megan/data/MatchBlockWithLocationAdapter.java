@@ -57,6 +57,16 @@ public class MatchBlockWithLocationAdapter implements IMatchBlock, IMatchBlockWi
         matchBlock.setId(cName, id);
     }
 
+    @Override
+    public int getId(int slot) {
+        return matchBlock.getId(slot);
+    }
+
+    @Override
+    public void setId(int slot, int id) {
+        matchBlock.setId(slot, id);
+    }
+
     /**
      * gets all defined ids
      *
@@ -124,6 +134,11 @@ public class MatchBlockWithLocationAdapter implements IMatchBlock, IMatchBlockWi
         return matchBlock.getTextFirstWord();
     }
 
+    @Override
+    public String getRefNameFirstWord() {
+        return matchBlock.getRefNameFirstWord();
+    }
+
     public void setText(String text) {
         matchBlock.setText(text);
     }
@@ -154,5 +169,15 @@ public class MatchBlockWithLocationAdapter implements IMatchBlock, IMatchBlockWi
     public int getRefLength() {
         return matchBlock.getRefLength();
     }
+
+    @Override
+    public int getAlignedRefStart() {
+        return matchBlock.getAlignedRefStart();
+    }
+
+    @Override
+    public int getAlignedRefEnd() {
+        return matchBlock.getAlignedRefEnd();
+    }
 }
 
@@ -0,0 +1,69 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.data;
+
+/**
+ * a batch of consecutive reads, as handed out by a batch iterator
+ * Daniel Huson, 10.2018
+ */
+public class ReadBlockBatch {
+    private final int index;
+    private final long start;
+    private final long end;
+    private final IReadBlock[] readBlocks;
+
+    /**
+     * constructor
+     *
+     * @param index      number of batch, batches are numbered consecutively in file order, starting at 0
+     * @param start      location of first read in file, or -1, if not known
+     * @param end        location after last read in file, or -1, if not known
+     * @param readBlocks the reads
+     */
+    public ReadBlockBatch(int index, long start, long end, IReadBlock[] readBlocks) {
+        this.index = index;
+        this.start = start;
+        this.end = end;
+        this.readBlocks = readBlocks;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public int size() {
+        return readBlocks.length;
+    }
+
+    public IReadBlock get(int i) {
+        return readBlocks[i];
+    }
+
+    public IReadBlock[] getReadBlocks() {
+        return readBlocks;
+    }
+}
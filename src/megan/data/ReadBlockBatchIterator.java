@@ -0,0 +1,190 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.data;
+
+import jloda.util.Basic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.*;
+
+/**
+ * Iterates over all reads in batches, decoding batches in parallel.
+ * The calling thread uses a scanner to determine the location of each read, without decoding it.
+ * Each batch is then decoded by one of a number of worker threads, each using its own read block getter.
+ * Batches are returned in file order.
+ * Daniel Huson, 10.2018
+ */
+public class ReadBlockBatchIterator implements IReadBlockBatchIterator {
+    private final IReadLocationScanner scanner;
+    private final long totalCount;
+    private final int batchSize;
+    private final int maxPending;
+
+    private final ArrayList<IReadBlockGetter> allGetters = new ArrayList<>();
+    private final ArrayBlockingQueue<IReadBlockGetter> availableGetters;
+    private final ExecutorService service;
+    private final LinkedList<Future<ReadBlockBatch>> pending = new LinkedList<>();
+
+    private int numberOfBatches = 0;
+    private long countReads = 0;
+
+    /**
+     * creates a read block getter for use by one worker thread. Each call must return a new getter that doesn't reuse read block objects
+     */
+    public interface IGetterFactory {
+        IReadBlockGetter create() throws IOException;
+    }
+
+    /**
+     * constructor
+     *
+     * @param scanner         scanner positioned at the first read
+     * @param getterFactory   used to create one getter per worker thread
+     * @param totalCount      total number of reads, used for progress reporting
+     * @param batchSize       number of reads per batch
+     * @param numberOfThreads number of worker threads
+     * @throws IOException
+     */
+    public ReadBlockBatchIterator(IReadLocationScanner scanner, IGetterFactory getterFactory, long totalCount, int batchSize, int numberOfThreads) throws IOException {
+        this.scanner = scanner;
+        this.totalCount = totalCount;
+        this.batchSize = Math.max(1, batchSize);
+        numberOfThreads = Math.max(1, numberOfThreads);
+        this.maxPending = 2 * numberOfThreads;
+
+        availableGetters = new ArrayBlockingQueue<>(numberOfThreads);
+        try {
+            for (int t = 0; t < numberOfThreads; t++) {
+                final IReadBlockGetter getter = getterFactory.create();
+                allGetters.add(getter);
+                availableGetters.add(getter);
+            }
+        } catch (IOException ex) {
+            for (IReadBlockGetter getter : allGetters)
+                getter.close();
+            scanner.close();
+            throw ex;
+        }
+        service = Executors.newFixedThreadPool(numberOfThreads);
+        submitBatches();
+    }
+
+    /**
+     * scan ahead and submit batches for decoding until enough are pending
+     *
+     * @throws IOException
+     */
+    private void submitBatches() throws IOException {
+        while (pending.size() < maxPending && scanner.hasNext()) {
+            final long start = scanner.getPosition();
+            final long[] uids = new long[batchSize];
+            int count = 0;
+            while (count < batchSize && scanner.hasNext()) {
+                uids[count++] = scanner.next();
+            }
+            final long end = scanner.getPosition();
+            final int index = numberOfBatches++;
+            final int size = count;
+
+            pending.add(service.submit(new Callable<ReadBlockBatch>() {
+                @Override
+                public ReadBlockBatch call() throws Exception {
+                    final IReadBlockGetter getter = availableGetters.take();
+                    try {
+                        final IReadBlock[] readBlocks = new IReadBlock[size];
+                        for (int i = 0; i < size; i++) {
+                            readBlocks[i] = getter.getReadBlock(uids[i]);
+                        }
+                        return new ReadBlockBatch(index, start, end, readBlocks);
+                    } finally {
+                        availableGetters.put(getter);
+                    }
+                }
+            }));
+        }
+    }
+
+    @Override
+    public String getStats() {
+        return "Reads: " + countReads + ", batches: " + numberOfBatches;
+    }
+
+    @Override
+    public void close() {
+        service.shutdownNow();
+        try {
+            service.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Basic.caught(e);
+        }
+        for (IReadBlockGetter getter : allGetters)
+            getter.close();
+        try {
+            scanner.close();
+        } catch (IOException e) {
+            Basic.caught(e);
+        }
+    }
+
+    @Override
+    public long getMaximumProgress() {
+        return totalCount;
+    }
+
+    @Override
+    public long getProgress() {
+        return countReads;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pending.size() > 0;
+    }
+
+    /**
+     * gets the next batch
+     *
+     * @return next batch
+     * @throws RuntimeException if the batch could not be decoded, its cause is the original failure
+     */
+    @Override
+    public ReadBlockBatch next() {
+        if (!hasNext())
+            return null;
+        try {
+            final Future<ReadBlockBatch> future = pending.removeFirst();
+            submitBatches();
+            final ReadBlockBatch batch = future.get();
+            countReads += batch.size();
+            return batch;
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            pending.clear();
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            final Throwable cause = (e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e);
+            throw new RuntimeException("Failed to decode batch of reads: " + cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    public void remove() {
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * presents a read block iterator as a batch iterator. All decoding takes place in the calling thread
+ * Daniel Huson, 10.2018
+ */
+public class ReadBlockBatchIteratorAdapter implements IReadBlockBatchIterator {
+    private final IReadBlockIterator iterator;
+    private final int batchSize;
+    private int numberOfBatches = 0;
+
+    /**
+     * constructor
+     *
+     * @param iterator
+     * @param batchSize
+     */
+    public ReadBlockBatchIteratorAdapter(IReadBlockIterator iterator, int batchSize) {
+        this.iterator = iterator;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override
+    public String getStats() {
+        return iterator.getStats() + ", batches: " + numberOfBatches;
+    }
+
+    @Override
+    public void close() throws IOException {
+        iterator.close();
+    }
+
+    @Override
+    public long getMaximumProgress() {
+        return iterator.getMaximumProgress();
+    }
+
+    @Override
+    public long getProgress() {
+        return iterator.getProgress();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+
+    @Override
+    public ReadBlockBatch next() {
+        if (!hasNext())
+            return null;
+        final ArrayList<IReadBlock> list = new ArrayList<>(batchSize);
+        while (list.size() < batchSize && iterator.hasNext()) {
+            final IReadBlock readBlock = iterator.next();
+            if (readBlock != null)
+                list.add(readBlock);
+        }
+        return new ReadBlockBatch(numberOfBatches++, -1, -1, list.toArray(new IReadBlock[list.size()]));
+    }
+
+    @Override
+    public void remove() {
+    }
+}
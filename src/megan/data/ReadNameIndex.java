@@ -0,0 +1,433 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.data;
+
+import jloda.util.Basic;
+import jloda.util.ListOfLongs;
+import jloda.util.ProgramProperties;
+import jloda.util.Single;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * sampled index of read names, kept in a file next to the RMA6 or DAA file (file name plus ".rni").
+ * The index contains the uids of all reads, sorted by read name, and every k-th name in that order.
+ * An exact-name or prefix query is answered by a binary search of the sampled names, after which only
+ * the reads in one interval of the sorted list have to be read from the file.
+ * The index is built on first use, by an external sort of all read names, using bounded memory.
+ * If the index file can't be written, e.g. because the directory is read-only, the index is not used and the reads are streamed
+ * Daniel Huson, 10.2018
+ */
+public class ReadNameIndex {
+    public static final String PROPERTIES_USE_INDEX = "UseReadNameIndex";
+    public static final String PROPERTIES_SAMPLE_INTERVAL = "ReadNameIndexSampleInterval";
+    public static final String PROPERTIES_RUN_SIZE = "ReadNameIndexRunSize";
+    public static final String FILE_SUFFIX = ".rni";
+
+    private static final int MAGIC_NUMBER = ('R' << 24) | ('N' << 16) | ('I' << 8) | '1';
+    private static final String META_CHARACTERS = ".[]{}()*+?^$|\\";
+
+    private static final Set<String> failedToBuild = new HashSet<>(); // index files that could not be written, with their stamps
+
+    private final File file;
+    private final long numberOfReads;
+    private final int sampleInterval;
+    private final long startUIds;
+    private final byte[][] samples;
+
+    /**
+     * constructor
+     */
+    private ReadNameIndex(File file, long numberOfReads, int sampleInterval, long startUIds, byte[][] samples) {
+        this.file = file;
+        this.numberOfReads = numberOfReads;
+        this.sampleInterval = sampleInterval;
+        this.startUIds = startUIds;
+        this.samples = samples;
+    }
+
+    /**
+     * uses the read name index to find all reads that match the given find request, if it is an exact-name or prefix query.
+     * Such queries are regular expressions of the form ^name$ or ^prefix that only search read names.
+     * Builds the index, if it doesn't exist or is out of date
+     *
+     * @param connector
+     * @param fileName   name of RMA6 or DAA file
+     * @param stamp      identifies the state of the reads in the file
+     * @param regEx
+     * @param findSelection
+     * @param canceled
+     * @return uids of all candidate reads or null, if the index can't be used for the query
+     */
+    public static ListOfLongs find(IConnector connector, String fileName, String stamp, String regEx, FindSelection findSelection, Single<Boolean> canceled) {
+        if (!ProgramProperties.get(PROPERTIES_USE_INDEX, true) || !findSelection.useReadName || findSelection.useReadHeader || findSelection.useReadSequence || findSelection.useMatchText)
+            return null;
+        final Single<Boolean> exact = new Single<>(false);
+        final String name = parseNameQuery(regEx, exact);
+        if (name == null)
+            return null;
+
+        try {
+            final ReadNameIndex index = getIndex(connector, new File(fileName + FILE_SUFFIX), stamp, canceled);
+            if (index == null)
+                return null;
+            try (IReadBlockGetter readBlockGetter = connector.getReadBlockGetter(0, 10, false, false)) {
+                return index.lookup(name.getBytes(StandardCharsets.UTF_8), exact.get(), readBlockGetter);
+            }
+        } catch (IOException ex) {
+            Basic.caught(ex);
+            return null;
+        }
+    }
+
+    /**
+     * determines whether a regular expression is an exact-name or prefix query
+     *
+     * @param regEx
+     * @param exact is set to true, if query is for an exact name
+     * @return the name or prefix, or null, if the expression is not of the form ^name$ or ^prefix
+     */
+    public static String parseNameQuery(String regEx, Single<Boolean> exact) {
+        if (regEx.length() < 2 || regEx.charAt(0) != '^')
+            return null;
+        int end = regEx.length();
+        exact.set(false);
+        if (regEx.charAt(end - 1) == '$' && regEx.charAt(end - 2) != '\\') {
+            exact.set(true);
+            end--;
+        }
+        final String body = regEx.substring(1, end);
+        if (body.startsWith("\\Q") && body.endsWith("\\E") && body.length() >= 4) {
+            final String name = body.substring(2, body.length() - 2);
+            return name.contains("\\E") || name.length() == 0 ? null : name;
+        }
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < body.length(); i++) {
+            final char ch = body.charAt(i);
+            if (ch == '\\') {
+                if (i + 1 == body.length() || Character.isLetterOrDigit(body.charAt(i + 1)))
+                    return null; // a character class such as \d or a back reference
+                buf.append(body.charAt(++i));
+            } else if (META_CHARACTERS.indexOf(ch) != -1)
+                return null;
+            else
+                buf.append(ch);
+        }
+        return buf.length() > 0 ? buf.toString() : null;
+    }
+
+    /**
+     * gets the index from the given file, building it, if necessary
+     *
+     * @return index or null, if canceled
+     */
+    private static ReadNameIndex getIndex(IConnector connector, File file, String stamp, Single<Boolean> canceled) throws IOException {
+        synchronized (ReadNameIndex.class) {
+            if (file.exists()) {
+                final ReadNameIndex index = load(file, stamp);
+                if (index != null)
+                    return index;
+            }
+            final String key = file.getPath() + "\t" + stamp;
+            if (failedToBuild.contains(key))
+                return null;
+            if (!isWritable(file)) {
+                System.err.println("Can't write read name index, will scan all reads: " + file.getPath());
+                failedToBuild.add(key);
+                return null;
+            }
+            System.err.println("Building read name index: " + file.getPath());
+            try {
+                if (!build(connector, file, stamp, canceled))
+                    return null;
+            } catch (IOException ex) {
+                failedToBuild.add(key); // don't sort all names again for every query
+                throw ex;
+            }
+            return load(file, stamp);
+        }
+    }
+
+    /**
+     * can the index file and the temporary files used to build it be written?
+     *
+     * @param file
+     * @return true, if the directory is writable and an existing index file can be replaced
+     */
+    private static boolean isWritable(File file) {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        return dir != null && Files.isWritable(dir.toPath()) && (!file.exists() || Files.isWritable(file.toPath()));
+    }
+
+    /**
+     * loads the sampled names from the index file
+     *
+     * @return index or null, if the index is out of date
+     */
+    private static ReadNameIndex load(File file, String stamp) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.readInt() != MAGIC_NUMBER || !raf.readUTF().equals(stamp))
+                return null;
+            final int sampleInterval = raf.readInt();
+            final long numberOfReads = raf.readLong();
+            final long startUIds = raf.getFilePointer();
+            raf.seek(startUIds + 8 * numberOfReads);
+
+            final byte[] bytes = new byte[(int) (raf.length() - raf.getFilePointer())];
+            raf.readFully(bytes);
+            try (DataInputStream ins = new DataInputStream(new ByteArrayInputStream(bytes))) {
+                final byte[][] samples = new byte[ins.readInt()][];
+                for (int s = 0; s < samples.length; s++) {
+                    samples[s] = new byte[ins.readInt()];
+                    ins.readFully(samples[s]);
+                }
+                return new ReadNameIndex(file, numberOfReads, sampleInterval, startUIds, samples);
+            }
+        }
+    }
+
+    /**
+     * finds all reads with the given name or prefix
+     *
+     * @param query
+     * @param exact           match name exactly, otherwise, match as prefix
+     * @param readBlockGetter used to get the names of candidate reads
+     * @return uids of all reads found
+     */
+    private ListOfLongs lookup(byte[] query, boolean exact, IReadBlockGetter readBlockGetter) throws IOException {
+        // find the last sample that is smaller than the query:
+        int low = 0;
+        int high = samples.length - 1;
+        int sample = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(samples[mid], query) < 0) {
+                sample = mid;
+                low = mid + 1;
+            } else
+                high = mid - 1;
+        }
+
+        final ListOfLongs result = new ListOfLongs();
+        final byte[] buffer = new byte[8 * sampleInterval];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long position = (long) Math.max(0, sample) * sampleInterval;
+            raf.seek(startUIds + 8 * position);
+            while (position < numberOfReads) {
+                final int count = (int) Math.min(sampleInterval, numberOfReads - position);
+                raf.readFully(buffer, 0, 8 * count);
+                final ByteBuffer uids = ByteBuffer.wrap(buffer, 0, 8 * count);
+                for (int i = 0; i < count; i++) {
+                    final long uid = uids.getLong();
+                    final IReadBlock readBlock = readBlockGetter.getReadBlock(uid);
+                    final byte[] name = (readBlock.getReadName() != null ? readBlock.getReadName() : "").getBytes(StandardCharsets.UTF_8);
+                    if (exact ? Arrays.equals(name, query) : startsWith(name, query))
+                        result.add(uid);
+                    else if (compare(name, query) > 0)
+                        return result;
+                }
+                position += count;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * builds the index by sorting the names of all reads in runs that are written to temporary files and then merged
+     *
+     * @return true, if built, false if canceled
+     */
+    private static boolean build(IConnector connector, File file, String stamp, Single<Boolean> canceled) throws IOException {
+        final int sampleInterval = Math.max(1, ProgramProperties.get(PROPERTIES_SAMPLE_INTERVAL, 64));
+        final int runSize = Math.max(1, ProgramProperties.get(PROPERTIES_RUN_SIZE, 1000000));
+        final File tmpFile = new File(file.getPath() + ".tmp");
+
+        final ArrayList<File> runFiles = new ArrayList<>();
+        try {
+            final byte[][] names = new byte[runSize][];
+            final long[] uids = new long[runSize];
+            int count = 0;
+            long numberOfReads = 0;
+
+            try (IReadBlockIterator it = connector.getAllReadsIterator(0, 10, false, false)) {
+                while (it.hasNext()) {
+                    if (canceled.get())
+                        return false;
+                    final IReadBlock readBlock = it.next();
+                    names[count] = (readBlock.getReadName() != null ? readBlock.getReadName() : "").getBytes(StandardCharsets.UTF_8);
+                    uids[count] = readBlock.getUId();
+                    count++;
+                    numberOfReads++;
+                    if (count == runSize) {
+                        runFiles.add(writeRun(names, uids, count, file.getParentFile()));
+                        count = 0;
+                    }
+                }
+            }
+            if (count > 0)
+                runFiles.add(writeRun(names, uids, count, file.getParentFile()));
+            Arrays.fill(names, null);
+
+            // merge the runs, writing the sorted uids and collecting every k-th name:
+            final PriorityQueue<RunReader> queue = new PriorityQueue<>();
+            final ArrayList<RunReader> readers = new ArrayList<>();
+            final ArrayList<byte[]> samples = new ArrayList<>();
+            try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 20))) {
+                for (int r = 0; r < runFiles.size(); r++) {
+                    final RunReader reader = new RunReader(runFiles.get(r), r);
+                    readers.add(reader);
+                    if (reader.next())
+                        queue.add(reader);
+                }
+                outs.writeInt(MAGIC_NUMBER);
+                outs.writeUTF(stamp);
+                outs.writeInt(sampleInterval);
+                outs.writeLong(numberOfReads);
+
+                long position = 0;
+                while (queue.size() > 0) {
+                    if (canceled.get())
+                        return false;
+                    final RunReader reader = queue.poll();
+                    if (position++ % sampleInterval == 0)
+                        samples.add(reader.name);
+                    outs.writeLong(reader.uid);
+                    if (reader.next())
+                        queue.add(reader);
+                }
+                outs.writeInt(samples.size());
+                for (byte[] sample : samples) {
+                    outs.writeInt(sample.length);
+                    outs.write(sample);
+                }
+            } finally {
+                for (RunReader reader : readers) {
+                    reader.close();
+                }
+            }
+            if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file))
+                throw new IOException("Failed to rename file: " + tmpFile.getPath());
+            return true;
+        } finally {
+            for (File runFile : runFiles) {
+                if (runFile.exists() && !runFile.delete())
+                    System.err.println("Failed to delete temporary file: " + runFile);
+            }
+            if (tmpFile.exists() && !tmpFile.delete())
+                System.err.println("Failed to delete temporary file: " + tmpFile);
+        }
+    }
+
+    /**
+     * sort a run of names and write it to a temporary file. Reads with the same name stay in file order
+     *
+     * @return the file
+     */
+    private static File writeRun(final byte[][] names, long[] uids, int count, File tmpDir) throws IOException {
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return ReadNameIndex.compare(names[a], names[b]);
+            }
+        });
+
+        final File runFile = File.createTempFile("names-run", ".tmp", tmpDir);
+        runFile.deleteOnExit();
+        try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 1 << 20))) {
+            for (int i : order) {
+                outs.writeLong(uids[i]);
+                outs.writeInt(names[i].length);
+                outs.write(names[i]);
+            }
+        }
+        return runFile;
+    }
+
+    /**
+     * compares two names, byte by byte, unsigned
+     */
+    private static int compare(byte[] a, byte[] b) {
+        final int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i])
+                return (a[i] & 0xff) - (b[i] & 0xff);
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * does the name start with the given prefix?
+     */
+    private static boolean startsWith(byte[] name, byte[] prefix) {
+        if (name.length < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (name[i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * reads a sorted run
+     */
+    private static class RunReader implements Comparable<RunReader>, Closeable {
+        private final DataInputStream ins;
+        private final int run;
+        private byte[] name;
+        private long uid;
+
+        RunReader(File file, int run) throws IOException {
+            ins = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            this.run = run;
+        }
+
+        boolean next() throws IOException {
+            try {
+                uid = ins.readLong();
+            } catch (EOFException ex) {
+                return false;
+            }
+            name = new byte[ins.readInt()];
+            ins.readFully(name);
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunReader that) {
+            final int result = compare(this.name, that.name);
+            return result != 0 ? result : Integer.compare(this.run, that.run);
+        }
+
+        @Override
+        public void close() {
+            try {
+                ins.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -18,35 +18,45 @@
  */
 package megan.data;
 
+import megan.classification.data.IntIntMap;
+
 import java.io.IOException;
-import java.util.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * list of necessary updates to RMA file
- * Daniel Huson, 1.2009
+ * <p>
+ * Items are stored column-wise in chunked primitive arrays: for each item, the read uid, and, for each classification,
+ * the class id and the index of the next item in the same class. Items are referred to by their index, -1 means none.
+ * For each classification, class ids are mapped to slots that hold the first and last items and the weight of the class.
+ * Daniel Huson, 1.2009, 10.2018
  */
-public class UpdateItemList extends LinkedList<UpdateItem> {
+public class UpdateItemList {
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
     private final int numberOfClassifications;
-    private final Map<Integer, UpdateItem>[] first;
-    private final Map<Integer, UpdateItem>[] last;
-    private final Map<Integer, Float>[] weights;
+
+    private long[][] readUIds = new long[16][];
+    private int[][] classIds = new int[16][]; // numberOfClassifications entries per item
+    private int[][] nextInClass = new int[16][]; // numberOfClassifications entries per item
+    private int size;
+
+    private final ClassTable[] classTables;
 
     /**
      * constructor
      *
      * @param numberOfClassifications
      */
-    @SuppressWarnings("unchecked")
     public UpdateItemList(int numberOfClassifications) {
-        super();
         this.numberOfClassifications = numberOfClassifications;
-        first = new HashMap[numberOfClassifications];
-        last = new HashMap[numberOfClassifications];
-        weights = new HashMap[numberOfClassifications];
+        classTables = new ClassTable[numberOfClassifications];
         for (int i = 0; i < numberOfClassifications; i++) {
-            first[i] = new HashMap<>(1000000);
-            last[i] = new HashMap<>(1000000);
-            weights[i] = new HashMap<>(1000000);
+            classTables[i] = new ClassTable();
         }
     }
 
@@ -54,38 +64,103 @@ public class UpdateItemList extends LinkedList<UpdateItem> {
      * add an item
      *
      * @param readUid
+     * @param readWeight
      * @param classIds
      */
-    public UpdateItem addItem(final long readUid, float readWeight, final int[] classIds) throws IOException {
+    public void addItem(final long readUid, float readWeight, final int[] classIds) throws IOException {
         if (classIds.length != numberOfClassifications)
             throw new IOException("classIds has wrong length: " + classIds.length + ", should be: " + numberOfClassifications);
-        final UpdateItem item = new UpdateItem(numberOfClassifications);
-        item.setReadUId(readUid);
-        add(item);
+        if (size == Integer.MAX_VALUE)
+            throw new IOException("Too many items: " + size);
+
+        final int item = size++;
+        final int chunk = item >>> CHUNK_BITS;
+        if (chunk == readUIds.length) {
+            readUIds = Arrays.copyOf(readUIds, 2 * chunk);
+            this.classIds = Arrays.copyOf(this.classIds, 2 * chunk);
+            nextInClass = Arrays.copyOf(nextInClass, 2 * chunk);
+        }
+        if (readUIds[chunk] == null) {
+            readUIds[chunk] = new long[CHUNK_SIZE];
+            this.classIds[chunk] = new int[CHUNK_SIZE * numberOfClassifications];
+            nextInClass[chunk] = new int[CHUNK_SIZE * numberOfClassifications];
+        }
+        readUIds[chunk][item & CHUNK_MASK] = readUid;
 
         if (readWeight == 0) {
             // throw new RuntimeException("Internal error: ReadWeight=0");
             readWeight = 1;
         }
 
+        final int offset = (item & CHUNK_MASK) * numberOfClassifications;
         for (int i = 0; i < numberOfClassifications; i++) {
             final int id = classIds[i];
+            this.classIds[chunk][offset + i] = id;
+            nextInClass[chunk][offset + i] = -1;
             if (id != 0) {
-                item.setClassId(i, id);
-                UpdateItem lastInClass = last[i].get(id);
+                final ClassTable table = classTables[i];
+                final int slot = table.getOrCreateSlot(id);
 
-                if (lastInClass == null) {
-                    first[i].put(id, item);
-                    last[i].put(id, item);
-                    weights[i].put(id, readWeight);
+                if (table.first[slot] == -1) {
+                    table.first[slot] = item;
+                    table.last[slot] = item;
+                    table.weight[slot] = readWeight;
                 } else {
-                    lastInClass.setNextInClassifaction(i, item);
-                    last[i].put(id, item);
-                    weights[i].put(id, weights[i].get(id) + readWeight);
+                    setNextInClassification(table.last[slot], i, item);
+                    table.last[slot] = item;
+                    table.weight[slot] += readWeight;
                 }
             }
         }
-        return item;
+    }
+
+    /**
+     * get the number of items
+     *
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * get the read uid of an item
+     *
+     * @param item
+     * @return read uid
+     */
+    public long getReadUId(int item) {
+        return readUIds[item >>> CHUNK_BITS][item & CHUNK_MASK];
+    }
+
+    /**
+     * get the class id of an item for a given classification
+     *
+     * @param item
+     * @param classificationId
+     * @return class id
+     */
+    public int getClassId(int item, int classificationId) {
+        return classIds[item >>> CHUNK_BITS][(item & CHUNK_MASK) * numberOfClassifications + classificationId];
+    }
+
+    private void setClassId(int item, int classificationId, int classId) {
+        classIds[item >>> CHUNK_BITS][(item & CHUNK_MASK) * numberOfClassifications + classificationId] = classId;
+    }
+
+    /**
+     * get the next item in the same class for a given classification
+     *
+     * @param item
+     * @param classificationId
+     * @return next item or -1
+     */
+    public int getNextInClassification(int item, int classificationId) {
+        return nextInClass[item >>> CHUNK_BITS][(item & CHUNK_MASK) * numberOfClassifications + classificationId];
+    }
+
+    private void setNextInClassification(int item, int classificationId, int next) {
+        nextInClass[item >>> CHUNK_BITS][(item & CHUNK_MASK) * numberOfClassifications + classificationId] = next;
     }
 
     /**
@@ -96,80 +171,126 @@ public class UpdateItemList extends LinkedList<UpdateItem> {
      * @return size of class
      */
     public float getWeight(int classificationId, int classId) {
-        Float result = weights[classificationId].get(classId);
-        if (result == null)
-            return 0;
-        else
-            return result;
+        final ClassTable table = classTables[classificationId];
+        final int slot = table.getSlot(classId);
+        return slot == -1 ? 0 : table.weight[slot];
     }
 
     public void setWeight(int classificationId, int classId, float weight) {
-        this.weights[classificationId].put(classId, weight);
+        final ClassTable table = classTables[classificationId];
+        table.weight[table.getOrCreateSlot(classId)] = weight;
     }
 
     /**
      * gets the mapping of class ids to sizes for a given classification
      *
      * @param classificationId
-     * @return class-id to size map
+     * @return new class-id to size map
      */
     public Map<Integer, Float> getClassIdToWeightMap(int classificationId) {
-        return weights[classificationId];
+        final ClassTable table = classTables[classificationId];
+        final Map<Integer, Float> map = new HashMap<>(2 * table.numberOfSlots);
+        for (int slot = 0; slot < table.numberOfSlots; slot++) {
+            if (table.classId[slot] != 0)
+                map.put(table.classId[slot], table.weight[slot]);
+        }
+        return map;
     }
 
     /**
-     * get the first UpdateItem for a given classification and class
+     * get the first item for a given classification and class
      *
      * @param classificationId
      * @param classId
-     * @return first
+     * @return first item or -1
      */
-    public UpdateItem getFirst(int classificationId, int classId) {
-        return first[classificationId].get(classId);
+    public int getFirst(int classificationId, int classId) {
+        final ClassTable table = classTables[classificationId];
+        final int slot = table.getSlot(classId);
+        return slot == -1 ? -1 : table.first[slot];
     }
 
     /**
-     * set  the first UpdateItem for a given classification and class
+     * set  the first item for a given classification and class
      *
      * @param classificationId
      * @param classId
      * @param item
      */
-    public void setFirst(int classificationId, int classId, UpdateItem item) {
-        first[classificationId].put(classId, item);
+    public void setFirst(int classificationId, int classId, int item) {
+        final ClassTable table = classTables[classificationId];
+        table.first[table.getOrCreateSlot(classId)] = item;
     }
 
     /**
-     * get the last UpdateItem for a given classification and class
+     * get the last item for a given classification and class
      *
      * @param classificationId
      * @param classId
-     * @return first
+     * @return last item or -1
      */
-    public UpdateItem getLast(int classificationId, int classId) {
-        return last[classificationId].get(classId);
+    public int getLast(int classificationId, int classId) {
+        final ClassTable table = classTables[classificationId];
+        final int slot = table.getSlot(classId);
+        return slot == -1 ? -1 : table.last[slot];
     }
 
-
     /**
-     * set the last UpdateItem for a given classification and class
+     * set the last item for a given classification and class
      *
      * @param classificationId
      * @param classId
      * @param item
      */
-    public void setLast(int classificationId, int classId, UpdateItem item) {
-        last[classificationId].put(classId, item);
+    public void setLast(int classificationId, int classId, int item) {
+        final ClassTable table = classTables[classificationId];
+        table.last[table.getOrCreateSlot(classId)] = item;
+    }
+
+    /**
+     * gets the class ids defined for a given classification
+     *
+     * @param classificationId
+     * @return class ids in ascending order
+     */
+    public int[] getClassIds(int classificationId) {
+        final ClassTable table = classTables[classificationId];
+        final int[] result = new int[table.numberOfClasses()];
+        int count = 0;
+        for (int slot = 0; slot < table.numberOfSlots; slot++) {
+            if (table.classId[slot] != 0)
+                result[count++] = table.classId[slot];
+        }
+        Arrays.sort(result);
+        return result;
     }
 
     /**
-     * gets the set of class ids defined for a given classification
+     * gets the number of classes defined for a given classification
      *
      * @param classificationId
-     * @return
+     * @return number of classes
      */
-    public Set<Integer> getClassIds(int classificationId) {
-        return first[classificationId].keySet();
+    public int getNumberOfClasses(int classificationId) {
+        return classTables[classificationId].numberOfClasses();
+    }
+
+    /**
+     * gets the read uids of all items in a given class
+     *
+     * @param classificationId
+     * @param classId
+     * @return read uids in chain order
+     */
+    public long[] getReadUIds(int classificationId, int classId) {
+        int count = 0;
+        long[] result = new long[1000];
+        for (int item = getFirst(classificationId, classId); item != -1; item = getNextInClassification(item, classificationId)) {
+            if (count == result.length)
+                result = Arrays.copyOf(result, 2 * count);
+            result[count++] = getReadUId(item);
+        }
+        return Arrays.copyOf(result, count);
     }
 
     /**
@@ -179,12 +300,7 @@ public class UpdateItemList extends LinkedList<UpdateItem> {
      * @param classId
      */
     public void removeClass(int classificationId, int classId) {
-        first[classificationId].put(classId, null);
-        first[classificationId].remove(classId);
-        last[classificationId].put(classId, null);
-        last[classificationId].remove(classId);
-        weights[classificationId].put(classId, null);
-        weights[classificationId].remove(classId);
+        classTables[classificationId].removeSlot(classId);
     }
 
     /**
@@ -198,31 +314,29 @@ public class UpdateItemList extends LinkedList<UpdateItem> {
         float newSize = getWeight(classificationId, srcClassId) + getWeight(classificationId, tarClassId);
 
         if (newSize > 0) {
-            UpdateItem firstItemSrc = getFirst(classificationId, srcClassId);
+            final int firstItemSrc = getFirst(classificationId, srcClassId);
 
-            if (firstItemSrc == null) {
+            if (firstItemSrc == -1) {
                 System.err.println("Warning: srcClassId=" + srcClassId + ", tarClassId=" + tarClassId + " firstItemSrc=null");
                 return;
             }
 
             // replace class for all elements in src class:
-            UpdateItem item = firstItemSrc;
-            while (item != null) {
-                item.setClassId(classificationId, tarClassId);
-                item = item.getNextInClassification(classificationId);
+            for (int item = firstItemSrc; item != -1; item = getNextInClassification(item, classificationId)) {
+                setClassId(item, classificationId, tarClassId);
             }
 
             // rescan first and last items:
 
-            UpdateItem firstItemTar = getFirst(classificationId, tarClassId);
-            if (firstItemTar == null)
+            final int firstItemTar = getFirst(classificationId, tarClassId);
+            if (firstItemTar == -1)
                 setFirst(classificationId, tarClassId, firstItemSrc);
 
-            UpdateItem lastItemTar = getLast(classificationId, tarClassId);
-            if (lastItemTar != null)
-                lastItemTar.setNextInClassifaction(classificationId, firstItemSrc);
+            final int lastItemTar = getLast(classificationId, tarClassId);
+            if (lastItemTar != -1)
+                setNextInClassification(lastItemTar, classificationId, firstItemSrc);
 
-            UpdateItem lastItemSrc = getLast(classificationId, srcClassId);
+            final int lastItemSrc = getLast(classificationId, srcClassId);
             setLast(classificationId, tarClassId, lastItemSrc);
 
             setWeight(classificationId, tarClassId, newSize);
@@ -233,7 +347,7 @@ public class UpdateItemList extends LinkedList<UpdateItem> {
     }
 
     /**
-     * after appending a class to an existing class, sorts all UpdateItems so that they appear in the order in
+     * after appending a class to an existing class, sorts all items so that they appear in the order in
      * which the reads occur in the file, for a given classId.
      * This is useful for when we extract all reads for a given classId, as then we go through the file sequentially
      *
@@ -241,34 +355,119 @@ public class UpdateItemList extends LinkedList<UpdateItem> {
      * @param classId
      */
     private void sortChain(int classificationId, int classId) {
-        // sort all UpdateItems by readUid:
-        final ArrayList<UpdateItem> sorted = new ArrayList<>(100000);
-
-        UpdateItem item = getFirst(classificationId, classId);
-        while (item != null) {
-            sorted.add(item);
-            item = item.getNextInClassification(classificationId);
+        // sort all items by readUid:
+        int count = 0;
+        int[] sorted = new int[100000];
+        for (int item = getFirst(classificationId, classId); item != -1; item = getNextInClassification(item, classificationId)) {
+            if (count == sorted.length)
+                sorted = Arrays.copyOf(sorted, 2 * count);
+            sorted[count++] = item;
         }
-        sorted.sort(UpdateItem.getComparator());
+        if (count == 0)
+            return;
+        mergeSort(sorted, new int[count], 0, count);
 
         // re-build chain:
-        UpdateItem first = null;
-        UpdateItem prev = null;
-        UpdateItem last = null;
-
-        for (UpdateItem current : sorted) {
-            if (first == null)
-                first = current;
-            if (prev != null)
-                prev.setNextInClassifaction(classificationId, current);
-            prev = current;
-            last = current;
+        for (int i = 0; i < count - 1; i++) {
+            setNextInClassification(sorted[i], classificationId, sorted[i + 1]);
+        }
+        setFirst(classificationId, classId, sorted[0]);
+        setLast(classificationId, classId, sorted[count - 1]);
+        setNextInClassification(sorted[count - 1], classificationId, -1);
+    }
+
+    /**
+     * stable sort of items by read uid and then class ids
+     *
+     * @param items
+     * @param tmp
+     * @param start
+     * @param end
+     */
+    private void mergeSort(int[] items, int[] tmp, int start, int end) {
+        if (end - start < 2)
+            return;
+        final int middle = (start + end) >>> 1;
+        mergeSort(items, tmp, start, middle);
+        mergeSort(items, tmp, middle, end);
+        if (compareItems(items[middle - 1], items[middle]) <= 0)
+            return;
+        System.arraycopy(items, start, tmp, start, end - start);
+        int i = start;
+        int j = middle;
+        for (int k = start; k < end; k++) {
+            if (j == end || (i < middle && compareItems(tmp[i], tmp[j]) <= 0))
+                items[k] = tmp[i++];
+            else
+                items[k] = tmp[j++];
         }
-        if (first != null)
-            setFirst(classificationId, classId, first);
-        if (last != null) {
-            setLast(classificationId, classId, last);
-            last.setNextInClassifaction(classificationId, null);
+    }
+
+    /**
+     * compare two items by read uid and then by class ids
+     *
+     * @param a
+     * @param b
+     * @return comparison
+     */
+    private int compareItems(int a, int b) {
+        final int result = Long.compare(getReadUId(a), getReadUId(b));
+        if (result != 0)
+            return result;
+        for (int i = 0; i < numberOfClassifications; i++) {
+            final int cmp = Integer.compare(getClassId(a, i), getClassId(b, i));
+            if (cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    /**
+     * for one classification, maps each class id to a slot holding first and last item and weight
+     */
+    private static class ClassTable {
+        private final IntIntMap classId2SlotPlusOne = new IntIntMap(1024, 0.75f);
+        private int[] classId = new int[1024]; // 0, if slot has been removed
+        private int[] first = new int[1024];
+        private int[] last = new int[1024];
+        private float[] weight = new float[1024];
+        private int numberOfSlots;
+
+        int getSlot(int id) {
+            return classId2SlotPlusOne.get(id) - 1;
+        }
+
+        int getOrCreateSlot(int id) {
+            final int slot = classId2SlotPlusOne.get(id) - 1;
+            if (slot != -1)
+                return slot;
+            if (numberOfSlots == classId.length) {
+                classId = Arrays.copyOf(classId, 2 * numberOfSlots);
+                first = Arrays.copyOf(first, 2 * numberOfSlots);
+                last = Arrays.copyOf(last, 2 * numberOfSlots);
+                weight = Arrays.copyOf(weight, 2 * numberOfSlots);
+            }
+            classId[numberOfSlots] = id;
+            first[numberOfSlots] = -1;
+            last[numberOfSlots] = -1;
+            weight[numberOfSlots] = 0;
+            classId2SlotPlusOne.put(id, numberOfSlots + 1);
+            return numberOfSlots++;
+        }
+
+        void removeSlot(int id) {
+            final int slot = getSlot(id);
+            if (slot != -1) {
+                classId2SlotPlusOne.remove(id);
+                classId[slot] = 0;
+                first[slot] = -1;
+                last[slot] = -1;
+                weight[slot] = 0;
+            }
+        }
+
+        int numberOfClasses() {
+            return classId2SlotPlusOne.size();
         }
     }
 }
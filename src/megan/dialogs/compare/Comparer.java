@@ -348,7 +348,7 @@ public class Comparer {
      * @param name
      * @return name or new name
      */
-    private String getUniqueName(String[] names, int pos, String name) {
+    static String getUniqueName(String[] names, int pos, String name) {
         boolean ok = false;
         int count = 0;
         String newName = name;
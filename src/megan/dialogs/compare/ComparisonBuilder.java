@@ -0,0 +1,316 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.dialogs.compare;
+
+import jloda.util.*;
+import megan.classification.Classification;
+import megan.core.DataTable;
+import megan.core.Document;
+import megan.core.MeganFile;
+import megan.core.SampleAttributeTable;
+import megan.core.SyncArchiveAndDataTable;
+import megan.main.MeganProperties;
+import megan.parsers.blast.BlastMode;
+import megan.viewer.gui.NodeDrawer;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * computes a comparison of multiple datasets without opening documents or viewers.
+ * Only the classification and auxiliary blocks of each file are read, files are processed in parallel
+ * and at most maxOpenFiles files are open at the same time
+ * Daniel Huson, 10.2018
+ */
+public class ComparisonBuilder {
+    public static final String MAX_OPEN_FILES = "ComparisonMaxOpenFiles";
+
+    private Comparer.COMPARISON_MODE mode = Comparer.COMPARISON_MODE.ABSOLUTE;
+    private boolean ignoreUnassigned = false;
+    private boolean keep1 = false;
+    private int maxOpenFiles = ProgramProperties.get(MAX_OPEN_FILES, 16);
+
+    /**
+     * compute a comparison of the given files
+     *
+     * @param fileNames            RMA, DAA, MEGAN server or MEGAN summary files
+     * @param sampleAttributeTable the sample attributes of all samples are added here
+     * @param result               the comparison is stored here
+     * @param progressListener
+     * @throws IOException
+     * @throws CanceledException
+     */
+    public void computeComparison(final List<String> fileNames, final SampleAttributeTable sampleAttributeTable, final DataTable result, final ProgressListener progressListener) throws IOException, CanceledException {
+        progressListener.setTasks("Comparison", "Initialization");
+        progressListener.setMaximum(-1);
+
+        System.err.println("Computing comparison: ");
+
+        result.setCreator(ProgramProperties.getProgramName());
+        result.setCreationDate((new Date()).toString());
+
+        final int numberOfSamples = fileNames.size();
+        final String[] names = new String[numberOfSamples];
+        for (int pos = 0; pos < numberOfSamples; pos++) {
+            names[pos] = Comparer.getUniqueName(names, pos, Basic.getFileBaseName(Basic.getFileNameWithoutPath(fileNames.get(pos))));
+        }
+        final Long[] uids = new Long[numberOfSamples];
+        final float[] originalNumberOfReads = new float[numberOfSamples];
+        final long[] numberOfReads = new long[numberOfSamples]; // reads used for normalization
+        final BlastMode[] blastModes = new BlastMode[numberOfSamples];
+        final Map<String, Object> sample2source = new HashMap<>();
+
+        final int numberOfThreads = Math.max(1, Math.min(Math.min(maxOpenFiles, numberOfSamples), ProgramProperties.get(MeganProperties.NUMBER_OF_THREADS, MeganProperties.DEFAULT_NUMBER_OF_THREADS)));
+        final ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        final AtomicInteger nextPos = new AtomicInteger(0);
+        final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
+        final Single<Exception> exception = new Single<>();
+
+        progressListener.setTasks("Computing comparison", "Reading " + numberOfSamples + " files");
+        progressListener.setMaximum(numberOfSamples);
+        progressListener.setProgress(0);
+        final AtomicInteger filesDone = new AtomicInteger(0);
+
+        for (int t = 0; t < numberOfThreads; t++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        int pos;
+                        while (exception.get() == null && (pos = nextPos.getAndIncrement()) < numberOfSamples) {
+                            final String fileName = fileNames.get(pos);
+                            final DataTable table = new DataTable();
+                            final SampleAttributeTable sampleTable = new SampleAttributeTable();
+
+                            final MeganFile meganFile = new MeganFile();
+                            meganFile.setFileFromExistingFile(fileName, true);
+                            meganFile.checkFileOkToRead();
+                            if (meganFile.isMeganSummaryFile()) {
+                                final Document doc = new Document();
+                                doc.getMeganFile().setFileFromExistingFile(fileName, true);
+                                doc.loadMeganFile();
+                                table.copy(doc.getDataTable());
+                                table.setTotalReads(doc.getNumberOfReads());
+                                sampleTable.addTable(doc.getSampleAttributeTable(), false, true);
+                            } else if (meganFile.hasDataConnector()) {
+                                SyncArchiveAndDataTable.syncArchive2Summary(null, fileName, meganFile.getConnector(), table, sampleTable);
+                                uids[pos] = meganFile.getConnector().getUId();
+                            } else
+                                throw new IOException("File format not (or no longer) supported: " + fileName);
+
+                            originalNumberOfReads[pos] = table.getTotalReads();
+                            blastModes[pos] = table.getBlastMode();
+                            numberOfReads[pos] = computeNumberOfReads(table.getClass2Counts(Classification.Taxonomy));
+
+                            synchronized (result) {
+                                if (sampleTable.getNumberOfSamples() == 1) {
+                                    final String oSample = sampleTable.getSampleSet().iterator().next();
+                                    sampleAttributeTable.addSample(names[pos], sampleTable.getAttributesToValues(oSample), false, true);
+                                }
+                                sample2source.put(names[pos], fileName);
+
+                                for (String classificationName : table.getClassification2Class2Counts().keySet()) {
+                                    Map<Integer, float[]> class2countsTarget = result.getClass2Counts(classificationName);
+                                    if (class2countsTarget == null) {
+                                        class2countsTarget = new HashMap<>();
+                                        result.getClassification2Class2Counts().put(classificationName, class2countsTarget);
+                                    }
+                                    final Map<Integer, float[]> class2countsSrc = table.getClass2Counts(classificationName);
+                                    for (Integer classId : class2countsSrc.keySet()) {
+                                        // todo: here we assume that the nohits id is the same for all classifications...
+                                        if (!isIgnoreUnassigned() || classId > 0) {
+                                            float[] countsTarget = class2countsTarget.get(classId);
+                                            if (countsTarget == null) {
+                                                countsTarget = new float[numberOfSamples];
+                                                class2countsTarget.put(classId, countsTarget);
+                                            }
+                                            countsTarget[pos] = Basic.getSum(class2countsSrc.get(classId));
+                                        }
+                                    }
+                                }
+                            }
+                            synchronized (progressListener) {
+                                progressListener.setProgress(filesDone.incrementAndGet());
+                            }
+                        }
+                    } catch (Exception ex) {
+                        exception.set(ex);
+                    } finally {
+                        countDownLatch.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            countDownLatch.await();
+        } catch (InterruptedException e) {
+            if (exception.get() == null)
+                exception.set(new IOException("Comparison computation failed: " + e.getMessage(), e));
+        } finally {
+            executor.shutdownNow();
+        }
+        if (exception.get() instanceof CanceledException)
+            throw (CanceledException) exception.get();
+        if (exception.get() != null)
+            throw new IOException("Comparison computation failed: " + exception.get().getMessage(), exception.get());
+
+        sampleAttributeTable.addAttribute(SampleAttributeTable.HiddenAttribute.Source.toString(), sample2source, true, true);
+
+        final boolean useRelative = (getMode() == Comparer.COMPARISON_MODE.RELATIVE);
+
+        long newSampleSize = 0;
+        if (useRelative) {
+            for (long count : numberOfReads) {
+                if (newSampleSize == 0 || count < newSampleSize)
+                    newSampleSize = count;
+            }
+            System.err.println("Normalizing to: " + newSampleSize + " reads per sample");
+
+            final double[] factors = new double[numberOfSamples];
+            for (int pos = 0; pos < numberOfSamples; pos++) {
+                factors[pos] = (numberOfReads[pos] > 0 ? (double) newSampleSize / (double) numberOfReads[pos] : 1);
+            }
+            for (Map<Integer, float[]> class2counts : result.getClassification2Class2Counts().values()) {
+                for (float[] counts : class2counts.values()) {
+                    for (int pos = 0; pos < numberOfSamples; pos++) {
+                        if (counts[pos] != 0) {
+                            counts[pos] = (int) Math.round(counts[pos] * factors[pos]);
+                            if (counts[pos] == 0 && isKeep1())
+                                counts[pos] = 1;
+                        }
+                    }
+                }
+            }
+        }
+
+        String parameters = "mode=" + getMode();
+        if (useRelative)
+            parameters += " normalizedTo=" + newSampleSize;
+        if (isIgnoreUnassigned())
+            parameters += " ignoreUnassigned=true";
+        result.setParameters(parameters);
+
+        final float[] sizes = new float[numberOfSamples];
+        if (result.getClassification2Class2Counts().keySet().contains(Classification.Taxonomy)) {
+            for (float[] counts : result.getClass2Counts(Classification.Taxonomy).values()) {
+                for (int i = 0; i < counts.length; i++)
+                    sizes[i] += counts[i];
+            }
+        }
+
+        result.setSamples(names, uids, sizes, blastModes);
+        sampleAttributeTable.removeAttribute(SampleAttributeTable.HiddenAttribute.Label.toString());
+
+        for (String classificationName : result.getClassification2Class2Counts().keySet()) {
+            result.setNodeStyle(classificationName, NodeDrawer.Style.PieChart.toString());
+        }
+
+        final long totalAssigned = (long) Basic.getSum(sizes);
+        if (useRelative) {
+            System.err.println(String.format("Total assigned: %,12d normalized", totalAssigned));
+        } else {
+            System.err.println(String.format("Total assigned: %,12d", totalAssigned));
+        }
+
+        result.setTotalReads((int) Basic.getSum(originalNumberOfReads));
+    }
+
+    /**
+     * compute a comparison of the given files and write it as a MEGAN summary file
+     *
+     * @param fileNames
+     * @param outputFile
+     * @param progressListener
+     * @throws IOException
+     * @throws CanceledException
+     */
+    public void writeComparison(List<String> fileNames, String outputFile, ProgressListener progressListener) throws IOException, CanceledException {
+        final DataTable result = new DataTable();
+        final SampleAttributeTable sampleAttributeTable = new SampleAttributeTable();
+        computeComparison(fileNames, sampleAttributeTable, result, progressListener);
+
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(Basic.getOutputStreamPossiblyZIPorGZIP(outputFile)))) {
+            result.write(w);
+            sampleAttributeTable.write(w, false, true);
+        }
+    }
+
+    /**
+     * determines the number of reads used for normalization, this is what the main viewer reports for an opened sample:
+     * either the number of reads assigned to proper taxa or the total number of reads on the taxonomy
+     *
+     * @param class2counts taxonomy counts of a sample, may be null
+     * @return number of reads
+     */
+    private long computeNumberOfReads(Map<Integer, float[]> class2counts) {
+        double total = 0;
+        if (class2counts != null) {
+            for (Integer classId : class2counts.keySet()) {
+                if (!isIgnoreUnassigned() || classId > 0)
+                    total += Basic.getSum(class2counts.get(classId));
+            }
+        }
+        return Math.round(total);
+    }
+
+    public Comparer.COMPARISON_MODE getMode() {
+        return mode;
+    }
+
+    public void setMode(Comparer.COMPARISON_MODE mode) {
+        this.mode = mode;
+    }
+
+    public void setMode(String modeName) {
+        setMode(Comparer.COMPARISON_MODE.valueOfIgnoreCase(modeName));
+    }
+
+    public boolean isIgnoreUnassigned() {
+        return ignoreUnassigned;
+    }
+
+    public void setIgnoreUnassigned(boolean ignoreUnassigned) {
+        this.ignoreUnassigned = ignoreUnassigned;
+    }
+
+    public boolean isKeep1() {
+        return keep1;
+    }
+
+    public void setKeep1(boolean keep1) {
+        this.keep1 = keep1;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /**
+     * set the max number of files that are open at the same time, this also bounds the number of threads used
+     *
+     * @param maxOpenFiles
+     */
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+    }
+}
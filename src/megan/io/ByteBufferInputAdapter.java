@@ -0,0 +1,85 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Input adapter for a byte buffer, such as a memory-mapped slice of a file.
+ * Positions are reported relative to the file, that is, the buffer is assumed to start at the given file offset
+ * Daniel Huson, 10.2018
+ */
+public class ByteBufferInputAdapter implements IInput {
+    private final ByteBuffer buffer;
+    private final long fileOffset;
+
+    /**
+     * constructor
+     *
+     * @param buffer     buffer, positioned at 0
+     * @param fileOffset position in file that corresponds to the start of the buffer
+     */
+    public ByteBufferInputAdapter(ByteBuffer buffer, long fileOffset) {
+        this.buffer = buffer;
+        this.fileOffset = fileOffset;
+    }
+
+    public int read() {
+        if (buffer.hasRemaining())
+            return buffer.get() & 0xFF;
+        else
+            return -1;
+    }
+
+    public int read(byte[] bytes, int offset, int len) {
+        if (!buffer.hasRemaining())
+            return -1;
+        len = Math.min(len, buffer.remaining());
+        buffer.get(bytes, offset, len);
+        return len;
+    }
+
+    public int skipBytes(int bytes) {
+        bytes = Math.min(bytes, buffer.remaining());
+        buffer.position(buffer.position() + bytes);
+        return bytes;
+    }
+
+    public long getPosition() {
+        return fileOffset + buffer.position();
+    }
+
+    public long length() {
+        return fileOffset + buffer.limit();
+    }
+
+    public boolean supportsSeek() {
+        return true;
+    }
+
+    public void seek(long pos) throws IOException {
+        if (pos < fileOffset || pos > fileOffset + buffer.limit())
+            throw new IOException("seek(" + pos + "): out of range");
+        buffer.position((int) (pos - fileOffset));
+    }
+
+    public void close() {
+    }
+}
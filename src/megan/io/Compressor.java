@@ -26,6 +26,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -35,11 +37,53 @@ import java.util.zip.Inflater;
  * Daniel Huson, 8.2008
  */
 public class Compressor {
+    /**
+     * codec used for compressed strings. The ordinal is used as id in files, so only append new codecs
+     */
+    public enum Codec {
+        Deflate, // deflate, best compression
+        LZ; // fast block codec, see LZBlockCodec
+
+        /**
+         * get the codec for the given id
+         *
+         * @param id
+         * @return codec
+         * @throws IOException unknown id
+         */
+        public static Codec fromId(int id) throws IOException {
+            if (id < 0 || id >= values().length)
+                throw new IOException("Unknown compression codec: " + id);
+            return values()[id];
+        }
+
+        /**
+         * get the codec of the given name, ignoring case
+         *
+         * @param name
+         * @param defaultCodec returned, if name is unknown
+         * @return codec
+         */
+        public static Codec valueOfIgnoreCase(String name, Codec defaultCodec) {
+            for (Codec codec : values()) {
+                if (codec.toString().equalsIgnoreCase(name))
+                    return codec;
+            }
+            return defaultCodec;
+        }
+
+        public int getId() {
+            return ordinal();
+        }
+    }
+
     protected final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
     protected final Inflater inflater = new Inflater(true);
+    private LZBlockCodec lzBlockCodec;
     private byte[] buffer;
     public static final int MIN_SIZE_FOR_DEFLATION = 90;
     private boolean enabled = true;
+    private Codec codec = Codec.Deflate;
 
     /**
      * default constructor
@@ -57,6 +101,40 @@ public class Compressor {
         buffer = new byte[maxStringLength];
     }
 
+    /**
+     * constructor
+     *
+     * @param maxStringLength - initial size of buffer
+     * @param codec
+     */
+    public Compressor(int maxStringLength, Codec codec) {
+        this(maxStringLength);
+        setCodec(codec);
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * set the codec used to compress and decompress
+     *
+     * @param codec
+     */
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * gets the size of a buffer that is guaranteed to hold the compressed bytes of a string of the given length, using any codec
+     *
+     * @param length
+     * @return buffer size
+     */
+    public static int getMaxCompressedLength(int length) {
+        return length + length / 255 + 64;
+    }
+
     /**
      * gets a deflated string
      *
@@ -101,7 +179,16 @@ public class Compressor {
      * @return number of bytes written  (negative number, if bytes are not deflated)
      */
     public int deflateString2ByteArray(byte[] input, int inputOffset, int inputLength, byte[] bytes) {
-        if (inputLength >= MIN_SIZE_FOR_DEFLATION) {
+        if (inputLength >= MIN_SIZE_FOR_DEFLATION && codec == Codec.LZ) {
+            if (lzBlockCodec == null)
+                lzBlockCodec = new LZBlockCodec();
+            final int compressedDataLength = lzBlockCodec.compress(input, inputOffset, inputLength, bytes);
+            if (compressedDataLength > 0)
+                return -compressedDataLength;
+            // not compressible, store as is:
+            System.arraycopy(input, inputOffset, bytes, 0, inputLength);
+            return inputLength;
+        } else if (inputLength >= MIN_SIZE_FOR_DEFLATION) {
             // Compress the bytes
             deflater.setInput(input, inputOffset, inputLength);
             deflater.finish();
@@ -143,24 +230,55 @@ public class Compressor {
                 return buf.toString();
             }
         }
-        inflater.setInput(bytes, 0, numberOfBytes);
-        if (buffer.length < 100 * bytes.length)  // try to make sure the result buffer is long enough
-            buffer = new byte[100 * bytes.length];
-        int resultLength = inflater.inflate(buffer);
+        final int resultLength = inflate(numberOfBytes, bytes);
+        return new String(buffer, 0, resultLength, StandardCharsets.UTF_8);
+    }
 
-        String outputString;
-        try {
-            outputString = new String(buffer, 0, resultLength, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-//            Basic.caught(e);
-            StringBuilder buf = new StringBuilder();
-            for (int i = 0; i < resultLength; i++)
-                buf.append((char) buffer[i]);
-            outputString = buf.toString();
+    /**
+     * decompresses an array of bytes
+     *
+     * @param numberOfBytes negative, if uncompressed, otherwise positive
+     * @param bytes
+     * @return decoded bytes
+     * @throws DataFormatException
+     */
+    public byte[] inflateByteArray2Bytes(int numberOfBytes, byte[] bytes) throws DataFormatException {
+        if (numberOfBytes <= 0) // negative number means uncompressed!
+            return Arrays.copyOf(bytes, -numberOfBytes);
+        return Arrays.copyOf(buffer, inflate(numberOfBytes, bytes));
+    }
 
+    /**
+     * decompresses into the internal buffer, which is grown as necessary and reused
+     *
+     * @param numberOfBytes
+     * @param bytes
+     * @return number of decompressed bytes
+     * @throws DataFormatException
+     */
+    private int inflate(int numberOfBytes, byte[] bytes) throws DataFormatException {
+        if (codec == Codec.LZ) {
+            final int length = LZBlockCodec.getUncompressedLength(bytes, 0, numberOfBytes);
+            if (buffer.length < length)
+                buffer = new byte[Math.max(length, 2 * buffer.length)];
+            return LZBlockCodec.decompress(bytes, 0, numberOfBytes, buffer);
+        }
+
+        inflater.setInput(bytes, 0, numberOfBytes);
+        try {
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == buffer.length)
+                    buffer = Arrays.copyOf(buffer, Math.max(4 * numberOfBytes, 2 * buffer.length));
+                final int count = inflater.inflate(buffer, length, buffer.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += count;
+            }
+            return length;
+        } finally {
+            inflater.reset();
         }
-        inflater.reset();
-        return outputString;
     }
 
     /**
@@ -186,6 +304,8 @@ public class Compressor {
             System.arraycopy(source, 0, target, 0, source.length);
             return Math.abs(numberOfBytes);
         }
+        if (codec == Codec.LZ)
+            return LZBlockCodec.decompress(source, 0, numberOfBytes, target);
         inflater.setInput(source, 0, numberOfBytes);
         int resultLength = inflater.inflate(target);
         inflater.reset();
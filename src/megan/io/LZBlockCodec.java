@@ -0,0 +1,233 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.io;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * a fast LZ77 block codec in the style of LZ4. Trades some compression for much faster decompression than deflate.
+ * A block consists of the uncompressed length (4 bytes) followed by sequences, each consisting of a token byte
+ * (4 bits literal length, 4 bits match length minus 4), extra literal length bytes, the literals, a two-byte offset
+ * and extra match length bytes. The last sequence only contains literals
+ * Daniel Huson, 10.2018
+ */
+public class LZBlockCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5; // the last bytes are always literals
+    private static final int MATCH_FIND_LIMIT = 12; // no match starts within this many bytes of the end
+    private static final int MAX_OFFSET = 65535;
+    private static final int MAX_HASH_BITS = 14;
+
+    private final int[] hashTable = new int[1 << MAX_HASH_BITS];
+
+    /**
+     * compress a block
+     *
+     * @param source
+     * @param sourceOffset
+     * @param sourceLength
+     * @param target
+     * @return number of bytes written to target, or -1, if the compressed block would not be shorter than the source or does not fit into the target
+     */
+    public int compress(byte[] source, int sourceOffset, int sourceLength, byte[] target) {
+        final int limit = Math.min(target.length, sourceLength);
+        if (limit < 4)
+            return -1;
+        writeInt(target, 0, sourceLength);
+        int op = 4;
+
+        final int end = sourceOffset + sourceLength;
+        int anchor = sourceOffset;
+
+        if (sourceLength > MATCH_FIND_LIMIT) {
+            final int hashBits = Math.max(8, Math.min(MAX_HASH_BITS, 33 - Integer.numberOfLeadingZeros(sourceLength)));
+            final int hashShift = 32 - hashBits;
+            Arrays.fill(hashTable, 0, 1 << hashBits, -1);
+
+            final int matchLimit = end - LAST_LITERALS;
+            final int findLimit = end - MATCH_FIND_LIMIT;
+            int ip = sourceOffset;
+            while (ip < findLimit) {
+                final int value = readInt(source, ip);
+                final int hash = (value * -1640531535) >>> hashShift;
+                int ref = hashTable[hash];
+                hashTable[hash] = ip;
+                if (ref >= 0 && ip - ref <= MAX_OFFSET && readInt(source, ref) == value) {
+                    while (ip > anchor && ref > sourceOffset && source[ip - 1] == source[ref - 1]) { // extend backward
+                        ip--;
+                        ref--;
+                    }
+                    int matchLength = MIN_MATCH;
+                    while (ip + matchLength < matchLimit && source[ip + matchLength] == source[ref + matchLength]) // extend forward
+                        matchLength++;
+                    op = writeSequence(source, anchor, ip - anchor, ip - ref, matchLength, target, op, limit);
+                    if (op < 0)
+                        return -1;
+                    ip += matchLength;
+                    anchor = ip;
+                } else
+                    ip++;
+            }
+        }
+        return writeSequence(source, anchor, end - anchor, 0, 0, target, op, limit);
+    }
+
+    /**
+     * decompress a block
+     *
+     * @param source
+     * @param sourceOffset
+     * @param sourceLength
+     * @param target       must be at least getUncompressedLength() long
+     * @return number of bytes written to target
+     * @throws DataFormatException
+     */
+    public static int decompress(byte[] source, int sourceOffset, int sourceLength, byte[] target) throws DataFormatException {
+        final int length = getUncompressedLength(source, sourceOffset, sourceLength);
+        if (length > target.length)
+            throw new DataFormatException("Target too short: " + target.length + ", need: " + length);
+
+        final int end = sourceOffset + sourceLength;
+        int ip = sourceOffset + 4;
+        int op = 0;
+        while (ip < end) {
+            final int token = source[ip++] & 0xff;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (ip >= end)
+                        throw new DataFormatException("Truncated block");
+                    b = source[ip++] & 0xff;
+                    literalLength += b;
+                }
+                while (b == 255);
+            }
+            if (ip + literalLength > end || op + literalLength > length)
+                throw new DataFormatException("Literals out of bounds");
+            System.arraycopy(source, ip, target, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (ip == end) // last sequence has no match
+                break;
+
+            if (ip + 2 > end)
+                throw new DataFormatException("Truncated block");
+            final int offset = (source[ip] & 0xff) | ((source[ip + 1] & 0xff) << 8);
+            ip += 2;
+            int matchLength = token & 0x0f;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= end)
+                        throw new DataFormatException("Truncated block");
+                    b = source[ip++] & 0xff;
+                    matchLength += b;
+                }
+                while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int ref = op - offset;
+            if (offset == 0 || ref < 0 || op + matchLength > length)
+                throw new DataFormatException("Match out of bounds");
+            if (offset >= matchLength) {
+                System.arraycopy(target, ref, target, op, matchLength);
+                op += matchLength;
+            } else { // overlapping copy
+                for (int i = 0; i < matchLength; i++)
+                    target[op++] = target[ref++];
+            }
+        }
+        if (op != length)
+            throw new DataFormatException("Decompressed length: " + op + ", expected: " + length);
+        return length;
+    }
+
+    /**
+     * gets the uncompressed length of a block
+     *
+     * @param source
+     * @param sourceOffset
+     * @param sourceLength
+     * @return uncompressed length
+     * @throws DataFormatException
+     */
+    public static int getUncompressedLength(byte[] source, int sourceOffset, int sourceLength) throws DataFormatException {
+        if (sourceLength < 4)
+            throw new DataFormatException("Truncated block");
+        final int length = readInt(source, sourceOffset);
+        if (length < 0)
+            throw new DataFormatException("Illegal length: " + length);
+        return length;
+    }
+
+    /**
+     * writes a sequence of literals, followed by a match, if matchLength>0
+     *
+     * @return new output position, or -1, if limit exceeded
+     */
+    private static int writeSequence(byte[] source, int literalStart, int literalLength, int offset, int matchLength, byte[] target, int op, int limit) {
+        if (op + 1 + literalLength + literalLength / 255 + 1 + (matchLength > 0 ? 2 + matchLength / 255 + 1 : 0) > limit)
+            return -1;
+        final int tokenPos = op++;
+        int token;
+        if (literalLength >= 15) {
+            token = 15 << 4;
+            op = writeLength(literalLength - 15, target, op);
+        } else
+            token = literalLength << 4;
+        System.arraycopy(source, literalStart, target, op, literalLength);
+        op += literalLength;
+
+        if (matchLength > 0) {
+            target[op++] = (byte) offset;
+            target[op++] = (byte) (offset >>> 8);
+            final int extra = matchLength - MIN_MATCH;
+            if (extra >= 15) {
+                token |= 15;
+                op = writeLength(extra - 15, target, op);
+            } else
+                token |= extra;
+        }
+        target[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(int length, byte[] target, int op) {
+        while (length >= 255) {
+            target[op++] = (byte) 255;
+            length -= 255;
+        }
+        target[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.parsers.blast;
+
+import jloda.util.Basic;
+import jloda.util.Pair;
+import megan.util.interval.Interval;
+import megan.util.interval.IntervalTree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * parses a blast Tab file into SAM format, working directly on the bytes of each line.
+ * Produces the same SAM text as BlastTab2SAMIterator, but does not create strings for fields or use String.format.
+ * Also provides the numeric fields of the matches, as they appear in the SAM text
+ * Daniel Huson, 10.2018
+ */
+public class BlastTabBytes2SAMIterator extends SAMIteratorBase implements IMatchFieldsIterator {
+    private static final float[] POWERS_OF_TEN = {1f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+    private static final int MAX_EXACT_FLOAT_MANTISSA = 1 << 24;
+    private static final byte[] SAM_DEFAULT_FIELDS = "255\t*\t*\t0\t0\t*\t*\t".getBytes();
+
+    private final Pair<byte[], Integer> matchesTextAndLength = new Pair<>(new byte[10000], 0);
+
+    private final TreeSet<Match> matches = new TreeSet<>(new Match());
+    private final IntervalTree<Match> matchesIntervalTree = new IntervalTree<>();
+
+    private byte[] line; // current line, as provided by the base class
+    private int lineLength;
+
+    private final int[] fieldStart = new int[12];
+    private final int[] fieldEnd = new int[12];
+
+    private byte[] samLine = new byte[1000];
+    private int samLineLength;
+
+    private final HashMap<Float, ExpectedText> expected2text = new HashMap<>();
+
+    private final ArrayList<MatchFields> matchFields = new ArrayList<>();
+
+    /**
+     * constructor
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public BlastTabBytes2SAMIterator(String fileName, int maxNumberOfMatchesPerRead) throws IOException {
+        super(fileName, maxNumberOfMatchesPerRead, true);
+        setSkipCommentLines(true);
+        final String firstLine = Basic.getFirstLineFromFile(new File(fileName), "#", 1000);
+        if (firstLine != null && firstLine.split("\t").length < 12) {
+            close();
+            throw new IOException("File not a BLAST file in tabular format: " + fileName);
+        }
+    }
+
+    /**
+     * is there more data?
+     *
+     * @return true, if more data available
+     */
+    @Override
+    public boolean hasNext() {
+        return hasNextLineBytes();
+    }
+
+    /**
+     * gets the next matches
+     *
+     * @return number of matches
+     */
+    @Override
+    public int next() {
+        if (!readLine())
+            return -1;
+
+        final String queryName = Basic.getReadName(Basic.toString(line, 0, lineLength));
+        final byte[] queryNameBytes = queryName.getBytes();
+        pushBackLineBytes(); // first line of query is processed below
+
+        int matchId = 0; // used to distinguish between matches when sorting
+        matches.clear();
+        matchesTextAndLength.setSecond(0);
+        matchesIntervalTree.clear();
+
+        // get all matches for given query:
+        try {
+            while (readLine()) {
+                // expected format:
+                // queryId, subjectId, percIdentity, alnLength, mismatchCount, gapOpenCount, queryStart, queryEnd,
+                // subjectStart, subjectEnd, eVal, bitScore
+                final int start = (lineLength > 0 && (line[0] == '@' || line[0] == '>') ? 1 : 0);
+
+                if (!startsWith(line, start, lineLength, queryNameBytes)) { // at start of next query
+                    pushBackLineBytes();
+                    break;
+                }
+                if (start + queryNameBytes.length >= lineLength)
+                    throw new IOException("Line too short: " + Basic.toString(line, 0, lineLength));
+                if (!Character.isWhitespace(line[start + queryNameBytes.length])) { // at start of next query
+                    pushBackLineBytes();
+                    break;
+                }
+
+                final int numberOfFields = splitOnTabs(start);
+                if (numberOfFields == 1)
+                    continue;
+                if (numberOfFields < 12)
+                    throw new IOException("Too few tokens: " + numberOfFields);
+
+                final float identity = parseFloat(2, "percent identity");
+                parseInt(3, "length");
+                parseInt(4, "mismatches");
+                parseInt(5, "gap openings");
+                final int queryStart = parseInt(6, "query start");
+                final int queryEnd = parseInt(7, "query end");
+                final int subjStart = parseInt(8, "subject start");
+                final int subjEnd = parseInt(9, "subject end");
+                final float expect = parseFloat(10, "expected");
+                final float bitScore = parseFloat(11, "bit score");
+
+                if (isParseLongReads()) { // when parsing long reads we keep alignments based on local critera
+                    final Match match = new Match();
+                    match.bitScore = bitScore;
+                    match.id = matchId++;
+                    setSAMAndFields(match, queryNameBytes, bitScore, expect, identity, queryStart, queryEnd, subjStart, subjEnd, start);
+                    matchesIntervalTree.add(new Interval<>(queryStart, queryEnd, match));
+                } else {
+                    if (matches.size() < getMaxNumberOfMatchesPerRead() || bitScore > matches.last().bitScore) {
+                        final Match match = new Match();
+                        match.bitScore = bitScore;
+                        match.id = matchId++;
+                        setSAMAndFields(match, queryNameBytes, bitScore, expect, identity, queryStart, queryEnd, subjStart, subjEnd, start);
+                        matches.add(match);
+                        if (matches.size() > getMaxNumberOfMatchesPerRead())
+                            matches.remove(matches.last());
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            System.err.println("Error parsing file near line: " + getLineNumber() + ": " + ex.getMessage());
+            if (incrementNumberOfErrors() >= getMaxNumberOfErrors())
+                throw new RuntimeException("Too many errors");
+        }
+
+        return getPostProcessMatches().apply(queryName, matchesTextAndLength, isParseLongReads(), matchesIntervalTree, matches, matchFields);
+    }
+
+    /**
+     * gets the numeric fields of the matches returned by the last call of next()
+     *
+     * @return fields of matches
+     */
+    @Override
+    public MatchFields[] getMatchFields() {
+        return matchFields.toArray(new MatchFields[matchFields.size()]);
+    }
+
+    /**
+     * sets the SAM line of a match and its numeric fields. The fields have the values that are obtained when parsing the SAM line
+     */
+    private void setSAMAndFields(Match match, byte[] queryName, float bitScore, float expect, float percentIdentity, int queryStart, int queryEnd, int referenceStart, int referenceEnd, int start) {
+        final ExpectedText expectedText = formatExpected(expect);
+        match.samLineBytes = makeSAM(queryName, bitScore, expectedText.bytes, percentIdentity, queryStart, queryEnd, referenceStart, referenceEnd, start);
+        match.fields = new MatchFields(Math.round(bitScore), expectedText.value, Math.round(percentIdentity), queryStart, queryEnd, 0, 0);
+    }
+
+    /**
+     * reads the next line that is not a comment line
+     *
+     * @return true, if line read
+     */
+    private boolean readLine() {
+        if (nextLineBytes()) {
+            line = getLineBytes();
+            lineLength = getLineBytesLength();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * determines the start and end of the first 12 tab-separated fields of the current line
+     *
+     * @param start
+     * @return number of fields (counting all fields, not just the first 12)
+     */
+    private int splitOnTabs(int start) {
+        int count = 0;
+        int a = start;
+        for (int i = start; i <= lineLength; i++) {
+            if (i == lineLength || line[i] == '\t') {
+                if (count < fieldStart.length) {
+                    fieldStart[count] = a;
+                    fieldEnd[count] = i;
+                }
+                count++;
+                a = i + 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * parses an integer field
+     *
+     * @param field
+     * @param name  name used in error message
+     * @return value
+     * @throws IOException
+     */
+    private int parseInt(int field, String name) throws IOException {
+        final int end = fieldEnd[field];
+        int i = fieldStart[field];
+        final boolean negative = (i < end && line[i] == '-');
+        if (i < end && (line[i] == '-' || line[i] == '+'))
+            i++;
+        if (i < end && end - i <= 9) {
+            int value = 0;
+            for (; i < end; i++) {
+                final int digit = line[i] - '0';
+                if (digit < 0 || digit > 9)
+                    break;
+                value = 10 * value + digit;
+            }
+            if (i == end)
+                return negative ? -value : value;
+        }
+        // not a simple number, use standard parsing:
+        final String token = Basic.toString(line, fieldStart[field], end - fieldStart[field]);
+        if (!Basic.isInteger(token))
+            throw new IOException("Expected integer (" + name + "), got: " + token);
+        return Integer.parseInt(token);
+    }
+
+    /**
+     * parses a float field. Numbers with at most 7 digits and a small decimal exponent are computed using a single
+     * float operation, which gives the same result as Float.parseFloat, as both operands are exactly representable
+     *
+     * @param field
+     * @param name  name used in error message
+     * @return value
+     * @throws IOException
+     */
+    private float parseFloat(int field, String name) throws IOException {
+        final int end = fieldEnd[field];
+        int i = fieldStart[field];
+        final boolean negative = (i < end && line[i] == '-');
+        if (i < end && (line[i] == '-' || line[i] == '+'))
+            i++;
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        for (; i < end && line[i] >= '0' && line[i] <= '9' && digits < 18; i++, digits++)
+            mantissa = 10 * mantissa + (line[i] - '0');
+        if (i < end && line[i] == '.') {
+            i++;
+            for (; i < end && line[i] >= '0' && line[i] <= '9' && digits < 18; i++, digits++, exponent--)
+                mantissa = 10 * mantissa + (line[i] - '0');
+        }
+        if (digits > 0 && i < end && (line[i] == 'e' || line[i] == 'E')) {
+            i++;
+            final boolean negativeExponent = (i < end && line[i] == '-');
+            if (i < end && (line[i] == '-' || line[i] == '+'))
+                i++;
+            int value = 0;
+            int exponentDigits = 0;
+            for (; i < end && line[i] >= '0' && line[i] <= '9' && exponentDigits < 4; i++, exponentDigits++)
+                value = 10 * value + (line[i] - '0');
+            if (exponentDigits == 0)
+                digits = 0; // not a simple number
+            exponent += (negativeExponent ? -value : value);
+        }
+
+        if (digits > 0 && i == end && mantissa <= MAX_EXACT_FLOAT_MANTISSA && exponent >= -10 && exponent <= 10) {
+            final float value = (exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent]);
+            return negative ? -value : value;
+        }
+        // not a simple number, use standard parsing:
+        final String token = Basic.toString(line, fieldStart[field], end - fieldStart[field]);
+        if (!Basic.isFloat(token))
+            throw new IOException("Expected float (" + name + "), got: " + token);
+        return Float.parseFloat(token);
+    }
+
+    /**
+     * make a SAM line
+     *
+     * @return bytes of SAM line
+     */
+    private byte[] makeSAM(byte[] queryName, float bitScore, byte[] expectBytes, float percentIdentity, int queryStart, int queryEnd, int referenceStart, int referenceEnd, int start) {
+        samLineLength = 0;
+
+        append(queryName, 0, queryName.length);
+        append('\t');
+        final boolean reverseComplemented = (referenceStart > referenceEnd);
+        if (reverseComplemented) {
+            append(0x10); // SEQ is reverse complemented
+        } else
+            append(0);
+        append('\t');
+        append(line, fieldStart[1], fieldEnd[1] - fieldStart[1]); // subjectId
+        append('\t');
+        append(reverseComplemented ? referenceEnd : referenceStart);
+        append('\t');
+        append(SAM_DEFAULT_FIELDS, 0, SAM_DEFAULT_FIELDS.length);
+
+        appendTag('A', 'S', 'i');
+        append(Math.round(bitScore));
+        append('\t');
+        appendTag('Z', 'E', 'f');
+        append(expectBytes, 0, expectBytes.length);
+        append('\t');
+        appendTag('Z', 'I', 'i');
+        append(Math.round(percentIdentity));
+        append('\t');
+        appendTag('Z', 'S', 'i');
+        append(queryStart);
+        append('\t');
+        appendTag('Z', 'Q', 'i');
+        append(queryEnd);
+        append('\t');
+        appendTag('A', 'L', 'Z');
+        appendAlignmentLine(start);
+        append('\t');
+
+        return Arrays.copyOf(samLine, samLineLength);
+    }
+
+    /**
+     * formats the expected value as String.format("%g") would, caching the result, as values occur many times
+     *
+     * @param expect
+     * @return text and the value it represents
+     */
+    private ExpectedText formatExpected(float expect) {
+        ExpectedText expectedText = expected2text.get(expect);
+        if (expectedText == null) {
+            if (expected2text.size() >= 100000)
+                expected2text.clear();
+            final String text = String.format("%g", expect);
+            expectedText = new ExpectedText(text.getBytes(), Basic.isFloat(text) ? Float.parseFloat(text) : expect);
+            expected2text.put(expect, expectedText);
+        }
+        return expectedText;
+    }
+
+    /**
+     * formatted expected value
+     */
+    private static class ExpectedText {
+        final byte[] bytes;
+        final float value; // value of the formatted text, as obtained when parsing the SAM line
+
+        ExpectedText(byte[] bytes, float value) {
+            this.bytes = bytes;
+            this.value = value;
+        }
+    }
+
+    /**
+     * appends the line with all white space replaced by spaces
+     *
+     * @param start
+     */
+    private void appendAlignmentLine(int start) {
+        boolean simple = (lineLength > start && !isWhiteSpace(line[start]) && !isWhiteSpace(line[lineLength - 1]));
+        for (int i = start; simple && i < lineLength; i++) {
+            if (line[i] < 0 || (i > start && isWhiteSpace(line[i]) && isWhiteSpace(line[i - 1])))
+                simple = false;
+        }
+        if (simple) { // ASCII and no runs of white space
+            ensureSAMLineCapacity(lineLength - start);
+            for (int i = start; i < lineLength; i++) {
+                samLine[samLineLength++] = (isWhiteSpace(line[i]) ? (byte) ' ' : line[i]);
+            }
+        } else {
+            final byte[] bytes = Basic.replaceSpaces(Basic.toString(line, start, lineLength - start), ' ').getBytes();
+            append(bytes, 0, bytes.length);
+        }
+    }
+
+    private static boolean isWhiteSpace(byte b) {
+        return b >= 0 && Character.isWhitespace((char) b);
+    }
+
+    private static boolean startsWith(byte[] line, int start, int lineLength, byte[] prefix) {
+        if (lineLength - start < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[start + i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void appendTag(char a, char b, char type) {
+        append(a);
+        append(b);
+        append(':');
+        append(type);
+        append(':');
+    }
+
+    private void append(char ch) {
+        ensureSAMLineCapacity(1);
+        samLine[samLineLength++] = (byte) ch;
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        ensureSAMLineCapacity(length);
+        System.arraycopy(bytes, offset, samLine, samLineLength, length);
+        samLineLength += length;
+    }
+
+    private void append(int value) {
+        if (value < 0) {
+            append('-');
+            if (value == Integer.MIN_VALUE) {
+                final byte[] bytes = Integer.toString(value).substring(1).getBytes();
+                append(bytes, 0, bytes.length);
+                return;
+            }
+            value = -value;
+        }
+        ensureSAMLineCapacity(10);
+        final int first = samLineLength;
+        do {
+            samLine[samLineLength++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = first, j = samLineLength - 1; i < j; i++, j--) { // reverse digits
+            final byte tmp = samLine[i];
+            samLine[i] = samLine[j];
+            samLine[j] = tmp;
+        }
+    }
+
+    private void ensureSAMLineCapacity(int length) {
+        if (samLineLength + length > samLine.length)
+            samLine = Arrays.copyOf(samLine, 2 * (samLineLength + length));
+    }
+
+    /**
+     * gets the matches text
+     *
+     * @return matches text
+     */
+    @Override
+    public byte[] getMatchesText() {
+        return matchesTextAndLength.getFirst();
+    }
+
+    /**
+     * length of matches text
+     *
+     * @return length of text
+     */
+    @Override
+    public int getMatchesTextLength() {
+        return matchesTextAndLength.getSecond();
+    }
+}
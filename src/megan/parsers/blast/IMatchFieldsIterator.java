@@ -0,0 +1,32 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.parsers.blast;
+
+/**
+ * a SAM iterator that also provides the numeric fields of the matches, as parsed
+ * Daniel Huson, 10.2018
+ */
+public interface IMatchFieldsIterator extends ISAMIterator {
+    /**
+     * gets the numeric fields of the matches returned by the last call of next(), in the order of the lines of the matches text
+     *
+     * @return fields of matches
+     */
+    MatchFields[] getMatchFields();
+}
@@ -18,6 +18,7 @@
  */
 package megan.parsers.blast;
 
+import jloda.util.ProgramProperties;
 import megan.daa.io.DAA2SAMIterator;
 
 import java.io.IOException;
@@ -27,6 +28,8 @@ import java.io.IOException;
  * Daniel Huson, 4.2015
  */
 public class IteratorManager {
+    public static final String PROPERTIES_BYTE_LEVEL_BLAST_TAB_PARSER = "ByteLevelBlastTabParser";
+
     /**
      * gets the iterator for the given file, format and blastMode
      *
@@ -51,9 +54,12 @@ public class IteratorManager {
             iterator = new BlastN2SAMIterator(blastFile, maxMatchesPerRead);
         else if (format == BlastFileFormat.BlastXML)
             iterator = new BlastXML2SAMIterator(blastFile, maxMatchesPerRead);
-        else if (format == BlastFileFormat.BlastTab)
-            iterator = new BlastTab2SAMIterator(blastFile, maxMatchesPerRead);
-        else if (format == BlastFileFormat.LastMAF)
+        else if (format == BlastFileFormat.BlastTab) {
+            if (ProgramProperties.get(PROPERTIES_BYTE_LEVEL_BLAST_TAB_PARSER, true))
+                iterator = new BlastTabBytes2SAMIterator(blastFile, maxMatchesPerRead);
+            else
+                iterator = new BlastTab2SAMIterator(blastFile, maxMatchesPerRead);
+        } else if (format == BlastFileFormat.LastMAF)
             iterator = new LastMAF2SAMIterator(blastFile, maxMatchesPerRead, blastMode);
         else if (format == BlastFileFormat.RapSearch2Aln && blastMode == BlastMode.BlastX)
             iterator = new RAPSearchAln2SAMIterator(blastFile, maxMatchesPerRead);
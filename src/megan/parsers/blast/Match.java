@@ -29,6 +29,8 @@ public class Match implements Comparator<Match> {
     float bitScore;
     int id;
     String samLine;
+    byte[] samLineBytes; // used instead of samLine by parsers that produce bytes
+    MatchFields fields; // numeric fields, set by parsers that provide them
 
     @Override
     public int compare(Match a, Match b) {
@@ -0,0 +1,83 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.parsers.blast;
+
+/**
+ * the numeric fields of a match, as stored in a binary match record. Parsers that obtain these values while parsing
+ * provide them directly, so that they don't have to be recovered by parsing the SAM text of the match
+ * Daniel Huson, 10.2018
+ */
+public class MatchFields {
+    private final float bitScore;
+    private final float expected;
+    private final float percentIdentity;
+    private final int alignedQueryStart;
+    private final int alignedQueryEnd;
+    private final int refLength;
+    private final int length;
+
+    /**
+     * constructor
+     *
+     * @param bitScore
+     * @param expected
+     * @param percentIdentity
+     * @param alignedQueryStart
+     * @param alignedQueryEnd
+     * @param refLength         reference length, 0 if unknown
+     * @param length            alignment length as reported in the SAM TLEN field, 0 if unknown
+     */
+    public MatchFields(float bitScore, float expected, float percentIdentity, int alignedQueryStart, int alignedQueryEnd, int refLength, int length) {
+        this.bitScore = bitScore;
+        this.expected = expected;
+        this.percentIdentity = percentIdentity;
+        this.alignedQueryStart = alignedQueryStart;
+        this.alignedQueryEnd = alignedQueryEnd;
+        this.refLength = refLength;
+        this.length = length;
+    }
+
+    public float getBitScore() {
+        return bitScore;
+    }
+
+    public float getExpected() {
+        return expected;
+    }
+
+    public float getPercentIdentity() {
+        return percentIdentity;
+    }
+
+    public int getAlignedQueryStart() {
+        return alignedQueryStart;
+    }
+
+    public int getAlignedQueryEnd() {
+        return alignedQueryEnd;
+    }
+
+    public int getRefLength() {
+        return refLength;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
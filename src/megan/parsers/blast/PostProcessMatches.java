@@ -24,6 +24,7 @@ import jloda.util.ProgramProperties;
 import megan.util.interval.Interval;
 import megan.util.interval.IntervalTree;
 
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -56,6 +57,23 @@ public class PostProcessMatches {
      * @return number of matches returned
      */
     public int apply(String queryName, Pair<byte[], Integer> matchesTextAndLength, boolean parseLongReads, IntervalTree<Match> matchesIntervalTree, Set<Match> matches) {
+        return apply(queryName, matchesTextAndLength, parseLongReads, matchesIntervalTree, matches, null);
+    }
+
+    /**
+     * post process set of parsed matches
+     *
+     * @param queryName
+     * @param matchesTextAndLength
+     * @param parseLongReads
+     * @param matchesIntervalTree
+     * @param matches
+     * @param matchFields          if non-null, is set to the numeric fields of the matches returned, in order
+     * @return number of matches returned
+     */
+    public int apply(String queryName, Pair<byte[], Integer> matchesTextAndLength, boolean parseLongReads, IntervalTree<Match> matchesIntervalTree, Set<Match> matches, List<MatchFields> matchFields) {
+        if (matchFields != null)
+            matchFields.clear();
         if (parseLongReads && matchesIntervalTree != null) {
             matches.clear();
             for (Interval<Match> interval : matchesIntervalTree) {
@@ -90,7 +108,7 @@ public class PostProcessMatches {
             return 0;
         } else { // short reads
             for (Match match : matches) {
-                byte[] bytes = match.samLine.getBytes();
+                byte[] bytes = (match.samLineBytes != null ? match.samLineBytes : match.samLine.getBytes());
                 if (matchesTextLength + bytes.length + 1 >= matchesText.length) {
                     byte[] tmp = new byte[2 * (matchesTextLength + bytes.length + 1)];
                     System.arraycopy(matchesText, 0, tmp, 0, matchesTextLength);
@@ -99,6 +117,8 @@ public class PostProcessMatches {
                 System.arraycopy(bytes, 0, matchesText, matchesTextLength, bytes.length);
                 matchesTextLength += bytes.length;
                 matchesText[matchesTextLength++] = '\n';
+                if (matchFields != null)
+                    matchFields.add(match.fields);
             }
             matchesTextAndLength.set(matchesText, matchesTextLength);
             //System.err.println("Match: "+ Basic.toString(matchesText,0,matchesTextAndLength.get2()));
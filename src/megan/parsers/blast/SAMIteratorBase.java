@@ -19,6 +19,7 @@
 package megan.parsers.blast;
 
 import jloda.util.FileInputIterator;
+import jloda.util.FileIterator;
 
 import java.io.IOException;
 
@@ -28,7 +29,8 @@ import java.io.IOException;
  * Daniel Huson, 4.2015
  */
 public class SAMIteratorBase {
-    private final FileInputIterator iterator;
+    private final FileInputIterator iterator; // null, if lines are read as bytes
+    private final FileIterator bytesIterator; // null, if lines are read as strings
     private final int maxNumberOfMatchesPerRead;
     private int maxNumberOfErrors = 1000;
     private int numberOfErrors = 0;
@@ -36,6 +38,12 @@ public class SAMIteratorBase {
     private boolean parseLongReads;
     private final PostProcessMatches postProcessMatches;
 
+    private byte[] lineBytes;
+    private int lineBytesLength;
+    private boolean pushedBackLineBytes;
+    private boolean skipCommentLinesBytes;
+    private long lineNumberBytes;
+
     /**
      * constructor
      *
@@ -44,7 +52,26 @@ public class SAMIteratorBase {
      * @throws IOException
      */
     public SAMIteratorBase(String fileName, int maxNumberOfMatchesPerRead) throws IOException {
-        iterator = new FileInputIterator(fileName);
+        this(fileName, maxNumberOfMatchesPerRead, false);
+    }
+
+    /**
+     * constructor
+     *
+     * @param fileName
+     * @param maxNumberOfMatchesPerRead
+     * @param readBytes                 if true, lines are accessed as bytes using nextLineBytes(), rather than as strings
+     * @throws IOException
+     */
+    public SAMIteratorBase(String fileName, int maxNumberOfMatchesPerRead, boolean readBytes) throws IOException {
+        if (readBytes) {
+            iterator = null;
+            bytesIterator = new FileIterator(fileName);
+            lineBytes = new byte[1000];
+        } else {
+            iterator = new FileInputIterator(fileName);
+            bytesIterator = null;
+        }
         this.maxNumberOfMatchesPerRead = maxNumberOfMatchesPerRead;
         postProcessMatches = new PostProcessMatches();
     }
@@ -162,11 +189,11 @@ public class SAMIteratorBase {
     }
 
     public long getMaximumProgress() {
-        return iterator.getMaximumProgress();
+        return iterator != null ? iterator.getMaximumProgress() : bytesIterator.getMaximumProgress();
     }
 
     public long getProgress() {
-        return iterator.getProgress();
+        return iterator != null ? iterator.getProgress() : bytesIterator.getProgress();
     }
 
     /**
@@ -175,7 +202,10 @@ public class SAMIteratorBase {
      * @throws IOException
      */
     public void close() throws IOException {
-        iterator.close();
+        if (iterator != null)
+            iterator.close();
+        else
+            bytesIterator.close();
     }
 
     /**
@@ -272,8 +302,73 @@ public class SAMIteratorBase {
         pushedBackLine = line;
     }
 
+    /**
+     * is there a next line? For use when lines are read as bytes
+     *
+     * @return true, if next line available
+     */
+    protected boolean hasNextLineBytes() {
+        if (!pushedBackLineBytes && nextLineBytes())
+            pushedBackLineBytes = true;
+        return pushedBackLineBytes;
+    }
+
+    /**
+     * reads the next line into the line bytes buffer, without line terminator. For use when lines are read as bytes
+     *
+     * @return true, if line read
+     */
+    protected boolean nextLineBytes() {
+        if (pushedBackLineBytes) {
+            pushedBackLineBytes = false;
+            return true;
+        }
+        while (bytesIterator.hasNext()) {
+            final byte[] bytes = bytesIterator.next();
+            int length = bytesIterator.getLineLength();
+            lineNumberBytes++;
+            if (length > 0 && bytes[length - 1] == '\n')
+                length--;
+            if (length > 0 && bytes[length - 1] == '\r')
+                length--;
+            if (skipCommentLinesBytes && length > 0 && bytes[0] == '#')
+                continue;
+            if (lineBytes.length < length)
+                lineBytes = new byte[2 * length];
+            System.arraycopy(bytes, 0, lineBytes, 0, length);
+            lineBytesLength = length;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * push back the current line bytes, so that they are returned by the next call of nextLineBytes()
+     */
+    protected void pushBackLineBytes() {
+        pushedBackLineBytes = true;
+    }
+
+    /**
+     * gets the buffer containing the current line. Only valid until the next line is read
+     *
+     * @return line bytes
+     */
+    protected byte[] getLineBytes() {
+        return lineBytes;
+    }
+
+    /**
+     * gets the length of the current line
+     *
+     * @return length
+     */
+    protected int getLineBytesLength() {
+        return lineBytesLength;
+    }
+
     public long getLineNumber() {
-        return iterator.getLineNumber();
+        return iterator != null ? iterator.getLineNumber() : lineNumberBytes;
     }
 
     public int getMaxNumberOfMatchesPerRead() {
@@ -298,7 +393,10 @@ public class SAMIteratorBase {
      * @param skip
      */
     public void setSkipCommentLines(boolean skip) {
-        iterator.setSkipCommentLines(skip);
+        if (iterator != null)
+            iterator.setSkipCommentLines(skip);
+        else
+            skipCommentLinesBytes = skip;
     }
 
     /**
@@ -307,7 +405,7 @@ public class SAMIteratorBase {
      * @return
      */
     public boolean isSkipCommentLines() {
-        return iterator.isSkipCommentLines();
+        return iterator != null ? iterator.isSkipCommentLines() : skipCommentLinesBytes;
     }
 
     public byte[] getQueryText() {
@@ -362,6 +362,26 @@ public class SAMMatch implements megan.rma3.IMatch {
         }
     }
 
+    /**
+     * computes the percent identity of the match, as reported in the blast alignment text, without creating the text.
+     * If no alignment is available, e.g. for matches imported from BLAST tab format, uses the ZI tag
+     *
+     * @return percent identity, or 0, if not available
+     */
+    public float computePercentIdentity() {
+        final String[] aligned = computeAlignment(getSequence());
+        if (aligned[0].equals("No alignment") || aligned[1].length() == 0)
+            return getPercentIdentity();
+        final boolean proteinAlignment = (mode == BlastMode.BlastX || mode == BlastMode.BlastP);
+        int identities = 0;
+        for (int i = 0; i < aligned[1].length(); i++) {
+            final char ch = aligned[1].charAt(i);
+            if (proteinAlignment ? (ch != '+' && ch != ' ') : ch == '|')
+                identities++;
+        }
+        return 100f * identities / aligned[1].length();
+    }
+
     /**
      * return a BlastNText alignment
      *
@@ -26,8 +26,7 @@ import megan.io.IOutputWriter;
 
 import java.io.IOException;
 import java.io.StringWriter;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * matchblock for RMA2
@@ -39,7 +38,7 @@ public class MatchBlockRMA2 implements IMatchBlock {
     public static final String KEGG = "KEGG";
     public static final String COG = "EGGNOG";
 
-    private final Map<String, Integer> cName2id = new HashMap<>();
+    private int[] slot2id = new int[ClassificationSlots.size()]; // classification ids, indexed by classification slot
 
     private long uid;
     private float bitScore;
@@ -63,7 +62,7 @@ public class MatchBlockRMA2 implements IMatchBlock {
         length = 0;
         ignore = false;
         text = null;
-        cName2id.clear();
+        Arrays.fill(slot2id, 0);
     }
 
     /**
@@ -87,8 +86,17 @@ public class MatchBlockRMA2 implements IMatchBlock {
      * @return id
      */
     public int getId(String name) {
-        Integer id = cName2id.get(name);
-        return id == null ? 0 : id;
+        return getId(ClassificationSlots.findSlot(name));
+    }
+
+    /**
+     * gets the id for the classification with the given slot
+     *
+     * @param slot
+     * @return id
+     */
+    public int getId(int slot) {
+        return slot >= 0 && slot < slot2id.length ? slot2id[slot] : 0;
     }
 
     /**
@@ -98,7 +106,19 @@ public class MatchBlockRMA2 implements IMatchBlock {
      * @param id
      */
     public void setId(String name, Integer id) {
-        cName2id.put(name, id);
+        setId(ClassificationSlots.getSlot(name), id != null ? id : 0);
+    }
+
+    /**
+     * set the id for the classification with the given slot
+     *
+     * @param slot
+     * @param id
+     */
+    public void setId(int slot, int id) {
+        if (slot >= slot2id.length)
+            slot2id = Arrays.copyOf(slot2id, Math.max(slot + 1, ClassificationSlots.size()));
+        slot2id[slot] = id;
     }
 
     /**
@@ -121,11 +141,11 @@ public class MatchBlockRMA2 implements IMatchBlock {
      * @return
      */
     public int getTaxonId() {
-        return getId(TAXONOMY);
+        return getId(ClassificationSlots.TAXONOMY_SLOT);
     }
 
     public void setTaxonId(int taxonId) {
-        cName2id.put(TAXONOMY, taxonId);
+        setId(ClassificationSlots.TAXONOMY_SLOT, taxonId);
     }
 
 
@@ -223,6 +243,11 @@ public class MatchBlockRMA2 implements IMatchBlock {
         return text != null ? Basic.getFirstWord(text) : null;
     }
 
+    @Override
+    public String getRefNameFirstWord() {
+        return text != null ? Basic.swallowLeadingGreaterSign(Basic.getFirstWord(text)) : null;
+    }
+
     public void setText(String text) {
         this.text = text;
     }
@@ -416,4 +441,14 @@ public class MatchBlockRMA2 implements IMatchBlock {
     public int getRefLength() {
         return 0;
     }
+
+    @Override
+    public int getAlignedRefStart() {
+        return 0;
+    }
+
+    @Override
+    public int getAlignedRefEnd() {
+        return 0;
+    }
 }
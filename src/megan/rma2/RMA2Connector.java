@@ -85,6 +85,11 @@ public class RMA2Connector implements IConnector {
         return new AllReadsIterator(getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches));
     }
 
+    @Override
+    public IReadBlockBatchIterator getAllReadsBatchIterator(int batchSize, int numberOfThreads, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return new ReadBlockBatchIteratorAdapter(getAllReadsIterator(minScore, maxExpected, wantReadSequence, wantMatches), batchSize);
+    }
+
     /**
      * get getLetterCodeIterator over all reads for given classification and classId.
      *
@@ -175,17 +180,16 @@ public class RMA2Connector implements IConnector {
      * updates the classId values for a collection of reads
      *
      * @param names          names of classifications in the order that their values will appear in
-     * @param updateItemList list of rescan items
+     * @param updateItems list of rescan items
      * @throws java.io.IOException
      */
-    public void updateClassifications(String[] names, List<UpdateItem> updateItemList, ProgressListener progressListener) throws IOException, CanceledException {
-        UpdateItemList updateItems = (UpdateItemList) updateItemList;
+    public void updateClassifications(String[] names, UpdateItemList updateItems, ProgressListener progressListener) throws IOException, CanceledException {
 
         final int numClassifications = names.length;
 
         long maxProgress = 0;
         for (int i = 0; i < numClassifications; i++) {
-            maxProgress += updateItems.getClassIds(i).size();
+            maxProgress += updateItems.getNumberOfClasses(i);
         }
         progressListener.setMaximum(maxProgress);
 
@@ -193,12 +197,12 @@ public class RMA2Connector implements IConnector {
         for (int i = 0; i < numClassifications; i++) {
             rma2Modifier.startClassificationSection(names[i]);
             try {
-                for (Integer classId : updateItems.getClassIds(i)) {
+                for (int classId : updateItems.getClassIds(i)) {
                     float weight = updateItems.getWeight(i, classId);
                     final List<Long> positions = new ArrayList<>();
                     if (updateItems.getWeight(i, classId) > 0) {
-                        for (UpdateItem item = updateItems.getFirst(i, classId); item != null; item = item.getNextInClassification(i)) {
-                            positions.add(item.getReadUId());
+                        for (int item = updateItems.getFirst(i, classId); item != -1; item = updateItems.getNextInClassification(item, i)) {
+                            positions.add(updateItems.getReadUId(item));
                         }
                     }
                     rma2Modifier.addToClassification(classId, weight, positions);
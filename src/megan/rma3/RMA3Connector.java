@@ -68,6 +68,19 @@ public class RMA3Connector implements IConnector {
         return new AllReadsIterator(getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches));
     }
 
+    @Override
+    public IReadBlockBatchIterator getAllReadsBatchIterator(int batchSize, int numberOfThreads, final float minScore, final float maxExpected, final boolean wantReadSequence, final boolean wantMatches) throws IOException {
+        try (RMA3File rma3File = new RMA3File(fileName, RMA3File.READ_ONLY)) {
+            return new ReadBlockBatchIterator(new ReadLocationScannerRMA3(rma3File),
+                    new ReadBlockBatchIterator.IGetterFactory() {
+                        public IReadBlockGetter create() throws IOException {
+                            return getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches);
+                        }
+                    },
+                    rma3File.getMatchFooter().getNumberOfReads(), batchSize, numberOfThreads);
+        }
+    }
+
     @Override
     public IReadBlockIterator getReadsIterator(String classification, int classId, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
         return getReadsIteratorForListOfClassIds(classification, Collections.singletonList(classId), minScore, maxExpected, wantReadSequence, wantMatches);
@@ -133,20 +146,19 @@ public class RMA3Connector implements IConnector {
      * rescan classifications after running the data processor
      *
      * @param names
-     * @param updateItemList
+     * @param updateItems
      * @param progressListener
      * @throws IOException
      * @throws CanceledException
      */
     @Override
-    public void updateClassifications(String[] names, List<UpdateItem> updateItemList, ProgressListener progressListener) throws IOException, CanceledException {
-        final UpdateItemList updateItems = (UpdateItemList) updateItemList;
+    public void updateClassifications(String[] names, UpdateItemList updateItems, ProgressListener progressListener) throws IOException, CanceledException {
 
         final int numClassifications = names.length;
 
         long maxProgress = 0;
         for (int i = 0; i < numClassifications; i++) {
-            maxProgress += updateItems.getClassIds(i).size();
+            maxProgress += updateItems.getNumberOfClasses(i);
         }
         progressListener.setMaximum(maxProgress);
 
@@ -158,13 +170,13 @@ public class RMA3Connector implements IConnector {
                 ClassificationType classificationType = ClassificationType.valueOf(names[i]);
 
                 final Map<Integer, ListOfLongs> classId2Locations = new HashMap<>();
-                for (Integer classId : updateItems.getClassIds(i)) {
+                for (int classId : updateItems.getClassIds(i)) {
                     float weight = updateItems.getWeight(i, classId);
                     final ListOfLongs positions = new ListOfLongs();
                     classId2Locations.put(classId, positions);
                     if (updateItems.getWeight(i, classId) > 0) {
-                        for (UpdateItem item = updateItems.getFirst(i, classId); item != null; item = item.getNextInClassification(i)) {
-                            positions.add(item.getReadUId());
+                        for (int item = updateItems.getFirst(i, classId); item != -1; item = updateItems.getNextInClassification(item, i)) {
+                            positions.add(updateItems.getReadUId(item));
                         }
                     }
                     progressListener.incrementProgress();
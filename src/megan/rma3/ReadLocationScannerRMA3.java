@@ -0,0 +1,75 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma3;
+
+import megan.data.IReadLocationScanner;
+import megan.io.FileInputStreamAdapter;
+import megan.io.InputReader;
+
+import java.io.IOException;
+
+/**
+ * scans the matches section of an RMA3 file, reading the read and match lines but not parsing any SAM text
+ * Daniel Huson, 10.2018
+ */
+public class ReadLocationScannerRMA3 implements IReadLocationScanner {
+    private final InputReader reader;
+    private final long end;
+    private final ReadLineRMA3 readLine;
+    private final MatchLineRMA3 matchLine;
+
+    /**
+     * constructor
+     *
+     * @param rma3File
+     * @throws IOException
+     */
+    public ReadLocationScannerRMA3(RMA3File rma3File) throws IOException {
+        reader = new InputReader(new FileInputStreamAdapter(rma3File.getFileName()));
+        reader.seek(rma3File.getStartMatches());
+        end = rma3File.getEndMatches();
+        readLine = new ReadLineRMA3(rma3File.getMatchFooter().getReadFormatDef());
+        matchLine = new MatchLineRMA3(rma3File.getMatchFooter().getMatchFormatDef());
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        return reader.getPosition() < end;
+    }
+
+    @Override
+    public long next() throws IOException {
+        final long uid = reader.getPosition();
+        readLine.read(reader);
+        for (int i = 0; i < readLine.getNumberOfMatches(); i++) {
+            matchLine.read(reader);
+        }
+        return uid;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        return reader.getPosition();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
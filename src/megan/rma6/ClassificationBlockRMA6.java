@@ -38,6 +38,11 @@ import java.util.Set;
 public class ClassificationBlockRMA6 implements IClassificationBlock {
     private final Map<Integer, Integer> id2count = new HashMap<>();
     private final Map<Integer, Float> id2weight = new HashMap<>();
+    private final Map<Integer, Long> id2locationsPosition = new HashMap<>(); // file position of the locations of each class, from index
+    private final Map<Integer, Integer> id2locationsCount = new HashMap<>(); // number of locations of each class, from index
+    private final Map<Integer, Long> writtenId2LocationsPosition = new HashMap<>(); // file position of the locations of each class, from last write
+    private final Map<Integer, Integer> writtenId2LocationsCount = new HashMap<>(); // number of locations of each class, from last write
+    private boolean indexLoaded = false;
     private String classificationName;
 
     public ClassificationBlockRMA6(String classificationName) {
@@ -86,6 +91,10 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
      * @throws IOException
      */
     public void write(IOutputWriter writer, Map<Integer, ListOfLongs> classId2locations) throws IOException {
+        if (classId2locations != null) {
+            writtenId2LocationsPosition.clear();
+            writtenId2LocationsCount.clear();
+        }
         writer.writeInt(id2weight.size());
         for (Object key : id2weight.keySet()) {
             writer.writeInt((Integer) key); // class id
@@ -94,6 +103,8 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
             if (classId2locations != null) {
                 final ListOfLongs list = classId2locations.get(key);
                 writer.writeInt(list.size());
+                writtenId2LocationsPosition.put((Integer) key, writer.getPosition());
+                writtenId2LocationsCount.put((Integer) key, list.size());
                 for (int i = 0; i < list.size(); i++)
                     writer.writeLong(list.get(i));
             } else
@@ -101,6 +112,70 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
         }
     }
 
+    /**
+     * write the index for the block most recently written. For each class, the index contains the class id, weight,
+     * count and the file position of the locations, so that readers can seek directly to the locations of a given class
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void writeIndex(IOutputWriter writer) throws IOException {
+        writer.writeInt(writtenId2LocationsPosition.size());
+        for (Integer key : writtenId2LocationsPosition.keySet()) {
+            writer.writeInt(key); // class id
+            final Float weight = id2weight.get(key);
+            writer.writeInt(Math.round(weight != null ? weight : 0)); //weight
+            writer.writeInt(writtenId2LocationsCount.get(key));
+            writer.writeLong(writtenId2LocationsPosition.get(key));
+        }
+    }
+
+    /**
+     * reads the index of the classification block
+     *
+     * @param indexPosition
+     * @param reader
+     * @return size
+     * @throws IOException
+     */
+    public int readIndex(long indexPosition, IInputReader reader) throws IOException {
+        id2weight.clear();
+        id2count.clear();
+        id2locationsPosition.clear();
+        id2locationsCount.clear();
+
+        reader.seek(indexPosition);
+        final int numberOfClasses = reader.readInt();
+        for (int i = 0; i < numberOfClasses; i++) {
+            final int classId = reader.readInt();
+            final int weight = reader.readInt();
+            final int count = reader.readInt();
+            final long locationsPosition = reader.readLong();
+            id2weight.put(classId, (float) weight);
+            id2count.put(classId, count);
+            id2locationsPosition.put(classId, locationsPosition);
+            id2locationsCount.put(classId, count);
+        }
+        indexLoaded = true;
+        return id2weight.size();
+    }
+
+    /**
+     * reads the classification block, using its index, if the file has one
+     *
+     * @param footer
+     * @param reader
+     * @return size
+     * @throws IOException
+     */
+    public int read(FooterSectionRMA6 footer, IInputReader reader) throws IOException {
+        final Long indexPosition = footer.getStartClassificationIndex(classificationName);
+        if (indexPosition != null)
+            return readIndex(indexPosition, reader);
+        else
+            return read(footer.getStartClassification(classificationName), reader);
+    }
+
     /**
      * reads the named classification block
      *
@@ -110,6 +185,7 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
      */
     public int read(long position, IInputReader reader) throws IOException {
         id2weight.clear();
+        indexLoaded = false;
 
         reader.seek(position);
         final int numberOfClasses = reader.readInt();
@@ -125,16 +201,17 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
     }
 
     /**
-     * reads the named classification block
+     * reads the weight and count of a single class from the named classification block. Weights and counts of other classes are kept
      *
      * @param reader
-     * @return size
+     * @return 1, if the class was found, 0 else
      * @throws IOException
      */
     public int read(long position, InputReader reader, int classId) throws IOException {
-        reader.seek(position);
-        id2weight.clear();
+        if (indexLoaded || id2weight.containsKey(classId)) // already loaded
+            return id2weight.containsKey(classId) ? 1 : 0;
 
+        reader.seek(position);
         final int numberOfClasses = reader.readInt();
         for (int i = 0; i < numberOfClasses; i++) {
             final int currentId = reader.readInt();
@@ -144,10 +221,24 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
             if (currentId == classId) {
                 id2weight.put(currentId, (float) weight);
                 id2count.put(currentId, count);
-                break;
+                return 1;
             }
         }
-        return id2weight.size();
+        return 0;
+    }
+
+    /**
+     * read all locations for a given class and adds them to list. Uses the index, if loaded, otherwise scans the block
+     *
+     * @param footer
+     * @param reader
+     * @param classId
+     * @param list
+     * @return list of locations
+     * @throws IOException
+     */
+    public int readLocations(FooterSectionRMA6 footer, IInputReader reader, int classId, ListOfLongs list) throws IOException {
+        return readLocations(indexLoaded ? 0 : footer.getStartClassification(classificationName), reader, classId, list);
     }
 
     /**
@@ -160,6 +251,16 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
      * @throws IOException
      */
     public int readLocations(long position, IInputReader reader, int classId, ListOfLongs list) throws IOException {
+        if (indexLoaded) {
+            final Long locationsPosition = id2locationsPosition.get(classId);
+            if (locationsPosition != null) {
+                reader.seek(locationsPosition);
+                for (int z = id2locationsCount.get(classId); z > 0; z--) {
+                    list.add(reader.readLong());
+                }
+            }
+            return list.size();
+        }
         reader.seek(position);
         final int numberOfClasses = reader.readInt();
         for (int i = 0; i < numberOfClasses; i++) {
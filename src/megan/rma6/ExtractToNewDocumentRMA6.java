@@ -53,16 +53,14 @@ public class ExtractToNewDocumentRMA6 {
 
         final RMA6File sourceRMA6File = new RMA6File(sourceRMA6FileName, "r");
         final boolean pairedReads = sourceRMA6File.getHeaderSectionRMA6().isPairedReads();
-        final String[] cNames = sourceRMA6File.getHeaderSectionRMA6().getMatchClassNames();
 
         // determine the set of all positions to extract:
         final ClassificationBlockRMA6 block = new ClassificationBlockRMA6(sourceClassification);
-        long start = sourceRMA6File.getFooterSectionRMA6().getStartClassification(sourceClassification);
-        block.read(start, sourceRMA6File.getReader());
+        block.read(sourceRMA6File.getFooterSectionRMA6(), sourceRMA6File.getReader());
         final ListOfLongs list = new ListOfLongs();
         for (Integer classId : sourceClassIds) {
             if (block.getSum(classId) > 0) {
-                block.readLocations(start, sourceRMA6File.getReader(), classId, list);
+                block.readLocations(sourceRMA6File.getFooterSectionRMA6(), sourceRMA6File.getReader(), classId, list);
             }
         }
 
@@ -111,7 +109,7 @@ public class ExtractToNewDocumentRMA6 {
 
                         // copy classifications:
                         {
-                            int length = numberOfMatches * cNames.length * 4;
+                            int length = numberOfMatches * sourceRMA6File.getHeaderSectionRMA6().getNumberOfBytesPerMatch();
                             for (int b = 0; b < length; b++) {
                                 writer.write(reader.read());
                             }
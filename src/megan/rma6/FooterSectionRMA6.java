@@ -27,13 +27,20 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * footer for read-alignment archive format
+ * footer for read-alignment archive format.
+ * Since footer version 1, the footer may be preceded by an extension that holds the positions of the classification indices.
+ * The extension is located between the end of the aux data section and the start of the footer, so readers that
+ * don't know about it ignore it
  * Daniel Huson, 6.2015
  */
 public class FooterSectionRMA6 {
+    public static final int FOOTER_VERSION = 1; // 1: footer extension with classification index positions
+    private static final int EXTENSION_MAGIC_NUMBER = ('F' << 24) | ('X' << 16) | ('R' << 8) | ('6');
+
     private long numberOfReads;
     private long numberOfMatches;
     private final Map<String, Long> availableClassification2Position = new HashMap<>(); // classifications available
+    private final Map<String, Long> classification2IndexPosition = new HashMap<>(); // classification indices available, since footer version 1
 
     private long startHeaderSection;
     private long endHeaderSection;
@@ -71,6 +78,34 @@ public class FooterSectionRMA6 {
         endFooterSection = reader.readLong();
         if (endFooterSection != reader.length())
             throw new IOException("endFooterSection mismatch");
+
+        readExtension(reader);
+    }
+
+    /**
+     * reads the footer extension, if present
+     *
+     * @param reader
+     * @throws IOException
+     */
+    private void readExtension(IInputReader reader) throws IOException {
+        classification2IndexPosition.clear();
+        if (endAuxDataSection > 0 && startFooterSection - endAuxDataSection >= 12) {
+            reader.seek(endAuxDataSection);
+            if (reader.readInt() == EXTENSION_MAGIC_NUMBER) {
+                final int footerVersion = reader.readInt();
+                if (footerVersion >= 1) {
+                    final int numberOfIndices = reader.readInt();
+                    for (int i = 0; i < numberOfIndices; i++) {
+                        final String classificationName = reader.readString();
+                        final long pos = reader.readLong();
+                        if (pos > reader.length())
+                            throw new IOException("Bad file position: " + pos);
+                        classification2IndexPosition.put(classificationName, pos);
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -86,12 +121,24 @@ public class FooterSectionRMA6 {
     }
 
     /**
-     * write the footer
+     * write the footer. If any classification index positions are set, first writes the footer extension and
+     * sets the start of the footer section to the position after it
      *
      * @param writer
      * @throws IOException
      */
     public void write(IOutputWriter writer) throws IOException {
+        if (classification2IndexPosition.size() > 0) {
+            writer.writeInt(EXTENSION_MAGIC_NUMBER);
+            writer.writeInt(FOOTER_VERSION);
+            writer.writeInt(classification2IndexPosition.size());
+            for (String classificationName : classification2IndexPosition.keySet()) {
+                writer.writeString(classificationName);
+                writer.writeLong(classification2IndexPosition.get(classificationName));
+            }
+            startFooterSection = writer.getPosition();
+        }
+
         writer.writeLong(numberOfReads);
         writer.writeLong(numberOfMatches);
 
@@ -134,6 +181,10 @@ public class FooterSectionRMA6 {
         return availableClassification2Position;
     }
 
+    public Map<String, Long> getClassification2IndexPosition() {
+        return classification2IndexPosition;
+    }
+
     public long getStartHeaderSection() {
         return startHeaderSection;
     }
@@ -225,4 +276,24 @@ public class FooterSectionRMA6 {
         return getAvailableClassification2Position().get(classificationName);
     }
 
+    /**
+     * gets the start position of the index of a named classification
+     *
+     * @param classificationName
+     * @return start or null, if the file has no index for the classification
+     */
+    public Long getStartClassificationIndex(String classificationName) {
+        return classification2IndexPosition.get(classificationName);
+    }
+
+    /**
+     * sets the start position of the index of a named classification
+     *
+     * @param classificationName
+     * @param position
+     */
+    public void setStartClassificationIndex(String classificationName, long position) {
+        classification2IndexPosition.put(classificationName, position);
+    }
+
 }
@@ -18,6 +18,7 @@
  */
 package megan.rma6;
 
+import megan.io.Compressor;
 import megan.io.IInputReader;
 import megan.io.IOutputWriter;
 import megan.parsers.blast.BlastMode;
@@ -34,6 +35,9 @@ public class HeaderSectionRMA6 {
     private BlastMode blastMode;
     private boolean pairedReads;
     private String[] matchClassNames;  // classifications for which matches have identifiers
+    private int minorVersion;
+    private boolean matchRecords; // since minor version 1: each match has a fixed-width binary record, see MatchRecordRMA6
+    private Compressor.Codec textCodec = Compressor.Codec.Deflate; // since minor version 2: codec used for read and match text
 
     /**
      * read the header
@@ -49,7 +53,7 @@ public class HeaderSectionRMA6 {
         if (version != RMA6File.VERSION) {
             throw new IOException("Not an RMA " + RMA6File.VERSION + " file");
         }
-        int minorVersion = reader.readInt();
+        minorVersion = reader.readInt();
         creator = reader.readString();
         creationDate = reader.readLong();
         blastMode = BlastMode.valueOf(reader.readString());
@@ -58,6 +62,8 @@ public class HeaderSectionRMA6 {
         for (int i = 0; i < matchClassNames.length; i++) {
             matchClassNames[i] = reader.readString();
         }
+        matchRecords = (minorVersion >= 1 && reader.read() == 1);
+        textCodec = (minorVersion >= 2 ? Compressor.Codec.fromId(reader.read()) : Compressor.Codec.Deflate);
     }
 
     /**
@@ -79,6 +85,8 @@ public class HeaderSectionRMA6 {
         writer.writeInt(matchClassNames.length);
         for (String name : matchClassNames)
             writer.writeString(name);
+        writer.write(matchRecords ? 1 : 0);
+        writer.write(textCodec.getId());
     }
 
     public String getCreator() {
@@ -120,4 +128,43 @@ public class HeaderSectionRMA6 {
     public void setMatchClassNames(String[] matchClassNames) {
         this.matchClassNames = matchClassNames;
     }
+
+    public int getMinorVersion() {
+        return minorVersion;
+    }
+
+    /**
+     * does each match have a binary record containing its numeric fields?
+     *
+     * @return true, if match records present
+     */
+    public boolean hasMatchRecords() {
+        return matchRecords;
+    }
+
+    public void setMatchRecords(boolean matchRecords) {
+        this.matchRecords = matchRecords;
+    }
+
+    /**
+     * gets the codec used to compress read and match text
+     *
+     * @return codec
+     */
+    public Compressor.Codec getTextCodec() {
+        return textCodec;
+    }
+
+    public void setTextCodec(Compressor.Codec textCodec) {
+        this.textCodec = textCodec;
+    }
+
+    /**
+     * gets the number of bytes stored for each match in addition to its text, namely its classification ids and, if present, its binary record
+     *
+     * @return bytes per match
+     */
+    public int getNumberOfBytesPerMatch() {
+        return 4 * matchClassNames.length + (matchRecords ? MatchRecordRMA6.SIZE : 0);
+    }
 }
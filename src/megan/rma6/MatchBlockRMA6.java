@@ -19,15 +19,13 @@
 package megan.rma6;
 
 import jloda.util.Basic;
-import jloda.util.Single;
-import megan.classification.Classification;
 import megan.classification.IdParser;
+import megan.data.ClassificationSlots;
 import megan.data.IMatchBlock;
 import megan.parsers.sam.SAMMatch;
 
 import java.io.StringWriter;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * matchblock for RMA6
@@ -39,11 +37,23 @@ public class MatchBlockRMA6 implements IMatchBlock {
 
     private long uid;
     private float percentIdentity;
+    private boolean hasPercentIdentity; // percent identity has been set or computed
     private String text;
-    private final Map<String, Integer> fName2Id = new HashMap<>();
+    private int[] slot2id = new int[ClassificationSlots.size()]; // classification ids, indexed by classification slot
 
     private SAMMatch samMatch; // major update: we now keep the sam match and only compute text if necessary
 
+    // numeric fields, set either from the SAM match or from a binary match record:
+    private float bitScore;
+    private float expected;
+    private int alignedQueryStart;
+    private int alignedQueryEnd;
+    private int refLength;
+    private int length;
+
+    private ReadBlockRMA6.MatchesText matchesText; // if set from a binary match record, text of all matches of the read, parsed when needed
+    private int matchIndex; // index of this match in matchesText
+
     /**
      * constructor
      */
@@ -58,23 +68,92 @@ public class MatchBlockRMA6 implements IMatchBlock {
     public void setFromSAM(SAMMatch samMatch) {
         text = null;
         percentIdentity = 0;
+        hasPercentIdentity = false;
 
         this.samMatch = samMatch;
+        matchesText = null;
+
+        bitScore = samMatch.getBitScore();
+        expected = samMatch.getExpected();
+        alignedQueryStart = samMatch.getAlignedQueryStart();
+        alignedQueryEnd = samMatch.getAlignedQueryEnd();
+        refLength = samMatch.getRefLength();
+        length = samMatch.getTLength();
+
+        synchronized (sync) {
+            uid = countUids++;
+        }
+    }
+
+    /**
+     * set match data from a binary match record. The SAM match is obtained from the matches text, when needed
+     *
+     * @param bitScore
+     * @param expected
+     * @param percentIdentity
+     * @param alignedQueryStart
+     * @param alignedQueryEnd
+     * @param refLength
+     * @param length
+     */
+    public void setFromRecord(float bitScore, float expected, float percentIdentity, int alignedQueryStart, int alignedQueryEnd, int refLength, int length) {
+        text = null;
+        this.percentIdentity = percentIdentity;
+        hasPercentIdentity = true;
+        samMatch = null;
+
+        this.bitScore = bitScore;
+        this.expected = expected;
+        this.alignedQueryStart = alignedQueryStart;
+        this.alignedQueryEnd = alignedQueryEnd;
+        this.refLength = refLength;
+        this.length = length;
 
         synchronized (sync) {
             uid = countUids++;
         }
     }
 
+    /**
+     * set the text of all matches of the read and the index of this match in it
+     *
+     * @param matchesText
+     * @param matchIndex
+     */
+    void setMatchesText(ReadBlockRMA6.MatchesText matchesText, int matchIndex) {
+        this.matchesText = matchesText;
+        this.matchIndex = matchIndex;
+    }
+
+    /**
+     * get the SAM match, parsing it from the matches text, if necessary
+     *
+     * @return SAM match or null
+     */
+    private SAMMatch getSAMMatch() {
+        if (samMatch == null && matchesText != null)
+            samMatch = matchesText.getSAMMatch(matchIndex);
+        return samMatch;
+    }
+
     /**
      * erase the block (for reuse)
      */
     public void clear() {
         samMatch = null;
+        matchesText = null;
+        matchIndex = 0;
+        bitScore = 0;
+        expected = 0;
+        alignedQueryStart = 0;
+        alignedQueryEnd = 0;
+        refLength = 0;
+        length = 0;
         uid = 0;
         percentIdentity = 0;
+        hasPercentIdentity = false;
         text = null;
-        fName2Id.clear();
+        Arrays.fill(slot2id, 0);
     }
 
     /**
@@ -97,16 +176,19 @@ public class MatchBlockRMA6 implements IMatchBlock {
      * @return
      */
     public int getTaxonId() {
-        return getId(Classification.Taxonomy);
+        return getId(ClassificationSlots.TAXONOMY_SLOT);
     }
 
     public void setTaxonId(int taxonId) {
-        setId(Classification.Taxonomy, taxonId);
+        setId(ClassificationSlots.TAXONOMY_SLOT, taxonId);
     }
 
     public int getId(String cName) {
-        Integer id = fName2Id.get(cName);
-        return id != null ? id : 0;
+        return getId(ClassificationSlots.findSlot(cName));
+    }
+
+    public int getId(int slot) {
+        return slot >= 0 && slot < slot2id.length ? slot2id[slot] : 0;
     }
 
     /**
@@ -124,7 +206,13 @@ public class MatchBlockRMA6 implements IMatchBlock {
     }
 
     public void setId(String cName, Integer id) {
-        fName2Id.put(cName, id);
+        setId(ClassificationSlots.getSlot(cName), id != null ? id : 0);
+    }
+
+    public void setId(int slot, int id) {
+        if (slot >= slot2id.length)
+            slot2id = Arrays.copyOf(slot2id, Math.max(slot + 1, ClassificationSlots.size()));
+        slot2id[slot] = id;
     }
 
     /**
@@ -133,9 +221,7 @@ public class MatchBlockRMA6 implements IMatchBlock {
      * @return
      */
     public float getBitScore() {
-        if (samMatch == null)
-            System.err.println("null");
-        return samMatch.getBitScore();
+        return bitScore;
     }
 
     public void setBitScore(float bitScore) {
@@ -148,13 +234,16 @@ public class MatchBlockRMA6 implements IMatchBlock {
      * @return
      */
     public float getPercentIdentity() {
-        if (text == null)
-            getText(); // percent identity is calculated while creating text
+        if (!hasPercentIdentity) { // compute from alignment, without creating the text
+            percentIdentity = (getSAMMatch() != null ? samMatch.computePercentIdentity() : 0);
+            hasPercentIdentity = true;
+        }
         return percentIdentity;
     }
 
     public void setPercentIdentity(float percentIdentity) {
         this.percentIdentity = percentIdentity;
+        hasPercentIdentity = true;
     }
 
     /**
@@ -180,7 +269,7 @@ public class MatchBlockRMA6 implements IMatchBlock {
     }
 
     public float getExpected() {
-        return samMatch.getExpected();
+        return expected;
     }
 
     /**
@@ -194,7 +283,7 @@ public class MatchBlockRMA6 implements IMatchBlock {
     }
 
     public int getLength() {
-        return samMatch.getTLength();
+        return length;
     }
 
     /**
@@ -222,10 +311,8 @@ public class MatchBlockRMA6 implements IMatchBlock {
      * @return
      */
     public String getText() {
-        if (text == null) {
-            final Single<Float> value = new Single<>(0f);
-            text = samMatch.getBlastAlignmentText(value);
-            percentIdentity = value.get();
+        if (text == null && getSAMMatch() != null) {
+            text = samMatch.getBlastAlignmentText(); // percent identity is computed separately, see getPercentIdentity()
 
         }
         return text;
@@ -236,6 +323,14 @@ public class MatchBlockRMA6 implements IMatchBlock {
         return getText() != null ? Basic.getFirstWord(getText()) : null;
     }
 
+    @Override
+    public String getRefNameFirstWord() {
+        if (text == null && getSAMMatch() != null)
+            return Basic.getFirstWord(samMatch.getRefName()); // avoid computing the alignment text
+        final String firstWord = getTextFirstWord();
+        return firstWord != null ? Basic.swallowLeadingGreaterSign(firstWord) : null;
+    }
+
     public void setText(String text) {
         throw new RuntimeException("Not implemented");
     }
@@ -244,8 +339,10 @@ public class MatchBlockRMA6 implements IMatchBlock {
         StringWriter w = new StringWriter();
 
         w.write("Match uid: " + uid + "--------\n");
-        for (String cName : fName2Id.keySet())
-            w.write(String.format(" %s: ", cName) + fName2Id.get(cName));
+        for (int slot = 0; slot < slot2id.length; slot++) {
+            if (slot2id[slot] != 0)
+                w.write(String.format(" %s: ", ClassificationSlots.getName(slot)) + slot2id[slot]);
+        }
         w.write("\n");
         if (getBitScore() != 0)
             w.write("bitScore: " + getBitScore() + "\n");
@@ -280,16 +377,26 @@ public class MatchBlockRMA6 implements IMatchBlock {
 
     @Override
     public int getAlignedQueryStart() {
-        return samMatch.getAlignedQueryStart();
+        return alignedQueryStart;
     }
 
     @Override
     public int getAlignedQueryEnd() {
-        return samMatch.getAlignedQueryEnd();
+        return alignedQueryEnd;
     }
 
     @Override
     public int getRefLength() {
-        return samMatch.getRefLength();
+        return refLength;
+    }
+
+    @Override
+    public int getAlignedRefStart() {
+        return getSAMMatch() != null ? samMatch.getPos() : 0;
+    }
+
+    @Override
+    public int getAlignedRefEnd() {
+        return getSAMMatch() != null && samMatch.getCigar() != null && !samMatch.getCigar().isEmpty() ? samMatch.getPos() + samMatch.getCigar().getReferenceLength() - 1 : 0;
     }
 }
@@ -0,0 +1,201 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.rma6;
+
+import jloda.util.Basic;
+import megan.io.IInputReader;
+import megan.io.IOutputWriter;
+import megan.parsers.blast.BlastMode;
+import megan.parsers.blast.MatchFields;
+import megan.parsers.sam.SAMMatch;
+
+import java.io.IOException;
+
+/**
+ * fixed-width binary record holding the numeric fields of a match. Since minor version 1, these records are stored
+ * between the classification ids and the SAM text of the matches of a read, so that the matches
+ * can be filtered and binned without decompressing and parsing the text
+ * Daniel Huson, 10.2018
+ */
+public class MatchRecordRMA6 {
+    /**
+     * valid byte, bit score, expected, percent identity, aligned query start, aligned query end, reference length and alignment length
+     */
+    public static final int SIZE = 1 + 7 * 4;
+
+    /**
+     * writes the record for a match
+     *
+     * @param writer
+     * @param samMatch the parsed match, or null, if the SAM line could not be parsed
+     * @throws IOException
+     */
+    public static void write(IOutputWriter writer, SAMMatch samMatch) throws IOException {
+        write(writer, getMatchFields(samMatch));
+    }
+
+    /**
+     * writes the record for a match
+     *
+     * @param writer
+     * @param matchFields the numeric fields of the match, or null, if the SAM line could not be parsed
+     * @throws IOException
+     */
+    public static void write(IOutputWriter writer, MatchFields matchFields) throws IOException {
+        if (matchFields != null) {
+            writer.write(1);
+            writer.writeFloat(matchFields.getBitScore());
+            writer.writeFloat(matchFields.getExpected());
+            writer.writeFloat(matchFields.getPercentIdentity());
+            writer.writeInt(matchFields.getAlignedQueryStart());
+            writer.writeInt(matchFields.getAlignedQueryEnd());
+            writer.writeInt(matchFields.getRefLength());
+            writer.writeInt(matchFields.getLength());
+        } else {
+            writer.write(0);
+            for (int i = 0; i < 7; i++)
+                writer.writeInt(0);
+        }
+    }
+
+    /**
+     * gets the numeric fields of a parsed match
+     *
+     * @param samMatch
+     * @return fields, or null, if the SAM line could not be parsed
+     */
+    public static MatchFields getMatchFields(SAMMatch samMatch) {
+        if (samMatch != null && samMatch.getRefName() != null)
+            return new MatchFields(samMatch.getBitScore(), samMatch.getExpected(), computePercentIdentity(samMatch), samMatch.getAlignedQueryStart(),
+                    samMatch.getAlignedQueryEnd(), samMatch.getRefLength(), samMatch.getTLength());
+        else
+            return null;
+    }
+
+    /**
+     * parses the SAM lines of all matches of a read and gets their numeric fields
+     *
+     * @param blastMode
+     * @param matchesText     '\n'-separated SAM lines
+     * @param numberOfMatches
+     * @return fields of matches, null for lines that could not be parsed
+     */
+    public static MatchFields[] parseMatchFields(BlastMode blastMode, String matchesText, int numberOfMatches) {
+        final SAMMatch[] samMatches = parseSAMMatches(blastMode, matchesText, numberOfMatches);
+        final MatchFields[] matchFields = new MatchFields[samMatches.length];
+        for (int i = 0; i < samMatches.length; i++) {
+            matchFields[i] = getMatchFields(samMatches[i]);
+        }
+        return matchFields;
+    }
+
+    /**
+     * computes the percent identity of a match
+     *
+     * @param samMatch
+     * @return percent identity, or 0, if it can't be computed from the SAM fields
+     */
+    private static float computePercentIdentity(SAMMatch samMatch) {
+        try {
+            return samMatch.computePercentIdentity();
+        } catch (Exception ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * reads the record for a match
+     *
+     * @param reader
+     * @param matchBlock match block to set
+     * @return true, if the match is valid, false if the SAM line of the match could not be parsed
+     * @throws IOException
+     */
+    public static boolean read(IInputReader reader, MatchBlockRMA6 matchBlock) throws IOException {
+        final boolean valid = (reader.read() == 1);
+        final float bitScore = reader.readFloat();
+        final float expected = reader.readFloat();
+        final float percentIdentity = reader.readFloat();
+        final int alignedQueryStart = reader.readInt();
+        final int alignedQueryEnd = reader.readInt();
+        final int refLength = reader.readInt();
+        final int length = reader.readInt();
+        if (valid)
+            matchBlock.setFromRecord(bitScore, expected, percentIdentity, alignedQueryStart, alignedQueryEnd, refLength, length);
+        return valid;
+    }
+
+    /**
+     * writes the records for all matches of a read
+     *
+     * @param writer
+     * @param blastMode
+     * @param numberOfMatches
+     * @param matchesText
+     * @param matchesTextLength
+     * @throws IOException
+     */
+    public static void write(IOutputWriter writer, BlastMode blastMode, int numberOfMatches, byte[] matchesText, int matchesTextLength) throws IOException {
+        final SAMMatch[] samMatches = parseSAMMatches(blastMode, Basic.toString(matchesText, 0, matchesTextLength), numberOfMatches);
+        for (SAMMatch samMatch : samMatches) {
+            write(writer, samMatch);
+        }
+    }
+
+    /**
+     * parses the SAM lines of all matches of a read. A line may use '*' to refer to the sequence and qualities of the first line
+     *
+     * @param blastMode
+     * @param matchesText     '\n'-separated SAM lines
+     * @param numberOfMatches
+     * @return parsed matches, null for lines that could not be parsed
+     */
+    public static SAMMatch[] parseSAMMatches(BlastMode blastMode, String matchesText, int numberOfMatches) {
+        final SAMMatch[] samMatches = new SAMMatch[numberOfMatches];
+        int offset = 0;
+        String[] firstSamMatch = null;
+
+        for (int i = 0; i < numberOfMatches; i++) {
+            int end = matchesText.indexOf('\n', offset + 1);
+            if (end == -1)
+                end = matchesText.length();
+            final String aLine = matchesText.substring(offset, end);
+            offset = end + 1;
+            try {
+                final SAMMatch samMatch = new SAMMatch(blastMode);
+                final String[] tokens = Basic.split(aLine, '\t');
+                if (tokens.length >= 10) {
+                    if (firstSamMatch != null) {
+                        if (tokens[9] == null || tokens[9].equals("*")) {
+                            tokens[9] = firstSamMatch[9];
+                            tokens[10] = firstSamMatch[10];
+                        }
+                    } else
+                        firstSamMatch = tokens;
+                }
+                samMatch.parse(tokens, tokens.length);
+                samMatches[i] = samMatch;
+            } catch (IOException ex) {
+                System.err.println("RMA6 Parse error: " + ex.getMessage() + ", numberOfMatches=" + numberOfMatches + ", i=" + i + " line=" + aLine);
+            }
+        }
+        return samMatches;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma6;
+
+import jloda.util.CanceledException;
+import jloda.util.ProgramProperties;
+import jloda.util.ProgressListener;
+import megan.io.InputOutputReaderWriter;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * links paired reads in a new RMA6 file using bounded memory. The (stripped) names and locations of all reads are collected
+ * in runs that are sorted by name hash and written to disk. The runs are merged to find mates, and the mate locations
+ * are then written into the file in batches sorted by file offset
+ * Daniel Huson, 10.2018
+ */
+public class MateLinkerRMA6 implements Closeable {
+    public static final String PROPERTIES_RUN_SIZE = "MateLinkerRunSize";
+    public static final int DEFAULT_RUN_SIZE = 1000000;
+
+    private final File tmpDir;
+    private final ArrayList<File> runFiles = new ArrayList<>();
+
+    private final byte[][] names;
+    private final long[] locations;
+    private int count;
+    private long totalCount;
+
+    /**
+     * constructor
+     *
+     * @param tmpDir directory for temporary files
+     */
+    public MateLinkerRMA6(File tmpDir) {
+        this.tmpDir = tmpDir;
+        final int runSize = Math.max(1, ProgramProperties.get(PROPERTIES_RUN_SIZE, DEFAULT_RUN_SIZE));
+        names = new byte[runSize][];
+        locations = new long[runSize];
+    }
+
+    /**
+     * add a read. Must be called in the order in which reads are written
+     *
+     * @param strippedName read name without the suffix that distinguishes between mates
+     * @param location     location of the read in the file
+     * @throws IOException
+     */
+    public void add(String strippedName, long location) throws IOException {
+        names[count] = strippedName.getBytes();
+        locations[count] = location;
+        count++;
+        totalCount++;
+        if (count == names.length)
+            writeRun();
+    }
+
+    /**
+     * determines all mates and writes their locations into the file. Deletes all temporary files
+     *
+     * @param rma6File
+     * @param progress
+     * @return number of pairs
+     * @throws IOException
+     * @throws CanceledException
+     */
+    public long apply(String rma6File, ProgressListener progress) throws IOException, CanceledException {
+        try {
+            if (count > 0)
+                writeRun();
+
+            progress.setSubtask("Linking paired reads");
+            progress.setMaximum(totalCount);
+            progress.setProgress(0);
+
+            final PriorityQueue<RunReader> queue = new PriorityQueue<>();
+            final ArrayList<RunReader> readers = new ArrayList<>();
+            long pairs = 0;
+
+            try (InputOutputReaderWriter raf = new InputOutputReaderWriter(rma6File, "rw")) {
+                for (File runFile : runFiles) {
+                    final RunReader reader = new RunReader(runFile);
+                    readers.add(reader);
+                    if (reader.next())
+                        queue.add(reader);
+                }
+
+                final Patches patches = new Patches(2 * names.length);
+                final ArrayList<byte[]> groupNames = new ArrayList<>();
+                final ArrayList<Long> groupLocations = new ArrayList<>();
+                long processed = 0;
+
+                while (queue.size() > 0) {
+                    // collect all entries that have the same hash, in order of location:
+                    final int hash = queue.peek().hash;
+                    groupNames.clear();
+                    groupLocations.clear();
+                    while (queue.size() > 0 && queue.peek().hash == hash) {
+                        final RunReader reader = queue.poll();
+                        groupNames.add(reader.name);
+                        groupLocations.add(reader.location);
+                        if (reader.next())
+                            queue.add(reader);
+                    }
+
+                    // the first occurrence of a name is paired with the second, the third with the fourth and so on:
+                    final boolean[] used = new boolean[groupNames.size()];
+                    for (int i = 0; i < groupNames.size(); i++) {
+                        if (!used[i]) {
+                            for (int j = i + 1; j < groupNames.size(); j++) {
+                                if (!used[j] && Arrays.equals(groupNames.get(i), groupNames.get(j))) {
+                                    used[i] = used[j] = true;
+                                    patches.add(groupLocations.get(i), groupLocations.get(j));
+                                    patches.add(groupLocations.get(j), groupLocations.get(i));
+                                    pairs++;
+                                    if (patches.isFull())
+                                        patches.apply(raf);
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                    processed += groupNames.size();
+                    progress.setProgress(processed);
+                }
+                patches.apply(raf);
+            } finally {
+                for (RunReader reader : readers) {
+                    reader.close();
+                }
+            }
+            return pairs;
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * deletes all temporary files. Call this if apply() is not reached, for example, because the import failed
+     */
+    @Override
+    public void close() {
+        for (File runFile : runFiles) {
+            if (runFile.exists() && !runFile.delete())
+                System.err.println("Failed to delete temporary file: " + runFile);
+        }
+        runFiles.clear();
+    }
+
+    /**
+     * sort the current run by name hash and write it to a temporary file
+     *
+     * @throws IOException
+     */
+    private void writeRun() throws IOException {
+        final long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = ((long) Arrays.hashCode(names[i]) << 32) | i; // sorts by hash and then by location, as reads are added in order
+        }
+        Arrays.parallelSort(order);
+
+        final File runFile = File.createTempFile("mates-run", ".tmp", tmpDir);
+        runFile.deleteOnExit();
+        runFiles.add(runFile);
+
+        try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 1 << 20))) {
+            for (long item : order) {
+                final int i = (int) item;
+                outs.writeInt((int) (item >>> 32));
+                outs.writeLong(locations[i]);
+                outs.writeInt(names[i].length);
+                outs.write(names[i]);
+            }
+        }
+        Arrays.fill(names, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * a batch of mate locations to be written into the file
+     */
+    private static class Patches {
+        private long[] offsets;
+        private long[] values;
+        private int size;
+
+        Patches(int capacity) {
+            offsets = new long[capacity];
+            values = new long[capacity];
+        }
+
+        void add(long offset, long value) {
+            offsets[size] = offset;
+            values[size] = value;
+            size++;
+        }
+
+        boolean isFull() {
+            return size + 2 > offsets.length;
+        }
+
+        /**
+         * writes all patches in order of file offset, so that the file is written sequentially
+         *
+         * @param raf
+         * @throws IOException
+         */
+        void apply(InputOutputReaderWriter raf) throws IOException {
+            sortByOffset();
+            for (int i = 0; i < size; i++) {
+                raf.seek(offsets[i]); // mate UID is first number in record
+                raf.writeLong(values[i]);
+            }
+            size = 0;
+        }
+
+        /**
+         * bottom-up merge sort of offsets, keeping values in sync
+         */
+        private void sortByOffset() {
+            long[] srcOffsets = offsets, srcValues = values;
+            long[] dstOffsets = new long[size], dstValues = new long[size];
+            for (int width = 1; width < size; width *= 2) {
+                for (int left = 0; left < size; left += 2 * width) {
+                    final int middle = Math.min(left + width, size);
+                    final int right = Math.min(left + 2 * width, size);
+                    int i = left, j = middle, k = left;
+                    while (i < middle && j < right) {
+                        if (srcOffsets[i] <= srcOffsets[j]) {
+                            dstOffsets[k] = srcOffsets[i];
+                            dstValues[k++] = srcValues[i++];
+                        } else {
+                            dstOffsets[k] = srcOffsets[j];
+                            dstValues[k++] = srcValues[j++];
+                        }
+                    }
+                    while (i < middle) {
+                        dstOffsets[k] = srcOffsets[i];
+                        dstValues[k++] = srcValues[i++];
+                    }
+                    while (j < right) {
+                        dstOffsets[k] = srcOffsets[j];
+                        dstValues[k++] = srcValues[j++];
+                    }
+                }
+                long[] tmp = srcOffsets;
+                srcOffsets = dstOffsets;
+                dstOffsets = tmp;
+                tmp = srcValues;
+                srcValues = dstValues;
+                dstValues = tmp;
+            }
+            if (srcOffsets != offsets) {
+                System.arraycopy(srcOffsets, 0, offsets, 0, size);
+                System.arraycopy(srcValues, 0, values, 0, size);
+            }
+        }
+    }
+
+    /**
+     * reads a sorted run
+     */
+    private static class RunReader implements Comparable<RunReader>, Closeable {
+        private final DataInputStream ins;
+        private int hash;
+        private long location;
+        private byte[] name;
+
+        RunReader(File file) throws IOException {
+            ins = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        /**
+         * read the next entry
+         *
+         * @return true, if entry read, false if at end of run
+         */
+        boolean next() throws IOException {
+            try {
+                hash = ins.readInt();
+            } catch (EOFException ex) {
+                return false;
+            }
+            location = ins.readLong();
+            name = new byte[ins.readInt()];
+            ins.readFully(name);
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunReader that) {
+            if (this.hash != that.hash)
+                return Integer.compare(this.hash, that.hash);
+            else
+                return Long.compare(this.location, that.location);
+        }
+
+        @Override
+        public void close() throws IOException {
+            ins.close();
+        }
+    }
+}
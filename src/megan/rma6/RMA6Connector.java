@@ -68,6 +68,19 @@ public class RMA6Connector implements IConnector {
         return new AllReadsIteratorRMA6(wantReadSequence, wantMatches, rma6File, minScore, maxExpected);
     }
 
+    @Override
+    public IReadBlockBatchIterator getAllReadsBatchIterator(int batchSize, int numberOfThreads, final float minScore, final float maxExpected, final boolean wantReadSequence, final boolean wantMatches) throws IOException {
+        try (RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
+            return new ReadBlockBatchIterator(new ReadLocationScannerRMA6(fileName, rma6File),
+                    new ReadBlockBatchIterator.IGetterFactory() {
+                        public IReadBlockGetter create() throws IOException {
+                            return new ReadBlockGetterRMA6(new RMA6File(fileName, RMA6File.READ_ONLY), wantReadSequence, wantMatches, minScore, maxExpected, false, false);
+                        }
+                    },
+                    rma6File.getFooterSectionRMA6().getNumberOfReads(), batchSize, numberOfThreads);
+        }
+    }
+
     @Override
     public IReadBlockIterator getReadsIterator(String classification, int classId, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
         return getReadsIteratorForListOfClassIds(classification, Collections.singletonList(classId), minScore, maxExpected, wantReadSequence, wantMatches);
@@ -77,12 +90,11 @@ public class RMA6Connector implements IConnector {
     public IReadBlockIterator getReadsIteratorForListOfClassIds(String classification, Collection<Integer> classIds, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
         try (final RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
             final ClassificationBlockRMA6 block = new ClassificationBlockRMA6(classification);
-            final long start = rma6File.getFooterSectionRMA6().getStartClassification(classification);
-            block.read(start, rma6File.getReader());
+            block.read(rma6File.getFooterSectionRMA6(), rma6File.getReader());
             final ListOfLongs list = new ListOfLongs();
             for (Integer classId : classIds) {
                 if (block.getSum(classId) > 0) {
-                    block.readLocations(start, rma6File.getReader(), classId, list);
+                    block.readLocations(rma6File.getFooterSectionRMA6(), rma6File.getReader(), classId, list);
                 }
             }
             return new ReadBlockIterator(list, getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches));
@@ -120,7 +132,7 @@ public class RMA6Connector implements IConnector {
             final Long location = rma6File.getFooterSectionRMA6().getStartClassification(classificationName);
             if (location != null) {
                 ClassificationBlockRMA6 classificationBlockRMA6 = new ClassificationBlockRMA6(classificationName);
-                classificationBlockRMA6.read(location, rma6File.getReader());
+                classificationBlockRMA6.read(rma6File.getFooterSectionRMA6(), rma6File.getReader());
                 return classificationBlockRMA6;
             }
         }
@@ -131,18 +143,17 @@ public class RMA6Connector implements IConnector {
      * rescan classifications after running the data processor
      *
      * @param cNames
-     * @param updateItemList
+     * @param updateItems
      * @param progressListener
      * @throws IOException
      * @throws CanceledException
      */
     @Override
-    public void updateClassifications(String[] cNames, List<UpdateItem> updateItemList, ProgressListener progressListener) throws IOException, CanceledException {
-        final UpdateItemList updateItems = (UpdateItemList) updateItemList;
+    public void updateClassifications(String[] cNames, UpdateItemList updateItems, ProgressListener progressListener) throws IOException, CanceledException {
 
         long maxProgress = 0;
         for (int i = 0; i < cNames.length; i++) {
-            maxProgress += updateItems.getClassIds(i).size();
+            maxProgress += updateItems.getNumberOfClasses(i);
         }
         progressListener.setMaximum(maxProgress);
 
@@ -159,14 +170,14 @@ public class RMA6Connector implements IConnector {
             final Map<Integer, ListOfLongs> classId2Location = fName2ClassId2Location[i];
             final Map<Integer, Float> classId2weight = fName2ClassId2Weight[i];
 
-            for (Integer classId : updateItems.getClassIds(i)) {
+            for (int classId : updateItems.getClassIds(i)) {
                 float weight = updateItems.getWeight(i, classId);
                 classId2weight.put(classId, weight);
                 final ListOfLongs positions = new ListOfLongs();
                 classId2Location.put(classId, positions);
                 if (updateItems.getWeight(i, classId) > 0) {
-                    for (UpdateItem item = updateItems.getFirst(i, classId); item != null; item = item.getNextInClassification(i)) {
-                        positions.add(item.getReadUId());
+                    for (int item = updateItems.getFirst(i, classId); item != -1; item = updateItems.getNextInClassification(item, i)) {
+                        positions.add(updateItems.getReadUId(item));
                     }
                 }
                 progressListener.incrementProgress();
@@ -179,9 +190,24 @@ public class RMA6Connector implements IConnector {
 
     @Override
     public IReadBlockIterator getFindAllReadsIterator(String regEx, FindSelection findSelection, Single<Boolean> canceled) throws IOException {
+        final ListOfLongs list = ReadNameIndex.find(this, fileName, getReadNameIndexStamp(), regEx, findSelection, canceled);
+        if (list != null)
+            return new FindAllReadsIterator(regEx, findSelection, new ReadBlockIterator(list, getReadBlockGetter(0, 10, true, true)), canceled);
         return new FindAllReadsIterator(regEx, findSelection, getAllReadsIterator(0, 10, true, true), canceled);
     }
 
+    /**
+     * get a stamp that identifies the reads section of the file, which is not changed after the file has been created
+     *
+     * @return stamp
+     */
+    private String getReadNameIndexStamp() throws IOException {
+        try (RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
+            final FooterSectionRMA6 footer = rma6File.getFooterSectionRMA6();
+            return String.format("%d:%d:%d:%d", rma6File.getHeaderSectionRMA6().getCreationDate(), footer.getStartReadsSection(), footer.getEndReadsSection(), footer.getNumberOfReads());
+        }
+    }
+
     @Override
     public int getNumberOfReads() throws IOException {
         try (RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
@@ -34,7 +34,7 @@ import java.util.Map;
 public class RMA6File implements Closeable {
     public final static int MAGIC_NUMBER = ('R' << 3) | ('M' << 2) | ('A' << 1) | ('R');
     public final static int VERSION = 6;
-    public final static int MINOR_VERSION = 0;
+    public final static int MINOR_VERSION = 2; // 1: header flag for binary match records, 2: codec for read and match text
 
     final public static String READ_ONLY = "r";
     final public static String READ_WRITE = "rw";
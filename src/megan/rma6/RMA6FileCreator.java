@@ -20,8 +20,11 @@
 package megan.rma6;
 
 import jloda.util.ListOfLongs;
+import jloda.util.ProgramProperties;
+import megan.io.Compressor;
 import megan.io.OutputWriter;
 import megan.parsers.blast.BlastMode;
+import megan.parsers.blast.MatchFields;
 
 import java.io.File;
 import java.io.IOException;
@@ -32,8 +35,16 @@ import java.util.Map;
  * Daniel Huson, 6.2015
  */
 public class RMA6FileCreator extends RMA6File {
+    public static final String TEXT_CODEC = "RMA6TextCodec";
+    public static final String WRITE_MATCH_RECORDS = "RMA6WriteMatchRecords"; // off by default: older MEGAN6 versions can't read files that contain match records
+
     private boolean isPairedReads;
     private boolean useCompression;
+    private boolean writeMatchRecords;
+    private BlastMode blastMode;
+
+    private Compressor textCompressor; // only used for codecs other than deflate
+    private byte[] textBuffer = new byte[0];
 
     private int numberOfClassificationNames;
 
@@ -68,8 +79,13 @@ public class RMA6FileCreator extends RMA6File {
         headerSection.setBlastMode(blastMode);
         headerSection.setMatchClassNames(matchClassificationNames);
         headerSection.setIsPairedReads(isPairedReads);
+        headerSection.setMatchRecords(ProgramProperties.get(WRITE_MATCH_RECORDS, false));
+        headerSection.setTextCodec(Compressor.Codec.valueOfIgnoreCase(ProgramProperties.get(TEXT_CODEC, Compressor.Codec.Deflate.toString()), Compressor.Codec.Deflate));
 
         this.isPairedReads = isPairedReads;
+        this.writeMatchRecords = headerSection.hasMatchRecords();
+        this.blastMode = blastMode;
+        this.textCompressor = (headerSection.getTextCodec() != Compressor.Codec.Deflate ? new Compressor(0, headerSection.getTextCodec()) : null);
         numberOfClassificationNames = matchClassificationNames.length;
 
         File file = new File(fileName);
@@ -110,12 +126,31 @@ public class RMA6FileCreator extends RMA6File {
      */
     public long addQuery(byte[] queryText, int queryTextLength, int numberOfMatches, byte[] matchesText, int matchesTextLength,
                          int[][] match2Classification2Id, long mateLocation) throws IOException {
+        return addQuery(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2Classification2Id, null, mateLocation);
+    }
+
+    /**
+     * add a query and its matches to the file
+     *
+     * @param queryText
+     * @param queryTextLength
+     * @param numberOfMatches
+     * @param matchesText
+     * @param matchesTextLength
+     * @param match2Classification2Id
+     * @param matchFields             the numeric fields of the matches used for the match records, or null, if they should be parsed here
+     * @param mateLocation
+     * @return the location of the read in the file
+     * @throws IOException
+     */
+    public long addQuery(byte[] queryText, int queryTextLength, int numberOfMatches, byte[] matchesText, int matchesTextLength,
+                         int[][] match2Classification2Id, MatchFields[] matchFields, long mateLocation) throws IOException {
         final long location = readerWriter.getPosition();
 
         if (isPairedReads)
             readerWriter.writeLong(mateLocation);
 
-        readerWriter.writeString(queryText, 0, queryTextLength);
+        writeText(queryText, queryTextLength);
 
         readerWriter.writeInt(numberOfMatches);
 
@@ -125,7 +160,15 @@ public class RMA6FileCreator extends RMA6File {
             }
         }
 
-        readerWriter.writeString(matchesText, 0, matchesTextLength);
+        if (writeMatchRecords) {
+            if (matchFields != null) {
+                for (int i = 0; i < numberOfMatches; i++)
+                    MatchRecordRMA6.write(readerWriter, matchFields[i]);
+            } else
+                MatchRecordRMA6.write(readerWriter, blastMode, numberOfMatches, matchesText, matchesTextLength);
+        }
+
+        writeText(matchesText, matchesTextLength);
 
         this.totalNumberOfReads++;
         this.totalNumberOfMatches += numberOfMatches;
@@ -133,6 +176,24 @@ public class RMA6FileCreator extends RMA6File {
         return location;
     }
 
+    /**
+     * write read or match text, compressed using the text codec set in the header. The framing is the same as for writeString()
+     *
+     * @param text
+     * @param length
+     * @throws IOException
+     */
+    private void writeText(byte[] text, int length) throws IOException {
+        if (textCompressor == null || text == null || !useCompression || length < Compressor.MIN_SIZE_FOR_DEFLATION)
+            readerWriter.writeString(text, 0, length);
+        else {
+            if (textBuffer.length < Compressor.getMaxCompressedLength(length))
+                textBuffer = new byte[Compressor.getMaxCompressedLength(2 * length)];
+            final int numberOfBytes = textCompressor.deflateString2ByteArray(text, 0, length, textBuffer);
+            readerWriter.writeInt(numberOfBytes);
+            readerWriter.write(textBuffer, 0, Math.abs(numberOfBytes));
+        }
+    }
 
     /**
      * finish creating the file. Assumes that the footer section has been set appropriately
@@ -157,6 +218,7 @@ public class RMA6FileCreator extends RMA6File {
     public void writeClassifications(String[] cNames, Map<Integer, ListOfLongs>[] fName2Location, Map<Integer, Integer>[] fName2weight) throws IOException {
         getFooterSectionRMA6().setStartClassificationsSection(readerWriter.getPosition());
         getFooterSectionRMA6().getAvailableClassification2Position().clear();
+        getFooterSectionRMA6().getClassification2IndexPosition().clear();
         if (cNames != null) {
             for (int i = 0; i < cNames.length; i++) {
                 final String cName = cNames[i];
@@ -168,6 +230,8 @@ public class RMA6FileCreator extends RMA6File {
                 }
                 getFooterSectionRMA6().getAvailableClassification2Position().put(cName, readerWriter.getPosition());
                 classification.write(readerWriter, id2locations);
+                getFooterSectionRMA6().setStartClassificationIndex(cName, readerWriter.getPosition());
+                classification.writeIndex(readerWriter);
                 System.err.println(String.format("Class. %-13s%,10d", cName + ":", id2locations.size()));
             }
         }
@@ -187,6 +251,15 @@ public class RMA6FileCreator extends RMA6File {
         readerWriter = null;
     }
 
+    /**
+     * are binary match records written for each read?
+     *
+     * @return true, if match records are written
+     */
+    public boolean isWriteMatchRecords() {
+        return writeMatchRecords;
+    }
+
     public long getPosition() throws IOException {
         return readerWriter.getPosition();
     }
@@ -60,6 +60,7 @@ public class RMA6FileModifier extends RMA6File implements Closeable {
         io.setLength(io.getPosition());
 
         footerSectionRMA6.getAvailableClassification2Position().clear();
+        footerSectionRMA6.getClassification2IndexPosition().clear();
 
         for (int c = 0; c < cNames.length; c++) {
             final String cName = cNames[c];
@@ -73,6 +74,8 @@ public class RMA6FileModifier extends RMA6File implements Closeable {
             }
             footerSectionRMA6.getAvailableClassification2Position().put(cName, io.getPosition());
             classification.write(io, id2locations);
+            footerSectionRMA6.setStartClassificationIndex(cName, io.getPosition());
+            classification.writeIndex(io);
             System.err.println(String.format("Numb. %4s classes: %,10d", Basic.abbreviate(cName, 4), id2locations.size()));
         }
 
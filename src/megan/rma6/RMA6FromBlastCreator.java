@@ -25,23 +25,32 @@ import megan.classification.IdParser;
 import megan.core.Document;
 import megan.core.MeganFile;
 import megan.core.SyncArchiveAndDataTable;
-import megan.data.IReadBlock;
-import megan.data.IReadBlockIterator;
-import megan.io.InputOutputReaderWriter;
+import megan.main.MeganProperties;
 import megan.parsers.blast.BlastFileFormat;
 import megan.parsers.blast.BlastMode;
+import megan.parsers.blast.IMatchFieldsIterator;
 import megan.parsers.blast.ISAMIterator;
 import megan.parsers.blast.IteratorManager;
+import megan.parsers.blast.MatchFields;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Creates a new RMA6 file by parsing a blast file
  * <p>
+ * One thread tokenizes the reads, a pool of worker threads resolves the classification ids of the references
+ * and a writer thread writes the reads in input order, so the file is the same as when produced by a single thread
+ * <p>
  * Daniel Huson, 6.2015
  */
 public class RMA6FromBlastCreator {
+    private static final int READS_PER_BATCH = 1000;
+    private static final long MAX_BYTES_PER_BATCH = 10000000L;
+
     private final BlastFileFormat format;
     private final BlastMode blastMode;
     private final String[] blastFiles;
@@ -50,7 +59,6 @@ public class RMA6FromBlastCreator {
     private final Document doc;
 
     private final int maxMatchesPerRead;
-    private final int taxonMapperIndex;
     private final IdParser[] parsers;
     private final String[] cNames;
     private final boolean pairedReads;
@@ -99,8 +107,6 @@ public class RMA6FromBlastCreator {
         }
         if (taxonMapperIndex == -1)
             throw new IOException("Internal error: taxonMapperIndex=-1");
-        else
-            this.taxonMapperIndex = taxonMapperIndex;
 
         this.longReads = doc.isLongReads();
         this.pairedReads = doc.isPairedReads();
@@ -124,132 +130,185 @@ public class RMA6FromBlastCreator {
      * @throws CanceledException
      */
     public void parseFiles(final ProgressListener progress) throws IOException, CanceledException {
+        final MateLinkerRMA6 mateLinker = (pairedReads ? new MateLinkerRMA6(new File(rma6File).getAbsoluteFile().getParentFile()) : null);
+        try {
+            parseFiles(progress, mateLinker);
+        } finally {
+            if (mateLinker != null)
+                mateLinker.close(); // make sure temporary files are deleted, even if parsing fails
+        }
+    }
+
+    /**
+     * parse the files
+     *
+     * @param progress
+     * @param mateLinker used to link paired reads, or null
+     * @throws IOException
+     * @throws CanceledException
+     */
+    private void parseFiles(final ProgressListener progress, final MateLinkerRMA6 mateLinker) throws IOException, CanceledException {
         progress.setTasks("Generating RMA6 file", "Parsing matches");
 
-        final HashMap<String, Long> read2PairedReadLocation;
-        if (pairedReads)
-            read2PairedReadLocation = new HashMap<>(1000000);
-        else
-            read2PairedReadLocation = null;
+        final int numberOfThreads = Math.max(1, Math.min(ProgramProperties.get(MeganProperties.NUMBER_OF_THREADS, MeganProperties.DEFAULT_NUMBER_OF_THREADS), Runtime.getRuntime().availableProcessors()));
 
-        final byte[] queryName = new byte[100000];
-        final Single<byte[]> fastAText = new Single<>(new byte[1000]);
-        MatchLineRMA6[] matchLineRMA6s = new MatchLineRMA6[maxMatchesPerRead];
-        for (int i = 0; i < matchLineRMA6s.length; i++) {
-            matchLineRMA6s[i] = new MatchLineRMA6(cNames.length, taxonMapperIndex);
+        // each worker takes a set of id parsers from this pool, as id parsers are not thread safe:
+        final ArrayBlockingQueue<IdParser[]> idParsersPool = new ArrayBlockingQueue<>(numberOfThreads);
+        idParsersPool.add(parsers);
+        for (int t = 1; t < numberOfThreads; t++) {
+            final IdParser[] idParsers = new IdParser[cNames.length];
+            for (int i = 0; i < cNames.length; i++)
+                idParsers[i] = ClassificationManager.get(cNames[i], true).getIdMapper().createIdParser();
+            idParsersPool.add(idParsers);
         }
 
-        int[][] match2classification2id = new int[maxMatchesPerRead][cNames.length];
+        final ExecutorService service = Executors.newFixedThreadPool(numberOfThreads);
+        final ExecutorService writerService = Executors.newSingleThreadExecutor();
+        final ArrayBlockingQueue<Future<QueryBatch>> writeQueue = new ArrayBlockingQueue<>(4 * numberOfThreads);
+        final AtomicReference<Throwable> writerException = new AtomicReference<>(); // first failure of a worker or the writer
 
         rma6FileCreator.startAddingQueries();
 
-        long totalNumberOfReads = 0;
-        long totalNumberOfMatches = 0;
-
-        for (int fileNumber = 0; fileNumber < blastFiles.length; fileNumber++) {
-            int missingReadWarnings = 0;
-            final String blastFile = blastFiles[fileNumber];
-            progress.setTasks("Parsing file", Basic.getFileNameWithoutPath(blastFile));
-            System.err.println("Parsing file: " + blastFile);
-
-            final ISAMIterator iterator = IteratorManager.getIterator(blastFile, format, blastMode, maxMatchesPerRead, longReads);
-
-            progress.setProgress(0);
-            progress.setMaximum(iterator.getMaximumProgress());
-
-            final FileIterator fastaIterator;
-            final boolean isFasta;
-            if (readsFiles != null && readsFiles.length > fileNumber && Basic.fileExistsAndIsNonEmpty(readsFiles[fileNumber])) {
-                fastaIterator = new FileIterator(readsFiles[fileNumber]);
-                isFasta = (fastaIterator.peekNextByte() == '>');
-                if (!isFasta && (fastaIterator.peekNextByte() != '@'))
-                    throw new IOException("Cannot determine type of reads file (doesn't start with '>' or '@': " + readsFiles[fileNumber]);
-            } else {
-                fastaIterator = null;
-                isFasta = false; // don't care, won't use
-            }
-
-            // MAIN LOOP:
-            while (iterator.hasNext()) {
-                totalNumberOfReads++;
-                final int numberOfMatches = iterator.next();
-                totalNumberOfMatches += numberOfMatches;
-                final byte[] matchesText = iterator.getMatchesText(); // get matches as '\n' separated strings
-                final int matchesTextLength = iterator.getMatchesTextLength();
-                final int queryNameLength = Basic.getFirstWord(matchesText, queryName);
-
-                //System.err.println("Got: "+Basic.toString(matchesText,Math.min(100,matchesTextLength)));
-
-                Long mateLocation = null;
-
-                if (pairedReads) {
-                    final String strippedName = Basic.toString(queryName, 0, queryNameLength - pairedReadSuffixLength);
-                    mateLocation = read2PairedReadLocation.get(strippedName);
-                    if (mateLocation == null) {
-                        read2PairedReadLocation.put(strippedName, rma6FileCreator.getPosition());
-                    } else {
-                        read2PairedReadLocation.remove(strippedName);
+        // ordered writer stage: writes the batches in the order in which they were read, so the file is the same as when written sequentially
+        final Future<?> writer = writerService.submit(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        final QueryBatch batch;
+                        try {
+                            batch = writeQueue.take().get();
+                        } catch (ExecutionException ex) {
+                            writerException.compareAndSet(null, ex.getCause() != null ? ex.getCause() : ex);
+                            continue; // keep draining until end of input
+                        }
+                        if (batch == QueryBatch.END)
+                            break;
+                        if (writerException.get() != null)
+                            continue;
+                        try {
+                            for (int r = 0; r < batch.size; r++) {
+                                if (pairedReads)
+                                    mateLinker.add(batch.strippedNames[r], rma6FileCreator.getPosition());
+                                // mate locations are filled in by the mate linker, once all reads have been written
+                                rma6FileCreator.addQuery(batch.queryTexts[r], batch.queryTexts[r].length, batch.numberOfMatches[r], batch.matchesTexts[r], batch.matchesTexts[r].length,
+                                        batch.match2classification2ids[r], batch.matchFields[r], 0);
+                            }
+                        } catch (Throwable ex) {
+                            writerException.compareAndSet(null, ex);
+                        }
                     }
+                } catch (Throwable ex) { // the reading thread stops queuing batches once the writer has terminated, see putForWriter()
+                    writerException.compareAndSet(null, ex);
                 }
+            }
+        });
 
-                byte[] queryText = null;
-                int queryTextLength = 0;
+        final byte[] queryName = new byte[100000];
+        final Single<byte[]> fastAText = new Single<>(new byte[1000]);
 
-                if (fastaIterator != null) {
-                    if (Utilities.findQuery(queryName, queryNameLength, fastaIterator, isFasta)) {
-                        queryTextLength = Utilities.getFastAText(fastaIterator, isFasta, fastAText);
-                        queryText = fastAText.get();
+        final boolean writeMatchRecords = rma6FileCreator.isWriteMatchRecords();
 
-                    } else {
-                        if (missingReadWarnings++ < 50)
-                            System.err.println("WARNING: Failed to find read '" + Basic.toString(queryName, 0, queryNameLength) + "' in file: " + readsFiles[fileNumber]);
-                        if (missingReadWarnings == 50)
-                            System.err.println("No further 'failed to find read' warnings...");
-                    }
-                }
-                if (iterator.getQueryText() != null) {
-                    queryText = iterator.getQueryText();
-                    queryTextLength = iterator.getQueryText().length;
+        long totalNumberOfReads = 0;
+        long totalNumberOfMatches = 0;
 
-                }
-                if (queryText == null) {
-                    queryText = queryName;
-                    queryTextLength = queryNameLength;
-                }
+        try {
+            QueryBatch batch = new QueryBatch(READS_PER_BATCH);
 
-                // for each match, write its taxonId and all its functional ids:
-                int offset = 0;
+            for (int fileNumber = 0; fileNumber < blastFiles.length && writerException.get() == null; fileNumber++) {
+                int missingReadWarnings = 0;
+                final String blastFile = blastFiles[fileNumber];
+                progress.setTasks("Parsing file", Basic.getFileNameWithoutPath(blastFile));
+                System.err.println("Parsing file: " + blastFile);
 
-                for (int matchCount = 0; matchCount < numberOfMatches; matchCount++) {
-                    final String refName = Utilities.getToken(2, matchesText, offset);
+                final ISAMIterator iterator = IteratorManager.getIterator(blastFile, format, blastMode, maxMatchesPerRead, longReads);
 
-                    if (matchCount == matchLineRMA6s.length) { // double the array...
-                        MatchLineRMA6[] tmp = new MatchLineRMA6[2 * matchCount];
-                        System.arraycopy(matchLineRMA6s, 0, tmp, 0, matchCount);
-                        matchLineRMA6s = tmp;
-                        for (int i = matchCount; i < matchLineRMA6s.length; i++)
-                            matchLineRMA6s[i] = new MatchLineRMA6(cNames.length, taxonMapperIndex);
-                    }
+                progress.setProgress(0);
+                progress.setMaximum(iterator.getMaximumProgress());
+
+                final FileIterator fastaIterator;
+                final boolean isFasta;
+                if (readsFiles != null && readsFiles.length > fileNumber && Basic.fileExistsAndIsNonEmpty(readsFiles[fileNumber])) {
+                    fastaIterator = new FileIterator(readsFiles[fileNumber]);
+                    isFasta = (fastaIterator.peekNextByte() == '>');
+                    if (!isFasta && (fastaIterator.peekNextByte() != '@'))
+                        throw new IOException("Cannot determine type of reads file (doesn't start with '>' or '@': " + readsFiles[fileNumber]);
+                } else {
+                    fastaIterator = null;
+                    isFasta = false; // don't care, won't use
+                }
 
-                    final MatchLineRMA6 matchLineRMA6 = matchLineRMA6s[matchCount];
-                    matchLineRMA6.parse(matchesText, offset);
-                    for (int i = 0; i < parsers.length; i++) {
-                        final int id = parsers[i].getIdFromHeaderLine(refName);
-                        if (matchCount == match2classification2id.length) {
-                            int[][] tmp = new int[2 * matchCount][cNames.length];
-                            System.arraycopy(match2classification2id, 0, tmp, 0, matchCount);
-                            match2classification2id = tmp;
+                // MAIN LOOP: this thread tokenizes the reads, ids are resolved by the worker threads and the writer thread writes the reads
+                while (iterator.hasNext() && writerException.get() == null) {
+                    totalNumberOfReads++;
+                    final int numberOfMatches = iterator.next();
+                    totalNumberOfMatches += numberOfMatches;
+                    final byte[] matchesText = iterator.getMatchesText(); // get matches as '\n' separated strings
+                    final int matchesTextLength = iterator.getMatchesTextLength();
+                    final int queryNameLength = Basic.getFirstWord(matchesText, queryName);
+
+                    byte[] queryText = null;
+                    int queryTextLength = 0;
+
+                    if (fastaIterator != null) {
+                        if (Utilities.findQuery(queryName, queryNameLength, fastaIterator, isFasta)) {
+                            queryTextLength = Utilities.getFastAText(fastaIterator, isFasta, fastAText);
+                            queryText = fastAText.get();
+
+                        } else {
+                            if (missingReadWarnings++ < 50)
+                                System.err.println("WARNING: Failed to find read '" + Basic.toString(queryName, 0, queryNameLength) + "' in file: " + readsFiles[fileNumber]);
+                            if (missingReadWarnings == 50)
+                                System.err.println("No further 'failed to find read' warnings...");
                         }
-                        match2classification2id[matchCount][i] = id;
-                        matchLineRMA6.setFId(i, id);
                     }
-                    offset = Utilities.nextNewLine(matchesText, offset) + 1;
-                }
+                    if (iterator.getQueryText() != null) {
+                        queryText = iterator.getQueryText();
+                        queryTextLength = iterator.getQueryText().length;
+
+                    }
+                    if (queryText == null) {
+                        queryText = queryName;
+                        queryTextLength = queryNameLength;
+                    }
+
+                    // numeric fields for the match records, if the parser provides them, otherwise they are parsed from the SAM text by a worker:
+                    final MatchFields[] matchFields = (writeMatchRecords && iterator instanceof IMatchFieldsIterator ? ((IMatchFieldsIterator) iterator).getMatchFields() : null);
+
+                    // buffers are reused by the iterators, so we must copy:
+                    batch.add(Arrays.copyOf(queryText, queryTextLength), numberOfMatches, Arrays.copyOf(matchesText, matchesTextLength),
+                            pairedReads ? Basic.toString(queryName, 0, queryNameLength - pairedReadSuffixLength) : null, matchFields);
 
-                rma6FileCreator.addQuery(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2classification2id, mateLocation != null ? mateLocation : 0);
-                progress.setProgress(iterator.getProgress());
-            } // end of iterator
-        } // end of files
+                    if (batch.isFull()) {
+                        submit(batch, service, idParsersPool, writeQueue, writer);
+                        batch = new QueryBatch(READS_PER_BATCH);
+                    }
+                    progress.setProgress(iterator.getProgress());
+                } // end of iterator
+            } // end of files
+            if (batch.size > 0)
+                submit(batch, service, idParsersPool, writeQueue, writer);
+        } finally {
+            try {
+                if (!writer.isDone())
+                    putForWriter(writeQueue, CompletableFuture.completedFuture(QueryBatch.END), writer);
+                writer.get();
+            } catch (ExecutionException e) {
+                writerException.compareAndSet(null, e.getCause() != null ? e.getCause() : e);
+            } catch (InterruptedException | IOException e) {
+                writerException.compareAndSet(null, e);
+            }
+            service.shutdownNow();
+            writerService.shutdownNow();
+        }
+        if (writerException.get() != null) {
+            final Throwable ex = writerException.get();
+            if (ex instanceof IOException)
+                throw (IOException) ex;
+            else if (ex instanceof Error)
+                throw (Error) ex;
+            else
+                throw new IOException("Import failed: " + ex.getMessage(), ex);
+        }
 
         rma6FileCreator.endAddingQueries();
 
@@ -258,6 +317,9 @@ public class RMA6FromBlastCreator {
 
         System.err.println(String.format("Total reads:  %,16d", totalNumberOfReads));
         System.err.println(String.format("Alignments:    %,15d", totalNumberOfMatches));
+        for (String cName : cNames) {
+            ClassificationManager.get(cName, true).getIdMapper().reportHeaderIdCacheStatistics();
+        }
 
         if (progress instanceof ProgressPercentage)
             ((ProgressPercentage) progress).reportTaskCompleted();
@@ -270,28 +332,10 @@ public class RMA6FromBlastCreator {
         rma6FileCreator.close();
 
         if (pairedReads) { // update paired reads info
-            long count = 0;
             if (progress instanceof ProgressPercentage)
                 ((ProgressPercentage) progress).reportTaskCompleted();
-            try (InputOutputReaderWriter raf = new InputOutputReaderWriter(rma6File, "rw");
-                 IReadBlockIterator it = (new RMA6Connector(rma6File)).getAllReadsIterator(0, 1000, false, false)) {
-                progress.setSubtask("Linking paired reads");
-                progress.setProgress(0);
-                progress.setProgress(it.getMaximumProgress());
-
-                while (it.hasNext()) {
-                    final IReadBlock readBlock = it.next();
-                    if (readBlock.getMateUId() > 0) {
-                        if (readBlock.getMateUId() > readBlock.getUId())
-                            throw new IOException("Mate uid=" + readBlock.getMateUId() + ": too big");
-                        raf.seek(readBlock.getMateUId()); // if defined, mate UID is first number in record, so this is ok
-                        raf.writeLong(readBlock.getUId());
-                        count++;
-                    }
-                    progress.setProgress(it.getProgress());
-                }
-                System.err.println(String.format("Number of pairs:%,14d", count));
-            }
+            final long count = mateLinker.apply(rma6File, progress);
+            System.err.println(String.format("Number of pairs:%,14d", count));
         }
 
         // we need to run data processor to perform classification
@@ -311,4 +355,115 @@ public class RMA6FromBlastCreator {
     public void setContaminants(String contaminantTaxonIdsString) {
         doc.getDataTable().setContaminants(contaminantTaxonIdsString);
     }
+
+    /**
+     * submits a batch of reads to the worker threads, which resolve the classification ids of all matches, and queues the result for the writer
+     *
+     * @param batch
+     * @param service
+     * @param idParsersPool
+     * @param writeQueue
+     * @param writer
+     * @throws IOException
+     */
+    private void submit(final QueryBatch batch, final ExecutorService service, final ArrayBlockingQueue<IdParser[]> idParsersPool,
+                        final ArrayBlockingQueue<Future<QueryBatch>> writeQueue, final Future<?> writer) throws IOException {
+        final boolean parseMatchFields = rma6FileCreator.isWriteMatchRecords();
+
+        final Future<QueryBatch> future = service.submit(new Callable<QueryBatch>() {
+            public QueryBatch call() throws Exception {
+                final IdParser[] idParsers = idParsersPool.take();
+                try {
+                    for (int r = 0; r < batch.size; r++) {
+                        final byte[] matchesText = batch.matchesTexts[r];
+                        final int numberOfMatches = batch.numberOfMatches[r];
+                        final int[][] match2classification2id = new int[numberOfMatches][idParsers.length];
+
+                        // for each match, determine its taxonId and all its functional ids:
+                        int offset = 0;
+                        for (int matchCount = 0; matchCount < numberOfMatches; matchCount++) {
+                            final String refName = Utilities.getToken(2, matchesText, offset);
+                            for (int i = 0; i < idParsers.length; i++) {
+                                match2classification2id[matchCount][i] = idParsers[i].getIdFromHeaderLine(refName);
+                            }
+                            offset = Utilities.nextNewLine(matchesText, offset) + 1;
+                        }
+                        batch.match2classification2ids[r] = match2classification2id;
+                        if (parseMatchFields && batch.matchFields[r] == null)
+                            batch.matchFields[r] = MatchRecordRMA6.parseMatchFields(blastMode, Basic.toString(matchesText), numberOfMatches);
+                    }
+                } finally {
+                    idParsersPool.put(idParsers);
+                }
+                return batch;
+            }
+        });
+        putForWriter(writeQueue, future, writer);
+    }
+
+    /**
+     * queues an item for the writer. Gives up if the writer has terminated, so that the reading thread can't block on a full queue forever.
+     * The writer only terminates early after recording a failure, which stops the reading thread
+     *
+     * @param writeQueue
+     * @param item
+     * @param writer
+     * @return true, if queued, false, if the writer has terminated
+     * @throws IOException thread was interrupted
+     */
+    private static boolean putForWriter(ArrayBlockingQueue<Future<QueryBatch>> writeQueue, Future<QueryBatch> item, Future<?> writer) throws IOException {
+        try {
+            while (!writeQueue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                if (writer.isDone())
+                    return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * a batch of consecutive reads, as passed from the reading thread via the workers to the writer
+     */
+    private static class QueryBatch {
+        static final QueryBatch END = new QueryBatch(0);
+
+        private int size;
+        private final byte[][] queryTexts;
+        private final int[] numberOfMatches;
+        private final byte[][] matchesTexts;
+        private final String[] strippedNames;
+        private final int[][][] match2classification2ids;
+        private final MatchFields[][] matchFields;
+        private long numberOfBytes;
+
+        QueryBatch(int capacity) {
+            queryTexts = new byte[capacity][];
+            numberOfMatches = new int[capacity];
+            matchesTexts = new byte[capacity][];
+            strippedNames = new String[capacity];
+            match2classification2ids = new int[capacity][][];
+            matchFields = new MatchFields[capacity][];
+        }
+
+        void add(byte[] queryText, int numberOfMatches, byte[] matchesText, String strippedName, MatchFields[] matchFields) {
+            this.queryTexts[size] = queryText;
+            this.matchFields[size] = matchFields;
+            this.numberOfMatches[size] = numberOfMatches;
+            this.matchesTexts[size] = matchesText;
+            this.strippedNames[size] = strippedName;
+            size++;
+            numberOfBytes += queryText.length + matchesText.length;
+        }
+
+        /**
+         * is full, either because the max number of reads has been reached, or because the reads are long
+         *
+         * @return true, if full
+         */
+        boolean isFull() {
+            return size == queryTexts.length || numberOfBytes >= MAX_BYTES_PER_BATCH;
+        }
+    }
 }
@@ -20,6 +20,7 @@ package megan.rma6;
 
 import jloda.util.Basic;
 import jloda.util.ListOfLongs;
+import megan.io.Compressor;
 import megan.io.IInputReader;
 import megan.parsers.blast.ISAMIterator;
 
@@ -37,8 +38,9 @@ public class RMA6ToSAMIterator implements ISAMIterator {
     private final ListOfLongs list;
     private int positionInList = 0;
 
-    private final String[] cNames;
+    private final int numberOfBytesPerMatch;
     private final boolean pairedReads;
+    private final Compressor.Codec textCodec;
 
     private String readText;
     private byte[] matchesText;
@@ -58,15 +60,15 @@ public class RMA6ToSAMIterator implements ISAMIterator {
         rma6File = new RMA6File(fileName, "r");
         reader = rma6File.getReader();
         pairedReads = rma6File.getHeaderSectionRMA6().isPairedReads();
-        cNames = rma6File.getHeaderSectionRMA6().getMatchClassNames();
+        textCodec = rma6File.getHeaderSectionRMA6().getTextCodec();
+        numberOfBytesPerMatch = rma6File.getHeaderSectionRMA6().getNumberOfBytesPerMatch();
 
         final ClassificationBlockRMA6 block = new ClassificationBlockRMA6(classificationName);
-        long start = rma6File.getFooterSectionRMA6().getStartClassification(classificationName);
-        block.read(start, rma6File.getReader());
+        block.read(rma6File.getFooterSectionRMA6(), rma6File.getReader());
         list = new ListOfLongs();
         for (Integer classId : classIds) {
             if (block.getSum(classId) > 0) {
-                block.readLocations(start, rma6File.getReader(), classId, list);
+                block.readLocations(rma6File.getFooterSectionRMA6(), rma6File.getReader(), classId, list);
             }
         }
     }
@@ -82,11 +84,11 @@ public class RMA6ToSAMIterator implements ISAMIterator {
             if (pairedReads)
                 reader.skipBytes(8); // skip paired read info
 
-            readText = reader.readString(); // read the read text
+            readText = ReadBlockRMA6.readText(reader, textCodec); // read the read text
 
             final int numberOfMatches = reader.readInt(); // number of matches
-            reader.skipBytes(numberOfMatches * cNames.length * 4); // skip taxon and classification ids
-            matchesText = reader.readString().getBytes(); // todo: implement reading this directly into byte[]
+            reader.skipBytes(numberOfMatches * numberOfBytesPerMatch); // skip taxon and classification ids and match records
+            matchesText = ReadBlockRMA6.readTextBytes(reader, textCodec);
             matchesTextLength = matchesText.length;
             return numberOfMatches;
         } catch (IOException ex) {
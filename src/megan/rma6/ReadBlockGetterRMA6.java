@@ -67,7 +67,7 @@ public class ReadBlockGetterRMA6 implements IReadBlockGetter {
         if (streamOnly)
             reader.seek(start);
         if (reuseReadBlockObject)
-            reuseableReadBlock = new ReadBlockRMA6(rma6File.getHeaderSectionRMA6().getBlastMode(), rma6File.getHeaderSectionRMA6().isPairedReads(), rma6File.getHeaderSectionRMA6().getMatchClassNames());
+            reuseableReadBlock = new ReadBlockRMA6(rma6File.getHeaderSectionRMA6().getBlastMode(), rma6File.getHeaderSectionRMA6().isPairedReads(), rma6File.getHeaderSectionRMA6().getMatchClassNames(), rma6File.getHeaderSectionRMA6().hasMatchRecords(), rma6File.getHeaderSectionRMA6().getTextCodec());
         else
             reuseableReadBlock = null;
     }
@@ -96,7 +96,7 @@ public class ReadBlockGetterRMA6 implements IReadBlockGetter {
                 if (streamOnly)
                     throw new IOException("getReadBlock(uid=" + uid + ") failed: streamOnly");
             }
-            final ReadBlockRMA6 readBlock = (reuseableReadBlock == null ? new ReadBlockRMA6(rma6File.getHeaderSectionRMA6().getBlastMode(), rma6File.getHeaderSectionRMA6().isPairedReads(), rma6File.getHeaderSectionRMA6().getMatchClassNames()) : reuseableReadBlock);
+            final ReadBlockRMA6 readBlock = (reuseableReadBlock == null ? new ReadBlockRMA6(rma6File.getHeaderSectionRMA6().getBlastMode(), rma6File.getHeaderSectionRMA6().isPairedReads(), rma6File.getHeaderSectionRMA6().getMatchClassNames(), rma6File.getHeaderSectionRMA6().hasMatchRecords(), rma6File.getHeaderSectionRMA6().getTextCodec()) : reuseableReadBlock);
             readBlock.read(reader, wantReadSequence, wantMatches, minScore, maxExpected);
             return readBlock;
         }
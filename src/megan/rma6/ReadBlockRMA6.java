@@ -19,24 +19,37 @@
 package megan.rma6;
 
 import jloda.util.Basic;
+import megan.data.ClassificationSlots;
 import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
+import megan.io.Compressor;
 import megan.io.IInputReader;
 import megan.parsers.blast.BlastMode;
 import megan.parsers.sam.SAMMatch;
 import megan.util.ReadMagnitudeParser;
 
 import java.io.IOException;
+import java.util.zip.DataFormatException;
 
 /**
  * ReadBlock for RMA6
  * Daniel Huson, 6.2015
  */
 public class ReadBlockRMA6 implements IReadBlock {
+    private static final ThreadLocal<Compressor> compressor = new ThreadLocal<Compressor>() {
+        @Override
+        protected Compressor initialValue() {
+            return new Compressor(0);
+        }
+    };
+
     private final BlastMode blastMode;
     private final boolean pairedReads;
+    private final boolean matchRecords;
+    private final Compressor.Codec textCodec;
 
     private String[] cNames;
+    private final int[] cSlots; // classification slots of cNames, see ClassificationSlots
     private long uid;
     private String readHeader;
     private String readSequence;
@@ -54,9 +67,37 @@ public class ReadBlockRMA6 implements IReadBlock {
      * @param blastMode
      */
     public ReadBlockRMA6(BlastMode blastMode, boolean pairedReads, String[] cNames) {
+        this(blastMode, pairedReads, cNames, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param blastMode
+     * @param pairedReads
+     * @param cNames
+     * @param matchRecords file contains binary match records, see MatchRecordRMA6
+     */
+    public ReadBlockRMA6(BlastMode blastMode, boolean pairedReads, String[] cNames, boolean matchRecords) {
+        this(blastMode, pairedReads, cNames, matchRecords, Compressor.Codec.Deflate);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param blastMode
+     * @param pairedReads
+     * @param cNames
+     * @param matchRecords file contains binary match records, see MatchRecordRMA6
+     * @param textCodec    codec used to compress read and match text
+     */
+    public ReadBlockRMA6(BlastMode blastMode, boolean pairedReads, String[] cNames, boolean matchRecords, Compressor.Codec textCodec) {
         this.blastMode = blastMode;
         this.pairedReads = pairedReads;
+        this.matchRecords = matchRecords;
+        this.textCodec = textCodec;
         this.cNames = cNames;
+        this.cSlots = ClassificationSlots.getSlots(cNames);
     }
 
     /**
@@ -238,7 +279,7 @@ public class ReadBlockRMA6 implements IReadBlock {
         if (pairedReads)
             mateUid = reader.readLong();
 
-        String readText = reader.readString();
+        String readText = readText(reader, textCodec);
         if (readText.length() > 0) {
             int pos = readText.indexOf('\n');
             if (pos == -1) // only one line...
@@ -272,48 +313,40 @@ public class ReadBlockRMA6 implements IReadBlock {
                 matchBlocks[i] = new MatchBlockRMA6();
             // for each match, read taxon-id and classification ids:
             for (int i = 0; i < numberOfMatches; i++) {
-                for (String cName : cNames) {
-                    matchBlocks[i].setId(cName, reader.readInt()); // read 4*fName.length bytes
+                for (int cSlot : cSlots) {
+                    matchBlocks[i].setId(cSlot, reader.readInt()); // read 4*fName.length bytes
                 }
             }
 
-            // read the text for all matches:
-            final String matchesText = reader.readString(); // assume each line is in SAM format and ends on \n
-            int offset = 0;
-            int matchCount = 0;
             final IMatchBlock[] copies = new MatchBlockRMA6[numberOfMatches]; // need to copy matches we want to keep
+            int matchCount = 0;
 
-            String[] firstSamMatch = null;
-
-            for (int i = 0; i < numberOfMatches; i++) {
-                int end = matchesText.indexOf('\n', offset + 1);
-                if (end == -1)
-                    end = matchesText.length();
-                final String aLine = matchesText.substring(offset, end);
-                offset = end + 1;
-                try {
-                    final SAMMatch samMatch = new SAMMatch(blastMode);
-                    final String[] tokens = Basic.split(aLine, '\t');
-                    if (tokens.length >= 10) {
-                        if (firstSamMatch != null) {
-                            if (tokens[9] == null || tokens[9].equals("*")) {
-                                tokens[9] = firstSamMatch[9];
-                                tokens[10] = firstSamMatch[10];
-                            }
-                        } else
-                            firstSamMatch = tokens;
+            if (matchRecords) {
+                // numeric fields are available as binary records, text is only decompressed and parsed when needed:
+                final boolean[] valid = new boolean[numberOfMatches];
+                for (int i = 0; i < numberOfMatches; i++) {
+                    valid[i] = MatchRecordRMA6.read(reader, (MatchBlockRMA6) matchBlocks[i]);
+                }
+                final MatchesText matchesText = new MatchesText(blastMode, numberOfMatches, textCodec, reader);
+                for (int i = 0; i < numberOfMatches; i++) {
+                    if (valid[i]) {
+                        final MatchBlockRMA6 matchBlock = (MatchBlockRMA6) matchBlocks[i];
+                        matchBlock.setMatchesText(matchesText, i);
+                        if (matchBlock.getBitScore() >= minScore && matchBlock.getExpected() <= maxExpected)
+                            copies[matchCount++] = matchBlock; // this match is ok, keep it
                     }
-
-                    samMatch.parse(tokens, tokens.length);
-
-                    if (samMatch.getRefName() != null) {
+                }
+            } else {
+                // read the text for all matches:
+                final SAMMatch[] samMatches = MatchRecordRMA6.parseSAMMatches(blastMode, readText(reader, textCodec), numberOfMatches); // assume each line is in SAM format and ends on \n
+                for (int i = 0; i < numberOfMatches; i++) {
+                    final SAMMatch samMatch = samMatches[i];
+                    if (samMatch != null && samMatch.getRefName() != null) {
                         final MatchBlockRMA6 matchBlock = (MatchBlockRMA6) matchBlocks[i];
                         matchBlock.setFromSAM(samMatch);
                         if (matchBlock.getBitScore() >= minScore && matchBlock.getExpected() <= maxExpected)
                             copies[matchCount++] = matchBlock; // this match is ok, keep it
                     }
-                } catch (IOException ex) {
-                    System.err.println("RMA6 Parse error: " + ex.getMessage() + ", numberOfMatches=" + numberOfMatches + ", i=" + i + " line=" + aLine);
                 }
             }
             if (matchCount < matchBlocks.length) { // some matches didn't meet the minScore or maxExpected criteria, resize
@@ -321,8 +354,137 @@ public class ReadBlockRMA6 implements IReadBlock {
                 System.arraycopy(copies, 0, matchBlocks, 0, matchCount);
             }
         } else {
-            reader.skipBytes(cNames.length * numberOfMatches * 4); // skip taxon and cName ids
+            reader.skipBytes((cNames.length * 4 + (matchRecords ? MatchRecordRMA6.SIZE : 0)) * numberOfMatches); // skip taxon and cName ids and match records
             reader.skipBytes(Math.abs(reader.readInt())); // skip text
         }
     }
+
+    /**
+     * reads a read or match text written by RMA6FileCreator
+     *
+     * @param reader
+     * @param textCodec
+     * @return text
+     * @throws IOException
+     */
+    static String readText(IInputReader reader, Compressor.Codec textCodec) throws IOException {
+        if (textCodec == Compressor.Codec.Deflate)
+            return reader.readString();
+        final int size = reader.readInt();
+        final byte[] bytes = readBytes(reader, size);
+        if (size >= 0)
+            return Compressor.convertUncompressedByteArray2String(size, bytes);
+        try {
+            return getCompressor(textCodec).inflateByteArray2String(-size, bytes);
+        } catch (DataFormatException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * reads a read or match text written by RMA6FileCreator, as bytes
+     *
+     * @param reader
+     * @param textCodec
+     * @return decompressed bytes
+     * @throws IOException
+     */
+    static byte[] readTextBytes(IInputReader reader, Compressor.Codec textCodec) throws IOException {
+        final int size = reader.readInt();
+        final byte[] bytes = readBytes(reader, size);
+        if (size >= 0)
+            return bytes;
+        try {
+            return getCompressor(textCodec).inflateByteArray2Bytes(-size, bytes);
+        } catch (DataFormatException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * reads the stored bytes of a text
+     *
+     * @param reader
+     * @param size   negative, if compressed
+     * @return bytes
+     * @throws IOException
+     */
+    private static byte[] readBytes(IInputReader reader, int size) throws IOException {
+        if (Math.abs(size) > 100000000)
+            throw new IOException("Unreasonable string length: " + Math.abs(size));
+        final byte[] bytes = new byte[Math.abs(size)];
+        int got = 0;
+        while (got < bytes.length) {
+            final int count = reader.read(bytes, got, bytes.length - got);
+            if (count <= 0)
+                throw new IOException("Bytes read: " + got + ", expected: " + bytes.length);
+            got += count;
+        }
+        return bytes;
+    }
+
+    /**
+     * gets the compressor of this thread, set to the given codec
+     *
+     * @param textCodec
+     * @return compressor
+     */
+    private static Compressor getCompressor(Compressor.Codec textCodec) {
+        final Compressor result = compressor.get();
+        result.setCodec(textCodec);
+        return result;
+    }
+
+    /**
+     * the SAM text of all matches of a read, as stored in the file. It is only decompressed and parsed when first needed
+     */
+    static class MatchesText {
+        private final BlastMode blastMode;
+        private final int numberOfMatches;
+        private final Compressor.Codec textCodec;
+        private final int size; // negative, if compressed
+        private byte[] bytes;
+        private SAMMatch[] samMatches;
+
+        /**
+         * reads the text, without decompressing it
+         *
+         * @param blastMode
+         * @param numberOfMatches
+         * @param textCodec
+         * @param reader
+         * @throws IOException
+         */
+        MatchesText(BlastMode blastMode, int numberOfMatches, Compressor.Codec textCodec, IInputReader reader) throws IOException {
+            this.blastMode = blastMode;
+            this.numberOfMatches = numberOfMatches;
+            this.textCodec = textCodec;
+            size = reader.readInt();
+            bytes = readBytes(reader, size);
+        }
+
+        /**
+         * gets the parsed SAM match for the given match
+         *
+         * @param i
+         * @return SAM match or null, if failed to parse
+         */
+        synchronized SAMMatch getSAMMatch(int i) {
+            if (samMatches == null) {
+                String text;
+                if (size < 0) {
+                    try {
+                        text = getCompressor(textCodec).inflateByteArray2String(-size, bytes);
+                    } catch (DataFormatException ex) {
+                        System.err.println("RMA6 Decompression error: " + ex.getMessage());
+                        text = null;
+                    }
+                } else
+                    text = Compressor.convertUncompressedByteArray2String(size, bytes);
+                samMatches = (text != null ? MatchRecordRMA6.parseSAMMatches(blastMode, text, numberOfMatches) : new SAMMatch[numberOfMatches]);
+                bytes = null;
+            }
+            return samMatches[i];
+        }
+    }
 }
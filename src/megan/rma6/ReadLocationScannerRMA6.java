@@ -0,0 +1,78 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma6;
+
+import megan.data.IReadLocationScanner;
+import megan.io.FileInputStreamAdapter;
+import megan.io.InputReader;
+
+import java.io.IOException;
+
+/**
+ * scans the reads section of an RMA6 file, skipping over the text and matches of each read
+ * Daniel Huson, 10.2018
+ */
+public class ReadLocationScannerRMA6 implements IReadLocationScanner {
+    private final InputReader reader;
+    private final long end;
+    private final boolean pairedReads;
+    private final int numberOfBytesPerMatch; // classification ids and match record
+
+    /**
+     * constructor
+     *
+     * @param fileName
+     * @param rma6File the opened file, used to access header and footer
+     * @throws IOException
+     */
+    public ReadLocationScannerRMA6(String fileName, RMA6File rma6File) throws IOException {
+        reader = new InputReader(new FileInputStreamAdapter(fileName));
+        reader.seek(rma6File.getFooterSectionRMA6().getStartReadsSection());
+        end = rma6File.getFooterSectionRMA6().getEndReadsSection();
+        pairedReads = rma6File.getHeaderSectionRMA6().isPairedReads();
+        numberOfBytesPerMatch = rma6File.getHeaderSectionRMA6().getNumberOfBytesPerMatch();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        return reader.getPosition() < end;
+    }
+
+    @Override
+    public long next() throws IOException {
+        final long uid = reader.getPosition();
+        if (pairedReads)
+            reader.skipBytes(8); // mate uid
+        reader.skipBytes(Math.abs(reader.readInt())); // read text
+        final int numberOfMatches = reader.readInt();
+        reader.skipBytes(numberOfBytesPerMatch * numberOfMatches); // classification ids and match records
+        reader.skipBytes(Math.abs(reader.readInt())); // matches text
+        return uid;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        return reader.getPosition();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.tools;
+
+import jloda.util.*;
+import megan.classification.ClassificationManager;
+import megan.classification.data.String2IntegerFileBasedABinMapBuilder;
+import megan.data.IName2IdMap;
+import megan.main.MeganProperties;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * converts a text file of accession-to-id mappings to a memory-mapped .abin table
+ * Daniel Huson, 10.2018
+ */
+public class Accession2ABin {
+    /**
+     * converts a text accession mapping file
+     *
+     * @param args
+     * @throws UsageException
+     * @throws IOException
+     */
+    public static void main(String[] args) {
+        try {
+            ProgramProperties.setProgramName("Accession2ABin");
+            ProgramProperties.setProgramVersion(megan.main.Version.SHORT_DESCRIPTION);
+
+            PeakMemoryUsageMonitor.start();
+            (new Accession2ABin()).run(args);
+            System.err.println("Total time:  " + PeakMemoryUsageMonitor.getSecondsSinceStartString());
+            System.err.println("Peak memory: " + PeakMemoryUsageMonitor.getPeakUsageString());
+            System.exit(0);
+        } catch (Exception ex) {
+            Basic.caught(ex);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * run
+     *
+     * @param args
+     * @throws UsageException
+     * @throws IOException
+     */
+    public void run(String[] args) throws UsageException, IOException, CanceledException {
+        final ArgsOptions options = new ArgsOptions(args, this, "Converts a text accession mapping file to a memory-mapped .abin file");
+        options.setVersion(ProgramProperties.getProgramVersion());
+        options.setLicense("Copyright (C) 2018 Daniel H. Huson. This program comes with ABSOLUTELY NO WARRANTY.");
+        options.setAuthors("Daniel H. Huson");
+
+        options.comment("Input and output");
+        final String inputFile = options.getOptionMandatory("-i", "in", "Input file, each line: accession tab id (gzipped ok)", "");
+        String outputFile = options.getOption("-o", "out", "Output file (default: input file with suffix .abin)", "");
+
+        options.comment("Options");
+        final String cName = options.getOption("-c", "classification", "Classification used to map labels to ids, if second column contains names rather than ids", "");
+        final int numberOfThreads = options.getOption("-t", "threads", "Number of worker threads", ProgramProperties.get(MeganProperties.NUMBER_OF_THREADS, MeganProperties.DEFAULT_NUMBER_OF_THREADS));
+        final int runSize = options.getOption("-rs", "runSize", "Number of entries sorted in memory at a time", String2IntegerFileBasedABinMapBuilder.DEFAULT_RUN_SIZE);
+        options.done();
+
+        final String propertiesFile;
+        if (ProgramProperties.isMacOS())
+            propertiesFile = System.getProperty("user.home") + "/Library/Preferences/Megan.def";
+        else
+            propertiesFile = System.getProperty("user.home") + File.separator + ".Megan.def";
+        MeganProperties.initializeProperties(propertiesFile);
+
+        Basic.checkFileReadableNonEmpty(inputFile);
+
+        if (outputFile.length() == 0)
+            outputFile = String2IntegerFileBasedABinMapBuilder.getTableFileName(inputFile);
+
+        final IName2IdMap label2id = (cName.length() > 0 ? ClassificationManager.get(cName, true).getName2IdMap() : null);
+
+        final String2IntegerFileBasedABinMapBuilder builder = new String2IntegerFileBasedABinMapBuilder(runSize, numberOfThreads);
+        final int size = builder.build(inputFile, label2id, outputFile, new ProgressPercentage());
+        System.err.println(String.format("Entries written: %,d", size));
+        System.err.println("Output file: " + outputFile);
+    }
+}
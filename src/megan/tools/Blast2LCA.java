@@ -223,6 +223,9 @@ public class Blast2LCA {
             }
             System.err.println(String.format("Reads in: %,11d", totalIn));
             System.err.println(String.format("Reads out:%,11d", totalOut));
+            taxonIdMapper.reportHeaderIdCacheStatistics();
+            if (doKegg)
+                keggMapper.reportHeaderIdCacheStatistics();
         }
     }
 }
@@ -0,0 +1,94 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.tools;
+
+import jloda.util.*;
+import megan.dialogs.compare.ComparisonBuilder;
+import megan.main.MeganProperties;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * computes a comparison of multiple files and writes it as a MEGAN summary file, without opening any documents
+ * Daniel Huson, 10.2018
+ */
+public class ComputeComparison {
+    /**
+     * compute comparison
+     *
+     * @param args
+     * @throws UsageException
+     * @throws IOException
+     */
+    public static void main(String[] args) {
+        try {
+            ProgramProperties.setProgramName("ComputeComparison");
+            ProgramProperties.setProgramVersion(megan.main.Version.SHORT_DESCRIPTION);
+
+            PeakMemoryUsageMonitor.start();
+            (new ComputeComparison()).run(args);
+            System.err.println("Total time:  " + PeakMemoryUsageMonitor.getSecondsSinceStartString());
+            System.err.println("Peak memory: " + PeakMemoryUsageMonitor.getPeakUsageString());
+            System.exit(0);
+        } catch (Exception ex) {
+            Basic.caught(ex);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * run
+     *
+     * @param args
+     * @throws UsageException
+     * @throws IOException
+     * @throws CanceledException
+     */
+    public void run(String[] args) throws UsageException, IOException, CanceledException {
+        final ArgsOptions options = new ArgsOptions(args, this, "Computes a comparison of multiple RMA, DAA or MEGAN files");
+        options.setVersion(ProgramProperties.getProgramVersion());
+        options.setLicense("Copyright (C) 2018 Daniel H. Huson. This program comes with ABSOLUTELY NO WARRANTY.");
+        options.setAuthors("Daniel H. Huson");
+
+        options.comment("Input and Output");
+        final String[] inputFiles = options.getOptionMandatory("-i", "in", "Input RMA, DAA or MEGAN files", new String[0]);
+        final String outputFile = options.getOptionMandatory("-o", "out", "Output MEGAN comparison file (.megan, gzipped ok)", "");
+
+        options.comment("Options");
+        final String mode = options.getOption("-m", "mode", "Comparison mode (absolute or relative)", "absolute");
+        final boolean ignoreUnassigned = options.getOption("-iu", "ignoreUnassigned", "Ignore unassigned, no hits and not-yet-assigned reads", false);
+        final boolean keep1 = options.getOption("-k1", "keepOne", "In relative mode, report a count of 1 for any class whose normalized count is rounded to 0", false);
+        final int maxOpenFiles = options.getOption("-f", "maxOpenFiles", "Max number of input files open at the same time", ProgramProperties.get(ComparisonBuilder.MAX_OPEN_FILES, 16));
+        ProgramProperties.put(MeganProperties.NUMBER_OF_THREADS, options.getOption("-t", "threads", "Number of threads", ProgramProperties.get(MeganProperties.NUMBER_OF_THREADS, MeganProperties.DEFAULT_NUMBER_OF_THREADS)));
+        options.done();
+
+        if (!mode.equalsIgnoreCase("absolute") && !mode.equalsIgnoreCase("relative"))
+            throw new UsageException("--mode: must be absolute or relative, got: " + mode);
+
+        final ComparisonBuilder builder = new ComparisonBuilder();
+        builder.setMode(mode);
+        builder.setIgnoreUnassigned(ignoreUnassigned);
+        builder.setKeep1(keep1);
+        builder.setMaxOpenFiles(maxOpenFiles);
+
+        builder.writeComparison(Arrays.asList(inputFiles), outputFile, new ProgressPercentage());
+        System.err.println(String.format("Samples: %,d", inputFiles.length));
+    }
+}
@@ -110,6 +110,16 @@ public class IntervalChain {
         return interval.a <= b && interval.b >= a;
     }
 
+    /**
+     * add all intervals of another chain to this chain
+     *
+     * @param other
+     */
+    public void addAll(IntervalChain other) {
+        for (Interval interval = other.head; interval != null; interval = interval.getNext())
+            add(interval.getA(), interval.getB());
+    }
+
     /**
      * report the length of the intervals
      *
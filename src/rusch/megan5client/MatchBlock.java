@@ -20,6 +20,7 @@ package rusch.megan5client;
 
 import jloda.util.Basic;
 import megan.classification.Classification;
+import megan.data.ClassificationSlots;
 import megan.data.IMatchBlock;
 
 
@@ -135,6 +136,11 @@ public class MatchBlock implements IMatchBlock {
         return block.getText() != null ? Basic.getFirstWord(block.getText()) : null;
     }
 
+    @Override
+    public String getRefNameFirstWord() {
+        return block.getText() != null ? Basic.swallowLeadingGreaterSign(Basic.getFirstWord(block.getText())) : null;
+    }
+
     @Override
     public void setText(String text) {
         block.setText(text);
@@ -166,6 +172,19 @@ public class MatchBlock implements IMatchBlock {
         block.getClass2id().put(cName, id);
     }
 
+    @Override
+    public int getId(int slot) {
+        final String cName = ClassificationSlots.getName(slot);
+        return cName != null ? getId(cName) : 0;
+    }
+
+    @Override
+    public void setId(int slot, int id) {
+        final String cName = ClassificationSlots.getName(slot);
+        if (cName != null)
+            setId(cName, id);
+    }
+
     @Override
     public int getAlignedQueryStart() {
         return block.getAlignedQueryStart();
@@ -0,0 +1,199 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan5client.Tests;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import megan.data.IMatchBlock;
+import megan.data.IReadBlock;
+import megan.data.IReadBlockIterator;
+import rusch.megan5client.MatchBlockServer;
+import rusch.megan5client.ReadBlockServer;
+import rusch.megan5client.connector.Megan5ServerConnector;
+import rusch.megan5client.connector.RMAControllerMappings;
+import rusch.megan5client.connector.ReadBlockPage;
+import rusch.megan5client.connector.ReadBlockPageCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests the binary read block pages: round-trips pages through {@link ReadBlockPageCodec}, checks that corrupt pages are rejected,
+ * and iterates over all reads served in binary pages by a local stub server
+ * Daniel Huson, 10.2018
+ */
+public class TestReadBlockPages {
+    private static final int NUMBER_OF_PAGES = 5;
+    private static final int READS_PER_PAGE = 100;
+    private static final int MATCHES_PER_READ = 3;
+
+    public static void main(String[] args) throws IOException {
+        final byte[][] pages = new byte[NUMBER_OF_PAGES][];
+        for (int p = 0; p < NUMBER_OF_PAGES; p++) {
+            pages[p] = encode(createPage(p));
+        }
+
+        {
+            long time = System.currentTimeMillis();
+            for (int p = 0; p < NUMBER_OF_PAGES; p++) {
+                final ReadBlockPage page = ReadBlockPageCodec.read(pages[p]);
+                check(Arrays.equals(pages[p], encode(page)), "Round trip changed page " + p);
+                check(page.getReadblocks().length == READS_PER_PAGE, "Wrong number of reads in page " + p);
+            }
+            System.out.println(String.format("Round trip of pages (number of pages %s)(in ms): %s", NUMBER_OF_PAGES, (System.currentTimeMillis() - time)));
+        }
+
+        {
+            check(fails(Arrays.copyOf(pages[0], pages[0].length - 10)), "Truncated page not rejected");
+            final byte[] corrupt = pages[0].clone();
+            ByteBuffer.wrap(corrupt).putInt(getReadCountOffset(createPage(0)), Integer.MAX_VALUE);
+            check(fails(corrupt), "Page with corrupt read count not rejected");
+            System.out.println("Corrupt pages rejected");
+        }
+
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final String path = exchange.getRequestURI().getPath();
+                final String query = exchange.getRequestURI().getQuery();
+                final int p;
+                if (path.endsWith(RMAControllerMappings.GET_ALL_READS_ITERATOR_MAPPING))
+                    p = 0;
+                else if (path.endsWith(RMAControllerMappings.LOAD_READ_PAGE_MAPPING) && query != null && query.startsWith("pageId="))
+                    p = Integer.parseInt(query.substring("pageId=".length()));
+                else
+                    p = -1;
+                if (p < 0 || p >= NUMBER_OF_PAGES) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.getResponseHeaders().set("Content-Type", ReadBlockPageCodec.MEDIA_TYPE.toString());
+                    exchange.sendResponseHeaders(200, pages[p].length);
+                    try (OutputStream outs = exchange.getResponseBody()) {
+                        outs.write(pages[p]);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            final Megan5ServerConnector connector = new Megan5ServerConnector("http://localhost:" + server.getAddress().getPort() + "/", "user", "password");
+            connector.setFile("1");
+
+            long time = System.currentTimeMillis();
+            final IReadBlockIterator it = connector.getAllReadsIterator(0, 10, true, true);
+            int pos = 0;
+            while (it.hasNext()) {
+                final IReadBlock block = it.next();
+                check(block.getUId() == pos, "Wrong read at position " + pos + ": " + block.getUId());
+                check(block.getNumberOfAvailableMatchBlocks() == MATCHES_PER_READ, "Wrong number of matches for read " + pos);
+                final IMatchBlock matchBlock = block.getMatchBlock(0);
+                check(("ref" + pos + "_0").equals(matchBlock.getRefSeqId()), "Wrong reference for read " + pos);
+                pos++;
+            }
+            it.close();
+            check(pos == NUMBER_OF_PAGES * READS_PER_PAGE, "Wrong number of reads: " + pos);
+            System.out.println(String.format("Loading readblocks from stub server (number of readblocks %s)(in ms): %s", pos, (System.currentTimeMillis() - time)));
+            System.out.println(it.getStats());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * creates a page of reads with consecutive uids. Each page refers to the next one by its number
+     */
+    private static ReadBlockPage createPage(int p) {
+        final ReadBlockServer[] readBlocks = new ReadBlockServer[READS_PER_PAGE];
+        for (int r = 0; r < READS_PER_PAGE; r++) {
+            final long uid = (long) p * READS_PER_PAGE + r;
+            final ReadBlockServer readBlock = new ReadBlockServer();
+            readBlock.setReadUid(uid);
+            readBlock.setReadHeader("read" + uid + " sample=1");
+            readBlock.setReadSequence("ACGTACGTAC");
+            readBlock.setReadWeight(1);
+            readBlock.setMateReadUId(-1);
+            readBlock.setReadLength(10);
+            readBlock.setComplexity(0.5f);
+            readBlock.setNumberOfMatches(MATCHES_PER_READ);
+            final MatchBlockServer[] matchBlocks = new MatchBlockServer[MATCHES_PER_READ];
+            for (int m = 0; m < MATCHES_PER_READ; m++) {
+                final MatchBlockServer matchBlock = new MatchBlockServer();
+                matchBlock.setMatchUid(uid * MATCHES_PER_READ + m);
+                matchBlock.setBitScore(100 - m);
+                matchBlock.setPercentIdentity(90);
+                matchBlock.setRefSeqId("ref" + uid + "_" + m);
+                matchBlock.setExpected(1e-10f);
+                matchBlock.setLength(10);
+                matchBlock.setAlignedQueryStart(1);
+                matchBlock.setAlignedQueryEnd(10);
+                matchBlock.setRefLength(100);
+                final Map<String, Integer> class2id = new HashMap<>();
+                class2id.put("Taxonomy", 1000 + m);
+                matchBlock.setClass2id(class2id);
+                matchBlocks[m] = matchBlock;
+            }
+            readBlock.setMatchBlocks(matchBlocks);
+            readBlocks[r] = readBlock;
+        }
+        final String nextPageToken = (p + 1 < NUMBER_OF_PAGES ? String.valueOf(p + 1) : null);
+        return new ReadBlockPage(nextPageToken, nextPageToken != null ? RMAControllerMappings.LOAD_READ_PAGE_MAPPING + "?pageId=" + nextPageToken : null,
+                readBlocks, NUMBER_OF_PAGES * READS_PER_PAGE, (long) p * READS_PER_PAGE);
+    }
+
+    /**
+     * offset of the number of reads in an encoded page: magic number, two longs and two strings
+     */
+    private static int getReadCountOffset(ReadBlockPage page) {
+        int offset = 4 + 8 + 8;
+        for (String string : new String[]{page.getNextPageToken(), page.getNextPageUrl()}) {
+            offset += 4 + (string != null ? string.getBytes(StandardCharsets.UTF_8).length : 0);
+        }
+        return offset;
+    }
+
+    private static byte[] encode(ReadBlockPage page) throws IOException {
+        final ByteArrayOutputStream outs = new ByteArrayOutputStream();
+        ReadBlockPageCodec.write(page, outs);
+        return outs.toByteArray();
+    }
+
+    private static boolean fails(byte[] bytes) {
+        try {
+            ReadBlockPageCodec.read(bytes);
+            return false;
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    private static void check(boolean ok, String message) throws IOException {
+        if (!ok)
+            throw new IOException(message);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan5client.connector;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * counters for the requests made by a connector to a MEGAN server
+ * Daniel Huson, 10.2018
+ */
+public class ConnectionMetrics {
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong binaryPages = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong requestNanos = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * record a completed request
+     *
+     * @param nanos         time taken by the request
+     * @param numberOfBytes size of response, or -1, if unknown
+     */
+    public void addRequest(long nanos, long numberOfBytes) {
+        requests.incrementAndGet();
+        requestNanos.addAndGet(nanos);
+        if (numberOfBytes > 0)
+            bytes.addAndGet(numberOfBytes);
+    }
+
+    /**
+     * record a received page
+     *
+     * @param numberOfReads
+     * @param binary        was the page binary encoded?
+     */
+    public void addPage(int numberOfReads, boolean binary) {
+        pages.incrementAndGet();
+        if (binary)
+            binaryPages.incrementAndGet();
+        reads.addAndGet(numberOfReads);
+    }
+
+    /**
+     * record time that a reader spent waiting for a page
+     *
+     * @param nanos
+     */
+    public void addWait(long nanos) {
+        waitNanos.addAndGet(nanos);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+
+    public long getBinaryPages() {
+        return binaryPages.get();
+    }
+
+    public long getReads() {
+        return reads.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getRequestMilliseconds() {
+        return requestNanos.get() / 1000000;
+    }
+
+    public long getWaitMilliseconds() {
+        return waitNanos.get() / 1000000;
+    }
+
+    public String toString() {
+        return String.format("Requests: %,d, pages: %,d (binary: %,d), reads: %,d, bytes: %,d, request time: %,d ms, waiting: %,d ms",
+                getRequests(), getPages(), getBinaryPages(), getReads(), getBytes(), getRequestMilliseconds(), getWaitMilliseconds());
+    }
+}
@@ -19,6 +19,7 @@
 package rusch.megan5client.connector;
 
 import jloda.util.CanceledException;
+import jloda.util.ProgramProperties;
 import jloda.util.ProgressListener;
 import jloda.util.Single;
 import megan.data.*;
@@ -26,18 +27,24 @@ import org.apache.commons.codec.binary.Base64;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.HttpMessageConverterExtractor;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 import rusch.megan5client.*;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.Serializable;
+import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 
 
 /**
@@ -47,10 +54,16 @@ import java.util.concurrent.ConcurrentMap;
  *         4:08:22 PM - Nov 1, 2014
  */
 public class Megan5ServerConnector implements IConnector {
+    public static final String USE_BINARY_PAGES = "MeganServerUseBinaryPages";
+
     private RestTemplate restTemplate;
     private HttpEntity<String> request;
     private String url;
     private String fileId;
+    private final ConnectionMetrics metrics = new ConnectionMetrics();
+    private RemoteDatasetCache datasetCache;
+    private int datasetCacheGeneration;
+    private long datasetCacheTime;
 
     private static ConcurrentMap<String, Object> url2response = new ConcurrentHashMap<>();
 
@@ -90,19 +103,22 @@ public class Megan5ServerConnector implements IConnector {
     @Override
     public void setFile(String filename) throws IOException {
         this.fileId = filename;
-
+        synchronized (this) {
+            datasetCache = null;
+        }
     }
 
     @Override
     public boolean isReadOnly() throws IOException {
         final String requestURL = url + RMAControllerMappings.IS_READ_ONLY_MAPPING + "?fileId=" + fileId;
-        if (!url2response.containsKey(requestURL))
-            url2response.put(requestURL, restTemplate.exchange(url + RMAControllerMappings.IS_READ_ONLY_MAPPING + "?fileId=" + fileId, HttpMethod.GET, request, Boolean.class).getBody());
-        return (Boolean) url2response.get(requestURL);
+        return (Boolean) getDatasetResponse(requestURL, createFetcher(requestURL, Boolean.class));
     }
 
     @Override
     public long getUId() throws IOException {
+        final RemoteDatasetCache cache = getDatasetCache();
+        if (cache != null)
+            return cache.getUId();
         final String requestURL = url + RMAControllerMappings.GET_UID_MAPPING + "?fileId=" + fileId;
         if (!url2response.containsKey(requestURL))
             url2response.put(requestURL, restTemplate.exchange(requestURL, HttpMethod.GET, request, Long.class).getBody());
@@ -111,22 +127,24 @@ public class Megan5ServerConnector implements IConnector {
 
     @Override
     public IReadBlockIterator getAllReadsIterator(float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
-        ResponseEntity<ReadBlockPage> response = restTemplate.exchange(url + RMAControllerMappings.GET_ALL_READS_ITERATOR_MAPPING + "?fileId=" + fileId + "&minScore=" + minScore + "&maxExpected=" + maxExpected + "&dataSelection=" + httpArray2(DataSelectionSerializer.serializeDataSelection(wantReadSequence, wantMatches)), HttpMethod.GET, request, ReadBlockPage.class);
-        ReadBlockPage blocks = response.getBody();
+        final ReadBlockPage blocks = retrieveReadBlockPageFromURL(url + RMAControllerMappings.GET_ALL_READS_ITERATOR_MAPPING + "?fileId=" + fileId + "&minScore=" + minScore + "&maxExpected=" + maxExpected + "&dataSelection=" + httpArray2(DataSelectionSerializer.serializeDataSelection(wantReadSequence, wantMatches)));
         return new ReadBlockIterator(this, blocks);
     }
 
+    @Override
+    public IReadBlockBatchIterator getAllReadsBatchIterator(int batchSize, int numberOfThreads, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return new ReadBlockBatchIteratorAdapter(getAllReadsIterator(minScore, maxExpected, wantReadSequence, wantMatches), batchSize);
+    }
+
     @Override
     public IReadBlockIterator getReadsIterator(String classification, int classId, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
-        ResponseEntity<ReadBlockPage> response = restTemplate.exchange(url + RMAControllerMappings.GET_READS_ITERATOR_MAPPING + "?fileId=" + fileId + "&minScore=" + minScore + "&maxExpected=" + maxExpected + "&classification=" + classification + "&classId=" + classId + "&dataSelection=" + httpArray2(DataSelectionSerializer.serializeDataSelection(wantReadSequence, wantMatches)), HttpMethod.GET, request, ReadBlockPage.class);
-        ReadBlockPage blocks = response.getBody();
+        final ReadBlockPage blocks = retrieveReadBlockPageFromURL(url + RMAControllerMappings.GET_READS_ITERATOR_MAPPING + "?fileId=" + fileId + "&minScore=" + minScore + "&maxExpected=" + maxExpected + "&classification=" + classification + "&classId=" + classId + "&dataSelection=" + httpArray2(DataSelectionSerializer.serializeDataSelection(wantReadSequence, wantMatches)));
         return new ReadBlockIterator(this, blocks);
     }
 
     @Override
     public IReadBlockIterator getReadsIteratorForListOfClassIds(String classification, Collection<Integer> classIds, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
-        ResponseEntity<ReadBlockPage> response = restTemplate.exchange(url + RMAControllerMappings.GET_READS_ITERATOR_FOR_MULTIPLE_CLASSIDS_MAPPING + "?fileId=" + fileId + "&minScore=" + minScore + "&maxExpected=" + maxExpected + "&classification=" + classification + "&classIds=" + httpArray(classIds) + "&dataSelection=" + httpArray2(DataSelectionSerializer.serializeDataSelection(wantReadSequence, wantMatches)), HttpMethod.GET, request, ReadBlockPage.class);
-        ReadBlockPage blocks = response.getBody();
+        final ReadBlockPage blocks = retrieveReadBlockPageFromURL(url + RMAControllerMappings.GET_READS_ITERATOR_FOR_MULTIPLE_CLASSIDS_MAPPING + "?fileId=" + fileId + "&minScore=" + minScore + "&maxExpected=" + maxExpected + "&classification=" + classification + "&classIds=" + httpArray(classIds) + "&dataSelection=" + httpArray2(DataSelectionSerializer.serializeDataSelection(wantReadSequence, wantMatches)));
         return new ReadBlockIterator(this, blocks);
     }
 
@@ -140,62 +158,49 @@ public class Megan5ServerConnector implements IConnector {
     @Override
     public String[] getAllClassificationNames() throws IOException {
         final String requestURL = url + RMAControllerMappings.GET_ALL_CLASSIFICATION_NAMES_MAPPING + "?fileId=" + fileId;
-        if (!url2response.containsKey(requestURL))
-            url2response.put(requestURL, restTemplate.exchange(requestURL, HttpMethod.GET, request, String[].class).getBody());
-        return (String[]) url2response.get(requestURL);
+        return (String[]) getDatasetResponse(requestURL, createFetcher(requestURL, String[].class));
 
     }
 
     @Override
     public int getClassificationSize(String classificationName) throws IOException {
         final String requestURL = url + RMAControllerMappings.GET_CLASSIFICATION_SIZE_MAPPING + "?fileId=" + fileId + "&classification=" + classificationName;
-        if (!url2response.containsKey(requestURL))
-            url2response.put(requestURL, restTemplate.exchange(requestURL, HttpMethod.GET, request, Integer.class).getBody());
-        return (Integer) url2response.get(requestURL);
+        return (Integer) getDatasetResponse(requestURL, createFetcher(requestURL, Integer.class));
     }
 
     @Override
     public int getClassSize(String classificationName, int classId) throws IOException {
         final String requestURL = url + RMAControllerMappings.GET_CLASS_SIZE_MAPPING + "?fileId=" + fileId + "&classification=" + classificationName + "&classId=" + classId;
-        if (!url2response.containsKey(requestURL))
-            url2response.put(requestURL, restTemplate.exchange(requestURL, HttpMethod.GET, request, Integer.class).getBody());
-        return (Integer) url2response.get(requestURL);
+        return (Integer) getDatasetResponse(requestURL, createFetcher(requestURL, Integer.class));
     }
 
     @Override
     public IClassificationBlock getClassificationBlock(String classificationName) throws IOException {
         final String requestURL = url + RMAControllerMappings.GET_CLASSIFICATIONBLOCK_MAPPING + "?fileId=" + fileId + "&classification=" + classificationName;
-        if (!url2response.containsKey(requestURL))
-            url2response.put(requestURL, restTemplate.exchange(requestURL, HttpMethod.GET, request, ClassificationBlockServer.class).getBody());
-        return new ClassificationBlock((ClassificationBlockServer) url2response.get(requestURL));
+        return new ClassificationBlock((ClassificationBlockServer) getDatasetResponse(requestURL, createFetcher(requestURL, ClassificationBlockServer.class)));
     }
 
     @Override
-    public void updateClassifications(String[] classificationNames, List<UpdateItem> updateItems, ProgressListener progressListener) throws IOException, CanceledException {
-        System.err.println("updateClassifications(String[] classificationNames,List<UpdateItem> updateItems, ProgressListener progressListener): not implemented");
+    public void updateClassifications(String[] classificationNames, UpdateItemList updateItems, ProgressListener progressListener) throws IOException, CanceledException {
+        System.err.println("updateClassifications(String[] classificationNames, UpdateItemList updateItems, ProgressListener progressListener): not implemented");
     }
 
     @Override
     public IReadBlockIterator getFindAllReadsIterator(String regEx, FindSelection findSelection, Single<Boolean> canceled) throws IOException {
-        final ResponseEntity<ReadBlockPage> response = restTemplate.exchange(url + RMAControllerMappings.GET_FIND_ALL_READS_ITERATOR_MAPPING + "?fileId=" + fileId + "&regEx=" + regEx + "&findSelection=" + httpArray2(DataSelectionSerializer.serializeFindSelection(findSelection)), HttpMethod.GET, request, ReadBlockPage.class);
-        ReadBlockPage blocks = response.getBody();
+        final ReadBlockPage blocks = retrieveReadBlockPageFromURL(url + RMAControllerMappings.GET_FIND_ALL_READS_ITERATOR_MAPPING + "?fileId=" + fileId + "&regEx=" + regEx + "&findSelection=" + httpArray2(DataSelectionSerializer.serializeFindSelection(findSelection)));
         return new ReadBlockIterator(this, blocks);
     }
 
     @Override
     public int getNumberOfReads() throws IOException {
         final String requestURL = url + RMAControllerMappings.GET_NUMBER_OF_READS_MAPPING + "?fileId=" + fileId;
-        if (!url2response.containsKey(requestURL))
-            url2response.put(requestURL, restTemplate.exchange(requestURL, HttpMethod.GET, request, Integer.class).getBody());
-        return (Integer) url2response.get(requestURL);
+        return (Integer) getDatasetResponse(requestURL, createFetcher(requestURL, Integer.class));
     }
 
     @Override
     public int getNumberOfMatches() throws IOException {
         final String requestURL = url + RMAControllerMappings.GET_NUMBER_OF_MATCHES_MAPPING + "?fileId=" + fileId;
-        if (!url2response.containsKey(requestURL))
-            url2response.put(requestURL, restTemplate.exchange(requestURL, HttpMethod.GET, request, Integer.class).getBody());
-        return (Integer) url2response.get(requestURL);
+        return (Integer) getDatasetResponse(requestURL, createFetcher(requestURL, Integer.class));
     }
 
     @Override
@@ -214,16 +219,18 @@ public class Megan5ServerConnector implements IConnector {
     @Override
     public Map<String, byte[]> getAuxiliaryData() throws IOException {
         final String requestURL = url + RMAControllerMappings.GET_AUXILIARY_MAPPING + "?fileId=" + fileId;
-        if (!url2response.containsKey(requestURL)) {
-            ResponseEntity<Map> response = restTemplate.exchange(requestURL, HttpMethod.GET, request, Map.class);
-            final Map<String, String> map = response.getBody();
-            final Map<String, byte[]> map2 = new HashMap<>();
-            for (Entry<String, String> entry : map.entrySet()) {
-                map2.put(entry.getKey(), entry.getValue().getBytes());
+        return (Map<String, byte[]>) getDatasetResponse(requestURL, new Supplier<HashMap<String, byte[]>>() {
+            @Override
+            public HashMap<String, byte[]> get() {
+                ResponseEntity<Map> response = restTemplate.exchange(requestURL, HttpMethod.GET, request, Map.class);
+                final Map<String, String> map = response.getBody();
+                final HashMap<String, byte[]> map2 = new HashMap<>();
+                for (Entry<String, String> entry : map.entrySet()) {
+                    map2.put(entry.getKey(), entry.getValue().getBytes());
+                }
+                return map2;
             }
-            url2response.put(requestURL, map2);
-        }
-        return (Map<String, byte[]>) url2response.get(requestURL);
+        });
     }
 
 
@@ -256,7 +263,9 @@ public class Megan5ServerConnector implements IConnector {
     }
 
     public IReadBlock getReadBlock(long readUid, String fileId, float minScore, float maxExpected, boolean wantReadText, boolean wantMatches) {
+        final long start = System.nanoTime();
         ResponseEntity<ReadBlockServer> response = restTemplate.exchange(url + RMAControllerMappings.GET_READ_MAPPING + "?fileId=" + fileId + "&readUid=" + readUid + "&minScore=" + minScore + "&maxExpected=" + maxExpected, HttpMethod.GET, request, ReadBlockServer.class);
+        metrics.addRequest(System.nanoTime() - start, response.getHeaders().getContentLength());
         ReadBlockServer blocks = response.getBody();
         return new ReadBlock(blocks);
     }
@@ -268,8 +277,56 @@ public class Megan5ServerConnector implements IConnector {
      * @return
      */
     public ReadBlockPage retrieveReadBlockPage(String pageId) {
-        ResponseEntity<ReadBlockPage> response = restTemplate.exchange(url + RMAControllerMappings.LOAD_READ_PAGE_MAPPING + "?pageId=" + pageId, HttpMethod.GET, request, ReadBlockPage.class);
-        return response.getBody();
+        return retrieveReadBlockPageFromURL(url + RMAControllerMappings.LOAD_READ_PAGE_MAPPING + "?pageId=" + pageId);
+    }
+
+    /**
+     * Get a {@link ReadBlockPage}. Asks for the binary encoding, see {@link ReadBlockPageCodec}, and falls back to JSON, if the server doesn't support it
+     *
+     * @param requestURL
+     * @return page
+     */
+    private ReadBlockPage retrieveReadBlockPageFromURL(String requestURL) {
+        final boolean useBinary = ProgramProperties.get(USE_BINARY_PAGES, true);
+        final long start = System.nanoTime();
+        final long[] numberOfBytes = {-1};
+        final boolean[] binary = {false};
+
+        final ReadBlockPage page = restTemplate.execute(requestURL, HttpMethod.GET, new RequestCallback() {
+            @Override
+            public void doWithRequest(ClientHttpRequest clientRequest) throws IOException {
+                clientRequest.getHeaders().putAll(request.getHeaders());
+                if (useBinary)
+                    clientRequest.getHeaders().setAccept(Arrays.asList(ReadBlockPageCodec.MEDIA_TYPE, MediaType.APPLICATION_JSON));
+            }
+        }, new ResponseExtractor<ReadBlockPage>() {
+            @Override
+            public ReadBlockPage extractData(ClientHttpResponse response) throws IOException {
+                final MediaType contentType = response.getHeaders().getContentType();
+                if (useBinary && contentType != null && ReadBlockPageCodec.MEDIA_TYPE.includes(contentType)) {
+                    final byte[] bytes = StreamUtils.copyToByteArray(response.getBody());
+                    numberOfBytes[0] = bytes.length;
+                    binary[0] = true;
+                    return ReadBlockPageCodec.read(bytes);
+                } else {
+                    numberOfBytes[0] = response.getHeaders().getContentLength();
+                    return new HttpMessageConverterExtractor<>(ReadBlockPage.class, restTemplate.getMessageConverters()).extractData(response);
+                }
+            }
+        });
+        metrics.addRequest(System.nanoTime() - start, numberOfBytes[0]);
+        if (page != null)
+            metrics.addPage(page.getReadblocks() != null ? page.getReadblocks().length : 0, binary[0]);
+        return page;
+    }
+
+    /**
+     * get the metrics for all requests made by this connector
+     *
+     * @return metrics
+     */
+    public ConnectionMetrics getMetrics() {
+        return metrics;
     }
 
 
@@ -332,6 +389,67 @@ public class Megan5ServerConnector implements IConnector {
 
     public static void clearCache() {
         url2response.clear();
+        RemoteDatasetCache.clear();
+    }
+
+    /**
+     * gets the cache for the current dataset. Asks the server for the UID of the dataset again when the check interval has passed
+     * or the caches have been cleared, cached values are discarded if it has changed
+     *
+     * @return cache or null, if caching is turned off
+     */
+    private synchronized RemoteDatasetCache getDatasetCache() {
+        if (!ProgramProperties.get(RemoteDatasetCache.USE_CACHE, true))
+            return null;
+        final long now = System.currentTimeMillis();
+        if (datasetCache == null || datasetCache.isCleared() || datasetCacheGeneration != RemoteDatasetCache.getGeneration()
+                || now - datasetCacheTime > 1000L * ProgramProperties.get(RemoteDatasetCache.UID_CHECK_SECONDS, 60)) {
+            datasetCacheGeneration = RemoteDatasetCache.getGeneration();
+            final Long uid = restTemplate.exchange(url + RMAControllerMappings.GET_UID_MAPPING + "?fileId=" + fileId, HttpMethod.GET, request, Long.class).getBody();
+            datasetCache = (uid != null ? RemoteDatasetCache.get(url, fileId, uid) : null);
+            datasetCacheTime = now;
+        }
+        return datasetCache;
+    }
+
+    /**
+     * creates a fetcher that requests a response from the server
+     *
+     * @param requestURL
+     * @param responseType
+     * @return fetcher
+     */
+    private <T extends Serializable> Supplier<T> createFetcher(final String requestURL, final Class<T> responseType) {
+        return new Supplier<T>() {
+            @Override
+            public T get() {
+                return restTemplate.exchange(requestURL, HttpMethod.GET, request, responseType).getBody();
+            }
+        };
+    }
+
+    /**
+     * gets a response concerning the current dataset, using the dataset cache, if available
+     *
+     * @param requestURL
+     * @param fetcher    requests the response from the server
+     * @return response
+     */
+    private Object getDatasetResponse(String requestURL, Supplier<? extends Serializable> fetcher) {
+        final RemoteDatasetCache cache = getDatasetCache();
+        if (cache == null) {
+            if (!url2response.containsKey(requestURL))
+                url2response.put(requestURL, fetcher.get());
+            return url2response.get(requestURL);
+        }
+        Object value = cache.get(requestURL);
+        if (value == null) {
+            final Serializable response = fetcher.get();
+            if (response != null)
+                cache.put(requestURL, response);
+            value = response;
+        }
+        return value;
     }
 
 }
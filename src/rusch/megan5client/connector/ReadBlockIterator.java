@@ -18,33 +18,127 @@
  */
 package rusch.megan5client.connector;
 
+import jloda.util.ProgramProperties;
 import megan.data.IReadBlock;
 import megan.data.IReadBlockIterator;
 import rusch.megan5client.ReadBlock;
 
+import java.util.concurrent.*;
+
 
 /**
  * Paginated ReadBlockIterator for Megan5Server
+ * <p>
+ * Pages are prefetched on a background thread, so that the next pages are usually available when the current one is used up.
+ * If the prefetcher stops for some reason, remaining pages are fetched synchronously
  *
  * @author Hans-Joachim Ruscheweyh
  *         3:36:46 PM - Oct 28, 2014
  */
 public class ReadBlockIterator implements IReadBlockIterator {
+    public static final String PREFETCH_PAGES = "MeganServerPrefetchPages";
+    private static final long MAX_PREFETCH_IDLE_MILLISECONDS = 600000; // give up prefetching if pages are not consumed for this long
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "MeganServerPrefetch");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private ReadBlockPage currentPage;
     private final Megan5ServerConnector connector;
     private int posInPage = 0;
     private long totalNumberOfReads;
     private long progress = 0;
 
+    private final BlockingQueue<ReadBlockPage> prefetched;
+    private final Future<?> prefetcher;
+    private volatile boolean closed = false;
+
     public ReadBlockIterator(Megan5ServerConnector connector, ReadBlockPage page) {
         this.connector = connector;
         this.currentPage = page;
         this.totalNumberOfReads = page.getTotalNumberOfReads();
+
+        final int prefetchPages = ProgramProperties.get(PREFETCH_PAGES, 2);
+        if (prefetchPages > 0 && page.getNextPageToken() != null) {
+            prefetched = new ArrayBlockingQueue<>(prefetchPages);
+            final String nextPageToken = page.getNextPageToken();
+            prefetcher = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    prefetch(nextPageToken);
+                }
+            });
+        } else {
+            prefetched = null;
+            prefetcher = null;
+        }
+    }
+
+    /**
+     * fetch pages in order and place them in the queue, until there are no more pages or the iterator is closed
+     *
+     * @param pageToken
+     */
+    private void prefetch(String pageToken) {
+        try {
+            while (pageToken != null && !closed) {
+                final ReadBlockPage page = connector.retrieveReadBlockPage(pageToken);
+                if (page == null)
+                    break;
+                long idle = 0;
+                while (!prefetched.offer(page, 100, TimeUnit.MILLISECONDS)) {
+                    if (closed || (idle += 100) > MAX_PREFETCH_IDLE_MILLISECONDS)
+                        return;
+                }
+                pageToken = page.getNextPageToken();
+            }
+        } catch (InterruptedException ignored) {
+        } catch (Exception ex) {
+            if (!closed)
+                System.err.println("Prefetching from MEGAN server failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * get the next page, waiting for the prefetcher, if necessary
+     *
+     * @return next page
+     */
+    private ReadBlockPage nextPage() {
+        if (prefetched != null) {
+            final long start = System.nanoTime();
+            try {
+                while (true) {
+                    final boolean prefetcherDone = prefetcher.isDone(); // check before polling, so that a page queued just before finishing is not missed
+                    final ReadBlockPage page = (prefetcherDone ? prefetched.poll() : prefetched.poll(100, TimeUnit.MILLISECONDS));
+                    if (page != null)
+                        return page;
+                    if (prefetcherDone)
+                        break; // prefetcher has stopped, fetch synchronously without waiting
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                return new ReadBlockPage(); // empty page without next page
+            } finally {
+                connector.getMetrics().addWait(System.nanoTime() - start);
+            }
+        }
+        return connector.retrieveReadBlockPage(currentPage.getNextPageToken());
     }
 
     @Override
     public void close() {
-
+        closed = true;
+        if (prefetcher != null) {
+            prefetcher.cancel(true);
+            prefetched.clear();
+        }
     }
 
     @Override
@@ -59,18 +153,17 @@ public class ReadBlockIterator implements IReadBlockIterator {
 
     @Override
     public boolean hasNext() {
-        if (posInPage == currentPage.getReadblocks().length) {
+        while (posInPage == currentPage.getReadblocks().length) {
             //time to load new page
-            if (currentPage.getNextPageToken() == null) {
+            if (currentPage.getNextPageToken() == null || closed) {
                 //well there is no next page
                 return false;
             } else {
-                currentPage = connector.retrieveReadBlockPage(currentPage.getNextPageToken());
+                currentPage = nextPage();
                 posInPage = 0;
-                return hasNext();
             }
         }
-        return posInPage < currentPage.getReadblocks().length;
+        return true;
     }
 
     @Override
@@ -90,7 +183,7 @@ public class ReadBlockIterator implements IReadBlockIterator {
 
     @Override
     public String getStats() {
-        return "Reads: " + progress;
+        return "Reads: " + progress + ", " + connector.getMetrics();
     }
 
 }
@@ -0,0 +1,203 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan5client.connector;
+
+import org.springframework.http.MediaType;
+import rusch.megan5client.MatchBlockServer;
+import rusch.megan5client.ReadBlockServer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * compact binary encoding of a {@link ReadBlockPage}, used instead of JSON when both client and server support it.
+ * The client lists the media type first in its Accept header, a server that does not know it answers using JSON
+ * Daniel Huson, 10.2018
+ */
+public class ReadBlockPageCodec {
+    public static final MediaType MEDIA_TYPE = MediaType.valueOf("application/x-megan-readblockpage");
+
+    private static final int MAGIC = 0x52425031; // RBP1
+
+    private static final int MIN_READ_BLOCK_BYTES = 45; // encoded size of a read block without strings and matches
+    private static final int MIN_MATCH_BLOCK_BYTES = 49; // encoded size of a match block without strings and classifications
+    private static final int MIN_CLASSIFICATION_BYTES = 8; // encoded size of a classification entry without name
+
+    /**
+     * write a page
+     *
+     * @param page
+     * @param outputStream
+     * @throws IOException
+     */
+    public static void write(ReadBlockPage page, OutputStream outputStream) throws IOException {
+        final DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(outputStream));
+        outs.writeInt(MAGIC);
+        outs.writeLong(page.getTotalNumberOfReads());
+        outs.writeLong(page.getPreviouslySeenReads());
+        writeString(outs, page.getNextPageToken());
+        writeString(outs, page.getNextPageUrl());
+
+        final ReadBlockServer[] readBlocks = (page.getReadblocks() != null ? page.getReadblocks() : new ReadBlockServer[0]);
+        outs.writeInt(readBlocks.length);
+        for (ReadBlockServer readBlock : readBlocks) {
+            outs.writeLong(readBlock.getReadUid());
+            writeString(outs, readBlock.getReadHeader());
+            writeString(outs, readBlock.getReadSequence());
+            outs.writeInt(readBlock.getReadWeight());
+            outs.writeLong(readBlock.getMateReadUId());
+            outs.writeByte(readBlock.getMateType());
+            outs.writeInt(readBlock.getReadLength());
+            outs.writeFloat(readBlock.getComplexity());
+            outs.writeInt(readBlock.getNumberOfMatches());
+
+            final MatchBlockServer[] matchBlocks = (readBlock.getMatchBlocks() != null ? readBlock.getMatchBlocks() : new MatchBlockServer[0]);
+            outs.writeInt(matchBlocks.length);
+            for (MatchBlockServer matchBlock : matchBlocks) {
+                outs.writeLong(matchBlock.getMatchUid());
+                outs.writeFloat(matchBlock.getBitScore());
+                outs.writeFloat(matchBlock.getPercentIdentity());
+                writeString(outs, matchBlock.getRefSeqId());
+                outs.writeFloat(matchBlock.getExpected());
+                outs.writeInt(matchBlock.getLength());
+                outs.writeBoolean(matchBlock.isIgnore());
+                writeString(outs, matchBlock.getText());
+                outs.writeInt(matchBlock.getAlignedQueryStart());
+                outs.writeInt(matchBlock.getAlignedQueryEnd());
+                outs.writeInt(matchBlock.getRefLength());
+
+                final Map<String, Integer> class2id = matchBlock.getClass2id();
+                outs.writeInt(class2id != null ? class2id.size() : -1);
+                if (class2id != null) {
+                    for (Map.Entry<String, Integer> entry : class2id.entrySet()) {
+                        writeString(outs, entry.getKey());
+                        outs.writeInt(entry.getValue() != null ? entry.getValue() : 0);
+                    }
+                }
+            }
+        }
+        outs.flush();
+    }
+
+    /**
+     * read a page
+     *
+     * @param bytes
+     * @return page
+     * @throws IOException
+     */
+    public static ReadBlockPage read(byte[] bytes) throws IOException {
+        final DataInputStream ins = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (ins.readInt() != MAGIC)
+            throw new IOException("Not a binary read block page");
+        final ReadBlockPage page = new ReadBlockPage();
+        page.setTotalNumberOfReads(ins.readLong());
+        page.setPreviouslySeenReads(ins.readLong());
+        page.setNextPageToken(readString(ins));
+        page.setNextPageUrl(readString(ins));
+
+        final ReadBlockServer[] readBlocks = new ReadBlockServer[readCount(ins, MIN_READ_BLOCK_BYTES)];
+        for (int r = 0; r < readBlocks.length; r++) {
+            final ReadBlockServer readBlock = new ReadBlockServer();
+            readBlock.setReadUid(ins.readLong());
+            readBlock.setReadHeader(readString(ins));
+            readBlock.setReadSequence(readString(ins));
+            readBlock.setReadWeight(ins.readInt());
+            readBlock.setMateReadUId(ins.readLong());
+            readBlock.setMateType(ins.readByte());
+            readBlock.setReadLength(ins.readInt());
+            readBlock.setComplexity(ins.readFloat());
+            readBlock.setNumberOfMatches(ins.readInt());
+
+            final MatchBlockServer[] matchBlocks = new MatchBlockServer[readCount(ins, MIN_MATCH_BLOCK_BYTES)];
+            for (int m = 0; m < matchBlocks.length; m++) {
+                final MatchBlockServer matchBlock = new MatchBlockServer();
+                matchBlock.setMatchUid(ins.readLong());
+                matchBlock.setBitScore(ins.readFloat());
+                matchBlock.setPercentIdentity(ins.readFloat());
+                matchBlock.setRefSeqId(readString(ins));
+                matchBlock.setExpected(ins.readFloat());
+                matchBlock.setLength(ins.readInt());
+                matchBlock.setIgnore(ins.readBoolean());
+                final String text = readString(ins);
+                if (text != null)
+                    matchBlock.setText(text);
+                // set after the text, because setText() parses these values from the text:
+                matchBlock.setAlignedQueryStart(ins.readInt());
+                matchBlock.setAlignedQueryEnd(ins.readInt());
+                matchBlock.setRefLength(ins.readInt());
+
+                final int numberOfClassifications = ins.readInt();
+                if (numberOfClassifications > ins.available() / MIN_CLASSIFICATION_BYTES)
+                    throw new EOFException("Number of classifications exceeds page: " + numberOfClassifications);
+                if (numberOfClassifications >= 0) {
+                    final Map<String, Integer> class2id = new HashMap<>();
+                    for (int c = 0; c < numberOfClassifications; c++) {
+                        final String cName = readString(ins);
+                        class2id.put(cName, ins.readInt());
+                    }
+                    matchBlock.setClass2id(class2id);
+                }
+                matchBlocks[m] = matchBlock;
+            }
+            readBlock.setMatchBlocks(matchBlocks);
+            readBlocks[r] = readBlock;
+        }
+        page.setReadblocks(readBlocks);
+        return page;
+    }
+
+    private static void writeString(DataOutputStream outs, String string) throws IOException {
+        if (string == null)
+            outs.writeInt(-1);
+        else {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            outs.writeInt(bytes.length);
+            outs.write(bytes);
+        }
+    }
+
+    /**
+     * read the number of items that follow, checking that they fit into the rest of the page
+     *
+     * @param ins
+     * @param minBytesPerItem minimal number of bytes used to encode one item
+     * @return count
+     * @throws IOException
+     */
+    private static int readCount(DataInputStream ins, int minBytesPerItem) throws IOException {
+        final int count = ins.readInt();
+        if (count < 0 || count > ins.available() / minBytesPerItem)
+            throw new EOFException("Number of items exceeds page: " + count);
+        return count;
+    }
+
+    private static String readString(DataInputStream ins) throws IOException {
+        final int length = ins.readInt();
+        if (length < 0)
+            return null;
+        if (length > ins.available())
+            throw new EOFException("String length exceeds page: " + length);
+        final byte[] bytes = new byte[length];
+        ins.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
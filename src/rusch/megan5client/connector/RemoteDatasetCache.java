@@ -0,0 +1,398 @@
+/*
+ *  Copyright (C) 2018 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan5client.connector;
+
+import jloda.util.Basic;
+import jloda.util.ProgramProperties;
+import rusch.megan5client.ClassificationBlockServer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cache for responses concerning a remote dataset, such as classification blocks, class sizes and aux data.
+ * A dataset is identified by the server URL and file id, and cached values are only used while the server reports the same UID.
+ * Values are kept in a size-bounded in-memory LRU cache and are saved to a size-bounded cache directory, so that they
+ * are also available in later sessions.
+ * Once the caches are cleared, existing instances no longer store or save values, and connectors obtain new instances
+ * Daniel Huson, 10.2018
+ */
+public class RemoteDatasetCache {
+    public static final String USE_CACHE = "MeganServerUseCache";
+    public static final String CACHE_DIRECTORY = "MeganServerCacheDirectory";
+    public static final String MEMORY_LIMIT_MB = "MeganServerCacheMemoryMB";
+    public static final String DISK_LIMIT_MB = "MeganServerCacheDiskMB";
+    public static final String UID_CHECK_SECONDS = "MeganServerCacheUIDCheckSeconds";
+
+    private static final String SUFFIX = ".mcache";
+    private static final int SAVE_DELAY_SECONDS = 2;
+
+    private static final LinkedHashMap<String, RemoteDatasetCache> key2cache = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private static long memoryBytes = 0;
+    private static int generation = 0; // incremented when all caches are cleared
+
+    private static final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "MeganServerCacheSaver");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final FilenameFilter cacheFileFilter = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.endsWith(SUFFIX);
+        }
+    };
+
+    private final String key;
+    private final long uid;
+    private final HashMap<String, Object> item2value;
+    private long bytes;
+    private boolean saveScheduled;
+    private boolean cleared; // set when this cache has been cleared or replaced, values are then no longer stored or saved
+
+    /**
+     * constructor
+     *
+     * @param key
+     * @param uid
+     * @param item2value
+     */
+    private RemoteDatasetCache(String key, long uid, HashMap<String, Object> item2value) {
+        this.key = key;
+        this.uid = uid;
+        this.item2value = item2value;
+        for (Object value : item2value.values())
+            bytes += estimateSize(value);
+    }
+
+    /**
+     * gets the cache for a dataset. If the cached UID differs from the given one, the old values are discarded
+     *
+     * @param serverURL
+     * @param fileId
+     * @param uid       UID currently reported by the server
+     * @return cache
+     */
+    public static RemoteDatasetCache get(String serverURL, String fileId, long uid) {
+        final String key = serverURL + "|" + fileId;
+        synchronized (key2cache) {
+            RemoteDatasetCache cache = key2cache.get(key);
+            if (cache != null && cache.uid == uid)
+                return cache;
+            if (cache != null)
+                remove(key);
+
+            cache = load(key, uid);
+            if (cache == null) {
+                cache = new RemoteDatasetCache(key, uid, new HashMap<>());
+                final File file = getFile(key);
+                if (file != null && file.exists() && !file.delete()) // stale
+                    System.err.println("Failed to delete: " + file);
+            }
+            key2cache.put(key, cache);
+            memoryBytes += cache.bytes;
+            evictFromMemory();
+            return cache;
+        }
+    }
+
+    /**
+     * get the generation of the caches. It changes when all caches are cleared, and then caches obtained earlier must not be used
+     *
+     * @return generation
+     */
+    public static int getGeneration() {
+        synchronized (key2cache) {
+            return generation;
+        }
+    }
+
+    /**
+     * get the UID of the dataset, as reported by the server when this cache was obtained
+     *
+     * @return UID
+     */
+    public long getUId() {
+        return uid;
+    }
+
+    /**
+     * has this cache been cleared or replaced because the UID of the dataset changed?
+     *
+     * @return true, if cleared
+     */
+    public boolean isCleared() {
+        synchronized (key2cache) {
+            return cleared;
+        }
+    }
+
+    /**
+     * get a cached value
+     *
+     * @param item
+     * @return value or null
+     */
+    public Object get(String item) {
+        synchronized (key2cache) {
+            return item2value.get(item);
+        }
+    }
+
+    /**
+     * put a value. The value must be serializable
+     *
+     * @param item
+     * @param value
+     */
+    public void put(String item, Serializable value) {
+        synchronized (key2cache) {
+            if (cleared)
+                return;
+            final Object old = item2value.put(item, value);
+            final long delta = estimateSize(value) - (old != null ? estimateSize(old) : 0);
+            bytes += delta;
+            if (key2cache.get(key) == this) {
+                memoryBytes += delta;
+                evictFromMemory();
+            }
+            if (!saveScheduled && getDirectory() != null) {
+                saveScheduled = true;
+                saver.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        save();
+                    }
+                }, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * remove all cached values from memory and disk
+     */
+    public static void clear() {
+        synchronized (key2cache) {
+            for (RemoteDatasetCache cache : key2cache.values())
+                cache.cleared = true;
+            key2cache.clear();
+            memoryBytes = 0;
+            generation++;
+            final File directory = getDirectory();
+            if (directory != null) {
+                final File[] files = directory.listFiles(cacheFileFilter);
+                if (files != null) {
+                    for (File file : files) {
+                        if (!file.delete())
+                            System.err.println("Failed to delete: " + file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * save this cache to disk and then ensure that the cache directory doesn't exceed its size limit
+     */
+    private void save() {
+        final File file;
+        final HashMap<String, Object> copy;
+        synchronized (key2cache) {
+            saveScheduled = false;
+            file = getFile(key);
+            if (file == null || cleared)
+                return;
+            copy = new HashMap<>(item2value);
+        }
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            try (ObjectOutputStream outs = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                outs.writeUTF(key);
+                outs.writeLong(uid);
+                outs.writeObject(copy);
+            }
+            synchronized (key2cache) {
+                if (cleared) { // cleared while writing
+                    if (!tmpFile.delete())
+                        throw new IOException("Failed to delete " + tmpFile);
+                    return;
+                }
+                if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file))
+                    throw new IOException("Failed to rename " + tmpFile + " to " + file);
+            }
+            evictFromDisk(file.getParentFile());
+        } catch (Exception ex) {
+            System.err.println("Failed to save MEGAN server cache: " + ex.getMessage());
+            if (tmpFile.exists() && !tmpFile.delete())
+                tmpFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * load a cache from disk
+     *
+     * @param key
+     * @param uid
+     * @return cache or null, if not present or UID differs
+     */
+    @SuppressWarnings("unchecked")
+    private static RemoteDatasetCache load(String key, long uid) {
+        final File file = getFile(key);
+        if (file == null || !file.exists())
+            return null;
+        try (ObjectInputStream ins = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (!ins.readUTF().equals(key) || ins.readLong() != uid)
+                return null;
+            final RemoteDatasetCache cache = new RemoteDatasetCache(key, uid, (HashMap<String, Object>) ins.readObject());
+            if (!file.setLastModified(System.currentTimeMillis())) // used to determine which files to evict
+                System.err.println("Failed to touch: " + file);
+            return cache;
+        } catch (Exception ex) {
+            System.err.println("Failed to load MEGAN server cache: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * remove a dataset whose values are stale from the memory cache
+     *
+     * @param key
+     */
+    private static void remove(String key) {
+        final RemoteDatasetCache cache = key2cache.remove(key);
+        if (cache != null) {
+            cache.cleared = true;
+            memoryBytes -= cache.bytes;
+        }
+    }
+
+    /**
+     * remove least-recently used datasets from memory until within limit. The most recently used dataset is always kept
+     */
+    private static void evictFromMemory() {
+        final long limit = 1024L * 1024L * ProgramProperties.get(MEMORY_LIMIT_MB, 64);
+        final Iterator<Map.Entry<String, RemoteDatasetCache>> it = key2cache.entrySet().iterator();
+        while (memoryBytes > limit && key2cache.size() > 1 && it.hasNext()) {
+            memoryBytes -= it.next().getValue().bytes;
+            it.remove();
+        }
+    }
+
+    /**
+     * delete least-recently modified cache files until within limit
+     *
+     * @param directory
+     */
+    private static void evictFromDisk(File directory) {
+        final File[] files = directory.listFiles(cacheFileFilter);
+        if (files == null)
+            return;
+        final long limit = 1024L * 1024L * ProgramProperties.get(DISK_LIMIT_MB, 256);
+        long total = 0;
+        for (File file : files)
+            total += file.length();
+        if (total > limit) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    return Long.compare(a.lastModified(), b.lastModified());
+                }
+            });
+            for (int i = 0; total > limit && i < files.length - 1; i++) {
+                final long length = files[i].length();
+                if (files[i].delete())
+                    total -= length;
+            }
+        }
+    }
+
+    /**
+     * get the cache directory, creating it, if necessary
+     *
+     * @return directory or null, if not available
+     */
+    private static File getDirectory() {
+        final File directory = new File(ProgramProperties.get(CACHE_DIRECTORY, System.getProperty("user.home") + File.separator + ".MeganServerCache"));
+        if (directory.isDirectory() || directory.mkdirs())
+            return directory;
+        else
+            return null;
+    }
+
+    /**
+     * get the file used to save the cache for the given key
+     *
+     * @param key
+     * @return file or null, if no cache directory available
+     */
+    private static File getFile(String key) {
+        final File directory = getDirectory();
+        if (directory == null)
+            return null;
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder buf = new StringBuilder();
+            for (byte b : digest)
+                buf.append(String.format("%02x", b & 0xff));
+            return new File(directory, buf.toString() + SUFFIX);
+        } catch (Exception ex) {
+            Basic.caught(ex);
+            return null;
+        }
+    }
+
+    /**
+     * estimate the memory used by a cached value
+     *
+     * @param value
+     * @return bytes
+     */
+    private static long estimateSize(Object value) {
+        if (value == null)
+            return 0;
+        else if (value instanceof String)
+            return 40 + 2 * ((String) value).length();
+        else if (value instanceof byte[])
+            return 16 + ((byte[]) value).length;
+        else if (value instanceof Object[]) {
+            long size = 16;
+            for (Object item : (Object[]) value)
+                size += 8 + estimateSize(item);
+            return size;
+        } else if (value instanceof Map) {
+            long size = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+                size += 32 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            return size;
+        } else if (value instanceof ClassificationBlockServer)
+            return 64 + estimateSize(((ClassificationBlockServer) value).getTaxId2Count());
+        else
+            return 16;
+    }
+}